@@ -226,7 +226,7 @@ $props .= " -param fs=" . escape($field_separator_in_hex);
 my $mkdir_cmd = "$DFS_MKDIR $tmp $redirects 1>&2";
 
 my $mr_cmd = "$HADOOP_JAR $LOGDRIVER_HOME/$LOGDRIVER_HDEPLOY "
-        . "com.rim.logdriver.util.GrepByTime"
+        . "com.rim.logdriver.util.FastGrepByTime"
         . " " . $mr_opts
         . " " . escape($regex)
         . " " . escape($dc)
@@ -80,6 +80,11 @@ my $redirects = " 2>$local_output";
 my $forceremote = 0;
 my $forcelocal = 0;
 my $queue_name = "logsearch";
+my $limit = 0;
+my $count_bucket = 0;
+my $count_by_event_id = 0;
+my $stream = 0;
+my $sample = 0;
 
 my @args = ();
 while (@ARGV > 0) {
@@ -100,6 +105,34 @@ while (@ARGV > 0) {
     elsif ($arg eq '-i') {
       push @D_options, "-Dlogdriver.search.case.insensitive=true";
     }
+    elsif ($arg eq '-n') {
+      $limit = shift @ARGV;
+      if (!defined $limit || $limit !~ /^\d+$/) {
+        print STDERR "-n needs a number of results.\n";
+        exit 1;
+      }
+    }
+    elsif ($arg eq '-cache') {
+      push @D_options, "-Dlogdriver.search.cache.enabled=true";
+    }
+    elsif ($arg eq '-stream') {
+      $stream = 1;
+    }
+    elsif ($arg =~ '^-sample=(.*)') {
+      $sample = $1;
+      if ($sample !~ /^(?:\d+\.?\d*|\.\d+)%?$/) {
+        print STDERR "Could not parse sample fraction $1.\n";
+        exit 1;
+      }
+      if ($sample =~ s/%$//) {
+        $sample /= 100;
+      }
+      if ($sample <= 0 || $sample > 1) {
+        print STDERR "The sample fraction must be greater than 0 and at most 1.\n";
+        exit 1;
+      }
+      push @D_options, "-Dlogdriver.sample.fraction=$sample";
+    }
     elsif ($arg eq '-r') {
       if ($forcelocal) {
         print STDERR "Can't force both remote and local sorting.";
@@ -114,6 +147,16 @@ while (@ARGV > 0) {
       }
       $forcelocal = 1;
     }
+    elsif ($arg =~ '^-count=(.*)') {
+      $count_bucket = parse_duration($1);
+      if (!$count_bucket) {
+        print STDERR "Could not parse bucket size $1.\n";
+        exit 1;
+      }
+    }
+    elsif ($arg eq '-countByEventId') {
+      $count_by_event_id = 1;
+    }
     elsif ($arg =~ '^-dateFormat=(.*)') {
       $date_format = $1;
     }
@@ -143,8 +186,27 @@ Note:
 Options:
   -v                  Verbose output.
   -i                  Make search case insensitive.
-  -r                  Force remote sort.
-  -l                  Force local sort.
+  -n N                Stop searching once about N results have been found.
+                      When writing to stdout, only the first N are printed.
+  -cache              Keep each hour's results in the search cache, and
+                      use the ones cached by earlier searches instead of
+                      searching those hours again.
+  -stream             Print results as each part of the search finishes,
+                      instead of once it's all done.  Each part's results
+                      are in order, but the parts may not be.  If OUTPUT_DIR
+                      isn't '-', all the results are also written there,
+                      sorted.
+  -r                  Sort with a separate Pig job on the cluster, instead of
+                      in the search job.
+  -l                  Sort with a separate local Pig job, instead of in the
+                      search job.
+  -count=BUCKET       Instead of the matching lines, output the number of
+                      matches in each time bucket (e.g. 30s, 5m, 1h, 1d, or
+                      a number of ms), with the start of each bucket in ms.
+  -countByEventId     With -count, count each eventId separately.
+  -sample=FRACTION    Only search a sample of the logs (e.g. 0.01 or 1%), and
+                      estimate the total number of matches from it.  With
+                      -count, the counts are scaled up to estimates.
   -dateFormat=FORMAT  Valid formats are RFC822, RFC3164 (zero padded day),
                       RFC5424 (default), or any valid format string for FastDateFormat.
   -fieldSeparator=X   The separator to use to separate fields in intermediate
@@ -203,6 +265,9 @@ $mr_opts .= " -Dmapred.output.compression.codec="
 $mr_opts .= " -Dmapred.max.split.size=" . (256*1024*1024);
 $mr_opts .= " -Dlogdriver.output.field.separator=" . escape($field_separator);
 $mr_opts .= " -Dmapred.job.queue.name=" . escape($queue_name);
+if ($limit > 0) {
+  $mr_opts .= " -Dlogdriver.search.limit=" . escape($limit);
+}
 
 ## Get the list of additional jars we'll need for pig
 my $additional_jars = "$LOGDRIVER_HOME/$LOGDRIVER_JAR";
@@ -225,6 +290,31 @@ $props .= " -param fs=" . escape($field_separator_in_hex);
 
 my $mkdir_cmd = "$DFS_MKDIR $tmp $redirects 1>&2";
 
+## Unless a Pig sort was asked for, the search job sorts and formats the
+## results itself.
+my $native_sort = !($forceremote || $forcelocal || $stream);
+my $rawlines = "$tmp/rawlines";
+my $mr_out = $rawlines;
+if ($stream) {
+  ## The search job prints the results as it goes, and merges them into the
+  ## output directory at the end.
+  $mr_opts .= " -Dmapred.output.compress=false";
+  $mr_opts .= " -Dlogdriver.search.stream=true";
+  $mr_opts .= " -Dlogdriver.search.stream.sorted=true";
+  $mr_opts .= " -Dlogdriver.search.stream.date.format=" . escape($date_format);
+  if ($out ne '-') {
+    $mr_opts .= " -Dlogdriver.search.stream.merge.output=" . escape($out);
+  }
+  $mr_out = "$tmp/stream";
+}
+elsif ($native_sort) {
+  ## This is the final output, so it's not compressed.
+  $mr_opts .= " -Dmapred.output.compress=false";
+  $mr_opts .= " -Dlogdriver.search.sort=true";
+  $mr_opts .= " -Dlogdriver.search.sort.date.format=" . escape($date_format);
+  $mr_out = ($out eq '-') ? "$tmp/final" : $out;
+}
+
 my $mr_cmd = "$HADOOP_JAR $LOGDRIVER_HOME/$LOGDRIVER_HDEPLOY "
         . "com.rim.logdriver.util.FastSearchByTime"
         . " " . $mr_opts
@@ -234,11 +324,54 @@ my $mr_cmd = "$HADOOP_JAR $LOGDRIVER_HOME/$LOGDRIVER_HDEPLOY "
         . " " . escape($component)
         . " " . escape($start)
         . " " . escape($end)
-        . " " . escape("$tmp/rawlines")
+        . " " . escape($mr_out)
         . " " . $redirects;
 
 my $rm_tmp_cmd = "$DFS_RMR $tmp $redirects 1>&2";
 
+## Counting doesn't need the lines sorted and formatted, so just run the
+## histogram job and we're done.
+if ($count_bucket) {
+  my $count_out = ($out eq '-') ? "$tmp/histogram" : $out;
+  my $count_cmd = "$HADOOP_JAR $LOGDRIVER_HOME/$LOGDRIVER_HDEPLOY "
+        . "com.rim.logdriver.util.SearchHistogramByTime"
+        . " " . $mr_opts
+        . " -Dmapred.output.compress=false"
+        . " -Dlogdriver.search.histogram.bucket=" . escape($count_bucket)
+        . " -Dlogdriver.search.histogram.by.event.id="
+        . ($count_by_event_id ? "true" : "false")
+        . " " . escape($search_string)
+        . " " . escape($dc)
+        . " " . escape($service)
+        . " " . escape($component)
+        . " " . escape($start)
+        . " " . escape($end)
+        . " " . escape($count_out)
+        . " " . $redirects;
+
+  $quiet or print STDERR "Running: $mkdir_cmd\n";
+  (0 == system $mkdir_cmd)
+    || die $!;
+
+  print STDERR "Counting \"$search_string\"...\n";
+  $quiet or print STDERR "Running: $count_cmd\n";
+  (0 == system $count_cmd)
+    || die "\n    Error running mapreduce job." . $error_output . "\nCommand stopped";
+  $sample and print_estimate();
+
+  if ($out eq '-') {
+    system "$DFS_CAT $tmp/histogram/part-*";
+  } else {
+    print STDERR "Done. Counts are in $out.\n";
+  }
+
+  $quiet or print STDERR "Running: $rm_tmp_cmd\n";
+  (0 == system $rm_tmp_cmd)
+    || die $!;
+  system("rm -rf $local_output 2>/dev/null");
+  exit 0;
+}
+
 $quiet or print STDERR "Running: $mkdir_cmd\n";
 (0 == system $mkdir_cmd)
   || die $!;
@@ -248,6 +381,20 @@ $quiet or print STDERR "Running: $mr_cmd\n";
 (0 == system $mr_cmd)
   || die "\n    Error running mapreduce job." . $error_output . "\nCommand stopped";
 
+## Streamed results have already been printed, and there's nothing to sort.
+if ($stream) {
+  $sample and print_estimate();
+  if ($out ne '-') {
+    print STDERR "Done. Search results are in $out.\n";
+  }
+
+  $quiet or print STDERR "Running: $rm_tmp_cmd\n";
+  (0 == system $rm_tmp_cmd)
+    || die $!;
+  system("rm -rf $local_output 2>/dev/null");
+  exit 0;
+}
+
 ## Before sorting, determine the number of records and size of the results found
 my $foundresults = 0;
 open my $redirectoutput, $local_output || die $!;
@@ -255,18 +402,21 @@ while(my $line = <$redirectoutput>) {
   if ($line =~ /Map output records/) {
     my @records = split('=',$line);
     $foundresults = $records[1];
+  } elsif ($line =~ /(?:Local search|Search cache) found (\d+) matches/) {
+    $foundresults = $1;
   }
 }
 close($redirectoutput);
+$sample and print_estimate();
 
-my $rawlines = "$tmp/rawlines";
-my @resultsize = split(' ',`$DFS_DUS $rawlines`);
 my $size = 0;
-
-if ($HADOOP_VERSION eq "2") {
-  $size = $resultsize[0];
-} else {
-  $size = $resultsize[1];
+if (!$native_sort) {
+  my @resultsize = split(' ',`$DFS_DUS $rawlines`);
+  if ($HADOOP_VERSION eq "2") {
+    $size = $resultsize[0];
+  } else {
+    $size = $resultsize[1];
+  }
 }
 
 ## Set maximum size of results to sort locally, in MB
@@ -287,6 +437,17 @@ if ($foundresults == 0) {
   (0 == system $rm_tmp_cmd)
     || die $!;
 }
+elsif ($native_sort) {
+  if ($out eq '-') {
+    system "$DFS_CAT $tmp/final/part-*" . head_limit($limit)
+  } else {
+    print STDERR "Done. Search results are in $out.\n";
+  }
+
+  $quiet or print STDERR "Running: $rm_tmp_cmd\n";
+  (0 == system $rm_tmp_cmd)
+    || die $!;
+}
 elsif ($forceremote || $size > $maxlocalsize * 1024 * 1024) {
 
   if ($forceremote) {
@@ -314,7 +475,7 @@ elsif ($forceremote || $size > $maxlocalsize * 1024 * 1024) {
     || die $!;
 
   if ($out eq '-') {
-    system "$DFS_CAT $tmp/final/part-*"
+    system "$DFS_CAT $tmp/final/part-*" . head_limit($limit)
   } else {
     print STDERR "Done. Search results are in $out.\n";
   }
@@ -365,7 +526,7 @@ elsif ($forceremote || $size > $maxlocalsize * 1024 * 1024) {
     || die $!;
 
   if ($out eq '-') {
-    system "cat $local_tmp/$tmp/final/part-*"
+    system "cat $local_tmp/$tmp/final/part-*" . head_limit($limit)
   } else {
     ## Copy the result to HDFS
     (0 == system("$DFS_PUT $local_tmp/$out $out 1>/dev/null"))
@@ -383,6 +544,34 @@ elsif ($forceremote || $size > $maxlocalsize * 1024 * 1024) {
 
 ## END
 
+## Turns something like 30s, 5m, 1h or 1d into ms.  A plain number is
+## already ms.
+sub parse_duration {
+  my $duration = shift;
+  my %units = ('ms' => 1, 's' => 1000, 'm' => 60*1000, 'h' => 60*60*1000,
+               'd' => 24*60*60*1000);
+  if ($duration =~ /^(\d+)(ms|s|m|h|d)?$/) {
+    return $1 * $units{defined $2 ? $2 : 'ms'};
+  }
+  return 0;
+}
+
+## Prints the estimate that a sampled job logged.
+sub print_estimate {
+  open my $log, $local_output || die $!;
+  while (my $line = <$log>) {
+    if ($line =~ /Sampled (?:search|count) found (.*)$/) {
+      print STDERR "Estimated $1\n";
+    }
+  }
+  close($log);
+}
+
+sub head_limit {
+  my $limit = shift;
+  return $limit > 0 ? " | head -n $limit" : "";
+}
+
 sub escape {
   my $string = shift;
   $string =~ s{'}{'\\''}g;
@@ -0,0 +1,426 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Salvages the .bm.tmp files that are left behind when a Sawmill dies without
+ * closing its output files.
+ * <p>
+ * Usage: [genericOptions] [-n] [-threads N] [-age MINUTES] path [path ...]
+ * <p>
+ * Each path (globs are allowed) is searched recursively for files ending in
+ * .bm.tmp that have not been modified for at least the given number of
+ * minutes. For each one, the HDFS lease is recovered, the file is truncated to
+ * the end of its last complete Avro block and it is renamed to .bm so that it
+ * becomes visible to the search tools.
+ */
+package com.rim.logdriver.admin;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.avro.file.DataFileConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.avro.AvroFileHeader;
+
+public class RecoverTmpFiles extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(RecoverTmpFiles.class);
+
+  private static final String TMP_SUFFIX = ".bm.tmp";
+
+  private static final int DEFAULT_THREADS = 20;
+  // Sawmill rotates files every 10 minutes by default, so anything that hasn't
+  // been touched in an hour is not being written to anymore.
+  private static final long DEFAULT_MIN_AGE_MINUTES = 60;
+
+  // How long to wait for the NameNode to finish recovering a lease.
+  private static final long LEASE_RECOVERY_TIMEOUT = 5 * 60 * 1000l;
+  private static final long LEASE_RECOVERY_POLL = 1000l;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private enum Result {
+    RENAMED, TRUNCATED, DELETED, FAILED
+  }
+
+  /**
+   * The file's contents are bad, as opposed to there having been an error
+   * reading them.
+   */
+  private static class CorruptFileException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private CorruptFileException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Remembers whether the underlying stream threw, so that an error from the
+   * filesystem can be told apart from a header that doesn't parse.
+   */
+  private static class ErrorTrackingInputStream extends FilterInputStream {
+    private IOException error = null;
+
+    private ErrorTrackingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException e) {
+        error = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (IOException e) {
+        error = e;
+        throw e;
+      }
+    }
+  }
+
+  private boolean dryRun = false;
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Configuration conf = getConf();
+
+    int threads = DEFAULT_THREADS;
+    long minAge = DEFAULT_MIN_AGE_MINUTES;
+    List<Path> roots = new ArrayList<Path>();
+
+    for (int i = 0; i < args.length; i++) {
+      if ("-n".equals(args[i])) {
+        dryRun = true;
+      } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-age".equals(args[i]) && i + 1 < args.length) {
+        minAge = Long.parseLong(args[++i]);
+      } else if (args[i].startsWith("-")) {
+        printUsage();
+        return 1;
+      } else {
+        roots.add(new Path(args[i]));
+      }
+    }
+
+    if (roots.isEmpty()) {
+      printUsage();
+      return 1;
+    }
+
+    // Find all the candidate files first, so we can process them in parallel.
+    long cutoff = System.currentTimeMillis() - minAge * 60 * 1000;
+    List<FileStatus> candidates = new ArrayList<FileStatus>();
+    for (Path root : roots) {
+      FileSystem fs = root.getFileSystem(conf);
+      FileStatus[] fileStatuses = fs.globStatus(root);
+      if (fileStatuses == null) {
+        continue;
+      }
+      findTmpFiles(fs, fileStatuses, cutoff, candidates);
+    }
+    LOG.info("Found {} orphaned {} files.", candidates.size(), TMP_SUFFIX);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Result>> futures = new ArrayList<Future<Result>>();
+    for (final FileStatus fileStatus : candidates) {
+      futures.add(executor.submit(new Callable<Result>() {
+        @Override
+        public Result call() throws Exception {
+          try {
+            return recover(fileStatus);
+          } catch (Throwable t) {
+            LOG.error("Error recovering {}", fileStatus.getPath(), t);
+            return Result.FAILED;
+          }
+        }
+      }));
+    }
+    executor.shutdown();
+
+    long[] counts = new long[Result.values().length];
+    for (Future<Result> future : futures) {
+      try {
+        counts[future.get().ordinal()]++;
+      } catch (ExecutionException e) {
+        LOG.error("Error recovering file.", e);
+        counts[Result.FAILED.ordinal()]++;
+      }
+    }
+
+    System.out.println("Files found:     " + candidates.size());
+    System.out.println("Renamed:         " + counts[Result.RENAMED.ordinal()]);
+    System.out.println("Truncated:       "
+        + counts[Result.TRUNCATED.ordinal()]);
+    System.out.println("Deleted (empty): " + counts[Result.DELETED.ordinal()]);
+    System.out.println("Failed:          " + counts[Result.FAILED.ordinal()]);
+
+    return counts[Result.FAILED.ordinal()] == 0 ? 0 : 1;
+  }
+
+  private void findTmpFiles(FileSystem fs, FileStatus[] roots, long cutoff,
+      List<FileStatus> candidates) throws IOException {
+    Deque<FileStatus> stack = new ArrayDeque<FileStatus>(Arrays.asList(roots));
+    while (stack.size() > 0) {
+      FileStatus fileStatus = stack.removeFirst();
+      if (fileStatus.isDir()) {
+        FileStatus[] children = fs.listStatus(fileStatus.getPath());
+        if (children != null) {
+          for (FileStatus child : children) {
+            stack.addFirst(child);
+          }
+        }
+      } else if (fileStatus.getPath().getName().endsWith(TMP_SUFFIX)) {
+        if (fileStatus.getModificationTime() < cutoff) {
+          candidates.add(fileStatus);
+        } else {
+          LOG.info("Skipping {}, it was modified too recently.",
+              fileStatus.getPath());
+        }
+      }
+    }
+  }
+
+  private Result recover(FileStatus fileStatus) throws IOException,
+      InterruptedException {
+    Path tmpPath = fileStatus.getPath();
+    String tmpName = tmpPath.getName();
+    Path finalPath = new Path(tmpPath.getParent(), tmpName.substring(0,
+        tmpName.length() - ".tmp".length()));
+    FileSystem fs = tmpPath.getFileSystem(getConf());
+
+    // The writer died holding the lease, so the file is still open as far as
+    // the NameNode is concerned. Its length isn't final until the lease has
+    // been recovered.
+    if (!dryRun && fs instanceof DistributedFileSystem) {
+      recoverLease((DistributedFileSystem) fs, tmpPath);
+    }
+
+    long length = fs.getFileStatus(tmpPath).getLen();
+    long validLength;
+    try {
+      validLength = findValidLength(fs, tmpPath, length);
+    } catch (IOException e) {
+      // Not something wrong with the file, so don't touch it. Running again
+      // later may work.
+      LOG.error("Error reading {}.  Leaving it alone.", tmpPath, e);
+      return Result.FAILED;
+    }
+
+    if (validLength == 0) {
+      LOG.info("{} does not have a valid header.  Deleting.", tmpPath);
+      if (!dryRun) {
+        fs.delete(tmpPath, false);
+      }
+      return Result.DELETED;
+    }
+
+    if (fs.exists(finalPath)) {
+      throw new IOException("Can't recover " + tmpPath + ", " + finalPath
+          + " already exists.");
+    }
+
+    if (validLength == length) {
+      LOG.info("{} is complete.  Renaming to {}", tmpPath, finalPath);
+      if (!dryRun && !fs.rename(tmpPath, finalPath)) {
+        throw new IOException("Failed to rename " + tmpPath + " to "
+            + finalPath);
+      }
+      return Result.RENAMED;
+    }
+
+    // HDFS can't truncate, so copy the good part of the file into its final
+    // location, then get rid of the original.
+    LOG.info("Truncating {} from {} to {} bytes as {}", new Object[] { tmpPath,
+        length, validLength, finalPath });
+    if (!dryRun) {
+      FSDataInputStream in = fs.open(tmpPath);
+      FSDataOutputStream out = null;
+      boolean copied = false;
+      try {
+        out = fs.create(finalPath, false);
+        byte[] buf = new byte[COPY_BUFFER_SIZE];
+        long remaining = validLength;
+        while (remaining > 0) {
+          int bytesRead = in.read(buf, 0,
+              (int) Math.min(buf.length, remaining));
+          if (bytesRead < 0) {
+            throw new EOFException("Unexpected end of file reading " + tmpPath);
+          }
+          out.write(buf, 0, bytesRead);
+          remaining -= bytesRead;
+        }
+        out.close();
+        out = null;
+        copied = true;
+      } finally {
+        in.close();
+        if (out != null) {
+          out.close();
+        }
+        if (!copied) {
+          // Don't leave half a copy where the next run would trip over it.
+          fs.delete(finalPath, false);
+        }
+      }
+      fs.delete(tmpPath, false);
+    }
+    return Result.TRUNCATED;
+  }
+
+  private void recoverLease(DistributedFileSystem dfs, Path path)
+      throws IOException, InterruptedException {
+    long timeout = System.currentTimeMillis() + LEASE_RECOVERY_TIMEOUT;
+    while (!dfs.recoverLease(path)) {
+      if (System.currentTimeMillis() > timeout) {
+        throw new IOException("Timed out recovering lease on " + path);
+      }
+      Thread.sleep(LEASE_RECOVERY_POLL);
+    }
+    LOG.debug("Recovered lease on {}", path);
+  }
+
+  /**
+   * Walks the blocks of the file the same way AvroBlockRecordReader does, and
+   * returns the offset just past the last sync marker that was where we
+   * expected it to be. Returns 0 if the header itself is incomplete or not an
+   * Avro header.
+   * <p>
+   * Only the end of the file, bad data, or a sync marker that doesn't match
+   * ends the scan early. Any other error reading the file is thrown, since
+   * truncating it then would throw away good data.
+   */
+  private long findValidLength(FileSystem fs, Path path, long length)
+      throws IOException {
+    FSDataInputStream in = fs.open(path);
+    try {
+      AvroFileHeader header;
+      ErrorTrackingInputStream headerIn = new ErrorTrackingInputStream(in);
+      try {
+        header = AvroFileHeader.readHeader(headerIn);
+      } catch (IOException e) {
+        if (headerIn.error != null) {
+          throw e;
+        }
+        LOG.info("Can't read header from {}: {}", path, e.toString());
+        return 0;
+      }
+
+      long validLength = in.getPos();
+      byte[] syncMarker = new byte[DataFileConstants.SYNC_SIZE];
+      while (validLength < length) {
+        try {
+          readLong(in);
+          long blockSize = readLong(in);
+          long syncPos = in.getPos() + blockSize;
+          if (blockSize < 0
+              || syncPos + DataFileConstants.SYNC_SIZE > length) {
+            break;
+          }
+          in.seek(syncPos);
+          in.readFully(syncMarker);
+        } catch (EOFException e) {
+          // Incomplete block at the end of the file.
+          break;
+        } catch (CorruptFileException e) {
+          LOG.warn("Bad block header in {} at {}: {}", new Object[] { path,
+              validLength, e.getMessage() });
+          break;
+        }
+
+        if (!Arrays.equals(syncMarker, header.getSyncMarker())) {
+          LOG.warn("Sync marker does not match in {} at {}", path,
+              in.getPos() - DataFileConstants.SYNC_SIZE);
+          break;
+        }
+        validLength = in.getPos();
+      }
+      return validLength;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads an Avro long, the same as AvroUtils.readLong, but throws an
+   * EOFException at the end of the file rather than reading past it.
+   */
+  private static long readLong(InputStream in) throws IOException {
+    long value = 0L;
+    int shift = 0;
+    int b;
+    while (((b = in.read()) & 0x80) != 0) {
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+      if (shift >= 7 * 10) {
+        throw new CorruptFileException(
+            "Didn't reach the end of the long varint after 10 bytes.");
+      }
+    }
+    value |= (long) b << shift;
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private void printUsage() {
+    System.out.println("Usage: " + this.getClass().getSimpleName()
+        + " [-n] [-threads N] [-age MINUTES] path [path ...]");
+    System.out.println("  -n           Dry run.  Report what would be done.");
+    System.out.println("  -threads N   Number of files to recover at once ("
+        + DEFAULT_THREADS + ").");
+    System.out.println("  -age MINUTES Only recover files not modified in "
+        + "this long (" + DEFAULT_MIN_AGE_MINUTES + ").");
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new RecoverTmpFiles(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,159 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.avro;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * A raw Avro data block: the entry count, the data length and the (still
+ * compressed) data, exactly as they appear in the file.
+ * <p>
+ * The bytes are the same as the plain {@link BytesWritable} values the
+ * AvroBlockRecordReaders used to produce, so anything that treats this as a
+ * BytesWritable keeps working. The difference is that a block can be read
+ * straight from the stream into the buffer it owns, which is reused (and grown
+ * as needed) from one block to the next, and that the entry count and the
+ * location of the data are available without decoding them again.
+ */
+public class AvroBlock extends BytesWritable {
+  // Space for the two varints in front of the data.
+  private static final int MAX_HEADER_SIZE = 10 + 10;
+
+  private boolean parsed = false;
+  private long entries = 0;
+  private int dataOffset = 0;
+  private int dataLength = 0;
+
+  /**
+   * Reads the next block from the stream, which must be positioned at the
+   * start of a block. The sync marker after the block is not read.
+   */
+  public void readBlock(InputStream in) throws IOException {
+    long entries = AvroUtils.readLong(in);
+    long length = AvroUtils.readLong(in);
+    if (length < 0 || length > Integer.MAX_VALUE - MAX_HEADER_SIZE) {
+      throw new IOException("Invalid block length " + length);
+    }
+
+    // Size the buffer for the worst case, so that growing it doesn't need to
+    // copy anything.
+    setSize(0);
+    setSize(MAX_HEADER_SIZE + (int) length);
+    byte[] buf = getBytes();
+
+    int offset = writeLong(entries, buf, 0);
+    offset = writeLong(length, buf, offset);
+
+    int pos = offset;
+    int end = offset + (int) length;
+    while (pos < end) {
+      int bytesRead = in.read(buf, pos, end - pos);
+      if (bytesRead < 0) {
+        throw new IOException("Not enough bytes to read.");
+      }
+      pos += bytesRead;
+    }
+    setSize(end);
+
+    this.entries = entries;
+    this.dataOffset = offset;
+    this.dataLength = (int) length;
+    this.parsed = true;
+  }
+
+  /** The number of entries (records) in the block. */
+  public long getEntries() {
+    parse();
+    return entries;
+  }
+
+  /** Where the compressed data starts within {@link #getBytes()}. */
+  public int getDataOffset() {
+    parse();
+    return dataOffset;
+  }
+
+  /** The length of the compressed data. */
+  public int getDataLength() {
+    parse();
+    return dataLength;
+  }
+
+  @Override
+  public void setSize(int size) {
+    super.setSize(size);
+    parsed = false;
+  }
+
+  @Override
+  public void set(byte[] newData, int offset, int length) {
+    super.set(newData, offset, length);
+    parsed = false;
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    super.readFields(in);
+    parsed = false;
+  }
+
+  /**
+   * Works out the entry count and data location when the contents were set
+   * some other way than by {@link #readBlock(InputStream)}.
+   */
+  private void parse() {
+    if (parsed) {
+      return;
+    }
+    entries = 0;
+    dataOffset = 0;
+    dataLength = 0;
+    if (getLength() > 0) {
+      byte[] buf = getBytes();
+      int[] pos = new int[] { 0 };
+      entries = readLong(buf, pos);
+      dataLength = (int) readLong(buf, pos);
+      dataOffset = pos[0];
+    }
+    parsed = true;
+  }
+
+  private static long readLong(byte[] buf, int[] pos) {
+    long value = 0L;
+    int shift = 0;
+    long b;
+    do {
+      b = buf[pos[0]++] & 0xFF;
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0 && shift < 7 * 10);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int writeLong(long value, byte[] buf, int offset) {
+    long n = (value << 1) ^ (value >> 63);
+    while ((n & ~0x7FL) != 0) {
+      buf[offset++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    buf[offset++] = (byte) n;
+    return offset;
+  }
+}
@@ -0,0 +1,160 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.avro;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decompresses deflated {@link AvroBlock}s into a buffer that is reused from
+ * one block to the next.
+ * <p>
+ * The buffer starts at the expected size of an inflated block, and when a block
+ * doesn't fit, it grows to fit it and stays that size. After the first few
+ * blocks it is big enough for all of them, and nothing more is allocated. The
+ * data is inflated straight out of the block's own buffer.
+ * <p>
+ * Counts of what has been inflated, and how often the buffer had to grow, are
+ * kept so that mappers can report them as counters.
+ */
+public class BlockInflater {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(BlockInflater.class);
+
+  public static final String COUNTER_GROUP = "Block inflation";
+  public static final String BLOCKS_INFLATED = "Blocks inflated";
+  public static final String BYTES_INFLATED = "Bytes inflated";
+  public static final String BUFFER_EXPANSIONS = "Buffer expansions";
+
+  // The expected size of the data blocks, after decompressing. Use what we're
+  // using for avro sync interval, plus a bit for overrun.
+  public static final int DEFAULT_BUFFER_SIZE = Math
+      .round(1.2f * 2 * 1024 * 1024);
+
+  private final Inflater inflater = new Inflater(true);
+  private final int initialSize;
+  private byte[] buf = null;
+  private int length = 0;
+
+  private long blocksInflated = 0;
+  private long bytesInflated = 0;
+  private long bufferExpansions = 0;
+
+  public BlockInflater() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param initialSize
+   *          The size to allocate the buffer at.
+   */
+  public BlockInflater(int initialSize) {
+    this.initialSize = initialSize;
+  }
+
+  /**
+   * Inflates the block's data.
+   * 
+   * @return The number of bytes inflated, which are at the start of
+   *         {@link #getBuffer()}.
+   */
+  public int inflate(AvroBlock block) throws IOException {
+    if (buf == null) {
+      buf = new byte[initialSize];
+    }
+
+    int bytesRead = -1;
+    int pos = 0;
+    inflater.reset();
+    inflater.setInput(block.getBytes(), block.getDataOffset(),
+        block.getDataLength());
+    while (!inflater.finished() && bytesRead != 0) {
+      if (pos == buf.length) {
+        grow(pos);
+      }
+      try {
+        bytesRead = inflater.inflate(buf, pos, buf.length - pos);
+      } catch (DataFormatException e) {
+        throw new IOException("Error inflating data block.", e);
+      }
+      pos += bytesRead;
+    }
+
+    length = pos;
+    blocksInflated++;
+    bytesInflated += pos;
+    return pos;
+  }
+
+  private void grow(int used) {
+    // Most of the time we'll be near the end of the block, so grow by a half,
+    // rather than doubling.
+    int newSize = (int) Math.min(Integer.MAX_VALUE - 8,
+        buf.length + Math.max(buf.length / 2L, 64 * 1024));
+    LOG.info("Expanding inflate buffer from {} to {}.", buf.length, newSize);
+    byte[] newBuf = new byte[newSize];
+    System.arraycopy(buf, 0, newBuf, 0, used);
+    buf = newBuf;
+    bufferExpansions++;
+  }
+
+  /**
+   * The buffer holding the last inflated block. It may be replaced by the next
+   * call to {@link #inflate(AvroBlock)}.
+   */
+  public byte[] getBuffer() {
+    return buf;
+  }
+
+  /** The length of the last inflated block. */
+  public int getLength() {
+    return length;
+  }
+
+  public long getBlocksInflated() {
+    return blocksInflated;
+  }
+
+  public long getBytesInflated() {
+    return bytesInflated;
+  }
+
+  public long getBufferExpansions() {
+    return bufferExpansions;
+  }
+
+  /**
+   * Adds what has been inflated, and how often the buffer had to grow, to the
+   * task's counters.
+   */
+  public void reportCounters(TaskInputOutputContext<?, ?, ?, ?> context) {
+    context.getCounter(COUNTER_GROUP, BLOCKS_INFLATED)
+        .increment(blocksInflated);
+    context.getCounter(COUNTER_GROUP, BYTES_INFLATED).increment(bytesInflated);
+    context.getCounter(COUNTER_GROUP, BUFFER_EXPANSIONS).increment(
+        bufferExpansions);
+  }
+
+  /** Frees the native resources held by the Inflater. */
+  public void end() {
+    inflater.end();
+  }
+}
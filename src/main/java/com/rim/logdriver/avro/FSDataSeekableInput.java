@@ -0,0 +1,67 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.avro;
+
+import java.io.IOException;
+
+import org.apache.avro.file.SeekableInput;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * A {@link SeekableInput} over an already open {@link FSDataInputStream}.
+ * <p>
+ * This does the same job as Avro's FsInput, except that FsInput insists on
+ * opening the file itself, and we want to hand DataFileReader a stream with
+ * read-ahead (see {@link ReadAheadInputStream}).
+ */
+public class FSDataSeekableInput implements SeekableInput {
+  private final FSDataInputStream in;
+  private final long length;
+
+  public FSDataSeekableInput(FSDataInputStream in, long length) {
+    this.in = in;
+    this.length = length;
+  }
+
+  public FSDataInputStream getStream() {
+    return in;
+  }
+
+  @Override
+  public void seek(long p) throws IOException {
+    in.seek(p);
+  }
+
+  @Override
+  public long tell() throws IOException {
+    return in.getPos();
+  }
+
+  @Override
+  public long length() throws IOException {
+    return length;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    return in.read(b, off, len);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,428 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Reads a file sequentially, fetching the next few chunks of it on a background
+ * thread while the caller works on the current one.
+ * <p>
+ * The record readers spend much of their time blocked on HDFS, and while they
+ * are, the mapper isn't decompressing or searching anything. With this in
+ * between, the reads for the next blocks are already under way (or done) by
+ * the time they're needed.
+ * <p>
+ * Chunks are fetched with positional reads into a fixed pool of buffers, so
+ * memory use is bounded to (depth + 1) * chunk size. The chunk size defaults to
+ * the Boom sync interval, so each chunk is roughly one Avro block. Seeking
+ * forward within the chunks already fetched is free; any other seek throws
+ * away what has been fetched and starts again from the new position.
+ * <p>
+ * The record readers read the header at the start of each file and then seek
+ * to the start of their split, so after every fresh start only one chunk is
+ * fetched ahead, doubling with each chunk that is read in sequence up to the
+ * full depth.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.readahead.enabled: Default true.</li>
+ * <li>logdriver.readahead.depth: How many chunks to fetch ahead. Default 4.</li>
+ * <li>logdriver.readahead.chunk.size: Default 2MB.</li>
+ * </ul>
+ */
+package com.rim.logdriver.avro;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ReadAheadInputStream extends InputStream implements Seekable,
+    PositionedReadable {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(ReadAheadInputStream.class);
+
+  public static final String ENABLED = "logdriver.readahead.enabled";
+  public static final String DEPTH = "logdriver.readahead.depth";
+  public static final String CHUNK_SIZE = "logdriver.readahead.chunk.size";
+
+  private static final int DEFAULT_DEPTH = 4;
+  private static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+
+  public static final String COUNTER_GROUP = "Read-ahead";
+  public static final String CHUNKS_READ = "Chunks read";
+  public static final String WAITS = "Waits for I/O";
+  public static final String WAIT_TIME = "Time waiting for I/O (ms)";
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "read-ahead");
+      t.setDaemon(true);
+      return t;
+    }
+  };
+
+  private static class Chunk {
+    private final long start;
+    private final byte[] buf;
+    private int length = 0;
+    private Future<Chunk> future = null;
+
+    private Chunk(long start, byte[] buf) {
+      this.start = start;
+      this.buf = buf;
+    }
+
+    private boolean contains(long position) {
+      return position >= start && position < start + length;
+    }
+  }
+
+  private final FSDataInputStream in;
+  private final long fileLength;
+  private final int depth;
+  private final int chunkSize;
+
+  private final ExecutorService fetcher;
+  private final BlockingQueue<byte[]> pool;
+  private final Deque<Chunk> pending = new ArrayDeque<Chunk>();
+  private Chunk current = null;
+
+  private int buffersAllocated = 0;
+
+  private long pos = 0;
+  private long nextFetch = 0;
+  private int window = 1;
+  private boolean closed = false;
+
+  private long chunksRead = 0;
+  private long waits = 0;
+  private long waitNanos = 0;
+
+  public ReadAheadInputStream(FSDataInputStream in, long fileLength,
+      int depth, int chunkSize) throws IOException {
+    if (depth < 1 || chunkSize < 1) {
+      throw new IllegalArgumentException("Depth and chunk size must be positive.");
+    }
+    this.in = in;
+    this.fileLength = fileLength;
+    this.depth = depth;
+    this.chunkSize = chunkSize;
+
+    // One for each chunk being fetched, plus the one being read. They're
+    // allocated as they're needed, so small files don't get the whole lot.
+    pool = new ArrayBlockingQueue<byte[]>(depth + 1);
+    fetcher = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    pos = in.getPos();
+    nextFetch = pos;
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(ENABLED, true);
+  }
+
+  /**
+   * Opens the file, with read-ahead if it's enabled.
+   */
+  public static FSDataInputStream open(FileSystem fs, Path path,
+      Configuration conf) throws IOException {
+    FSDataInputStream in = fs.open(path);
+    if (!isEnabled(conf)) {
+      return in;
+    }
+    long length = fs.getFileStatus(path).getLen();
+    return new FSDataInputStream(new ReadAheadInputStream(in, length,
+        conf.getInt(DEPTH, DEFAULT_DEPTH), conf.getInt(CHUNK_SIZE,
+            DEFAULT_CHUNK_SIZE)));
+  }
+
+  /**
+   * Returns the ReadAheadInputStream under the given stream, or null if it
+   * doesn't have one.
+   */
+  public static ReadAheadInputStream unwrap(FSDataInputStream in) {
+    InputStream wrapped = in.getWrappedStream();
+    if (wrapped instanceof ReadAheadInputStream) {
+      return (ReadAheadInputStream) wrapped;
+    }
+    return null;
+  }
+
+  /**
+   * Starts fetches until there are window of them pending, or we've reached
+   * the end of the file.
+   */
+  private void fill() {
+    while (pending.size() < window && nextFetch < fileLength) {
+      byte[] buf = pool.poll();
+      if (buf == null) {
+        if (buffersAllocated == depth + 1) {
+          return;
+        }
+        buf = new byte[chunkSize];
+        buffersAllocated++;
+      }
+      final Chunk chunk = new Chunk(nextFetch, buf);
+      chunk.length = (int) Math.min(chunkSize, fileLength - nextFetch);
+      chunk.future = fetcher.submit(new Callable<Chunk>() {
+        @Override
+        public Chunk call() throws IOException {
+          in.readFully(chunk.start, chunk.buf, 0, chunk.length);
+          return chunk;
+        }
+      });
+      pending.addLast(chunk);
+      nextFetch += chunk.length;
+    }
+  }
+
+  /**
+   * Makes the next pending chunk the current one, waiting for it if it hasn't
+   * been fetched yet. Returns false at the end of the file.
+   */
+  private boolean advance() throws IOException {
+    release(current);
+    current = null;
+    fill();
+
+    Chunk chunk = pending.pollFirst();
+    if (chunk == null) {
+      return false;
+    }
+    if (!chunk.future.isDone()) {
+      long startWait = System.nanoTime();
+      await(chunk);
+      waitNanos += System.nanoTime() - startWait;
+      waits++;
+    } else {
+      await(chunk);
+    }
+    chunksRead++;
+    current = chunk;
+    window = Math.min(depth, window * 2);
+
+    fill();
+    return true;
+  }
+
+  private void await(Chunk chunk) throws IOException {
+    try {
+      chunk.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for read-ahead.");
+    } catch (ExecutionException e) {
+      // Get the buffer back, then pass on the error.
+      pool.offer(chunk.buf);
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private void release(Chunk chunk) {
+    if (chunk != null) {
+      pool.offer(chunk.buf);
+    }
+  }
+
+  /**
+   * Throws away all the pending chunks, waiting for the one being fetched (if
+   * any) so that its buffer can be reused.
+   */
+  private void discardPending() {
+    Chunk chunk;
+    while ((chunk = pending.pollFirst()) != null) {
+      if (!chunk.future.cancel(false)) {
+        try {
+          chunk.future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // Don't care, we didn't want it.
+        }
+      }
+      release(chunk);
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkOpen();
+    if (current == null || !current.contains(pos)) {
+      if (pos >= fileLength || !advanceTo(pos)) {
+        return -1;
+      }
+    }
+    return current.buf[(int) (pos++ - current.start)] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    if (len == 0) {
+      return 0;
+    }
+    if (current == null || !current.contains(pos)) {
+      if (pos >= fileLength || !advanceTo(pos)) {
+        return -1;
+      }
+    }
+    int offset = (int) (pos - current.start);
+    int n = Math.min(len, current.length - offset);
+    System.arraycopy(current.buf, offset, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  /**
+   * Advances through the pending chunks to the one containing the position,
+   * starting over from there if it isn't one of them.
+   */
+  private boolean advanceTo(long position) throws IOException {
+    while (true) {
+      Chunk next = pending.peekFirst();
+      if (next == null || position < next.start) {
+        break;
+      }
+      if (!advance()) {
+        return false;
+      }
+      if (current.contains(position)) {
+        return true;
+      }
+    }
+
+    // Not in anything we've fetched, so start again from here.
+    discardPending();
+    release(current);
+    current = null;
+    nextFetch = position;
+    window = 1;
+    return advance();
+  }
+
+  @Override
+  public int available() throws IOException {
+    checkOpen();
+    if (current == null || !current.contains(pos)) {
+      return 0;
+    }
+    return (int) (current.start + current.length - pos);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    checkOpen();
+    if (n <= 0) {
+      return 0;
+    }
+    long target = Math.min(pos + n, fileLength);
+    long skipped = target - pos;
+    pos = target;
+    return skipped;
+  }
+
+  @Override
+  public void seek(long position) throws IOException {
+    checkOpen();
+    if (position < 0 || position > fileLength) {
+      throw new EOFException("Can't seek to " + position + " in a file of "
+          + fileLength + " bytes.");
+    }
+    // The actual move happens on the next read, so that a seek forward within
+    // the chunks we already have doesn't throw them away.
+    pos = position;
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return pos;
+  }
+
+  @Override
+  public boolean seekToNewSource(long targetPos) throws IOException {
+    return false;
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    return in.read(position, buffer, offset, length);
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    in.readFully(position, buffer, offset, length);
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer) throws IOException {
+    in.readFully(position, buffer);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    discardPending();
+    release(current);
+    current = null;
+    fetcher.shutdownNow();
+    in.close();
+    LOG.debug("Read {} chunks, waited {} times for {}ms.", new Object[] {
+        chunksRead, waits, getWaitTimeMillis() });
+  }
+
+  public long getChunksRead() {
+    return chunksRead;
+  }
+
+  public long getWaits() {
+    return waits;
+  }
+
+  public long getWaitTimeMillis() {
+    return waitNanos / 1000000;
+  }
+}
@@ -0,0 +1,69 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.avro;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.avro.file.SeekableInput;
+
+/**
+ * An {@link InputStream} that reads from the current position of a
+ * {@link SeekableInput}, such as the one a DataFileReader was opened with.
+ */
+public class SeekableInputStream extends InputStream {
+  private final SeekableInput in;
+  private final byte[] oneByte = new byte[1];
+
+  public SeekableInputStream(SeekableInput in) {
+    this.in = in;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int bytesRead = in.read(oneByte, 0, 1);
+    while (bytesRead == 0) {
+      bytesRead = in.read(oneByte, 0, 1);
+    }
+    return bytesRead < 0 ? -1 : oneByte[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    return in.read(b, off, len);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long position = in.tell();
+    long target = Math.min(in.length(), position + Math.max(0, n));
+    in.seek(target);
+    return target - position;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(Integer.MAX_VALUE, in.length() - in.tell());
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
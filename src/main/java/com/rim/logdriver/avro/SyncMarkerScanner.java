@@ -0,0 +1,130 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.avro;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.avro.file.SeekableInput;
+
+/**
+ * Finds the next Avro sync marker in a stream.
+ * <p>
+ * Data is read in large chunks into a reusable buffer, and searched by looking
+ * for the first byte of the marker and only then comparing the rest. The last
+ * few bytes of each chunk are carried over to the next, so markers that span
+ * two reads are still found.
+ * <p>
+ * Since the stream is read in chunks, it will usually be positioned past the
+ * marker when a scan returns. Callers are expected to seek to the returned
+ * position.
+ */
+public class SyncMarkerScanner {
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final byte[] buffer;
+
+  public SyncMarkerScanner() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  public SyncMarkerScanner(int bufferSize) {
+    buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Reads from the stream until the sync marker has been read.
+   * 
+   * @param in
+   *          The stream to read from.
+   * @param sync
+   *          The sync marker to find.
+   * @return The number of bytes from the starting position of the stream to
+   *         the end of the sync marker, or -1 if the end of the stream was
+   *         reached first.
+   * @throws IOException
+   */
+  public long scan(InputStream in, byte[] sync) throws IOException {
+    if (sync.length == 0 || sync.length > buffer.length) {
+      throw new IllegalArgumentException("Sync marker length (" + sync.length
+          + ") must be between 1 and the buffer size (" + buffer.length + ")");
+    }
+
+    long discarded = 0;
+    int valid = 0;
+    while (true) {
+      int bytesRead = in.read(buffer, valid, buffer.length - valid);
+      if (bytesRead < 0) {
+        return -1;
+      }
+      valid += bytesRead;
+
+      int index = indexOf(buffer, 0, valid, sync);
+      if (index >= 0) {
+        return discarded + index + sync.length;
+      }
+
+      // Keep anything that could be the start of a marker.
+      int keep = Math.min(valid, sync.length - 1);
+      System.arraycopy(buffer, valid - keep, buffer, 0, keep);
+      discarded += valid - keep;
+      valid = keep;
+    }
+  }
+
+  /**
+   * Reads from the input until the sync marker has been read, and leaves the
+   * input positioned just after it.
+   * <p>
+   * This does the same job as DataFileReader.sync(long), so
+   * <code>reader.seek(scanner.scan(input, sync))</code> can be used in place of
+   * <code>reader.sync(position)</code> after seeking the input to the position.
+   * 
+   * @return The position just after the sync marker, or the length of the input
+   *         if there are no more sync markers.
+   */
+  public long scan(SeekableInput in, byte[] sync) throws IOException {
+    long start = in.tell();
+    long bytesRead = scan(new SeekableInputStream(in), sync);
+    long position = bytesRead < 0 ? in.length() : start + bytesRead;
+    in.seek(position);
+    return position;
+  }
+
+  /**
+   * Finds the first occurrence of pattern within buf[offset, offset + length).
+   * 
+   * @return The index in buf where the pattern starts, or -1 if it wasn't
+   *         found.
+   */
+  public static int indexOf(byte[] buf, int offset, int length, byte[] pattern) {
+    int last = offset + length - pattern.length;
+    byte first = pattern[0];
+    for (int i = offset; i <= last; i++) {
+      if (buf[i] != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < pattern.length && buf[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,235 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * A small index of the Avro blocks in a Boom file, giving the position of each
+ * block and the earliest and latest second of the logBlocks in it.
+ * <p>
+ * The index is written alongside the Boom file it describes, as
+ * _&lt;name&gt;.idx, so that FileInputFormat ignores it. It is only a hint. If
+ * it is missing, or if the Boom file is not the length recorded in the index,
+ * the whole file is read as before.
+ * <p>
+ * Given a time range, the index can produce the byte ranges of the file that
+ * need to be read. The ranges start and end at the sync marker in front of a
+ * block, which is what the Avro and Boom record readers expect: they read all
+ * of the blocks whose preceding sync marker starts within the split.
+ */
+package com.rim.logdriver.boom;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.file.DataFileConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class BlockIndex {
+  private static final Logger LOG = LoggerFactory.getLogger(BlockIndex.class);
+
+  /** Set to false to ignore indexes when building splits. */
+  public static final String ENABLED = "logdriver.boom.index.enabled";
+
+  private static final String INDEX_PREFIX = "_";
+  private static final String INDEX_SUFFIX = ".idx";
+
+  private static final int MAGIC = 0x42494458; // "BIDX"
+  private static final int VERSION = 1;
+
+  private int size = 0;
+  private long[] positions = new long[64];
+  private long[] minSeconds = new long[64];
+  private long[] maxSeconds = new long[64];
+  private long fileLength = 0;
+
+  /**
+   * Adds a group of one or more blocks, starting at the given position (just
+   * after the sync marker that precedes them).
+   */
+  public void add(long position, long minSecond, long maxSecond) {
+    if (size == positions.length) {
+      positions = Arrays.copyOf(positions, size * 2);
+      minSeconds = Arrays.copyOf(minSeconds, size * 2);
+      maxSeconds = Arrays.copyOf(maxSeconds, size * 2);
+    }
+    positions[size] = position;
+    minSeconds[size] = minSecond;
+    maxSeconds[size] = maxSecond;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long getPosition(int i) {
+    return positions[i];
+  }
+
+  public long getMinSecond(int i) {
+    return minSeconds[i];
+  }
+
+  public long getMaxSecond(int i) {
+    return maxSeconds[i];
+  }
+
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  public void setFileLength(long fileLength) {
+    this.fileLength = fileLength;
+  }
+
+  /**
+   * Returns the byte ranges, as {start, end} pairs, that cover every block that
+   * could contain lines in [start, end), in ms since the epoch. Adjacent ranges
+   * are merged.
+   */
+  public List<long[]> getRanges(long start, long end) {
+    List<long[]> ranges = new ArrayList<long[]>();
+    long[] current = null;
+    for (int i = 0; i < size; i++) {
+      if (maxSeconds[i] * 1000 + 999 < start || minSeconds[i] * 1000 >= end) {
+        continue;
+      }
+      long rangeStart = positions[i] - DataFileConstants.SYNC_SIZE;
+      long rangeEnd = (i + 1 < size ? positions[i + 1] : fileLength)
+          - DataFileConstants.SYNC_SIZE;
+      if (current != null && current[1] == rangeStart) {
+        current[1] = rangeEnd;
+      } else {
+        current = new long[] { rangeStart, rangeEnd };
+        ranges.add(current);
+      }
+    }
+    return ranges;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(fileLength);
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeLong(positions[i]);
+      out.writeLong(minSeconds[i]);
+      out.writeLong(maxSeconds[i]);
+    }
+  }
+
+  public static BlockIndex read(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a block index.");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unknown block index version " + version);
+    }
+    BlockIndex index = new BlockIndex();
+    index.fileLength = in.readLong();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      index.add(in.readLong(), in.readLong(), in.readLong());
+    }
+    return index;
+  }
+
+  /**
+   * The path of the index for the given Boom file.
+   */
+  public static Path getIndexPath(Path boomFile) {
+    return new Path(boomFile.getParent(), INDEX_PREFIX + boomFile.getName()
+        + INDEX_SUFFIX);
+  }
+
+  /**
+   * Writes this index alongside the given Boom file.
+   */
+  public void write(FileSystem fs, Path boomFile) throws IOException {
+    FSDataOutputStream out = fs.create(getIndexPath(boomFile), true);
+    try {
+      write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the index for the given Boom file. Returns null if there is no index,
+   * or if it can't be used.
+   */
+  public static BlockIndex read(FileSystem fs, FileStatus boomFile) {
+    Path indexPath = getIndexPath(boomFile.getPath());
+    try {
+      FSDataInputStream in = fs.open(indexPath);
+      try {
+        BlockIndex index = read(in);
+        if (index.fileLength != boomFile.getLen()) {
+          LOG.info("Ignoring stale index {}", indexPath);
+          return null;
+        }
+        return index;
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      LOG.warn("Error reading index {}: {}", indexPath, e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if a time range has been set for the job (see
+   * {@link TimeRangeDatumReader#setTimeRange(Configuration, long, long)}), and
+   * indexes have not been turned off.
+   */
+  public static boolean isPruningEnabled(Configuration conf) {
+    return conf.getBoolean(ENABLED, true)
+        && TimeRangeDatumReader.fromConfiguration(conf) != null;
+  }
+
+  /**
+   * Returns the byte ranges of the given Boom file that need to be read for the
+   * job's time range, or null if the whole file has to be read.
+   */
+  public static List<long[]> getRanges(Configuration conf, FileSystem fs,
+      FileStatus boomFile) {
+    if (!isPruningEnabled(conf)) {
+      return null;
+    }
+    BlockIndex index = read(fs, boomFile);
+    if (index == null) {
+      return null;
+    }
+    return index.getRanges(
+        conf.getLong(TimeRangeDatumReader.START_TIME, Long.MIN_VALUE),
+        conf.getLong(TimeRangeDatumReader.END_TIME, Long.MAX_VALUE));
+  }
+}
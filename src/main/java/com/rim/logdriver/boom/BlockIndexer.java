@@ -0,0 +1,106 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Builds a {@link BlockIndex} while a Boom file is being written.
+ * <p>
+ * DataFileWriter doesn't tell us when it starts a new block, so instead we
+ * decide that ourselves. Each logBlock that is appended is counted with a rough
+ * estimate of its size, and once that reaches the target block size we end the
+ * block with DataFileWriter.sync(), which gives us the position of the next
+ * one. The DataFileWriter's own sync interval should be set higher than the
+ * target (see {@link #getSyncInterval(int)}) so that it only ends a block on
+ * its own if our estimate is far off. Even then, the index is still correct; it
+ * just covers more than one block with that entry.
+ */
+package com.rim.logdriver.boom;
+
+import java.io.IOException;
+
+import org.apache.avro.file.DataFileWriter;
+
+public class BlockIndexer {
+  // DataFileWriter won't take anything bigger than this.
+  private static final int MAX_SYNC_INTERVAL = 1 << 30;
+
+  private final DataFileWriter<?> writer;
+  private final int blockSize;
+  private final BlockIndex index = new BlockIndex();
+
+  private long blockStart;
+  private long bytesInBlock = 0;
+  private long minSecond = Long.MAX_VALUE;
+  private long maxSecond = Long.MIN_VALUE;
+
+  /**
+   * @param writer
+   *          The writer, which must already have been created (so that the
+   *          header has been written).
+   * @param blockSize
+   *          The target size of each block, before compression.
+   */
+  public BlockIndexer(DataFileWriter<?> writer, int blockSize)
+      throws IOException {
+    this.writer = writer;
+    this.blockSize = blockSize;
+    blockStart = writer.sync();
+  }
+
+  /**
+   * The sync interval to give the DataFileWriter, so that it leaves it to us to
+   * end blocks.
+   */
+  public static int getSyncInterval(int blockSize) {
+    return (int) Math.min(2L * blockSize, MAX_SYNC_INTERVAL);
+  }
+
+  /**
+   * Records that a logBlock for the given second, of roughly the given size,
+   * has just been appended to the writer.
+   */
+  public void appended(long second, long size) throws IOException {
+    minSecond = Math.min(minSecond, second);
+    maxSecond = Math.max(maxSecond, second);
+    bytesInBlock += size;
+    if (bytesInBlock >= blockSize) {
+      endBlock();
+    }
+  }
+
+  private void endBlock() throws IOException {
+    if (bytesInBlock == 0) {
+      return;
+    }
+    long nextBlockStart = writer.sync();
+    index.add(blockStart, minSecond, maxSecond);
+    blockStart = nextBlockStart;
+    bytesInBlock = 0;
+    minSecond = Long.MAX_VALUE;
+    maxSecond = Long.MIN_VALUE;
+  }
+
+  /**
+   * Ends the last block. Call this after the last append, and before closing
+   * the writer.
+   */
+  public void finish() throws IOException {
+    endBlock();
+    index.setFileLength(blockStart);
+  }
+
+  public BlockIndex getIndex() {
+    return index;
+  }
+}
@@ -48,6 +48,9 @@ public class BoomWriter {
   private DataFileWriter<GenericRecord> writer = null;
   private OutputStream out = null;
   private GenericRecord logBlock = null;
+  private long bytesInLogBlock = 0;
+
+  private BlockIndexer indexer = null;
 
   private long blockNumber = 0;
   private long linesInBlock = 0;
@@ -95,6 +98,8 @@ public class BoomWriter {
     record.put("eventId", 0);
     record.put("message", message);
     logLines.add(record);
+    // Roughly what this line will take up, for the block index.
+    bytesInLogBlock += message.length() + 16;
 
     linesInBlock++;
 
@@ -110,9 +115,10 @@ public class BoomWriter {
         logBlockSchema);
     writer = new DataFileWriter<GenericRecord>(datumWriter);
     writer.setCodec(CodecFactory.deflateCodec(getDeflateLevel()));
-    writer.setSyncInterval(getAvroBlockSize());
+    writer.setSyncInterval(BlockIndexer.getSyncInterval(getAvroBlockSize()));
 
     writer.create(logBlockSchema, out);
+    indexer = new BlockIndexer(writer, getAvroBlockSize());
     return writer;
   }
 
@@ -124,12 +130,14 @@ public class BoomWriter {
 
       try {
         writer.append(logBlock);
+        indexer.appended((Long) logBlock.get("second"), bytesInLogBlock + 24);
       } catch (IOException e) {
         LOG.error("Error writing out record.  Data lost.", e);
       }
 
       logBlock = null;
       linesInBlock = 0;
+      bytesInLogBlock = 0;
     }
   }
 
@@ -137,10 +145,19 @@ public class BoomWriter {
     LOG.debug("Closing BoomWriter");
     writeBlock();
     if (writer != null) {
+      indexer.finish();
       writer.close();
     }
   }
 
+  /**
+   * The index of the blocks that were written. Only complete once the writer
+   * has been closed.
+   */
+  public BlockIndex getBlockIndex() {
+    return indexer.getIndex();
+  }
+
   public int getMaxLinesPerRecord() {
     return maxLinesPerRecord;
   }
@@ -0,0 +1,175 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * All the lines of one logBlock, stored as columns.
+ * <p>
+ * Instead of a LogLineData and a Text per line, this holds the timestamps,
+ * eventIds and line numbers of a whole logBlock in primitive arrays, and the
+ * messages as UTF-8 bytes packed end to end in one array, with the offset of
+ * each message in another. A batch is reused from one logBlock to the next, so
+ * after the first few blocks nothing is allocated per line.
+ * <p>
+ * Line i's message is getMessageBytes()[getMessageOffset(i)] up to (but not
+ * including) getMessageOffset(i + 1).
+ */
+package com.rim.logdriver.boom;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class LogBlockBatch {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private long second = 0;
+  private long createTime = 0;
+  private long blockNumber = 0;
+  private int splitPart = 0;
+
+  private int size = 0;
+  private long[] timestamps = new long[1024];
+  private int[] eventIds = new int[1024];
+  private long[] lineNumbers = new long[1024];
+  private int[] messageOffsets = new int[1025];
+  private byte[] messages = new byte[64 * 1024];
+
+  /**
+   * Empties the batch, and sets the fields that are shared by every line.
+   */
+  public void reset(long second, long createTime, long blockNumber) {
+    this.second = second;
+    this.createTime = createTime;
+    this.blockNumber = blockNumber;
+    size = 0;
+    messageOffsets[0] = 0;
+  }
+
+  /**
+   * Adds a line, with its message already copied into the message buffer (see
+   * {@link #reserveMessage(int)}).
+   */
+  public void addLine(long ms, int eventId, int messageLength) {
+    if (size + 1 == messageOffsets.length) {
+      int capacity = timestamps.length * 2;
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      eventIds = Arrays.copyOf(eventIds, capacity);
+      lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+      messageOffsets = Arrays.copyOf(messageOffsets, capacity + 1);
+    }
+    timestamps[size] = second * 1000 + ms;
+    eventIds[size] = eventId;
+    lineNumbers[size] = size + 1;
+    messageOffsets[size + 1] = messageOffsets[size] + messageLength;
+    size++;
+  }
+
+  /**
+   * Makes room for the next message, and returns the offset in
+   * {@link #getMessageBytes()} to copy it to.
+   */
+  public int reserveMessage(int length) {
+    int offset = messageOffsets[size];
+    if (offset + length > messages.length) {
+      messages = Arrays.copyOf(messages,
+          Math.max(messages.length * 2, offset + length));
+    }
+    return offset;
+  }
+
+  public long getSecond() {
+    return second;
+  }
+
+  public void setCreateTime(long createTime) {
+    this.createTime = createTime;
+  }
+
+  public void setBlockNumber(long blockNumber) {
+    this.blockNumber = blockNumber;
+  }
+
+  public long getCreateTime() {
+    return createTime;
+  }
+
+  public long getBlockNumber() {
+    return blockNumber;
+  }
+
+  public void setSplitPart(int splitPart) {
+    this.splitPart = splitPart;
+  }
+
+  /**
+   * Which of the files (or pieces of files) in the split the batch was read
+   * from, as set by the record reader.
+   */
+  public int getSplitPart() {
+    return splitPart;
+  }
+
+  /** The number of lines in the batch. */
+  public int getSize() {
+    return size;
+  }
+
+  /** The timestamps, in ms since the epoch. Only the first getSize() count. */
+  public long[] getTimestamps() {
+    return timestamps;
+  }
+
+  public int[] getEventIds() {
+    return eventIds;
+  }
+
+  /** Line numbers within the logBlock, starting at 1. */
+  public long[] getLineNumbers() {
+    return lineNumbers;
+  }
+
+  public byte[] getMessageBytes() {
+    return messages;
+  }
+
+  /** getSize() + 1 offsets; the last one is the end of the last message. */
+  public int[] getMessageOffsets() {
+    return messageOffsets;
+  }
+
+  public long getTimestamp(int i) {
+    return timestamps[i];
+  }
+
+  public int getEventId(int i) {
+    return eventIds[i];
+  }
+
+  public long getLineNumber(int i) {
+    return lineNumbers[i];
+  }
+
+  public int getMessageOffset(int i) {
+    return messageOffsets[i];
+  }
+
+  public int getMessageLength(int i) {
+    return messageOffsets[i + 1] - messageOffsets[i];
+  }
+
+  /** Decodes line i's message. */
+  public String getMessage(int i) {
+    return new String(messages, messageOffsets[i], getMessageLength(i), UTF_8);
+  }
+}
@@ -0,0 +1,161 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * A {@link DatumReader} that decodes logBlock records straight into a
+ * {@link LogBlockBatch}.
+ * <p>
+ * Messages are copied from the decoder directly into the batch's message
+ * buffer, without going through a Utf8 or a String. If a time range is given
+ * then blocks outside of it are skipped without being decoded, and null is
+ * returned for them (see {@link LogBlockDatumReader}).
+ * <p>
+ * If the writer's schema isn't what we expect, records are decoded with a
+ * GenericDatumReader and then copied into the batch.
+ */
+package com.rim.logdriver.boom;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+
+public class LogBlockBatchDatumReader extends
+    LogBlockDatumReader<LogBlockBatch> {
+  private Utf8 utf8 = new Utf8();
+
+  /**
+   * @param start
+   *          Start of the time range, in ms since the epoch, inclusive.
+   * @param end
+   *          End of the time range, in ms since the epoch, exclusive.
+   */
+  public LogBlockBatchDatumReader(long start, long end) {
+    super(start, end);
+  }
+
+  /**
+   * Creates a reader for the time range set in the configuration by
+   * {@link TimeRangeDatumReader#setTimeRange(Configuration, long, long)}, or
+   * for all time if there isn't one.
+   */
+  public static LogBlockBatchDatumReader fromConfiguration(Configuration conf) {
+    return new LogBlockBatchDatumReader(conf.getLong(
+        TimeRangeDatumReader.START_TIME, Long.MIN_VALUE), conf.getLong(
+        TimeRangeDatumReader.END_TIME, Long.MAX_VALUE));
+  }
+
+  @Override
+  protected LogBlockBatch readInRange(LogBlockBatch reuse, long second,
+      Decoder in) throws IOException {
+    LogBlockBatch batch = reuse == null ? new LogBlockBatch() : reuse;
+
+    // The fields can come in any order after second, so createTime and
+    // blockNumber are set as they're found.
+    batch.reset(second, 0, 0);
+    for (int i = 1; i < writerFields.length; i++) {
+      String name = writerFields[i].name();
+      if ("createTime".equals(name)) {
+        batch.setCreateTime(in.readLong());
+      } else if ("blockNumber".equals(name)) {
+        batch.setBlockNumber(in.readLong());
+      } else if ("logLines".equals(name)) {
+        readLines(batch, in);
+      } else {
+        GenericDatumReader.skip(writerFields[i].schema(), in);
+      }
+    }
+    return batch;
+  }
+
+  private void readLines(LogBlockBatch batch, Decoder in) throws IOException {
+    for (long count = in.readArrayStart(); count > 0; count = in.arrayNext()) {
+      for (long i = 0; i < count; i++) {
+        long ms = 0;
+        int eventId = 0;
+        int messageLength = 0;
+        for (Field f : writerLineFields) {
+          String name = f.name();
+          if ("ms".equals(name)) {
+            ms = in.readLong();
+          } else if ("eventId".equals(name)) {
+            eventId = in.readInt();
+          } else if ("message".equals(name)) {
+            messageLength = readMessage(batch, in);
+          } else {
+            GenericDatumReader.skip(f.schema(), in);
+          }
+        }
+        batch.addLine(ms, eventId, messageLength);
+      }
+    }
+  }
+
+  /**
+   * Reads a message into the batch's message buffer, and returns its length.
+   */
+  private int readMessage(LogBlockBatch batch, Decoder in) throws IOException {
+    if (in instanceof BinaryDecoder) {
+      // A string is encoded as its length, then that many bytes, so we can
+      // read it directly into the batch.
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Invalid message length " + length);
+      }
+      int offset = batch.reserveMessage(length);
+      in.readFixed(batch.getMessageBytes(), offset, length);
+      return length;
+    }
+
+    utf8 = in.readString(utf8);
+    return copyMessage(batch, utf8.getBytes(), 0, utf8.getByteLength());
+  }
+
+  private int copyMessage(LogBlockBatch batch, byte[] bytes, int offset,
+      int length) {
+    int dest = batch.reserveMessage(length);
+    System.arraycopy(bytes, offset, batch.getMessageBytes(), dest, length);
+    return length;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected LogBlockBatch fromRecord(LogBlockBatch reuse, Record record) {
+    LogBlockBatch batch = reuse == null ? new LogBlockBatch() : reuse;
+    batch.reset((Long) record.get("second"), (Long) record.get("createTime"),
+        (Long) record.get("blockNumber"));
+    for (Record line : (List<Record>) record.get("logLines")) {
+      Object message = line.get("message");
+      int length;
+      if (message instanceof Utf8) {
+        Utf8 m = (Utf8) message;
+        length = copyMessage(batch, m.getBytes(), 0, m.getByteLength());
+      } else {
+        byte[] bytes = Utf8.getBytesFor(message.toString());
+        length = copyMessage(batch, bytes, 0, bytes.length);
+      }
+      batch.addLine((Long) line.get("ms"), (Integer) line.get("eventId"),
+          length);
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,172 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.boom;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+
+import com.rim.logdriver.Schemas;
+
+/**
+ * The parts of a {@link DatumReader} for logBlock records that filter on time,
+ * and that don't depend on what the records are decoded into.
+ * <p>
+ * The second field is read first. If no line in the block could fall within
+ * [start, end) (in milliseconds), then the rest of the record is skipped, and
+ * null is returned in place of the record. Otherwise the rest of the record is
+ * decoded by {@link #readInRange(Object, long, Decoder)}.
+ * <p>
+ * Skipping relies on the second field coming first in the writer's schema,
+ * which is true of every Boom file ever written. If it doesn't, or if the
+ * writer's schema is otherwise not what we expect, this falls back to decoding
+ * every record in full with a GenericDatumReader, filtering afterwards, and
+ * handing what's left to {@link #fromRecord(Object, Record)}.
+ */
+public abstract class LogBlockDatumReader<D> implements DatumReader<D> {
+  protected final Schema logBlockSchema = Schemas.getSchema("logBlock");
+
+  private final long start;
+  private final long end;
+
+  private Schema writerSchema;
+  /** The fields of the writer's logBlock schema, in order. */
+  protected Field[] writerFields;
+  /** The fields of the writer's schema for each line, in order. */
+  protected Field[] writerLineFields;
+  private GenericDatumReader<Record> fallback = null;
+
+  private long recordsRead = 0;
+  private long recordsSkipped = 0;
+
+  /**
+   * @param start
+   *          Start of the time range, in ms since the epoch, inclusive.
+   * @param end
+   *          End of the time range, in ms since the epoch, exclusive.
+   */
+  protected LogBlockDatumReader(long start, long end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Returns true if any line in a block for this second could be in range.
+   */
+  public boolean inRange(long second) {
+    long blockStart = second * 1000;
+    return blockStart + 999 >= start && blockStart < end;
+  }
+
+  public long getRecordsRead() {
+    return recordsRead;
+  }
+
+  public long getRecordsSkipped() {
+    return recordsSkipped;
+  }
+
+  @Override
+  public void setSchema(Schema schema) {
+    writerSchema = schema;
+    fallback = null;
+
+    List<Field> fields = schema.getFields();
+    writerFields = fields.toArray(new Field[fields.size()]);
+    Field logLines = schema.getField("logLines");
+
+    if (writerFields.length == 0
+        || !"second".equals(writerFields[0].name())
+        || writerFields[0].schema().getType() != Type.LONG
+        || !isType(schema.getField("createTime"), Type.LONG)
+        || !isType(schema.getField("blockNumber"), Type.LONG)
+        || !isType(logLines, Type.ARRAY)
+        || logLines.schema().getElementType().getType() != Type.RECORD) {
+      useFallback();
+      return;
+    }
+
+    List<Field> lineFields = logLines.schema().getElementType().getFields();
+    writerLineFields = lineFields.toArray(new Field[lineFields.size()]);
+    for (Field f : writerLineFields) {
+      if (("ms".equals(f.name()) && f.schema().getType() != Type.LONG)
+          || ("eventId".equals(f.name()) && f.schema().getType() != Type.INT)
+          || ("message".equals(f.name()) && f.schema().getType() != Type.STRING)) {
+        useFallback();
+        return;
+      }
+    }
+  }
+
+  private boolean isType(Field field, Type type) {
+    return field != null && field.schema().getType() == type;
+  }
+
+  private void useFallback() {
+    fallback = new GenericDatumReader<Record>(writerSchema, logBlockSchema);
+  }
+
+  @Override
+  public D read(D reuse, Decoder in) throws IOException {
+    recordsRead++;
+
+    if (fallback != null) {
+      Record record = fallback.read(fallbackReuse(reuse), in);
+      if (!inRange((Long) record.get("second"))) {
+        recordsSkipped++;
+        return null;
+      }
+      return fromRecord(reuse, record);
+    }
+
+    long second = in.readLong();
+    if (!inRange(second)) {
+      for (int i = 1; i < writerFields.length; i++) {
+        GenericDatumReader.skip(writerFields[i].schema(), in);
+      }
+      recordsSkipped++;
+      return null;
+    }
+    return readInRange(reuse, second, in);
+  }
+
+  /**
+   * Decodes the rest of a record in the time range, after its second, in the
+   * order of {@link #writerFields}.
+   */
+  protected abstract D readInRange(D reuse, long second, Decoder in)
+      throws IOException;
+
+  /**
+   * Converts a record in the time range that was decoded by the fallback
+   * reader.
+   */
+  protected abstract D fromRecord(D reuse, Record record);
+
+  /**
+   * A record for the fallback reader to decode into. By default, none.
+   */
+  protected Record fallbackReuse(D reuse) {
+    return null;
+  }
+}
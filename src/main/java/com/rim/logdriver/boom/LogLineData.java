@@ -19,7 +19,6 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 
@@ -108,8 +107,12 @@ public class LogLineData implements WritableComparable<LogLineData> {
     this.eventId = eventId;
   }
 
+  /** The serialized size: four longs and an int. */
+  public static final int SERIALIZED_SIZE = 4 * 8 + 4;
+
   /**
-   * A Comparator optimized for LogLineData.
+   * A Comparator optimized for LogLineData, which compares the serialized
+   * bytes without deserializing them.
    */
   public static class Comparator extends WritableComparator {
     public Comparator() {
@@ -125,23 +128,20 @@ public class LogLineData implements WritableComparable<LogLineData> {
     @Override
     public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
       // Since we packed the values in in the order we're interested in them, we
-      // can just compare them in order
-      long val = 0;
+      // can just compare them in order. Don't subtract them, since that can
+      // overflow.
       for (int i = 0; i < 4; i++) {
-
-        val = readLong(b1, s1 + 8 * i) - readLong(b2, s2 + 8 * i);
-        if (val > 0) {
-          return 1;
-        } else if (val < 0) {
-          return -1;
+        long v1 = readLong(b1, s1 + 8 * i);
+        long v2 = readLong(b2, s2 + 8 * i);
+        if (v1 != v2) {
+          return v1 < v2 ? -1 : 1;
         }
       }
 
-      val = readInt(b1, s1 + 8 * 4) - readInt(b2, s2 + 8 * 4);
-      if (val > 0) {
-        return 1;
-      } else if (val < 0) {
-        return -1;
+      int e1 = readInt(b1, s1 + 8 * 4);
+      int e2 = readInt(b2, s2 + 8 * 4);
+      if (e1 != e2) {
+        return e1 < e2 ? -1 : 1;
       }
 
       return 0;
@@ -154,11 +154,22 @@ public class LogLineData implements WritableComparable<LogLineData> {
 
   @Override
   public int compareTo(LogLineData o) {
-    return new CompareToBuilder().append(this.timestamp, o.timestamp)
-        .append(this.createTime, o.createTime)
-        .append(this.blockNumber, o.blockNumber)
-        .append(this.lineNumber, o.lineNumber).append(this.eventId, o.eventId)
-        .toComparison();
+    if (timestamp != o.timestamp) {
+      return timestamp < o.timestamp ? -1 : 1;
+    }
+    if (createTime != o.createTime) {
+      return createTime < o.createTime ? -1 : 1;
+    }
+    if (blockNumber != o.blockNumber) {
+      return blockNumber < o.blockNumber ? -1 : 1;
+    }
+    if (lineNumber != o.lineNumber) {
+      return lineNumber < o.lineNumber ? -1 : 1;
+    }
+    if (eventId != o.eventId) {
+      return eventId < o.eventId ? -1 : 1;
+    }
+    return 0;
   }
 
   @Override
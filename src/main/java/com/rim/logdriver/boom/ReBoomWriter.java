@@ -50,6 +50,9 @@ public class ReBoomWriter {
   private DataFileWriter<GenericRecord> writer = null;
   private OutputStream out = null;
   private GenericRecord logBlock = null;
+  private long bytesInLogBlock = 0;
+
+  private BlockIndexer indexer = null;
 
   /**
    * Create a writer that uses the given OutputStream
@@ -106,6 +109,8 @@ public class ReBoomWriter {
     record.put("eventId", eventId);
     record.put("message", message);
     logLines.add(record);
+    // Roughly what this line will take up, for the block index.
+    bytesInLogBlock += message.length() + 16;
   }
 
   private DataFileWriter<GenericRecord> newWriter() throws IOException {
@@ -113,9 +118,10 @@ public class ReBoomWriter {
         logBlockSchema);
     writer = new DataFileWriter<GenericRecord>(datumWriter);
     writer.setCodec(CodecFactory.deflateCodec(getDeflateLevel()));
-    writer.setSyncInterval(getAvroBlockSize());
+    writer.setSyncInterval(BlockIndexer.getSyncInterval(getAvroBlockSize()));
 
     writer.create(logBlockSchema, out);
+    indexer = new BlockIndexer(writer, getAvroBlockSize());
     return writer;
   }
 
@@ -127,11 +133,13 @@ public class ReBoomWriter {
 
       try {
         writer.append(logBlock);
+        indexer.appended((Long) logBlock.get("second"), bytesInLogBlock + 24);
       } catch (IOException e) {
         LOG.error("Error writing out record.  Data lost.", e);
       }
 
       logBlock = null;
+      bytesInLogBlock = 0;
     }
   }
 
@@ -139,10 +147,19 @@ public class ReBoomWriter {
     LOG.debug("Closing BoomWriter");
     writeBlock();
     if (writer != null) {
+      indexer.finish();
       writer.close();
     }
   }
 
+  /**
+   * The index of the blocks that were written. Only complete once the writer
+   * has been closed.
+   */
+  public BlockIndex getBlockIndex() {
+    return indexer.getIndex();
+  }
+
   public int getMaxLinesPerRecord() {
     return maxLinesPerRecord;
   }
@@ -0,0 +1,130 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.boom;
+
+import java.io.IOException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A {@link DatumReader} for logBlock records that filters on time (see
+ * {@link LogBlockDatumReader}), and decodes the records in range as usual.
+ */
+public class TimeRangeDatumReader extends LogBlockDatumReader<Record> {
+  public static final String START_TIME = "logdriver.boom.start.time";
+  public static final String END_TIME = "logdriver.boom.end.time";
+
+  private final Schema logLinesSchema = logBlockSchema.getField("logLines")
+      .schema();
+  private final Schema messageWithMillisSchema = logLinesSchema
+      .getElementType();
+
+  /**
+   * @param start
+   *          Start of the time range, in ms since the epoch, inclusive.
+   * @param end
+   *          End of the time range, in ms since the epoch, exclusive.
+   */
+  public TimeRangeDatumReader(long start, long end) {
+    super(start, end);
+  }
+
+  /**
+   * Creates a reader for the time range set in the configuration, or null if
+   * there is no time range set.
+   */
+  public static TimeRangeDatumReader fromConfiguration(Configuration conf) {
+    long start = conf.getLong(START_TIME, Long.MIN_VALUE);
+    long end = conf.getLong(END_TIME, Long.MAX_VALUE);
+    if (start == Long.MIN_VALUE && end == Long.MAX_VALUE) {
+      return null;
+    }
+    return new TimeRangeDatumReader(start, end);
+  }
+
+  /**
+   * Sets the time range that Boom record readers should skip to.
+   */
+  public static void setTimeRange(Configuration conf, long start, long end) {
+    conf.setLong(START_TIME, start);
+    conf.setLong(END_TIME, end);
+  }
+
+  @Override
+  protected Record fallbackReuse(Record reuse) {
+    return reuse;
+  }
+
+  @Override
+  protected Record fromRecord(Record reuse, Record record) {
+    return record;
+  }
+
+  @Override
+  protected Record readInRange(Record reuse, long second, Decoder in)
+      throws IOException {
+    Record record = new Record(logBlockSchema);
+    record.put("second", second);
+    for (int i = 1; i < writerFields.length; i++) {
+      String name = writerFields[i].name();
+      if ("createTime".equals(name)) {
+        record.put("createTime", in.readLong());
+      } else if ("blockNumber".equals(name)) {
+        record.put("blockNumber", in.readLong());
+      } else if ("logLines".equals(name)) {
+        record.put("logLines", readLines(in));
+      } else {
+        GenericDatumReader.skip(writerFields[i].schema(), in);
+      }
+    }
+    return record;
+  }
+
+  private GenericData.Array<Record> readLines(Decoder in) throws IOException {
+    long count = in.readArrayStart();
+    GenericData.Array<Record> lines = new GenericData.Array<Record>(
+        (int) count, logLinesSchema);
+    while (count > 0) {
+      for (long i = 0; i < count; i++) {
+        Record line = new Record(messageWithMillisSchema);
+        line.put("eventId", 0);
+        for (Field f : writerLineFields) {
+          String name = f.name();
+          if ("ms".equals(name)) {
+            line.put("ms", in.readLong());
+          } else if ("eventId".equals(name)) {
+            line.put("eventId", in.readInt());
+          } else if ("message".equals(name)) {
+            line.put("message", in.readString(new Utf8()));
+          } else {
+            GenericDatumReader.skip(f.schema(), in);
+          }
+        }
+        lines.add(line);
+      }
+      count = in.arrayNext();
+    }
+    return lines;
+  }
+}
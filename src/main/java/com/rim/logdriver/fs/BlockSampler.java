@@ -0,0 +1,173 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Picks a fraction of the input to read, for searches where an estimate is
+ * good enough.
+ * <p>
+ * Each file is cut into units of a fixed size, starting from the beginning of
+ * the file, and each unit is either read or left out, depending on a hash of
+ * the file's path, the unit's number and a seed. So the choice looks random,
+ * but the same files are sampled the same way every time. The units are picked
+ * when the splits are planned (see {@link LocalitySplitPlanner}), so the ones
+ * that are left out are never read. An Avro block belongs to the unit its sync
+ * marker is in, the same way it belongs to a split.
+ * <p>
+ * Each unit that's read is exactly one piece of one split, so mappers can tell
+ * which matches came from which unit, which is what the error of the estimate
+ * is worked out from (see {@link com.rim.logdriver.search.SampleEstimate}).
+ * Where the ranges to read leave a gap in a unit, the gap is read too, rather
+ * than cutting the unit in two, and the planner never cuts a unit at a block
+ * boundary.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.sample.fraction: The fraction of the units to read, greater
+ * than 0 and at most 1. Default 1, which reads everything.</li>
+ * <li>logdriver.sample.unit.size: The size of a unit, in bytes. Default 2MB.</li>
+ * <li>logdriver.sample.seed: Change it to pick a different sample. Default 0.</li>
+ * </ul>
+ */
+package com.rim.logdriver.fs;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+public class BlockSampler {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public static final String FRACTION = "logdriver.sample.fraction";
+  public static final String UNIT_SIZE = "logdriver.sample.unit.size";
+  public static final String SEED = "logdriver.sample.seed";
+
+  private static final long DEFAULT_UNIT_SIZE = 2 * 1024 * 1024; // 2MB
+
+  private final double fraction;
+  private final long unitSize;
+  private final long seed;
+
+  public BlockSampler(double fraction, long unitSize, long seed) {
+    if (!(fraction > 0 && fraction <= 1)) {
+      throw new IllegalArgumentException(
+          "The sample fraction must be greater than 0 and at most 1.");
+    }
+    if (unitSize <= 0) {
+      throw new IllegalArgumentException("The unit size must be positive.");
+    }
+    this.fraction = fraction;
+    this.unitSize = unitSize;
+    this.seed = seed;
+  }
+
+  public static double getFraction(Configuration conf) {
+    return conf.getFloat(FRACTION, 1);
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return getFraction(conf) < 1;
+  }
+
+  /**
+   * The sampler for the job, or null if it isn't sampling.
+   */
+  public static BlockSampler fromConfiguration(Configuration conf) {
+    if (!isEnabled(conf)) {
+      return null;
+    }
+    return new BlockSampler(getFraction(conf), conf.getLong(UNIT_SIZE,
+        DEFAULT_UNIT_SIZE), conf.getLong(SEED, 0));
+  }
+
+  public double getFraction() {
+    return fraction;
+  }
+
+  public long getUnitSize() {
+    return unitSize;
+  }
+
+  /**
+   * The parts of the given byte ranges of a file, as {start, end} pairs, that
+   * are in the sample. There's one for each sampled unit, covering all of the
+   * ranges' bytes in that unit, and anything in between.
+   */
+  public List<long[]> sample(Path path, List<long[]> ranges) {
+    String name = path.toUri().getPath();
+    List<long[]> sorted = new ArrayList<long[]>(ranges);
+    Collections.sort(sorted, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+      }
+    });
+
+    List<long[]> sampled = new ArrayList<long[]>();
+    long[] last = null;
+    long lastUnit = -1;
+    for (long[] range : sorted) {
+      for (long unit = range[0] / unitSize; unit * unitSize < range[1]; unit++) {
+        if (!isSampled(name, unit)) {
+          continue;
+        }
+        long start = Math.max(range[0], unit * unitSize);
+        long end = Math.min(range[1], (unit + 1) * unitSize);
+        if (last != null && unit == lastUnit) {
+          // Another range in the same unit.
+          last[1] = Math.max(last[1], end);
+        } else {
+          last = new long[] { start, end };
+          lastUnit = unit;
+          sampled.add(last);
+        }
+      }
+    }
+    return sampled;
+  }
+
+  /**
+   * Is the unit in the sample? Only the path part of the file's name is used,
+   * so it doesn't matter how the name was qualified.
+   */
+  boolean isSampled(String path, long unit) {
+    return hash(path, unit, seed) < fraction;
+  }
+
+  /**
+   * A hash of the unit that's evenly spread over [0, 1). FNV-1a, with the bits
+   * mixed the way MurmurHash3 finishes, so that neighbouring units don't get
+   * similar values.
+   */
+  static double hash(String path, long unit, long seed) {
+    long h = 0xcbf29ce484222325L ^ seed;
+    for (byte b : path.getBytes(UTF_8)) {
+      h = (h ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    for (int i = 0; i < 8; i++) {
+      h = (h ^ ((unit >>> (8 * i)) & 0xff)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (h >>> 11) / (double) (1L << 53);
+  }
+}
@@ -0,0 +1,550 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Groups the blocks of a set of files into splits so that every block in a
+ * split has a replica on the host the split is scheduled for.
+ * <p>
+ * CombineFileInputFormat, as we use it, mixes blocks from arbitrary DataNodes
+ * into each split, so most map input ends up being read over the network. This
+ * planner instead builds a list of the blocks held by each host, and then takes
+ * turns between the hosts, giving each one a split made only of blocks it has a
+ * replica of, until no host has enough unassigned blocks left to fill a split.
+ * Whatever is left over is grouped the same way into smaller splits, and only
+ * the really small leftovers are combined without regard to where they live.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.split.locality.enabled: Set to false to go back to plain
+ * CombineFileInputFormat splits. Default true.</li>
+ * <li>logdriver.split.target.size: The size to aim for, in bytes. Defaults to
+ * mapred.max.split.size, or the default block size if that is not set.</li>
+ * <li>logdriver.split.min.size: Leftover groups smaller than this are combined
+ * without regard to locality. Defaults to a quarter of the target size.</li>
+ * </ul>
+ * <p>
+ * If the job has a time range, and the files have a {@link BlockIndex}, only
+ * the parts of the files with blocks in that range are included. If the job is
+ * sampling (see {@link BlockSampler}), only the sampled parts of those are,
+ * and each sampled unit is kept whole, in a single chunk.
+ */
+package com.rim.logdriver.fs;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.boom.BlockIndex;
+
+public class LocalitySplitPlanner {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(LocalitySplitPlanner.class);
+
+  public static final String ENABLED = "logdriver.split.locality.enabled";
+  public static final String TARGET_SIZE = "logdriver.split.target.size";
+  public static final String MIN_SIZE = "logdriver.split.min.size";
+
+  public static final String COUNTER_GROUP = "Locality";
+  public static final String DATA_LOCAL_BYTES = "Data-local bytes";
+  public static final String TOTAL_BYTES = "Total bytes";
+
+  private static final long DEFAULT_TARGET_SIZE = 128 * 1024 * 1024; // 128MB
+
+  /** A contiguous piece of a file, and the hosts that have a replica of it. */
+  public static class Chunk {
+    private final Path path;
+    private final long offset;
+    private final long length;
+    private final String[] hosts;
+    private boolean assigned = false;
+
+    public Chunk(Path path, long offset, long length, String[] hosts) {
+      this.path = path;
+      this.offset = offset;
+      this.length = length;
+      this.hosts = hosts;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public String[] getHosts() {
+      return hosts;
+    }
+  }
+
+  /** A planned split: a list of chunks and where it should run. */
+  public static class Split {
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+    private String[] hosts = new String[0];
+    private long length = 0;
+
+    private void add(Chunk chunk) {
+      chunks.add(chunk);
+      length += chunk.length;
+    }
+
+    public List<Chunk> getChunks() {
+      return chunks;
+    }
+
+    public String[] getHosts() {
+      return hosts;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public Path[] getPaths() {
+      Path[] paths = new Path[chunks.size()];
+      for (int i = 0; i < paths.length; i++) {
+        paths[i] = chunks.get(i).path;
+      }
+      return paths;
+    }
+
+    public long[] getOffsets() {
+      long[] offsets = new long[chunks.size()];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = chunks.get(i).offset;
+      }
+      return offsets;
+    }
+
+    public long[] getLengths() {
+      long[] lengths = new long[chunks.size()];
+      for (int i = 0; i < lengths.length; i++) {
+        lengths[i] = chunks.get(i).length;
+      }
+      return lengths;
+    }
+  }
+
+  private final long targetSize;
+  private final long minSize;
+
+  private final List<Chunk> chunks = new ArrayList<Chunk>();
+  // Sorted so that the plan is the same every time for the same input.
+  private final Map<String, List<Chunk>> chunksByHost = new TreeMap<String, List<Chunk>>();
+  private final Map<String, long[]> unassignedBytes = new HashMap<String, long[]>();
+
+  private long plannedLocalBytes = 0;
+  private long plannedTotalBytes = 0;
+
+  public LocalitySplitPlanner(long targetSize, long minSize) {
+    if (targetSize <= 0) {
+      throw new IllegalArgumentException("Target split size must be positive.");
+    }
+    this.targetSize = targetSize;
+    this.minSize = Math.max(0, Math.min(minSize, targetSize));
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(ENABLED, true);
+  }
+
+  public static LocalitySplitPlanner fromConfiguration(Configuration conf) {
+    long targetSize = conf.getLong(TARGET_SIZE,
+        conf.getLong("mapred.max.split.size", 0));
+    if (targetSize <= 0) {
+      targetSize = DEFAULT_TARGET_SIZE;
+      try {
+        targetSize = FileSystem.get(conf).getDefaultBlockSize();
+      } catch (IOException e) {
+        LOG.error("Error getting filesystem to get default block size.", e);
+      }
+    }
+    long minSize = conf.getLong(MIN_SIZE, targetSize / 4);
+    return new LocalitySplitPlanner(targetSize, minSize);
+  }
+
+  /**
+   * Adds all the blocks of a file. Blocks larger than the target size are cut
+   * into target sized pieces, which keep the hosts of the block they came from.
+   */
+  public void addFile(FileSystem fs, FileStatus file) throws IOException {
+    addFile(fs, file, null);
+  }
+
+  /**
+   * Adds only the given byte ranges of a file, as {start, end} pairs, or the
+   * whole file if ranges is null.
+   */
+  public void addFile(FileSystem fs, FileStatus file, List<long[]> ranges)
+      throws IOException {
+    long length = file.getLen();
+    if (length == 0) {
+      return;
+    }
+    if (ranges == null) {
+      ranges = Collections.singletonList(new long[] { 0, length });
+    }
+    BlockLocation[] locations = fs.getFileBlockLocations(file, 0, length);
+    if (locations == null || locations.length == 0) {
+      for (long[] range : ranges) {
+        addRange(file.getPath(), range[0], Math.min(range[1], length),
+            new String[0]);
+      }
+      return;
+    }
+    for (long[] range : ranges) {
+      for (BlockLocation location : locations) {
+        long start = Math.max(range[0], location.getOffset());
+        long end = Math.min(range[1],
+            Math.min(location.getOffset() + location.getLength(), length));
+        addRange(file.getPath(), start, end, location.getHosts());
+      }
+    }
+  }
+
+  /**
+   * Adds the given byte ranges of a file, as {start, end} pairs, each one as a
+   * single chunk however big it is, on the hosts that have a replica of every
+   * block it's in. For sampling, where each range is a unit that has to be read
+   * by one mapper (see {@link BlockSampler}).
+   */
+  public void addWholeRanges(FileSystem fs, FileStatus file,
+      List<long[]> ranges) throws IOException {
+    long length = file.getLen();
+    if (length == 0) {
+      return;
+    }
+    BlockLocation[] locations = fs.getFileBlockLocations(file, 0, length);
+    for (long[] range : ranges) {
+      long start = range[0];
+      long end = Math.min(range[1], length);
+      if (start >= end) {
+        continue;
+      }
+      Set<String> hosts = null;
+      if (locations != null) {
+        for (BlockLocation location : locations) {
+          if (location.getOffset() >= end
+              || location.getOffset() + location.getLength() <= start) {
+            continue;
+          }
+          List<String> blockHosts = Arrays.asList(location.getHosts());
+          if (hosts == null) {
+            hosts = new LinkedHashSet<String>(blockHosts);
+          } else {
+            hosts.retainAll(blockHosts);
+          }
+        }
+      }
+      addChunk(new Chunk(file.getPath(), start, end - start,
+          hosts == null ? new String[0] : hosts.toArray(new String[0])));
+    }
+  }
+
+  private void addRange(Path path, long start, long end, String[] hosts) {
+    long offset = start;
+    while (offset < end) {
+      long chunkLength = Math.min(targetSize, end - offset);
+      addChunk(new Chunk(path, offset, chunkLength, hosts));
+      offset += chunkLength;
+    }
+  }
+
+  /**
+   * Plans the splits for the given files, reading only the parts of each one
+   * that its {@link BlockIndex} says are needed for the job's time range, and
+   * only the sampled parts of those if the job is sampling.
+   */
+  public static List<Split> planSplits(Configuration conf,
+      List<FileStatus> files) throws IOException {
+    LocalitySplitPlanner planner = fromConfiguration(conf);
+    BlockSampler sampler = BlockSampler.fromConfiguration(conf);
+    long totalBytes = 0;
+    long unsampledBytes = 0;
+    for (FileStatus file : files) {
+      FileSystem fs = file.getPath().getFileSystem(conf);
+      List<long[]> ranges = BlockIndex.getRanges(conf, fs, file);
+      if (sampler != null) {
+        if (ranges == null) {
+          ranges = Collections.singletonList(new long[] { 0, file.getLen() });
+        }
+        for (long[] range : ranges) {
+          unsampledBytes += range[1] - range[0];
+        }
+        planner.addWholeRanges(fs, file,
+            sampler.sample(file.getPath(), ranges));
+      } else {
+        planner.addFile(fs, file, ranges);
+      }
+      totalBytes += file.getLen();
+    }
+    List<Split> splits = planner.plan();
+    if (sampler != null) {
+      LOG.info("Sampling {}% of {} bytes: {} bytes in {}% of the units.",
+          new Object[] { percent(planner.getPlannedTotalBytes(), unsampledBytes),
+              unsampledBytes, planner.getPlannedTotalBytes(),
+              String.format("%.1f", 100 * sampler.getFraction()) });
+    } else if (planner.getPlannedTotalBytes() < totalBytes) {
+      LOG.info("Block indexes pruned input from {} to {} bytes.", totalBytes,
+          planner.getPlannedTotalBytes());
+    }
+    return splits;
+  }
+
+  public void addChunk(Chunk chunk) {
+    chunks.add(chunk);
+    for (String host : chunk.hosts) {
+      List<Chunk> list = chunksByHost.get(host);
+      if (list == null) {
+        list = new LinkedList<Chunk>();
+        chunksByHost.put(host, list);
+        unassignedBytes.put(host, new long[1]);
+      }
+      list.add(chunk);
+      unassignedBytes.get(host)[0] += chunk.length;
+    }
+  }
+
+  public List<Split> plan() {
+    List<Split> splits = new ArrayList<Split>();
+
+    // First, hand out full splits, one host at a time. Going round robin
+    // (rather than filling up each host before moving on, which is what
+    // CombineFileInputFormat does) keeps the hosts whose blocks we look at
+    // last from ending up with nothing local to do.
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (String host : hostsByUnassignedBytes()) {
+        // Other hosts may have taken some of this one's blocks since the list
+        // was sorted.
+        if (unassignedBytes.get(host)[0] < targetSize) {
+          continue;
+        }
+        splits.add(takeLocal(host, targetSize));
+        progress = true;
+      }
+    }
+
+    // Then group whatever is left, still by host, into smaller splits.
+    List<Chunk> leftovers = new ArrayList<Chunk>();
+    for (String host : hostsByUnassignedBytes()) {
+      Split split;
+      while ((split = takeLocal(host, targetSize)) != null) {
+        if (split.length >= minSize) {
+          splits.add(split);
+        } else {
+          leftovers.addAll(split.chunks);
+        }
+      }
+    }
+    for (Chunk chunk : chunks) {
+      if (!chunk.assigned) {
+        // No hosts at all.
+        assign(chunk);
+        leftovers.add(chunk);
+      }
+    }
+
+    // Finally, combine the small leftovers, with no regard to locality.
+    Split split = null;
+    for (Chunk chunk : leftovers) {
+      if (split == null || split.length + chunk.length > targetSize) {
+        if (split != null) {
+          split.hosts = commonHosts(split, null);
+          splits.add(split);
+        }
+        split = new Split();
+      }
+      split.add(chunk);
+    }
+    if (split != null) {
+      split.hosts = commonHosts(split, null);
+      splits.add(split);
+    }
+
+    plannedLocalBytes = 0;
+    plannedTotalBytes = 0;
+    for (Split s : splits) {
+      for (Chunk chunk : s.chunks) {
+        plannedTotalBytes += chunk.length;
+        if (s.hosts.length > 0 && Arrays.asList(chunk.hosts).contains(s.hosts[0])) {
+          plannedLocalBytes += chunk.length;
+        }
+      }
+    }
+    LOG.info("Planned {} splits over {} hosts. {}% of {} bytes are data-local.",
+        new Object[] { splits.size(), chunksByHost.size(),
+            percent(plannedLocalBytes, plannedTotalBytes), plannedTotalBytes });
+
+    return splits;
+  }
+
+  public long getPlannedLocalBytes() {
+    return plannedLocalBytes;
+  }
+
+  public long getPlannedTotalBytes() {
+    return plannedTotalBytes;
+  }
+
+  private List<String> hostsByUnassignedBytes() {
+    List<String> hosts = new ArrayList<String>();
+    for (String host : chunksByHost.keySet()) {
+      if (unassignedBytes.get(host)[0] > 0) {
+        hosts.add(host);
+      }
+    }
+    // The sort is stable, so ties stay in name order.
+    Collections.sort(hosts, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        long bytesA = unassignedBytes.get(a)[0];
+        long bytesB = unassignedBytes.get(b)[0];
+        return bytesA > bytesB ? -1 : (bytesA < bytesB ? 1 : 0);
+      }
+    });
+    return hosts;
+  }
+
+  /**
+   * Builds a split of up to maxSize bytes from the unassigned chunks on the
+   * given host, or returns null if there aren't any.
+   */
+  private Split takeLocal(String host, long maxSize) {
+    Split split = null;
+    Iterator<Chunk> i = chunksByHost.get(host).iterator();
+    while (i.hasNext()) {
+      Chunk chunk = i.next();
+      if (chunk.assigned) {
+        // Taken by some other host. Drop it so we don't look at it again.
+        i.remove();
+        continue;
+      }
+      if (split == null) {
+        split = new Split();
+      } else if (split.length + chunk.length > maxSize) {
+        break;
+      }
+      split.add(chunk);
+    }
+    if (split != null) {
+      for (Chunk chunk : split.chunks) {
+        assign(chunk);
+      }
+    }
+    if (split != null) {
+      split.hosts = commonHosts(split, host);
+    }
+    return split;
+  }
+
+  private void assign(Chunk chunk) {
+    chunk.assigned = true;
+    for (String host : chunk.hosts) {
+      unassignedBytes.get(host)[0] -= chunk.length;
+    }
+  }
+
+  /**
+   * The preferred host (if any) first, followed by any other hosts that have a
+   * replica of every chunk in the split, so the scheduler has somewhere local
+   * to fall back to.
+   */
+  private static String[] commonHosts(Split split, String preferred) {
+    Set<String> common = null;
+    for (Chunk chunk : split.chunks) {
+      Set<String> hosts = new HashSet<String>(Arrays.asList(chunk.hosts));
+      if (common == null) {
+        common = hosts;
+      } else {
+        common.retainAll(hosts);
+      }
+    }
+    Set<String> result = new LinkedHashSet<String>();
+    if (preferred != null) {
+      result.add(preferred);
+    }
+    if (common != null) {
+      List<String> sorted = new ArrayList<String>(common);
+      Collections.sort(sorted);
+      result.addAll(sorted);
+    }
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Is this host one of the given ones? Every host a split was planned for has
+   * a replica of all of its blocks, so the record readers use this to report
+   * what locality we really got, without asking the NameNode where each block
+   * is.
+   */
+  public static boolean isLocalHost(String[] hosts) {
+    Set<String> localNames = localHostNames();
+    for (String host : hosts) {
+      if (localNames.contains(host)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Set<String> localHostNames() {
+    Set<String> names = new HashSet<String>();
+    try {
+      InetAddress local = InetAddress.getLocalHost();
+      names.add(local.getHostName());
+      names.add(local.getCanonicalHostName());
+      names.add(local.getHostAddress());
+    } catch (UnknownHostException e) {
+      LOG.warn("Can't determine local host name.", e);
+    }
+    names.add("localhost");
+    return names;
+  }
+
+  public static String percent(long part, long total) {
+    if (total == 0) {
+      return "0.0";
+    }
+    return String.format("%.1f", 100.0 * part / total);
+  }
+}
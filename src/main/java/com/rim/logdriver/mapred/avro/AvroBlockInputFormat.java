@@ -32,10 +32,19 @@
  * deserialization can be a relatively expensive operation, this might be 
  * useful in certain situations.
  * 
+ * <h3>Splits</h3>
+ * By default, splits are built by {@link LocalitySplitPlanner}, so that each
+ * one is made of blocks that have a replica on the same host. Set
+ * logdriver.split.locality.enabled to false to use the splits from
+ * CombineFileInputFormat instead.
+ * 
  */
 package com.rim.logdriver.mapred.avro;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.BytesWritable;
@@ -48,6 +57,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.boom.BlockIndex;
+import com.rim.logdriver.boom.TimeRangeDatumReader;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 
 public class AvroBlockInputFormat extends
     CombineFileInputFormat<AvroFileHeader, BytesWritable> {
@@ -55,10 +67,42 @@ public class AvroBlockInputFormat extends
       .getLogger(AvroBlockInputFormat.class);
   private static final long MAX_SPLIT_LOCATIONS = 100000;
 
+  /**
+   * Only create splits for the blocks of Boom files that could contain data in
+   * the time range [start, end), in ms since the epoch, for files that have a
+   * {@link BlockIndex}. Mappers should still check each line's timestamp.
+   */
+  public static void setTimeRange(JobConf job, long start, long end) {
+    TimeRangeDatumReader.setTimeRange(job, start, end);
+  }
+
+  @Override
+  public InputSplit[] getSplits(JobConf job, int numSplits)
+      throws IOException {
+    setDefaults(job);
+
+    if (!LocalitySplitPlanner.isEnabled(job)
+        && !BlockIndex.isPruningEnabled(job)) {
+      return super.getSplits(job, numSplits);
+    }
+
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    for (LocalitySplitPlanner.Split split : LocalitySplitPlanner.planSplits(
+        job, Arrays.asList(listStatus(job)))) {
+      splits.add(new PlannedSplit(job, split));
+    }
+    return splits.toArray(new InputSplit[splits.size()]);
+  }
+
   @Override
   public RecordReader<AvroFileHeader, BytesWritable> getRecordReader(
       InputSplit split, JobConf job, Reporter reporter) throws IOException {
+    setDefaults(job);
 
+    return new AvroBlockRecordReader(split, job, reporter);
+  }
+
+  private void setDefaults(JobConf job) {
     // Ensure we have sensible defaults for how we build blocks.
     if (job.get("mapreduce.job.max.split.locations") == null) {
       job.setLong("mapreduce.job.max.split.locations", MAX_SPLIT_LOCATIONS);
@@ -74,8 +118,6 @@ public class AvroBlockInputFormat extends
       }
       job.setLong("mapred.max.split.size", blockSize);
     }
-
-    return new AvroBlockRecordReader(split, job);
   }
 
 }
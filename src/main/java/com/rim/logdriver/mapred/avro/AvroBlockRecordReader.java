@@ -17,10 +17,7 @@ package com.rim.logdriver.mapred.avro;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Deque;
-import java.util.Iterator;
 
 import org.apache.avro.file.DataFileConstants;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -29,12 +26,17 @@ import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.lib.CombineFileSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rim.logdriver.avro.AvroBlock;
 import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.ReadAheadInputStream;
 import com.rim.logdriver.avro.AvroUtils;
+import com.rim.logdriver.avro.SyncMarkerScanner;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 
 public class AvroBlockRecordReader implements
     RecordReader<AvroFileHeader, BytesWritable> {
@@ -43,8 +45,10 @@ public class AvroBlockRecordReader implements
 
   private static final BytesWritable EMPTY_BYTES = new BytesWritable();
 
+  private JobConf job = null;
   private FileSystem fs = null;
   private FSDataInputStream in = null;
+  private Reporter reporter = null;
 
   private CombineFileSplit split = null;
   private int currentFile = -1;
@@ -54,48 +58,58 @@ public class AvroBlockRecordReader implements
   private long pos = 0;
 
   private AvroFileHeader header = null;
+  private byte[] syncMarker = new byte[DataFileConstants.SYNC_SIZE];
+
+  private final SyncMarkerScanner syncMarkerScanner = new SyncMarkerScanner();
 
   public AvroBlockRecordReader(InputSplit split, JobConf job)
       throws IOException {
+    this(split, job, null);
+  }
+
+  public AvroBlockRecordReader(InputSplit split, JobConf job,
+      Reporter reporter) throws IOException {
     this.split = (CombineFileSplit) split;
+    this.job = job;
+    this.reporter = reporter;
     fs = FileSystem.get(job);
+
+    if (reporter != null) {
+      reportLocality(reporter);
+    }
+  }
+
+  /**
+   * Only splits from the planner know where they were meant to run. A split
+   * counts as local if this is one of those hosts, since each of them has a
+   * replica of every block in it.
+   */
+  private void reportLocality(Reporter reporter) {
+    if (!(split instanceof PlannedSplit)) {
+      return;
+    }
+    long localBytes = LocalitySplitPlanner.isLocalHost(((PlannedSplit) split)
+        .getPlannedHosts()) ? split.getLength() : 0;
+    LOG.info("{} of {} bytes in this split are data-local.", localBytes,
+        split.getLength());
+    reporter.incrCounter(LocalitySplitPlanner.COUNTER_GROUP,
+        LocalitySplitPlanner.DATA_LOCAL_BYTES, localBytes);
+    reporter.incrCounter(LocalitySplitPlanner.COUNTER_GROUP,
+        LocalitySplitPlanner.TOTAL_BYTES, split.getLength());
   }
 
   private void advanceToSyncMarker(FSDataInputStream in, byte[] syncMarker)
       throws IOException {
-    byte b = 0;
-    int bytesRead = 0;
-    byte[] sync = header.getSyncMarker();
-    Iterator<Byte> iterator = null;
-    boolean match = true;
-
-    Deque<Byte> deque = new ArrayDeque<Byte>(DataFileConstants.SYNC_SIZE);
-    while (true) {
-      b = in.readByte();
-      deque.add(b);
-      bytesRead++;
-
-      match = true;
-      if (deque.size() == DataFileConstants.SYNC_SIZE) {
-        match = true;
-        iterator = deque.iterator();
-        for (int i = 0; i < DataFileConstants.SYNC_SIZE; i++) {
-          if (sync[i] != iterator.next()) {
-            match = false;
-            break;
-          }
-        }
-
-        if (match) {
-          break;
-        }
-
-        deque.remove();
-      }
+    long bytesRead = syncMarkerScanner.scan(in, syncMarker);
+    if (bytesRead < 0) {
+      // There are no more blocks in this file, so nothing for this split.
+      LOG.info("No sync marker found after {}", start);
+      pos = end;
+      return;
     }
 
     pos = start + bytesRead;
-    LOG.info("Found sync marker at {}", pos - 16);
+    LOG.info("Found sync marker at {}", pos - DataFileConstants.SYNC_SIZE);
     in.seek(pos);
   }
 
@@ -107,7 +121,7 @@ public class AvroBlockRecordReader implements
     end = start + split.getLength(currentFile);
 
     // Open the file.
-    in = fs.open(split.getPath(currentFile));
+    in = ReadAheadInputStream.open(fs, split.getPath(currentFile), job);
 
     // Read the header, validate it, and save it.
     // If this is a zero length split, then don't try to read the header. The
@@ -124,16 +138,29 @@ public class AvroBlockRecordReader implements
 
       // Seek to the next sync marker
       advanceToSyncMarker(in, header.getSyncMarker());
+    }
+  }
 
-      pos = in.getPos();
+  private void closeCurrentFile() throws IOException {
+    if (in == null) {
+      return;
+    }
+    ReadAheadInputStream readAhead = ReadAheadInputStream.unwrap(in);
+    in.close();
+    in = null;
+    if (readAhead != null && reporter != null) {
+      reporter.incrCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.CHUNKS_READ, readAhead.getChunksRead());
+      reporter.incrCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAITS, readAhead.getWaits());
+      reporter.incrCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAIT_TIME, readAhead.getWaitTimeMillis());
     }
   }
 
   @Override
   public void close() throws IOException {
-    if (in != null) {
-      in.close();
-    }
+    closeCurrentFile();
   }
 
   @Override
@@ -154,9 +181,7 @@ public class AvroBlockRecordReader implements
   public boolean next(AvroFileHeader key, BytesWritable value)
       throws IOException {
     while (pos >= end) {
-      if (in != null) {
-        in.close();
-      }
+      closeCurrentFile();
       currentFile++;
       if (split.getNumPaths() > currentFile) {
         initCurrentFile();
@@ -167,31 +192,31 @@ public class AvroBlockRecordReader implements
 
     key.set(header);
 
-    // Get the number of entries in the next block
-    int entries = AvroUtils.readInt(in);
-    byte[] block = AvroUtils.readBytes(in);
+    if (value instanceof AvroBlock) {
+      // Read the next block straight into the value's buffer
+      ((AvroBlock) value).readBlock(in);
+    } else {
+      // Get the number of entries in the next block
+      int entries = AvroUtils.readInt(in);
+      byte[] block = AvroUtils.readBytes(in);
+
+      // Now, pack it all back into a byte[], and set the value of value
+      ByteBuffer bb = ByteBuffer.allocate(10 + 10 + block.length);
+      bb.put(AvroUtils.encodeLong(entries));
+      bb.put(AvroUtils.encodeLong(block.length));
+      bb.put(block);
+      value.set(bb.array(), 0, bb.position());
+    }
 
     // Check that the sync marker is what we expect
     LOG.trace("Verifying sync marker");
-    byte[] syncMarker = AvroUtils.readBytes(in, DataFileConstants.SYNC_SIZE);
+    in.readFully(syncMarker);
     if (!Arrays.equals(syncMarker, header.getSyncMarker())) {
       LOG.error("Sync marker does not match");
       return false;
     }
 
-    // Now, pack it all back into a byte[], and set the value of value
-    {
-      ByteBuffer bb = ByteBuffer.allocate(10 + 10 + block.length);
-      bb.put(AvroUtils.encodeLong(entries));
-      bb.put(AvroUtils.encodeLong(block.length));
-      bb.put(block);
-      byte[] result = new byte[bb.position()];
-      bb.rewind();
-      bb.get(result);
-      value.set(result, 0, result.length);
-
-      pos = in.getPos();
-    }
+    pos = in.getPos();
 
     return true;
   }
@@ -203,7 +228,7 @@ public class AvroBlockRecordReader implements
 
   @Override
   public BytesWritable createValue() {
-    return new BytesWritable();
+    return new AvroBlock();
   }
 
   @Override
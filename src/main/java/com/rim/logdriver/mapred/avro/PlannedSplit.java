@@ -0,0 +1,67 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.mapred.avro;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+import com.rim.logdriver.fs.LocalitySplitPlanner;
+
+/**
+ * A split built by {@link LocalitySplitPlanner}, which keeps the hosts it was
+ * planned for when it's sent to the task. (CombineFileSplit doesn't, since the
+ * task doesn't normally need them.) The record reader checks them to report
+ * whether the split really was read locally.
+ */
+public class PlannedSplit extends CombineFileSplit {
+  private String[] plannedHosts = new String[0];
+
+  public PlannedSplit() {
+  }
+
+  public PlannedSplit(JobConf job, LocalitySplitPlanner.Split split) {
+    super(job, split.getPaths(), split.getOffsets(), split.getLengths(), split
+        .getHosts());
+    plannedHosts = split.getHosts();
+  }
+
+  public String[] getPlannedHosts() {
+    return plannedHosts;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    super.write(out);
+    out.writeInt(plannedHosts.length);
+    for (String host : plannedHosts) {
+      Text.writeString(out, host);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    super.readFields(in);
+    plannedHosts = new String[in.readInt()];
+    for (int i = 0; i < plannedHosts.length; i++) {
+      plannedHosts[i] = Text.readString(in);
+    }
+  }
+}
@@ -16,6 +16,9 @@
 package com.rim.logdriver.mapred.boom;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.Text;
@@ -28,7 +31,10 @@ import org.apache.hadoop.mapred.lib.CombineFileSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rim.logdriver.boom.BlockIndex;
 import com.rim.logdriver.boom.LogLineData;
+import com.rim.logdriver.boom.TimeRangeDatumReader;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 
 public class BoomInputFormat extends CombineFileInputFormat<LogLineData, Text> {
   private static final Logger LOG = LoggerFactory
@@ -36,6 +42,17 @@ public class BoomInputFormat extends CombineFileInputFormat<LogLineData, Text> {
 
   private static final long MAX_SPLIT_LOCATIONS = 100000;
 
+  /**
+   * Only return lines from blocks that could contain data in the time range
+   * [start, end), in ms since the epoch. Other blocks are skipped without being
+   * decoded, and for files with a {@link BlockIndex}, without being read.
+   * Individual lines are not filtered, so mappers should still check each
+   * line's timestamp.
+   */
+  public static void setTimeRange(JobConf job, long start, long end) {
+    TimeRangeDatumReader.setTimeRange(job, start, end);
+  }
+
   @Override
   public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
     // Ensure we have sensible defaults for how we build blocks.
@@ -54,13 +71,25 @@ public class BoomInputFormat extends CombineFileInputFormat<LogLineData, Text> {
       job.setLong("mapred.max.split.size", blockSize);
     }
 
+    // With a time range, use the block indexes to leave out the parts of the
+    // files that can't have anything in it.
+    if (BlockIndex.isPruningEnabled(job)) {
+      List<InputSplit> splits = new ArrayList<InputSplit>();
+      for (LocalitySplitPlanner.Split split : LocalitySplitPlanner.planSplits(
+          job, Arrays.asList(listStatus(job)))) {
+        splits.add(new CombineFileSplit(job, split.getPaths(),
+            split.getOffsets(), split.getLengths(), split.getHosts()));
+      }
+      return splits.toArray(new InputSplit[splits.size()]);
+    }
+
     return super.getSplits(job, numSplits);
   }
 
   @Override
   public RecordReader<LogLineData, Text> getRecordReader(InputSplit split,
       JobConf job, Reporter reporter) throws IOException {
-    return new BoomRecordReader((CombineFileSplit) split, job);
+    return new BoomRecordReader((CombineFileSplit) split, job, reporter);
   }
 
 }
@@ -23,16 +23,25 @@ import java.util.List;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.generic.GenericData.Record;
 import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.mapred.FsInput;
+import org.apache.avro.io.DatumReader;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.lib.CombineFileSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rim.logdriver.Schemas;
+import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.FSDataSeekableInput;
+import com.rim.logdriver.avro.ReadAheadInputStream;
+import com.rim.logdriver.avro.SeekableInputStream;
+import com.rim.logdriver.avro.SyncMarkerScanner;
 import com.rim.logdriver.boom.LogLineData;
+import com.rim.logdriver.boom.TimeRangeDatumReader;
 
 public class BoomRecordReader implements RecordReader<LogLineData, Text> {
   private static final Logger LOG = LoggerFactory
@@ -40,6 +49,7 @@ public class BoomRecordReader implements RecordReader<LogLineData, Text> {
 
   private CombineFileSplit split;
   private JobConf job;
+  private Reporter reporter;
 
   private int currentFile = -1;
 
@@ -48,6 +58,9 @@ public class BoomRecordReader implements RecordReader<LogLineData, Text> {
   private long pos = 0;
 
   private DataFileReader<Record> reader = null;
+  private ReadAheadInputStream readAhead = null;
+  private TimeRangeDatumReader timeRangeReader = null;
+  private final SyncMarkerScanner syncMarkerScanner = new SyncMarkerScanner();
 
   private LogLineData lld = null;
   private long second = 0;
@@ -55,31 +68,61 @@ public class BoomRecordReader implements RecordReader<LogLineData, Text> {
   private Deque<Record> lines = new ArrayDeque<Record>();
 
   public BoomRecordReader(CombineFileSplit split, JobConf job) {
+    this(split, job, null);
+  }
+
+  public BoomRecordReader(CombineFileSplit split, JobConf job,
+      Reporter reporter) {
     this.split = split;
     this.job = job;
+    this.reporter = reporter;
+
+    // If we're given a time range, then blocks outside that range are skipped
+    // without being decoded.
+    timeRangeReader = TimeRangeDatumReader.fromConfiguration(job);
   }
 
   private void initCurrentFile() throws IOException {
-    if (reader != null) {
-      reader.close();
-    }
+    closeCurrentFile();
 
     LOG.info("Initializing {}:{}+{}",
         new Object[] { split.getPath(currentFile),
             split.getOffset(currentFile), split.getLength(currentFile) });
 
-    GenericDatumReader<Record> datumReader = new GenericDatumReader<Record>(
-        Schemas.getSchema("logBlock"));
-    reader = new DataFileReader<Record>(new FsInput(split.getPath(currentFile),
-        job), datumReader);
-    datumReader.setExpected(Schemas.getSchema("logBlock"));
-    datumReader.setSchema(reader.getSchema());
+    Path path = split.getPath(currentFile);
+    FileSystem fs = path.getFileSystem(job);
+    FSDataSeekableInput input = new FSDataSeekableInput(
+        ReadAheadInputStream.open(fs, path, job), fs.getFileStatus(path)
+            .getLen());
+    readAhead = ReadAheadInputStream.unwrap(input.getStream());
+    if (timeRangeReader != null) {
+      DatumReader<Record> datumReader = timeRangeReader;
+      reader = new DataFileReader<Record>(input, datumReader);
+    } else {
+      GenericDatumReader<Record> datumReader = new GenericDatumReader<Record>(
+          Schemas.getSchema("logBlock"));
+      reader = new DataFileReader<Record>(input, datumReader);
+      datumReader.setExpected(Schemas.getSchema("logBlock"));
+      datumReader.setSchema(reader.getSchema());
+    }
 
     long size = split.getLength(currentFile);
     start = split.getOffset(currentFile);
     end = start + size;
 
-    reader.sync(start);
+    // Move to the first block that starts in this split. This is what
+    // reader.sync(start) does, but the scanner reads in bulk rather than a byte
+    // at a time.
+    reader.seek(findBlockStart(input, start));
+  }
+
+  private long findBlockStart(FSDataSeekableInput input, long position)
+      throws IOException {
+    input.seek(0);
+    byte[] syncMarker = AvroFileHeader.readHeader(
+        new SeekableInputStream(input)).getSyncMarker();
+    input.seek(position);
+    return syncMarkerScanner.scan(input, syncMarker);
   }
 
   @Override
@@ -120,6 +163,10 @@ public class BoomRecordReader implements RecordReader<LogLineData, Text> {
       }
 
       Record record = reader.next();
+      if (record == null) {
+        // Outside of the time range.
+        continue;
+      }
       lld = new LogLineData();
       lld.setBlockNumber((Long) record.get("blockNumber"));
       lld.setCreateTime((Long) record.get("createTime"));
@@ -163,10 +210,29 @@ public class BoomRecordReader implements RecordReader<LogLineData, Text> {
     return pos;
   }
 
-  @Override
-  public void close() throws IOException {
+  private void closeCurrentFile() throws IOException {
     if (reader != null) {
       reader.close();
+      reader = null;
+    }
+    if (readAhead != null && reporter != null) {
+      reporter.incrCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.CHUNKS_READ, readAhead.getChunksRead());
+      reporter.incrCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAITS, readAhead.getWaits());
+      reporter.incrCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAIT_TIME, readAhead.getWaitTimeMillis());
+    }
+    readAhead = null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeCurrentFile();
+    if (timeRangeReader != null) {
+      LOG.info("Skipped {} of {} records outside of the time range.",
+          timeRangeReader.getRecordsSkipped(),
+          timeRangeReader.getRecordsRead());
     }
   }
 
@@ -30,12 +30,15 @@ import com.rim.logdriver.mapred.BinaryOutputFormat;
 
 public class ReBoomRecordWriter implements RecordWriter<LogLineData, Text> {
 
+  private JobConf job;
+  private Path path;
   private ReBoomWriter writer;
 
   public ReBoomRecordWriter(ReBoomOutputFormat reBoomOutputFormat, JobConf job)
       throws IOException {
+    this.job = job;
     String taskid = job.get("mapred.task.id");
-    Path path = BinaryOutputFormat.getTaskOutputPath(job, taskid + ".bm");
+    path = BinaryOutputFormat.getTaskOutputPath(job, taskid + ".bm");
     FSDataOutputStream out = path.getFileSystem(job).create(path);
     writer = new ReBoomWriter(out);
   }
@@ -49,6 +52,7 @@ public class ReBoomRecordWriter implements RecordWriter<LogLineData, Text> {
   @Override
   public void close(Reporter reporter) throws IOException {
     writer.close();
+    writer.getBlockIndex().write(path.getFileSystem(job), path);
   }
 
 }
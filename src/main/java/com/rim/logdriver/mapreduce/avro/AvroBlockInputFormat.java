@@ -32,16 +32,31 @@
  * deserialization can be a relatively expensive operation, this might be 
  * useful in certain situations.
  * 
+ * <h3>Splits</h3>
+ * By default, splits are built by {@link LocalitySplitPlanner}, so that each
+ * one is made of blocks that have a replica on the same host. Set
+ * logdriver.split.locality.enabled to false to use the splits from
+ * CombineFileInputFormat instead.
+ * 
+ * <h3>Sampling</h3>
+ * With logdriver.sample.fraction set, only a deterministic sample of the
+ * input is put in the splits (see {@link BlockSampler}). Every sampled unit is
+ * a separate file in its split, so the record reader starts each one with an
+ * empty block.
+ * 
  */
 package com.rim.logdriver.mapreduce.avro;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -50,6 +65,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.boom.BlockIndex;
+import com.rim.logdriver.boom.TimeRangeDatumReader;
+import com.rim.logdriver.fs.BlockSampler;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 
 public class AvroBlockInputFormat extends
     CombineFileInputFormat<AvroFileHeader, BytesWritable> {
@@ -57,6 +76,15 @@ public class AvroBlockInputFormat extends
       .getLogger(AvroBlockInputFormat.class);
   private static final long MAX_SPLIT_LOCATIONS = 100000;
 
+  /**
+   * Only create splits for the blocks of Boom files that could contain data in
+   * the time range [start, end), in ms since the epoch, for files that have a
+   * {@link BlockIndex}. Mappers should still check each line's timestamp.
+   */
+  public static void setTimeRange(Job job, long start, long end) {
+    TimeRangeDatumReader.setTimeRange(job.getConfiguration(), start, end);
+  }
+
   /**
    * Avro files are always splitable.
    * 
@@ -72,6 +100,35 @@ public class AvroBlockInputFormat extends
     return true;
   }
 
+  /**
+   * Builds locality-aware splits with {@link LocalitySplitPlanner}, unless that
+   * has been turned off and there is no time range to prune blocks with, and
+   * no sampling, in which case CombineFileInputFormat builds them.
+   * 
+   * @param context
+   *          The JobContext.
+   * @return The list of splits.
+   * @throws IOException
+   *           If there is an I/O error.
+   */
+  @Override
+  public List<InputSplit> getSplits(JobContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    setDefaults(conf);
+
+    if (!LocalitySplitPlanner.isEnabled(conf)
+        && !BlockIndex.isPruningEnabled(conf) && !BlockSampler.isEnabled(conf)) {
+      return super.getSplits(context);
+    }
+
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    for (LocalitySplitPlanner.Split split : LocalitySplitPlanner.planSplits(
+        conf, listStatus(context))) {
+      splits.add(new PlannedSplit(split));
+    }
+    return splits;
+  }
+
   /**
    * Creates a new AvroBlockRecordReader.
    * 
@@ -92,8 +149,12 @@ public class AvroBlockInputFormat extends
   @Override
   public RecordReader<AvroFileHeader, BytesWritable> createRecordReader(
       InputSplit split, TaskAttemptContext context) throws IOException {
-    Configuration conf = context.getConfiguration();
+    setDefaults(context.getConfiguration());
+
+    return new AvroBlockRecordReader();
+  }
 
+  private void setDefaults(Configuration conf) {
     // Ensure we have sensible defaults for how we build blocks.
     if (conf.get("mapreduce.job.max.split.locations") == null) {
       conf.setLong("mapreduce.job.max.split.locations", MAX_SPLIT_LOCATIONS);
@@ -109,8 +170,6 @@ public class AvroBlockInputFormat extends
       }
       conf.setLong("mapred.max.split.size", blockSize);
     }
-
-    return new AvroBlockRecordReader();
   }
 
 }
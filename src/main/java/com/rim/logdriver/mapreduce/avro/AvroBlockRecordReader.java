@@ -16,25 +16,26 @@
 package com.rim.logdriver.mapreduce.avro;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Deque;
-import java.util.Iterator;
 
 import org.apache.avro.file.DataFileConstants;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rim.logdriver.avro.AvroBlock;
 import com.rim.logdriver.avro.AvroFileHeader;
-import com.rim.logdriver.avro.AvroUtils;
+import com.rim.logdriver.avro.ReadAheadInputStream;
+import com.rim.logdriver.avro.SyncMarkerScanner;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 
 public class AvroBlockRecordReader extends
     RecordReader<AvroFileHeader, BytesWritable> {
@@ -43,8 +44,10 @@ public class AvroBlockRecordReader extends
 
   private static final BytesWritable EMPTY_BYTES = new BytesWritable();
 
+  private Configuration conf = null;
   private FileSystem fs = null;
   private FSDataInputStream in = null;
+  private TaskInputOutputContext<?, ?, ?, ?> counterContext = null;
 
   private CombineFileSplit split = null;
   private int currentFile = -1;
@@ -55,44 +58,24 @@ public class AvroBlockRecordReader extends
 
   private AvroFileHeader header = null;
 
+  private final SyncMarkerScanner syncMarkerScanner = new SyncMarkerScanner();
+
   private AvroFileHeader key = new AvroFileHeader();
-  private BytesWritable value = new BytesWritable();
+  private AvroBlock value = new AvroBlock();
+  private byte[] syncMarker = new byte[DataFileConstants.SYNC_SIZE];
 
   private void advanceToSyncMarker(FSDataInputStream in, byte[] syncMarker)
       throws IOException {
-    byte b = 0;
-    int bytesRead = 0;
-    byte[] sync = header.getSyncMarker();
-    Iterator<Byte> iterator = null;
-    boolean match = true;
-
-    Deque<Byte> deque = new ArrayDeque<Byte>(DataFileConstants.SYNC_SIZE);
-    while (true) {
-      b = in.readByte();
-      deque.add(b);
-      bytesRead++;
-
-      match = true;
-      if (deque.size() == DataFileConstants.SYNC_SIZE) {
-        match = true;
-        iterator = deque.iterator();
-        for (int i = 0; i < DataFileConstants.SYNC_SIZE; i++) {
-          if (sync[i] != iterator.next()) {
-            match = false;
-            break;
-          }
-        }
-
-        if (match) {
-          break;
-        }
-
-        deque.remove();
-      }
+    long bytesRead = syncMarkerScanner.scan(in, syncMarker);
+    if (bytesRead < 0) {
+      // There are no more blocks in this file, so nothing for this split.
+      LOG.info("No sync marker found after {}", start);
+      pos = end;
+      return;
     }
 
     pos = start + bytesRead;
-    LOG.info("Found sync marker at {}", pos - 16);
+    LOG.info("Found sync marker at {}", pos - DataFileConstants.SYNC_SIZE);
     in.seek(pos);
   }
 
@@ -104,7 +87,7 @@ public class AvroBlockRecordReader extends
     end = start + split.getLength(currentFile);
 
     // Open the file.
-    in = fs.open(split.getPath(currentFile));
+    in = ReadAheadInputStream.open(fs, split.getPath(currentFile), conf);
 
     // Read the header, validate it, and save it.
     header = AvroFileHeader.readHeader(in);
@@ -114,15 +97,29 @@ public class AvroBlockRecordReader extends
 
     // Seek to the next sync marker
     advanceToSyncMarker(in, header.getSyncMarker());
+  }
 
-    pos = in.getPos();
+  private void closeCurrentFile() throws IOException {
+    if (in == null) {
+      return;
+    }
+    ReadAheadInputStream readAhead = ReadAheadInputStream.unwrap(in);
+    in.close();
+    in = null;
+    if (readAhead != null && counterContext != null) {
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.CHUNKS_READ).increment(readAhead.getChunksRead());
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAITS).increment(readAhead.getWaits());
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAIT_TIME).increment(
+          readAhead.getWaitTimeMillis());
+    }
   }
 
   @Override
   public void close() throws IOException {
-    if (in != null) {
-      in.close();
-    }
+    closeCurrentFile();
   }
 
   @Override
@@ -155,15 +152,38 @@ public class AvroBlockRecordReader extends
   public void initialize(InputSplit split, TaskAttemptContext context)
       throws IOException, InterruptedException {
     this.split = (CombineFileSplit) split;
-    fs = FileSystem.get(context.getConfiguration());
+    conf = context.getConfiguration();
+    fs = FileSystem.get(conf);
+
+    if (context instanceof TaskInputOutputContext) {
+      counterContext = (TaskInputOutputContext<?, ?, ?, ?>) context;
+      reportLocality(counterContext);
+    }
+  }
+
+  /**
+   * Only splits from the planner know where they were meant to run. A split
+   * counts as local if this is one of those hosts, since each of them has a
+   * replica of every block in it.
+   */
+  private void reportLocality(TaskInputOutputContext<?, ?, ?, ?> context) {
+    if (!(split instanceof PlannedSplit)) {
+      return;
+    }
+    long localBytes = LocalitySplitPlanner.isLocalHost(((PlannedSplit) split)
+        .getPlannedHosts()) ? split.getLength() : 0;
+    LOG.info("{} of {} bytes in this split are data-local.", localBytes,
+        split.getLength());
+    context.getCounter(LocalitySplitPlanner.COUNTER_GROUP,
+        LocalitySplitPlanner.DATA_LOCAL_BYTES).increment(localBytes);
+    context.getCounter(LocalitySplitPlanner.COUNTER_GROUP,
+        LocalitySplitPlanner.TOTAL_BYTES).increment(split.getLength());
   }
 
   @Override
   public boolean nextKeyValue() throws IOException, InterruptedException {
     if (pos >= end) {
-      if (in != null) {
-        in.close();
-      }
+      closeCurrentFile();
       currentFile++;
       if (split.getNumPaths() > currentFile) {
         initCurrentFile();
@@ -177,31 +197,18 @@ public class AvroBlockRecordReader extends
 
     key.set(header);
 
-    // Get the number of entries in the next block
-    int entries = AvroUtils.readInt(in);
-    byte[] block = AvroUtils.readBytes(in);
+    // Read the next block straight into the value's buffer
+    value.readBlock(in);
 
     // Check that the sync marker is what we expect
     LOG.trace("Verifying sync marker");
-    byte[] syncMarker = AvroUtils.readBytes(in, DataFileConstants.SYNC_SIZE);
+    in.readFully(syncMarker);
     if (!Arrays.equals(syncMarker, header.getSyncMarker())) {
       LOG.error("Sync marker does not match");
       return false;
     }
 
-    // Now, pack it all back into a byte[], and set the value of value
-    {
-      ByteBuffer bb = ByteBuffer.allocate(10 + 10 + block.length);
-      bb.put(AvroUtils.encodeLong(entries));
-      bb.put(AvroUtils.encodeLong(block.length));
-      bb.put(block);
-      byte[] result = new byte[bb.position()];
-      bb.rewind();
-      bb.get(result);
-      value.set(result, 0, result.length);
-
-      pos = in.getPos();
-    }
+    pos = in.getPos();
 
     return true;
   }
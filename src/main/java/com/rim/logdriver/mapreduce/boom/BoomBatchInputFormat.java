@@ -0,0 +1,68 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.mapreduce.boom;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+
+import com.rim.logdriver.boom.LogBlockBatch;
+
+/**
+ * Reads Boom files a logBlock at a time, as a {@link LogBlockBatch}.
+ * <p>
+ * Splits are built exactly as they are for {@link BoomInputFormat}, so the two
+ * can be swapped freely. Mappers that only need to look at each line's fields
+ * can loop over the batch's columns rather than being called once per line.
+ */
+public class BoomBatchInputFormat extends
+    CombineFileInputFormat<LogBlockBatch, NullWritable> {
+
+  /**
+   * Only return blocks that could contain data in the time range [start, end),
+   * in ms since the epoch. See
+   * {@link BoomInputFormat#setTimeRange(Job, long, long)}.
+   */
+  public static void setTimeRange(Job job, long start, long end) {
+    BoomInputFormat.setTimeRange(job, start, end);
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path filename) {
+    return true;
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext context) throws IOException {
+    return new BoomInputFormat().getSplits(context);
+  }
+
+  @Override
+  public RecordReader<LogBlockBatch, NullWritable> createRecordReader(
+      InputSplit split, TaskAttemptContext context) throws IOException {
+    return new BoomBatchRecordReader((CombineFileSplit) split, context);
+  }
+
+}
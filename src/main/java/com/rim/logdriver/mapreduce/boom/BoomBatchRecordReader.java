@@ -0,0 +1,195 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.mapreduce.boom;
+
+import java.io.IOException;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.FSDataSeekableInput;
+import com.rim.logdriver.avro.ReadAheadInputStream;
+import com.rim.logdriver.avro.SeekableInputStream;
+import com.rim.logdriver.avro.SyncMarkerScanner;
+import com.rim.logdriver.boom.LogBlockBatch;
+import com.rim.logdriver.boom.LogBlockBatchDatumReader;
+
+/**
+ * Reads the logBlocks in a split, one {@link LogBlockBatch} at a time.
+ * <p>
+ * The same batch is returned for every block, so mappers must not hold on to it
+ * (or to its arrays) from one call to the next.
+ */
+public class BoomBatchRecordReader extends
+    RecordReader<LogBlockBatch, NullWritable> {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(BoomBatchRecordReader.class);
+
+  private CombineFileSplit split;
+  private TaskAttemptContext context;
+  private TaskInputOutputContext<?, ?, ?, ?> counterContext = null;
+
+  private int currentFile = -1;
+
+  private long start = 0;
+  private long end = 0;
+  private long pos = 0;
+
+  private DataFileReader<LogBlockBatch> reader = null;
+  private ReadAheadInputStream readAhead = null;
+  private final LogBlockBatchDatumReader datumReader;
+  private final SyncMarkerScanner syncMarkerScanner = new SyncMarkerScanner();
+
+  private LogBlockBatch batch = new LogBlockBatch();
+
+  public BoomBatchRecordReader(CombineFileSplit split,
+      TaskAttemptContext context) {
+    this.split = split;
+    this.context = context;
+
+    datumReader = LogBlockBatchDatumReader.fromConfiguration(context
+        .getConfiguration());
+  }
+
+  private void initCurrentFile() throws IOException {
+    closeCurrentFile();
+
+    LOG.info("Initializing {}:{}+{}",
+        new Object[] { split.getPath(currentFile),
+            split.getOffset(currentFile), split.getLength(currentFile) });
+
+    Configuration conf = context.getConfiguration();
+    Path path = split.getPath(currentFile);
+    FileSystem fs = path.getFileSystem(conf);
+    long length = fs.getFileStatus(path).getLen();
+
+    // Check for zero length files
+    if (length == 0) {
+      reader = null;
+      return;
+    }
+
+    FSDataSeekableInput input = new FSDataSeekableInput(
+        ReadAheadInputStream.open(fs, path, conf), length);
+    readAhead = ReadAheadInputStream.unwrap(input.getStream());
+    reader = new DataFileReader<LogBlockBatch>(input, datumReader);
+
+    start = split.getOffset(currentFile);
+    end = start + split.getLength(currentFile);
+
+    // Move to the first block that starts in this split.
+    reader.seek(findBlockStart(input, start));
+  }
+
+  private long findBlockStart(FSDataSeekableInput input, long position)
+      throws IOException {
+    input.seek(0);
+    byte[] syncMarker = AvroFileHeader.readHeader(
+        new SeekableInputStream(input)).getSyncMarker();
+    input.seek(position);
+    return syncMarkerScanner.scan(input, syncMarker);
+  }
+
+  private void closeCurrentFile() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+    if (readAhead != null && counterContext != null) {
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.CHUNKS_READ).increment(readAhead.getChunksRead());
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAITS).increment(readAhead.getWaits());
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAIT_TIME).increment(
+          readAhead.getWaitTimeMillis());
+    }
+    readAhead = null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeCurrentFile();
+    LOG.info("Skipped {} of {} records outside of the time range.",
+        datumReader.getRecordsSkipped(), datumReader.getRecordsRead());
+  }
+
+  @Override
+  public LogBlockBatch getCurrentKey() {
+    return batch;
+  }
+
+  @Override
+  public NullWritable getCurrentValue() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public float getProgress() throws IOException {
+    if (currentFile >= split.getNumPaths()) {
+      return 1.0f;
+    }
+    if (split.getLength(currentFile) == 0 || split.getNumPaths() == 0) {
+      return 0;
+    }
+    return (currentFile + 1.0f * (pos - split.getOffset(currentFile))
+        / split.getLength(currentFile))
+        / split.getNumPaths();
+  }
+
+  @Override
+  public void initialize(InputSplit split, TaskAttemptContext context)
+      throws IOException, InterruptedException {
+    if (context instanceof TaskInputOutputContext) {
+      counterContext = (TaskInputOutputContext<?, ?, ?, ?>) context;
+    }
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    while (true) {
+      while (reader == null || reader.hasNext() == false
+          || reader.pastSync(end)) {
+        currentFile++;
+        if (currentFile >= split.getNumPaths()) {
+          return false;
+        }
+        initCurrentFile();
+      }
+
+      // Null means the block was outside of the time range.
+      LogBlockBatch next = reader.next(batch);
+      pos = reader.tell();
+      if (next != null && next.getSize() > 0) {
+        batch = next;
+        batch.setSplitPart(currentFile);
+        return true;
+      }
+    }
+  }
+
+}
@@ -16,6 +16,7 @@
 package com.rim.logdriver.mapreduce.boom;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
@@ -23,6 +24,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -31,7 +33,11 @@ import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rim.logdriver.boom.BlockIndex;
 import com.rim.logdriver.boom.LogLineData;
+import com.rim.logdriver.boom.TimeRangeDatumReader;
+import com.rim.logdriver.fs.BlockSampler;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 
 public class BoomInputFormat extends CombineFileInputFormat<LogLineData, Text> {
   private static final Logger LOG = LoggerFactory
@@ -39,6 +45,17 @@ public class BoomInputFormat extends CombineFileInputFormat<LogLineData, Text> {
 
   private static final long MAX_SPLIT_LOCATIONS = 100000;
 
+  /**
+   * Only return lines from blocks that could contain data in the time range
+   * [start, end), in ms since the epoch. Other blocks are skipped without being
+   * decoded, and for files with a {@link BlockIndex}, without being read.
+   * Individual lines are not filtered, so mappers should still check each
+   * line's timestamp.
+   */
+  public static void setTimeRange(Job job, long start, long end) {
+    TimeRangeDatumReader.setTimeRange(job.getConfiguration(), start, end);
+  }
+
   @Override
   protected boolean isSplitable(JobContext context, Path filename) {
     return true;
@@ -66,6 +83,18 @@ public class BoomInputFormat extends CombineFileInputFormat<LogLineData, Text> {
       LOG.info("{} = {}", key, context.getConfiguration().get(key));
     }
 
+    // With a time range, use the block indexes to leave out the parts of the
+    // files that can't have anything in it. Sampling needs the planner too.
+    if (BlockIndex.isPruningEnabled(conf) || BlockSampler.isEnabled(conf)) {
+      List<InputSplit> splits = new ArrayList<InputSplit>();
+      for (LocalitySplitPlanner.Split split : LocalitySplitPlanner
+          .planSplits(conf, listStatus(context))) {
+        splits.add(new CombineFileSplit(split.getPaths(), split.getOffsets(),
+            split.getLengths(), split.getHosts()));
+      }
+      return splits;
+    }
+
     return super.getSplits(context);
   }
 
@@ -23,17 +23,27 @@ import java.util.List;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericData.Record;
-import org.apache.avro.mapred.FsInput;
+import org.apache.avro.io.DatumReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rim.logdriver.Schemas;
+import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.FSDataSeekableInput;
+import com.rim.logdriver.avro.ReadAheadInputStream;
+import com.rim.logdriver.avro.SeekableInputStream;
+import com.rim.logdriver.avro.SyncMarkerScanner;
 import com.rim.logdriver.boom.LogLineData;
+import com.rim.logdriver.boom.TimeRangeDatumReader;
 
 public class BoomRecordReader extends RecordReader<LogLineData, Text> {
   private static final Logger LOG = LoggerFactory
@@ -41,6 +51,7 @@ public class BoomRecordReader extends RecordReader<LogLineData, Text> {
 
   private CombineFileSplit split;
   private TaskAttemptContext context;
+  private TaskInputOutputContext<?, ?, ?, ?> counterContext = null;
 
   private int currentFile = -1;
 
@@ -49,6 +60,9 @@ public class BoomRecordReader extends RecordReader<LogLineData, Text> {
   private long pos = 0;
 
   private DataFileReader<Record> reader = null;
+  private ReadAheadInputStream readAhead = null;
+  private TimeRangeDatumReader timeRangeReader = null;
+  private final SyncMarkerScanner syncMarkerScanner = new SyncMarkerScanner();
 
   private LogLineData lld = null;
   private long second = 0;
@@ -61,12 +75,15 @@ public class BoomRecordReader extends RecordReader<LogLineData, Text> {
   public BoomRecordReader(CombineFileSplit split, TaskAttemptContext context) {
     this.split = split;
     this.context = context;
+
+    // If we're given a time range, then blocks outside that range are skipped
+    // without being decoded.
+    timeRangeReader = TimeRangeDatumReader.fromConfiguration(context
+        .getConfiguration());
   }
 
   private void initCurrentFile() throws IOException {
-    if (reader != null) {
-      reader.close();
-    }
+    closeCurrentFile();
 
     LOG.info("Initializing {}:{}+{}",
         new Object[] { split.getPath(currentFile),
@@ -79,24 +96,67 @@ public class BoomRecordReader extends RecordReader<LogLineData, Text> {
       return;
     }
 
-    GenericDatumReader<Record> datumReader = new GenericDatumReader<Record>(
-        Schemas.getSchema("logBlock"));
-    reader = new DataFileReader<Record>(new FsInput(split.getPath(currentFile),
-        context.getConfiguration()), datumReader);
-    datumReader.setExpected(Schemas.getSchema("logBlock"));
-    datumReader.setSchema(reader.getSchema());
+    Configuration conf = context.getConfiguration();
+    Path path = split.getPath(currentFile);
+    FileSystem fs = path.getFileSystem(conf);
+    FSDataSeekableInput input = new FSDataSeekableInput(
+        ReadAheadInputStream.open(fs, path, conf), fs.getFileStatus(path)
+            .getLen());
+    readAhead = ReadAheadInputStream.unwrap(input.getStream());
+    if (timeRangeReader != null) {
+      DatumReader<Record> datumReader = timeRangeReader;
+      reader = new DataFileReader<Record>(input, datumReader);
+    } else {
+      GenericDatumReader<Record> datumReader = new GenericDatumReader<Record>(
+          Schemas.getSchema("logBlock"));
+      reader = new DataFileReader<Record>(input, datumReader);
+      datumReader.setExpected(Schemas.getSchema("logBlock"));
+      datumReader.setSchema(reader.getSchema());
+    }
 
     long size = split.getLength(currentFile);
     start = split.getOffset(currentFile);
     end = start + size;
 
-    reader.sync(start);
+    // Move to the first block that starts in this split. This is what
+    // reader.sync(start) does, but the scanner reads in bulk rather than a byte
+    // at a time.
+    reader.seek(findBlockStart(input, start));
   }
 
-  @Override
-  public void close() throws IOException {
+  private long findBlockStart(FSDataSeekableInput input, long position)
+      throws IOException {
+    input.seek(0);
+    byte[] syncMarker = AvroFileHeader.readHeader(
+        new SeekableInputStream(input)).getSyncMarker();
+    input.seek(position);
+    return syncMarkerScanner.scan(input, syncMarker);
+  }
+
+  private void closeCurrentFile() throws IOException {
     if (reader != null) {
       reader.close();
+      reader = null;
+    }
+    if (readAhead != null && counterContext != null) {
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.CHUNKS_READ).increment(readAhead.getChunksRead());
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAITS).increment(readAhead.getWaits());
+      counterContext.getCounter(ReadAheadInputStream.COUNTER_GROUP,
+          ReadAheadInputStream.WAIT_TIME).increment(
+          readAhead.getWaitTimeMillis());
+    }
+    readAhead = null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeCurrentFile();
+    if (timeRangeReader != null) {
+      LOG.info("Skipped {} of {} records outside of the time range.",
+          timeRangeReader.getRecordsSkipped(),
+          timeRangeReader.getRecordsRead());
     }
   }
 
@@ -133,7 +193,9 @@ public class BoomRecordReader extends RecordReader<LogLineData, Text> {
   @Override
   public void initialize(InputSplit split, TaskAttemptContext context)
       throws IOException, InterruptedException {
-
+    if (context instanceof TaskInputOutputContext) {
+      counterContext = (TaskInputOutputContext<?, ?, ?, ?>) context;
+    }
   }
 
   @SuppressWarnings("unchecked")
@@ -154,6 +216,10 @@ public class BoomRecordReader extends RecordReader<LogLineData, Text> {
       }
 
       Record record = reader.next();
+      if (record == null) {
+        // Outside of the time range.
+        continue;
+      }
       lld = new LogLineData();
       lld.setBlockNumber((Long) record.get("blockNumber"));
       lld.setCreateTime((Long) record.get("createTime"));
@@ -0,0 +1,55 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.mapreduce.boom;
+
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import com.rim.logdriver.boom.LogLineData;
+
+/**
+ * Partitions LogLineData keys by a hash of all their fields.
+ * <p>
+ * HashPartitioner would use {@link LogLineData#hashCode()}, which is a sum of
+ * the fields times powers of 31, so the partition is a simple linear function
+ * of the fields. With 31 (or 62, ...) reducers, hardly anything but the
+ * timestamp affects it. This mixes the fields with the 64 bit finalizer from
+ * MurmurHash3 instead, so every field counts, and nearby keys are spread out.
+ */
+public class LogLineDataPartitioner<V> extends Partitioner<LogLineData, V> {
+
+  @Override
+  public int getPartition(LogLineData key, V value, int numPartitions) {
+    return partition(key, numPartitions);
+  }
+
+  public static int partition(LogLineData key, int numPartitions) {
+    long h = mix(key.getTimestamp());
+    h = mix(h ^ key.getCreateTime());
+    h = mix(h ^ key.getBlockNumber());
+    h = mix(h ^ key.getLineNumber());
+    h = mix(h ^ key.getEventId());
+    return (int) ((h & Long.MAX_VALUE) % numPartitions);
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
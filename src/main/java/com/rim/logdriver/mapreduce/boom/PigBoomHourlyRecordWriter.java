@@ -58,9 +58,7 @@ public class PigBoomHourlyRecordWriter extends
     Long hour = timestamp / (60 * 60 * 1000);
 
     if (!hour.equals(lastHour)) {
-      if (writer != null) {
-        writer.close();
-      }
+      closeWriter();
 
       Calendar cal = Calendar.getInstance();
       cal.setTimeInMillis(timestamp);
@@ -83,8 +81,15 @@ public class PigBoomHourlyRecordWriter extends
   @Override
   public void close(TaskAttemptContext context) throws IOException,
       InterruptedException {
+    closeWriter();
+  }
+
+  private void closeWriter() throws IOException {
     if (writer != null) {
       writer.close();
+      writer.getBlockIndex().write(
+          path.getFileSystem(context.getConfiguration()), path);
+      writer = null;
     }
   }
 
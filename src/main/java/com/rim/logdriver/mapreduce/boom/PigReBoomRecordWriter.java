@@ -50,6 +50,8 @@ public class PigReBoomRecordWriter extends RecordWriter<Tuple, NullWritable> {
   public void close(TaskAttemptContext context) throws IOException,
       InterruptedException {
     writer.close();
+    writer.getBlockIndex().write(
+        path.getFileSystem(context.getConfiguration()), path);
   }
 
 }
@@ -23,30 +23,16 @@ import org.apache.pig.data.Tuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rim.logdriver.timestamp.TimestampFormats;
+
 public class DateFormatter extends EvalFunc<String> {
   private static final Logger LOG = LoggerFactory
       .getLogger(DateFormatter.class);
 
-  private static final String RFC822_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
-  private static final String RFC822_SEC_UTC_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-  // Not really RFC3164 - the day is zero padded instead of space padded
-  private static final String RFC3164_FORMAT = "MMM dd HH:mm:ss";
-  private static final String RFC5424_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZZ";
-
   private final FastDateFormat format;
 
   public DateFormatter(String formatString) {
-    if ("RFC822".equals(formatString.toUpperCase())) {
-      format = FastDateFormat.getInstance(RFC822_FORMAT);
-    } else if ("RFC822_SEC_UTC".equals(formatString.toUpperCase())) {
-      format = FastDateFormat.getInstance(RFC822_SEC_UTC_FORMAT);
-    } else if ("RFC3164".equals(formatString.toUpperCase())) {
-      format = FastDateFormat.getInstance(RFC3164_FORMAT);
-    } else if ("RFC5424".equals(formatString.toUpperCase())) {
-      format = FastDateFormat.getInstance(RFC5424_FORMAT);
-    } else {
-      format = FastDateFormat.getInstance(formatString);
-    }
+    format = TimestampFormats.getFormat(formatString);
   }
 
   @Override
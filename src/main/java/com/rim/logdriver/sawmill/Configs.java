@@ -36,13 +36,37 @@ public enum Configs {
 
   defaultTcpMaxLineLength("default.tcp.max.line.length", "4096"),
 
+  sharedProcessorPool("shared.processor.pool", "false"),
+
+  sharedProcessorCount("shared.processor.count", Integer.toString(Runtime
+      .getRuntime().availableProcessors() + 1)),
+
   // Per path configs
   name("name", null),
 
   tcpMaxLineLength("tcp.max.line.length", null),
 
+  tcpOversizedLinePolicy("tcp.oversized.line.policy", "discard"),
+
+  tcpOversizedLineMarker("tcp.oversized.line.marker", " [TRUNCATED]"),
+
+  tcpSplitHeaderFields("tcp.split.header.fields", "1"),
+
   tcpReadBufferSize("tcp.read.buffer.size", "2048"),
 
+  tcpMinReadBufferSize("tcp.min.read.buffer.size", "64"),
+
+  tcpMaxReadBufferSize("tcp.max.read.buffer.size", "65536"),
+
+  tcpReceiveBufferSize("tcp.receive.buffer.size", null),
+
+  tcpNoDelay("tcp.no.delay", "false"),
+
+  tcpBacklog("tcp.backlog", "50"),
+
+  tcpProcessorCount("tcp.processor.count", Integer.toString(Runtime
+      .getRuntime().availableProcessors() + 1)),
+
   bindAddress("bind.address", "0.0.0.0"),
 
   port("port", null),
@@ -67,7 +91,23 @@ public enum Configs {
 
   boomDeflateLevel("boom.deflate.level", "6"),
 
-  boomSyncInterval("boom.sync.interval", Integer.toString(2 * 1024 * 1024));
+  boomSyncInterval("boom.sync.interval", Integer.toString(2 * 1024 * 1024)),
+
+  outputMode("output.mode", "hdfs"),
+
+  localSpoolDir("local.spool.dir", null),
+
+  uploaderInterval("uploader.interval", "10"), // seconds
+
+  uploaderThreads("uploader.threads", "4"),
+
+  uploaderBatchSize("uploader.batch.size", "100"),
+
+  uploaderMaxRetries("uploader.max.retries", "5"),
+
+  uploaderRetryInterval("uploader.retry.interval", "10"), // seconds
+
+  uploaderBandwidthLimit("uploader.bandwidth.limit", "0"); // bytes/second
 
   private final String property;
   private final String defaultValue;
@@ -109,6 +149,14 @@ public enum Configs {
     return Integer.parseInt(value);
   }
 
+  public Boolean getBoolean(Properties conf) {
+    String value = getString(conf);
+    if (value == null) {
+      return null;
+    }
+    return Boolean.parseBoolean(value.trim());
+  }
+
   public Long getLong(Properties conf) {
     String value = getString(conf);
     if (value == null) {
@@ -50,16 +50,21 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.service.SimpleIoProcessorPool;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.codec.textline.LineDelimiter;
 import org.apache.mina.transport.socket.SocketSessionConfig;
+import org.apache.mina.transport.socket.nio.NioProcessor;
+import org.apache.mina.transport.socket.nio.NioSession;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 import org.apache.mina.util.ExceptionMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rim.logdriver.sawmill.mina.ProcessorStatsFilter;
 import com.rim.logdriver.sawmill.mina.TextLineCodecFactory;
+import com.rim.logdriver.sawmill.mina.TextLineDecoder;
 
 public class Sawmill {
   private static final Logger LOG = LoggerFactory.getLogger(Sawmill.class);
@@ -137,10 +142,22 @@ public class Sawmill {
     // Set up the Mina Exception Monitor
     ExceptionMonitor.setInstance(new ExceptionLoggerExceptionMonitor());
 
+    // If requested, all paths share one pool of I/O processors. Otherwise, each
+    // path gets its own.
+    SimpleIoProcessorPool<NioSession> sharedProcessorPool = null;
+    if (Configs.sharedProcessorPool.getBoolean(conf)) {
+      int processorCount = Configs.sharedProcessorCount.getInteger(conf);
+      LOG.info("Using a shared pool of {} I/O processors", processorCount);
+      sharedProcessorPool = new SimpleIoProcessorPool<NioSession>(
+          NioProcessor.class, processorCount);
+    }
+    final SimpleIoProcessorPool<NioSession> processorPool = sharedProcessorPool;
+
     // For each port->output mapping, create a path (listener, queue, worker).
     // List<DataPath> paths = new ArrayList<DataPath>();
     final List<IoAcceptor> acceptors = new ArrayList<IoAcceptor>();
     final List<Writer> writers = new ArrayList<Writer>();
+    final List<Uploader> uploaders = new ArrayList<Uploader>();
     {
       String[] pathStrings = Configs.paths.getArray(conf);
       for (String p : pathStrings) {
@@ -177,13 +194,65 @@ public class Sawmill {
 
         int queueLength = Configs.queueCapacity.getInteger(pathConf);
 
+        boolean localMode = "local".equalsIgnoreCase(Configs.outputMode
+            .get(pathConf));
+        if (localMode && Configs.localSpoolDir.get(pathConf) == null) {
+          LOG.error("[{}] Output mode is local, but local.spool.dir is not "
+              + "set.  Skipping this path.", name);
+          continue;
+        }
+
         // Set up the actual processing chain
-        IoAcceptor acceptor = new NioSocketAcceptor();
-        SocketSessionConfig sessionConfig = (SocketSessionConfig) acceptor
-            .getSessionConfig();
+        NioSocketAcceptor acceptor;
+        if (processorPool == null) {
+          int processorCount = Configs.tcpProcessorCount.getInteger(pathConf);
+          LOG.info("[{}] Using {} I/O processors", name, processorCount);
+          acceptor = new NioSocketAcceptor(processorCount);
+        } else {
+          acceptor = new NioSocketAcceptor(processorPool);
+        }
+        acceptor.setBacklog(Configs.tcpBacklog.getInteger(pathConf));
+        SocketSessionConfig sessionConfig = acceptor.getSessionConfig();
         sessionConfig.setReuseAddress(true);
+        sessionConfig.setTcpNoDelay(Configs.tcpNoDelay.getBoolean(pathConf));
+        Integer receiveBufferSize = Configs.tcpReceiveBufferSize
+            .getInteger(pathConf);
+        if (receiveBufferSize != null) {
+          LOG.info("[{}] TCP receive buffer size is {}", name,
+              receiveBufferSize);
+          sessionConfig.setReceiveBufferSize(receiveBufferSize);
+        }
         acceptors.add(acceptor);
 
+        // Count the bytes read by each processor. This has to come before the
+        // codec, so it sees the raw buffers.
+        ProcessorStatsFilter processorStatsFilter = new ProcessorStatsFilter();
+        acceptor.getFilterChain().addLast("processorStats",
+            processorStatsFilter);
+        {
+          ObjectName mbeanName = null;
+          try {
+            mbeanName = new ObjectName(ProcessorStatsFilter.class.getPackage()
+                .getName()
+                + ":type="
+                + ProcessorStatsFilter.class.getSimpleName()
+                + ",name=" + name);
+          } catch (MalformedObjectNameException e) {
+            LOG.error("[{}] Error creating MBean name.", name, e);
+          } catch (NullPointerException e) {
+            LOG.error("[{}] Error creating MBean name.", name, e);
+          }
+          try {
+            mbs.registerMBean(processorStatsFilter, mbeanName);
+          } catch (InstanceAlreadyExistsException e) {
+            LOG.error("[{}] Error registering MBean name.", name, e);
+          } catch (MBeanRegistrationException e) {
+            LOG.error("[{}] Error registering MBean name.", name, e);
+          } catch (NotCompliantMBeanException e) {
+            LOG.error("[{}] Error registering MBean name.", name, e);
+          }
+        }
+
         String charsetName = Configs.charset.getString(pathConf);
         Charset charset = null;
         try {
@@ -198,6 +267,49 @@ public class Sawmill {
         TextLineCodecFactory textLineCodecFactory = new TextLineCodecFactory(
             charset, LineDelimiter.UNIX, LineDelimiter.AUTO);
         textLineCodecFactory.setDecoderMaxLineLength(maxLineLength);
+
+        String policyName = Configs.tcpOversizedLinePolicy.getString(pathConf);
+        TextLineDecoder.OverflowPolicy overflowPolicy;
+        try {
+          overflowPolicy = TextLineDecoder.OverflowPolicy.valueOf(policyName
+              .trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+          LOG.error("[{}] Unknown oversized line policy '{}'.  "
+              + "Defaulting to discard.", name, policyName);
+          overflowPolicy = TextLineDecoder.OverflowPolicy.DISCARD;
+        }
+        LOG.info("[{}] Oversized lines will be handled with policy {}", name,
+            overflowPolicy);
+        textLineCodecFactory.setDecoderOverflowPolicy(overflowPolicy);
+        textLineCodecFactory
+            .setDecoderOverflowMarker(Configs.tcpOversizedLineMarker
+                .getString(pathConf));
+        textLineCodecFactory
+            .setDecoderSplitHeaderFields(Configs.tcpSplitHeaderFields
+                .getInteger(pathConf));
+        {
+          ObjectName mbeanName = null;
+          try {
+            mbeanName = new ObjectName(TextLineDecoder.class.getPackage()
+                .getName()
+                + ":type="
+                + TextLineDecoder.class.getSimpleName()
+                + ",name=" + name);
+          } catch (MalformedObjectNameException e) {
+            LOG.error("[{}] Error creating MBean name.", name, e);
+          } catch (NullPointerException e) {
+            LOG.error("[{}] Error creating MBean name.", name, e);
+          }
+          try {
+            mbs.registerMBean(textLineCodecFactory.getDecoder(), mbeanName);
+          } catch (InstanceAlreadyExistsException e) {
+            LOG.error("[{}] Error registering MBean name.", name, e);
+          } catch (MBeanRegistrationException e) {
+            LOG.error("[{}] Error registering MBean name.", name, e);
+          } catch (NotCompliantMBeanException e) {
+            LOG.error("[{}] Error registering MBean name.", name, e);
+          }
+        }
         acceptor.getFilterChain().addLast("textLineCodec",
             new ProtocolCodecFilter(textLineCodecFactory));
 
@@ -341,8 +453,53 @@ public class Sawmill {
           }
         }
 
-        acceptor.getSessionConfig().setReadBufferSize(
-            Configs.tcpReadBufferSize.getInteger(pathConf));
+        if (localMode) {
+          LOG.info("[{}] Writing to local spool directory {}", name,
+              Configs.localSpoolDir.get(pathConf));
+          Uploader uploader = new Uploader();
+          uploader.setName(name);
+          uploader.setConfig(pathConf);
+          uploader.setHadoopConf(hConf);
+          uploader.init();
+
+          // Set up MBean for the Uploader
+          {
+            ObjectName mbeanName = null;
+            try {
+              mbeanName = new ObjectName(Uploader.class.getPackage().getName()
+                  + ":type=" + Uploader.class.getSimpleName() + ",name="
+                  + name);
+            } catch (MalformedObjectNameException e) {
+              LOG.error("[{}] Error creating MBean name.", name, e);
+            } catch (NullPointerException e) {
+              LOG.error("[{}] Error creating MBean name.", name, e);
+            }
+            try {
+              mbs.registerMBean(uploader, mbeanName);
+            } catch (InstanceAlreadyExistsException e) {
+              LOG.error("[{}] Error registering MBean name.", name, e);
+            } catch (MBeanRegistrationException e) {
+              LOG.error("[{}] Error registering MBean name.", name, e);
+            } catch (NotCompliantMBeanException e) {
+              LOG.error("[{}] Error registering MBean name.", name, e);
+            }
+          }
+
+          long uploaderInterval = Configs.uploaderInterval.getLong(pathConf);
+          executor.scheduleWithFixedDelay(uploader, uploaderInterval,
+              uploaderInterval, TimeUnit.SECONDS);
+          uploaders.add(uploader);
+        }
+
+        // MINA grows and shrinks the read buffer between the min and max sizes
+        // depending on how much data each read returns, starting from the read
+        // buffer size.
+        sessionConfig.setMaxReadBufferSize(Configs.tcpMaxReadBufferSize
+            .getInteger(pathConf));
+        sessionConfig.setMinReadBufferSize(Configs.tcpMinReadBufferSize
+            .getInteger(pathConf));
+        sessionConfig.setReadBufferSize(Configs.tcpReadBufferSize
+            .getInteger(pathConf));
         acceptor.getSessionConfig().setIdleTime(IdleStatus.BOTH_IDLE, 5);
 
         while (true) {
@@ -376,6 +533,9 @@ public class Sawmill {
           acceptor.unbind();
           acceptor.dispose(true);
         }
+        if (processorPool != null) {
+          processorPool.dispose();
+        }
 
         LOG.info("Shutting down worker threadpools.  This could take a little while.");
         executor.shutdown();
@@ -416,6 +576,12 @@ public class Sawmill {
           }
         }
 
+        LOG.info("Stopping uploaders.  Files not yet uploaded will be "
+            + "uploaded on the next start.");
+        for (Uploader uploader : uploaders) {
+          uploader.shutdown();
+        }
+
         LOG.info("Closing filesystems.");
         try {
           FileSystem.closeAll();
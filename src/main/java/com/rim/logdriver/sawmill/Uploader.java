@@ -0,0 +1,381 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.sawmill;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies finished Boom files from a local spool directory into HDFS.
+ * <p>
+ * When a path's output.mode is local, its {@link Writer}s write to the spool
+ * directory instead of HDFS, using the same directory structure as the file
+ * path template. Each time the Uploader runs, it hands a batch of finished
+ * (.bm) files to its upload threads, which copy them to HDFS in parallel,
+ * retrying failures and limiting the total bandwidth used, and delete each
+ * local file once its copy is in place. The Uploader doesn't wait for the
+ * copies, so it never holds up the scheduler it shares with the writers, and
+ * files that are still being copied are left out of the next batch.
+ * <p>
+ * Files are written to HDFS with a .tmp suffix and renamed when complete, so
+ * nothing downstream ever sees a partial file.
+ */
+public class Uploader implements Runnable, UploaderMBean {
+  private static final Logger LOG = LoggerFactory.getLogger(Uploader.class);
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final FsPermission permissions = new FsPermission(
+      FsAction.READ_WRITE, FsAction.READ, FsAction.NONE);
+
+  private String name;
+  private Properties conf;
+  private Configuration hConf;
+
+  private File spoolDir;
+  private URI destination;
+  private String proxyUserName;
+  private Long blocksize;
+  private Short replicas;
+  private Integer bufferSize;
+  private int batchSize;
+  private int maxRetries;
+  private long retryInterval;
+
+  private ExecutorService uploadThreads;
+  private Throttle throttle;
+
+  // Files handed to the upload threads that they haven't finished with.
+  private final Set<File> inFlight = Collections
+      .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+  // Metrics!
+  private final AtomicLong filesUploaded = new AtomicLong(0);
+  private final AtomicLong bytesUploaded = new AtomicLong(0);
+  private final AtomicLong retries = new AtomicLong(0);
+  private final AtomicLong failures = new AtomicLong(0);
+  private final AtomicInteger filesPending = new AtomicInteger(0);
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public void setConfig(Properties conf) {
+    this.conf = conf;
+  }
+
+  public void setHadoopConf(Configuration hConf) {
+    this.hConf = hConf;
+  }
+
+  @Override
+  public long getFilesUploaded() {
+    return filesUploaded.get();
+  }
+
+  @Override
+  public long getBytesUploaded() {
+    return bytesUploaded.get();
+  }
+
+  @Override
+  public long getRetries() {
+    return retries.get();
+  }
+
+  @Override
+  public long getFailures() {
+    return failures.get();
+  }
+
+  @Override
+  public int getFilesPending() {
+    return filesPending.get();
+  }
+
+  public void init() {
+    spoolDir = new File(Configs.localSpoolDir.get(conf));
+    destination = new Path(Configs.filePathTemplate.get(conf)).toUri();
+
+    blocksize = Configs.hdfsBlockSize.getLong(conf);
+    replicas = Configs.hdfsReplicas.getShort(conf);
+    bufferSize = Configs.hdfsBufferSize.getInteger(conf);
+
+    batchSize = Configs.uploaderBatchSize.getInteger(conf);
+    maxRetries = Configs.uploaderMaxRetries.getInteger(conf);
+    retryInterval = Configs.uploaderRetryInterval.getLong(conf) * 1000;
+    throttle = new Throttle(Configs.uploaderBandwidthLimit.getLong(conf));
+    uploadThreads = Executors.newFixedThreadPool(Configs.uploaderThreads
+        .getInteger(conf));
+
+    proxyUserName = Configs.hdfsProxyUser.get(conf);
+    if (proxyUserName == null) {
+      proxyUserName = "";
+    }
+  }
+
+  /**
+   * Stops the upload threads. Anything not yet uploaded stays in the spool
+   * directory, and will be picked up the next time Sawmill starts.
+   */
+  public void shutdown() {
+    uploadThreads.shutdown();
+    try {
+      uploadThreads.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      LOG.error("[{}] Interrupted waiting for uploads to finish.", name);
+    }
+  }
+
+  /**
+   * Maps a file name built from the file path template to where that file is
+   * kept in the spool directory.
+   */
+  public static String getSpoolPath(String spoolDir, String fileName) {
+    String path = new Path(fileName).toUri().getPath();
+    return new File(spoolDir, path).getPath();
+  }
+
+  @Override
+  public void run() {
+    try {
+      List<File> files = findFinishedFiles();
+      filesPending.set(files.size());
+      for (Iterator<File> it = files.iterator(); it.hasNext();) {
+        if (inFlight.contains(it.next())) {
+          it.remove();
+        }
+      }
+
+      // Keep no more than a batch waiting for the upload threads.
+      int room = batchSize - inFlight.size();
+      if (files.isEmpty() || room <= 0) {
+        return;
+      }
+
+      // Oldest first, so a backlog drains in order.
+      Collections.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          long diff = a.lastModified() - b.lastModified();
+          return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+      });
+      if (files.size() > room) {
+        files = files.subList(0, room);
+      }
+      LOG.debug("[{}] Uploading {} of {} files.", new Object[] { name,
+          files.size(), filesPending.get() });
+
+      for (File file : files) {
+        inFlight.add(file);
+        try {
+          uploadThreads.execute(new Upload(file));
+        } catch (RejectedExecutionException e) {
+          // Shutting down.
+          inFlight.remove(file);
+          return;
+        }
+      }
+    } catch (Throwable t) {
+      LOG.error("[{}] Something bad happened.", name, t);
+    }
+  }
+
+  /** Uploads one file, on one of the upload threads. */
+  private class Upload implements Runnable {
+    private final File file;
+
+    private Upload(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (uploadWithRetries(file)) {
+          filesPending.decrementAndGet();
+        }
+      } catch (InterruptedException e) {
+        LOG.info("[{}] Interrupted uploading {}", name, file);
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        LOG.error("[{}] Error uploading file.", name, t);
+        failures.incrementAndGet();
+      } finally {
+        inFlight.remove(file);
+      }
+    }
+  }
+
+  private List<File> findFinishedFiles() {
+    List<File> files = new ArrayList<File>();
+    Deque<File> dirs = new ArrayDeque<File>();
+    dirs.add(spoolDir);
+    while (dirs.size() > 0) {
+      File[] children = dirs.removeFirst().listFiles();
+      if (children == null) {
+        continue;
+      }
+      for (File child : children) {
+        if (child.isDirectory()) {
+          dirs.add(child);
+        } else if (child.getName().endsWith(".bm")) {
+          files.add(child);
+        }
+      }
+    }
+    return files;
+  }
+
+  private boolean uploadWithRetries(File file) throws InterruptedException {
+    for (int attempt = 0; attempt <= maxRetries; attempt++) {
+      if (attempt > 0) {
+        retries.incrementAndGet();
+        Thread.sleep(retryInterval * attempt);
+      }
+      try {
+        upload(file);
+        return true;
+      } catch (Exception e) {
+        LOG.warn("[{}] Error uploading {} (attempt {})", new Object[] { name,
+            file, attempt + 1 }, e);
+      }
+    }
+    LOG.error("[{}] Giving up on {} for now.", name, file);
+    failures.incrementAndGet();
+    return false;
+  }
+
+  private void upload(final File file) throws IOException,
+      InterruptedException {
+    String relative = file.getAbsolutePath().substring(
+        spoolDir.getAbsolutePath().length());
+    final Path finalPath = new Path(destination.getScheme(),
+        destination.getAuthority(), relative);
+    final Path tmpPath = new Path(finalPath.toString() + ".tmp");
+
+    Authenticator.getInstance().runPrivileged(proxyUserName,
+        new PrivilegedExceptionAction<Void>() {
+          @Override
+          public Void run() throws Exception {
+            FileSystem fs = finalPath.getFileSystem(hConf);
+
+            InputStream in = new FileInputStream(file);
+            FSDataOutputStream out = null;
+            try {
+              out = fs.create(tmpPath, permissions, true, bufferSize,
+                  replicas, blocksize, null);
+              byte[] buf = new byte[COPY_BUFFER_SIZE];
+              int bytesRead;
+              while ((bytesRead = in.read(buf)) >= 0) {
+                throttle.acquire(bytesRead);
+                out.write(buf, 0, bytesRead);
+              }
+              out.close();
+              out = null;
+            } finally {
+              in.close();
+              if (out != null) {
+                out.close();
+              }
+            }
+
+            // A previous attempt may have got as far as the rename.
+            if (fs.exists(finalPath)) {
+              fs.delete(tmpPath, false);
+            } else if (!fs.rename(tmpPath, finalPath)) {
+              throw new IOException("Failed to rename " + tmpPath + " to "
+                  + finalPath);
+            }
+            return null;
+          }
+        });
+
+    bytesUploaded.addAndGet(file.length());
+    filesUploaded.incrementAndGet();
+    if (!file.delete()) {
+      LOG.error("[{}] Failed to delete uploaded file {}", name, file);
+    }
+  }
+
+  /**
+   * Limits the combined rate of all the upload threads.
+   */
+  private static class Throttle {
+    private final long bytesPerSecond;
+    private long start = System.currentTimeMillis();
+    private long bytes = 0;
+
+    private Throttle(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    private void acquire(int length) throws InterruptedException {
+      if (bytesPerSecond <= 0) {
+        return;
+      }
+      long sleep;
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        // Start a new window every so often, so idle time doesn't turn into a
+        // burst later on.
+        if (now - start > 10000) {
+          start = now;
+          bytes = 0;
+        }
+        bytes += length;
+        sleep = bytes * 1000 / bytesPerSecond - (now - start);
+      }
+      if (sleep > 0) {
+        Thread.sleep(sleep);
+      }
+    }
+  }
+}
@@ -68,6 +68,11 @@ public class Writer implements Runnable, WriterMBean {
   private String fileTemplate;
   private long rotateInterval;
 
+  // In local mode, files go to the spool directory, and an Uploader moves them
+  // into HDFS later.
+  private boolean localMode;
+  private String spoolDir;
+
   private Map<String, FileInfo> fileMap = new HashMap<String, FileInfo>();
   private int index = 0;
 
@@ -152,6 +157,9 @@ public class Writer implements Runnable, WriterMBean {
 
     fileTemplate = Configs.filePathTemplate.get(conf);
 
+    localMode = "local".equalsIgnoreCase(Configs.outputMode.get(conf));
+    spoolDir = Configs.localSpoolDir.get(conf);
+
     proxyUserName = Configs.hdfsProxyUser.get(conf);
     if (proxyUserName == null) {
       proxyUserName = "";
@@ -317,6 +325,9 @@ public class Writer implements Runnable, WriterMBean {
 
   private BoomSerializer getSerializerForTimestamp(long timestamp) {
     String fileName = fillInTemplate(fileTemplate, timestamp);
+    if (localMode) {
+      fileName = Uploader.getSpoolPath(spoolDir, fileName);
+    }
 
     FileInfo fi = fileMap.get(fileName);
 
@@ -340,7 +351,12 @@ public class Writer implements Runnable, WriterMBean {
                 // safe
                 synchronized (fsLock) {
                   try {
-                    fs = new Path(fileTemplate).getFileSystem(hConf);
+                    if (localMode) {
+                      // The raw filesystem doesn't write .crc files
+                      fs = FileSystem.getLocal(hConf).getRaw();
+                    } else {
+                      fs = new Path(fileTemplate).getFileSystem(hConf);
+                    }
                   } catch (IOException e) {
                     LOG.error("[{}] Error getting File System.", name, e);
                     ++errors;
@@ -0,0 +1,79 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+package com.rim.logdriver.sawmill.mina;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Counts the raw bytes received on a path, broken down by the I/O processor
+ * thread that read them. This makes it easy to see if the processor pool is too
+ * small, or if a few busy connections have ended up on the same processor.
+ * <p>
+ * This needs to be placed before any codec in the filter chain, so that it sees
+ * the {@link IoBuffer}s as they come off the socket.
+ */
+public class ProcessorStatsFilter extends IoFilterAdapter implements
+    ProcessorStatsFilterMBean {
+
+  private final ConcurrentMap<String, AtomicLong> bytesRead = new ConcurrentHashMap<String, AtomicLong>();
+
+  // Each processor is a single thread, so cache its counter to avoid a map
+  // lookup on every read.
+  private final ThreadLocal<AtomicLong> counter = new ThreadLocal<AtomicLong>() {
+    @Override
+    protected AtomicLong initialValue() {
+      AtomicLong newCounter = new AtomicLong(0);
+      AtomicLong existing = bytesRead.putIfAbsent(Thread.currentThread()
+          .getName(), newCounter);
+      return existing == null ? newCounter : existing;
+    }
+  };
+
+  @Override
+  public void messageReceived(NextFilter nextFilter, IoSession session,
+      Object message) throws Exception {
+    if (message instanceof IoBuffer) {
+      counter.get().addAndGet(((IoBuffer) message).remaining());
+    }
+    nextFilter.messageReceived(session, message);
+  }
+
+  @Override
+  public long getBytesRead() {
+    long total = 0;
+    for (AtomicLong l : bytesRead.values()) {
+      total += l.get();
+    }
+    return total;
+  }
+
+  @Override
+  public Map<String, Long> getBytesReadPerProcessor() {
+    Map<String, Long> map = new TreeMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> e : bytesRead.entrySet()) {
+      map.put(e.getKey(), e.getValue().get());
+    }
+    return map;
+  }
+}
@@ -148,4 +148,43 @@ public class TextLineCodecFactory implements ProtocolCodecFactory {
   public void setDecoderMaxLineLength(int maxLineLength) {
     decoder.setMaxLineLength(maxLineLength);
   }
-}
\ No newline at end of file
+
+  /**
+   * Returns the decoder, so that it can be configured and monitored.
+   */
+  public TextLineDecoder getDecoder() {
+    return decoder;
+  }
+
+  /**
+   * Sets what the decoder does with lines that are longer than the maximum
+   * line length.
+   * <p>
+   * This method does the same job with
+   * {@link TextLineDecoder#setOverflowPolicy(TextLineDecoder.OverflowPolicy)}.
+   */
+  public void setDecoderOverflowPolicy(
+      TextLineDecoder.OverflowPolicy overflowPolicy) {
+    decoder.setOverflowPolicy(overflowPolicy);
+  }
+
+  /**
+   * Sets the marker appended to lines that are truncated or split.
+   * <p>
+   * This method does the same job with
+   * {@link TextLineDecoder#setOverflowMarker(String)}.
+   */
+  public void setDecoderOverflowMarker(String overflowMarker) {
+    decoder.setOverflowMarker(overflowMarker);
+  }
+
+  /**
+   * Sets the number of leading fields repeated on each piece of a split line.
+   * <p>
+   * This method does the same job with
+   * {@link TextLineDecoder#setSplitHeaderFields(int)}.
+   */
+  public void setDecoderSplitHeaderFields(int splitHeaderFields) {
+    decoder.setSplitHeaderFields(splitHeaderFields);
+  }
+}
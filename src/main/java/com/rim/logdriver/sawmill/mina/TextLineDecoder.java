@@ -19,6 +19,7 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.mina.core.buffer.BufferDataException;
 import org.apache.mina.core.buffer.IoBuffer;
@@ -29,13 +30,43 @@ import org.apache.mina.filter.codec.ProtocolDecoderException;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
 import org.apache.mina.filter.codec.RecoverableProtocolDecoderException;
 import org.apache.mina.filter.codec.textline.LineDelimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link ProtocolDecoder} which decodes a text line into a string.
+ * <p>
+ * Lines longer than the maximum line length are handled according to the
+ * {@link OverflowPolicy}. With {@link OverflowPolicy#DISCARD} (the default) the
+ * line is dropped and a {@link RecoverableProtocolDecoderException} is thrown.
+ * The other policies never buffer more than the maximum line length, and never
+ * throw.
  * 
  * @author <a href="http://mina.apache.org">Apache MINA Project</a>
  */
-public class TextLineDecoder implements ProtocolDecoder {
+public class TextLineDecoder implements ProtocolDecoder, TextLineDecoderMBean {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(TextLineDecoder.class);
+
+  /**
+   * What to do with lines that are longer than the maximum line length.
+   */
+  public static enum OverflowPolicy {
+    /** Drop the whole line, and throw an exception. */
+    DISCARD,
+    /** Keep the start of the line, followed by the marker. Drop the rest. */
+    TRUNCATE,
+    /**
+     * Emit the line in pieces of at most the maximum line length. Every piece
+     * but the last ends with the marker, and every piece but the first starts
+     * with the header of the original line.
+     */
+    SPLIT
+  }
+
+  /** Room for a delimiter at the end of a full length line. */
+  private static final int DELIMITER_SLACK = 2;
+
   private final AttributeKey CONTEXT = new AttributeKey(getClass(), "context");
 
   private final Charset charset;
@@ -52,6 +83,21 @@ public class TextLineDecoder implements ProtocolDecoder {
   /** The default maximum buffer length. Default to 128 chars. */
   private int bufferLength = 128;
 
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DISCARD;
+
+  /** Appended to lines that have been truncated or split. */
+  private String overflowMarker = " [TRUNCATED]";
+
+  /**
+   * The number of space separated fields at the start of a line that are
+   * repeated at the start of each piece of a split line.
+   */
+  private int splitHeaderFields = 1;
+
+  private final AtomicLong oversizedLines = new AtomicLong(0);
+  private final AtomicLong droppedBytes = new AtomicLong(0);
+  private final AtomicLong splitPieces = new AtomicLong(0);
+
   /**
    * Creates a new instance with the current default {@link Charset} and
    * {@link LineDelimiter#AUTO} delimiter.
@@ -172,6 +218,53 @@ public class TextLineDecoder implements ProtocolDecoder {
     return bufferLength;
   }
 
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException(
+          "overflowPolicy parameter should not be null");
+    }
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  public String getOverflowMarker() {
+    return overflowMarker;
+  }
+
+  public void setOverflowMarker(String overflowMarker) {
+    this.overflowMarker = overflowMarker == null ? "" : overflowMarker;
+  }
+
+  public int getSplitHeaderFields() {
+    return splitHeaderFields;
+  }
+
+  public void setSplitHeaderFields(int splitHeaderFields) {
+    if (splitHeaderFields < 0) {
+      throw new IllegalArgumentException("splitHeaderFields ("
+          + splitHeaderFields + ") should not be negative");
+    }
+    this.splitHeaderFields = splitHeaderFields;
+  }
+
+  @Override
+  public long getOversizedLines() {
+    return oversizedLines.get();
+  }
+
+  @Override
+  public long getDroppedBytes() {
+    return droppedBytes.get();
+  }
+
+  @Override
+  public long getSplitPieces() {
+    return splitPieces.get();
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -216,6 +309,10 @@ public class TextLineDecoder implements ProtocolDecoder {
     Context ctx = (Context) session.getAttribute(CONTEXT);
 
     if (ctx != null) {
+      if (ctx.getOversizedLines() > 0) {
+        LOG.info("Session {} sent {} lines longer than {} bytes.",
+            new Object[] { session, ctx.getOversizedLines(), maxLineLength });
+      }
       session.removeAttribute(CONTEXT);
     }
   }
@@ -259,12 +356,14 @@ public class TextLineDecoder implements ProtocolDecoder {
         in.limit(pos);
         in.position(oldPos);
 
-        ctx.append(in);
+        ctx.append(in, session, out);
 
         in.limit(oldLimit);
         in.position(pos);
 
-        if (ctx.getOverflowPosition() == 0) {
+        if (overflowPolicy != OverflowPolicy.DISCARD) {
+          ctx.endLine(matchCount, session, out);
+        } else if (ctx.getOverflowPosition() == 0) {
           IoBuffer buf = ctx.getBuffer();
           buf.flip();
           buf.limit(buf.limit() - matchCount);
@@ -288,7 +387,7 @@ public class TextLineDecoder implements ProtocolDecoder {
 
     // Put remainder to buf.
     in.position(oldPos);
-    ctx.append(in);
+    ctx.append(in, session, out);
 
     ctx.setMatchCount(matchCount);
   }
@@ -317,12 +416,14 @@ public class TextLineDecoder implements ProtocolDecoder {
           in.limit(pos);
           in.position(oldPos);
 
-          ctx.append(in);
+          ctx.append(in, session, out);
 
           in.limit(oldLimit);
           in.position(pos);
 
-          if (ctx.getOverflowPosition() == 0) {
+          if (overflowPolicy != OverflowPolicy.DISCARD) {
+            ctx.endLine(matchCount, session, out);
+          } else if (ctx.getOverflowPosition() == 0) {
             IoBuffer buf = ctx.getBuffer();
             buf.flip();
             buf.limit(buf.limit() - matchCount);
@@ -351,7 +452,7 @@ public class TextLineDecoder implements ProtocolDecoder {
 
     // Put remainder to buf.
     in.position(oldPos);
-    ctx.append(in);
+    ctx.append(in, session, out);
 
     ctx.setMatchCount(matchCount);
   }
@@ -395,6 +496,18 @@ public class TextLineDecoder implements ProtocolDecoder {
     /** A counter to signal that the line is too long */
     private int overflowPosition = 0;
 
+    /**
+     * The length of the current line so far, including any bytes that have
+     * been dropped or already emitted. Not used by the DISCARD policy.
+     */
+    private long lineLength = 0;
+
+    /** The header of the line currently being split. */
+    private byte[] header = null;
+
+    /** The number of oversized lines seen in this session. */
+    private long sessionOversizedLines = 0;
+
     /** Create a new Context object with a default buffer */
     private Context(int bufferLength) {
       decoder = charset.newDecoder();
@@ -424,14 +537,21 @@ public class TextLineDecoder implements ProtocolDecoder {
       this.matchCount = matchCount;
     }
 
+    public long getOversizedLines() {
+      return sessionOversizedLines;
+    }
+
     public void reset() {
       overflowPosition = 0;
       matchCount = 0;
       decoder.reset();
     }
 
-    public void append(IoBuffer in) {
-      if (overflowPosition != 0) {
+    public void append(IoBuffer in, IoSession session,
+        ProtocolDecoderOutput out) {
+      if (overflowPolicy != OverflowPolicy.DISCARD) {
+        appendBounded(in, session, out);
+      } else if (overflowPosition != 0) {
         discard(in);
       } else if (buf.position() > maxLineLength - in.remaining()) {
         overflowPosition = buf.position();
@@ -451,5 +571,140 @@ public class TextLineDecoder implements ProtocolDecoder {
 
       in.position(in.limit());
     }
+
+    /**
+     * Appends to the buffer without ever letting it grow past the maximum line
+     * length (plus room for a delimiter). Once the buffer is full, the rest of
+     * the line is either skipped (TRUNCATE) or emitted in pieces (SPLIT).
+     */
+    private void appendBounded(IoBuffer in, IoSession session,
+        ProtocolDecoderOutput out) {
+      int capacity = maxLineLength + DELIMITER_SLACK;
+      while (in.hasRemaining()) {
+        int room = capacity - buf.position();
+        if (room > 0) {
+          int length = Math.min(room, in.remaining());
+          int oldLimit = in.limit();
+          in.limit(in.position() + length);
+          buf.put(in);
+          in.limit(oldLimit);
+          lineLength += length;
+        } else if (overflowPolicy == OverflowPolicy.TRUNCATE) {
+          lineLength += in.remaining();
+          in.position(in.limit());
+        } else {
+          emitPiece(session, out);
+        }
+      }
+    }
+
+    /**
+     * Emits the first maxLineLength bytes of the buffer, followed by the
+     * marker, and starts the next piece with the header and whatever was left
+     * over.
+     */
+    private void emitPiece(IoSession session, ProtocolDecoderOutput out) {
+      int end = buf.position();
+      if (header == null) {
+        header = findHeader();
+      }
+
+      buf.flip();
+      buf.limit(maxLineLength);
+      try {
+        writeText(session, buf.getString(decoder) + overflowMarker, out);
+      } catch (CharacterCodingException e) {
+        // Can't happen, since the decoder replaces bad input.
+        LOG.error("Error decoding line.", e);
+      }
+      splitPieces.incrementAndGet();
+
+      byte[] leftover = new byte[end - maxLineLength];
+      buf.limit(end);
+      buf.position(maxLineLength);
+      buf.get(leftover);
+      buf.clear();
+      buf.put(header);
+      buf.put(leftover);
+      decoder.reset();
+    }
+
+    /**
+     * Finds the first splitHeaderFields space separated fields (and the
+     * spaces after them) at the start of the buffer. The header is limited to
+     * half the maximum line length, so that each piece makes progress.
+     */
+    private byte[] findHeader() {
+      int limit = Math.min(buf.position(), maxLineLength / 2);
+      int fields = 0;
+      int i = 0;
+      while (fields < splitHeaderFields && i < limit) {
+        while (i < limit && buf.get(i) == ' ') {
+          i++;
+        }
+        while (i < limit && buf.get(i) != ' ') {
+          i++;
+        }
+        if (i < limit) {
+          fields++;
+        }
+      }
+      if (fields < splitHeaderFields) {
+        return new byte[0];
+      }
+      while (i < limit && buf.get(i) == ' ') {
+        i++;
+      }
+      byte[] result = new byte[i];
+      for (int j = 0; j < i; j++) {
+        result[j] = buf.get(j);
+      }
+      return result;
+    }
+
+    /**
+     * Called when a delimiter is found, with the delimiter already appended.
+     */
+    public void endLine(int matchCount, IoSession session,
+        ProtocolDecoderOutput out) throws CharacterCodingException {
+      try {
+        long contentLength = lineLength - matchCount;
+        if (contentLength > maxLineLength) {
+          oversizedLines.incrementAndGet();
+          sessionOversizedLines++;
+        }
+
+        if (overflowPolicy == OverflowPolicy.TRUNCATE) {
+          buf.flip();
+          if (contentLength > maxLineLength) {
+            buf.limit(maxLineLength);
+            writeText(session, buf.getString(decoder) + overflowMarker, out);
+            droppedBytes.addAndGet(contentLength - maxLineLength);
+          } else {
+            buf.limit((int) contentLength);
+            writeText(session, buf.getString(decoder), out);
+          }
+        } else {
+          int end = Math.max(0, buf.position() - matchCount);
+          if (end > maxLineLength) {
+            // The delimiter slack let the last piece get a little too long.
+            int position = buf.position();
+            emitPiece(session, out);
+            end -= position - buf.position();
+          }
+          buf.flip();
+          buf.limit(end);
+          writeText(session, buf.getString(decoder), out);
+          if (header != null) {
+            splitPieces.incrementAndGet();
+          }
+        }
+      } finally {
+        buf.clear();
+        lineLength = 0;
+        header = null;
+        reset();
+      }
+    }
   }
 }
@@ -0,0 +1,249 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds any number of byte patterns in a single pass over a buffer, using an
+ * Aho-Corasick automaton.
+ * <p>
+ * The patterns are built into a trie, and the failure links are then folded
+ * into the transitions so that the whole thing is a DFA: every byte of the
+ * buffer is one table lookup, no matter how many patterns there are or how much
+ * they overlap.
+ * <p>
+ * To keep the table small, bytes are first mapped to classes. Every byte that
+ * appears in a pattern gets a class of its own, and all other bytes share one,
+ * so a few hundred hex device ids need a table of about 17 ints per state,
+ * rather than 256.
+ * <p>
+ * The case insensitive version folds ASCII letters, like
+ * {@link BytePattern#compileCaseInsensitive(byte[])}.
+ * <p>
+ * Instances are immutable, and can be shared between threads. Matches are
+ * recorded in a bitset owned by the caller (see {@link #newMatchSet()}).
+ */
+public class AhoCorasick {
+  private final int patternCount;
+  private final int classCount;
+  private final int[] byteClass = new int[256];
+
+  // transitions[state * classCount + class] = next state. State 0 is the root.
+  private final int[] transitions;
+  // The patterns that end at each state, including ones reached through
+  // failure links, or null if none.
+  private final int[][] outputs;
+
+  private AhoCorasick(List<byte[]> patterns, boolean caseInsensitive) {
+    // Drop duplicates (after folding), and empty patterns, which would match
+    // everything.
+    Set<String> seen = new LinkedHashSet<String>();
+    List<byte[]> folded = new ArrayList<byte[]>();
+    for (byte[] p : patterns) {
+      if (p.length == 0) {
+        continue;
+      }
+      byte[] f = new byte[p.length];
+      for (int i = 0; i < p.length; i++) {
+        f[i] = caseInsensitive ? fold(p[i]) : p[i];
+      }
+      if (seen.add(Arrays.toString(f))) {
+        folded.add(f);
+      }
+    }
+    patternCount = folded.size();
+
+    // Work out the byte classes. Class 0 is everything not in a pattern.
+    int classes = 1;
+    for (byte[] p : folded) {
+      for (byte b : p) {
+        if (byteClass[b & 0xff] == 0) {
+          byteClass[b & 0xff] = classes++;
+        }
+      }
+    }
+    if (caseInsensitive) {
+      for (int b = 'A'; b <= 'Z'; b++) {
+        byteClass[b] = byteClass[b + ('a' - 'A')];
+      }
+    }
+    classCount = classes;
+
+    // Build the trie. -1 means no edge yet.
+    int maxStates = 1;
+    for (byte[] p : folded) {
+      maxStates += p.length;
+    }
+    int[] trie = new int[maxStates * classCount];
+    Arrays.fill(trie, -1);
+    List<List<Integer>> ends = new ArrayList<List<Integer>>();
+    ends.add(null);
+    int states = 1;
+    for (int id = 0; id < folded.size(); id++) {
+      int state = 0;
+      for (byte b : folded.get(id)) {
+        int edge = state * classCount + byteClass[b & 0xff];
+        if (trie[edge] == -1) {
+          trie[edge] = states++;
+          ends.add(null);
+        }
+        state = trie[edge];
+      }
+      if (ends.get(state) == null) {
+        ends.set(state, new ArrayList<Integer>());
+      }
+      ends.get(state).add(id);
+    }
+
+    // Breadth first, fill in the missing edges from each state's failure
+    // state, and collect the outputs of the failure state too.
+    transitions = new int[states * classCount];
+    outputs = new int[states][];
+    int[] failure = new int[states];
+    int[] queue = new int[states];
+    int head = 0;
+    int tail = 0;
+
+    outputs[0] = null;
+    for (int c = 0; c < classCount; c++) {
+      int next = trie[c];
+      if (next == -1) {
+        transitions[c] = 0;
+      } else {
+        transitions[c] = next;
+        failure[next] = 0;
+        queue[tail++] = next;
+      }
+    }
+    while (head < tail) {
+      int state = queue[head++];
+      outputs[state] = merge(ends.get(state), outputs[failure[state]]);
+      for (int c = 0; c < classCount; c++) {
+        int next = trie[state * classCount + c];
+        int fallback = transitions[failure[state] * classCount + c];
+        if (next == -1) {
+          transitions[state * classCount + c] = fallback;
+        } else {
+          transitions[state * classCount + c] = next;
+          failure[next] = fallback;
+          queue[tail++] = next;
+        }
+      }
+    }
+  }
+
+  private static byte fold(byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
+
+  private static int[] merge(List<Integer> own, int[] inherited) {
+    int size = (own == null ? 0 : own.size())
+        + (inherited == null ? 0 : inherited.length);
+    if (size == 0) {
+      return null;
+    }
+    int[] merged = new int[size];
+    int i = 0;
+    if (own != null) {
+      for (int id : own) {
+        merged[i++] = id;
+      }
+    }
+    if (inherited != null) {
+      System.arraycopy(inherited, 0, merged, i, inherited.length);
+    }
+    return merged;
+  }
+
+  /** A case sensitive automaton for the given patterns. */
+  public static AhoCorasick compile(List<byte[]> patterns) {
+    return new AhoCorasick(patterns, false);
+  }
+
+  /** An automaton where ASCII letters match regardless of case. */
+  public static AhoCorasick compileCaseInsensitive(List<byte[]> patterns) {
+    return new AhoCorasick(patterns, true);
+  }
+
+  /** The number of distinct, non-empty patterns. */
+  public int getPatternCount() {
+    return patternCount;
+  }
+
+  public int getStateCount() {
+    return outputs.length;
+  }
+
+  /** Returns a bitset big enough to record matches of every pattern. */
+  public long[] newMatchSet() {
+    return new long[(patternCount + 63) / 64];
+  }
+
+  /**
+   * Returns true if any of the patterns occurs in buf[offset, offset + length).
+   */
+  public boolean matchesAny(byte[] buf, int offset, int length) {
+    int state = 0;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      state = transitions[state * classCount + byteClass[buf[i] & 0xff]];
+      if (outputs[state] != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if every one of the patterns occurs in buf[offset, offset +
+   * length). The scan stops as soon as the last one is found.
+   * 
+   * @param found
+   *          A bitset from {@link #newMatchSet()}, which is cleared first, and
+   *          holds the patterns that were found afterwards.
+   */
+  public boolean matchesAll(byte[] buf, int offset, int length, long[] found) {
+    Arrays.fill(found, 0L);
+    int remaining = patternCount;
+    if (remaining == 0) {
+      return true;
+    }
+
+    int state = 0;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      state = transitions[state * classCount + byteClass[buf[i] & 0xff]];
+      int[] out = outputs[state];
+      if (out != null) {
+        for (int id : out) {
+          long bit = 1L << (id & 63);
+          if ((found[id >>> 6] & bit) == 0) {
+            found[id >>> 6] |= bit;
+            if (--remaining == 0) {
+              return true;
+            }
+          }
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,258 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One of the named queries run by a batch search.
+ * <p>
+ * Queries are written one per line, with tab separated fields:
+ *
+ * <pre>
+ * name  type  start  end  term [term ...]
+ * </pre>
+ *
+ * <ul>
+ * <li>name: Letters, digits, '_' and '-' only, since it's also the name of the
+ * query's output directory.</li>
+ * <li>type: search (the line contains the one term), any (it contains at
+ * least one of the terms), all (it contains every term) or grep (the term is a
+ * regex that matches part of the line).</li>
+ * <li>start, end: The time range, in ms since the epoch, start inclusive and
+ * end exclusive. '-' for the default.</li>
+ * </ul>
+ * Blank lines, and lines starting with '#', are ignored.
+ * <p>
+ * Each query can tell whether an inflated block might contain a match, with a
+ * single scan of its bytes, and then whether each line does. Like the
+ * searches, a case insensitive query folds characters outside of ASCII too,
+ * except for grep, which folds ASCII only (as FastGrep does).
+ * <p>
+ * Not thread safe.
+ */
+public class BatchQuery {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+  public enum Type {
+    SEARCH, ANY, ALL, GREP
+  }
+
+  private final String name;
+  private final Type type;
+  private final long start;
+  private final long end;
+  private final List<String> terms;
+
+  // For the term types, all the terms. For grep, an automaton for the regex's
+  // required literals, which may be null if there aren't any.
+  private TermMatcher termMatcher = null;
+  private AhoCorasick automaton = null;
+  private long[] found = null;
+  private Matcher matcher = null;
+
+  private BatchQuery(String name, Type type, long start, long end,
+      List<String> terms, boolean caseInsensitive) {
+    this.name = name;
+    this.type = type;
+    this.start = start;
+    this.end = end;
+    this.terms = terms;
+
+    if (type == Type.GREP) {
+      String regex = terms.get(0);
+      matcher = Pattern.compile(regex,
+          caseInsensitive ? Pattern.CASE_INSENSITIVE : 0).matcher("");
+      List<String> literals = RegexLiterals.requiredLiterals(regex);
+      if (literals.size() > 0) {
+        List<byte[]> patterns = new ArrayList<byte[]>(literals.size());
+        for (String literal : literals) {
+          patterns.add(literal.getBytes(UTF_8));
+        }
+        automaton = caseInsensitive ? AhoCorasick
+            .compileCaseInsensitive(patterns) : AhoCorasick.compile(patterns);
+        found = automaton.newMatchSet();
+      }
+    } else {
+      termMatcher = TermMatcher.compile(terms, caseInsensitive,
+          type == Type.ALL);
+    }
+  }
+
+  /**
+   * Parses one line of a query file.
+   *
+   * @param defaultStart
+   *          The start time for a query that doesn't give one.
+   * @param defaultEnd
+   *          The end time for a query that doesn't give one.
+   * @throws IllegalArgumentException
+   *           If the line isn't a valid query.
+   */
+  public static BatchQuery parse(String line, long defaultStart,
+      long defaultEnd, boolean caseInsensitive) {
+    String[] fields = line.split("\t", -1);
+    if (fields.length < 5) {
+      throw new IllegalArgumentException(
+          "Expected name, type, start, end and terms, separated by tabs: "
+              + line);
+    }
+
+    String name = fields[0].trim();
+    if (!NAME.matcher(name).matches()) {
+      throw new IllegalArgumentException("Invalid query name '" + name
+          + "'. Use only letters, digits, '_' and '-'.");
+    }
+
+    Type type;
+    try {
+      type = Type.valueOf(fields[1].trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown query type '" + fields[1]
+          + "' for " + name + ". Expected search, any, all or grep.");
+    }
+
+    long start = parseTime(fields[2], defaultStart, name);
+    long end = parseTime(fields[3], defaultEnd, name);
+
+    List<String> terms = new ArrayList<String>(Arrays.asList(fields).subList(
+        4, fields.length));
+    for (String term : terms) {
+      if (term.length() == 0) {
+        throw new IllegalArgumentException("Empty term for " + name);
+      }
+    }
+    if ((type == Type.SEARCH || type == Type.GREP) && terms.size() != 1) {
+      throw new IllegalArgumentException("A " + fields[1].trim()
+          + " query takes exactly one term: " + name);
+    }
+
+    return new BatchQuery(name, type, start, end, terms, caseInsensitive);
+  }
+
+  private static long parseTime(String field, long defaultTime, String name) {
+    field = field.trim();
+    if ("-".equals(field) || field.length() == 0) {
+      return defaultTime;
+    }
+    try {
+      return Long.parseLong(field);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid time '" + field + "' for "
+          + name);
+    }
+  }
+
+  /**
+   * Parses a whole query file. The names must be unique.
+   */
+  public static List<BatchQuery> parseAll(String queries, long defaultStart,
+      long defaultEnd, boolean caseInsensitive) throws IOException {
+    List<BatchQuery> result = new ArrayList<BatchQuery>();
+    List<String> names = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new StringReader(queries));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      BatchQuery query = parse(line, defaultStart, defaultEnd,
+          caseInsensitive);
+      if (names.contains(query.getName())) {
+        throw new IllegalArgumentException("Duplicate query name "
+            + query.getName());
+      }
+      names.add(query.getName());
+      result.add(query);
+    }
+    return result;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  public List<String> getTerms() {
+    return terms;
+  }
+
+  /** Is the timestamp, in ms since the epoch, in this query's time range? */
+  public boolean inRange(long timestamp) {
+    return timestamp >= start && timestamp < end;
+  }
+
+  /**
+   * Could any part of the logBlock for this second be in the time range?
+   */
+  public boolean secondInRange(long second) {
+    long ms = second * 1000;
+    return ms + 999 >= start && ms < end;
+  }
+
+  /**
+   * Could the bytes have a match in them? If not, none of the lines in them
+   * match.
+   */
+  public boolean mightMatch(byte[] buf, int offset, int length) {
+    if (type == Type.GREP) {
+      return automaton == null
+          || automaton.matchesAll(buf, offset, length, found);
+    }
+    return termMatcher.matches(buf, offset, length);
+  }
+
+  /**
+   * Does the line match? For grep, the message is only decoded if it might.
+   */
+  public boolean matches(byte[] buf, int offset, int length) {
+    if (type != Type.GREP) {
+      return termMatcher.matches(buf, offset, length);
+    }
+    if (!mightMatch(buf, offset, length)) {
+      return false;
+    }
+    matcher.reset(new String(buf, offset, length, UTF_8));
+    return matcher.find();
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + type.name().toLowerCase() + " " + terms + " in ["
+        + start + ", " + end + "))";
+  }
+}
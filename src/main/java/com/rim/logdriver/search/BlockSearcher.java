@@ -0,0 +1,208 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.util.Utf8;
+import org.apache.commons.net.util.Base64;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.Schemas;
+import com.rim.logdriver.avro.AvroBlock;
+import com.rim.logdriver.avro.BlockInflater;
+
+/**
+ * Searches raw Avro blocks of logBlocks for a string, the way FastSearch does:
+ * inflate the block, scan its bytes for the string, and only if it's there,
+ * decode the block and check each line.
+ * <p>
+ * The same string is compared as bytes both times, with ASCII case folding for
+ * a case insensitive search, or {@link CaseFoldedPattern} if the string has
+ * characters outside of ASCII.
+ * <p>
+ * Not thread safe, since the inflate buffer is reused from one block to the
+ * next. Use one per thread.
+ */
+public class BlockSearcher {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(BlockSearcher.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Receives the lines that match. */
+  public interface Collector {
+    void collect(long timestamp, String message, int eventId,
+        long createTime, long blockNumber, long lineNumber)
+        throws IOException, InterruptedException;
+
+    /** Return true to stop searching the rest of the block. */
+    boolean isDone();
+  }
+
+  private final long start;
+  private final long end;
+  private final String pattern;
+  private final BytePattern bytePattern;
+  private final CaseFoldedPattern foldedPattern;
+  private final BlockInflater blockInflater = new BlockInflater();
+
+  private String schema = null;
+  private GenericDatumReader<Record> datumReader = null;
+  private Record record = null;
+  private BinaryDecoder decoder = null;
+
+  /**
+   * @param start
+   *          Start of the time range, in ms since the epoch, inclusive.
+   * @param end
+   *          End of the time range, in ms since the epoch, exclusive.
+   */
+  public BlockSearcher(String pattern, boolean caseInsensitive, long start,
+      long end) {
+    this.pattern = pattern;
+    this.start = start;
+    this.end = end;
+
+    byte[] patternBytes = pattern.getBytes(UTF_8);
+    if (!caseInsensitive) {
+      bytePattern = BytePattern.compile(patternBytes);
+      foldedPattern = null;
+    } else if (CaseFoldedPattern.needsUnicodeFolding(pattern)) {
+      // Some characters are more than one byte, so fold case for every
+      // character, not just ASCII.
+      bytePattern = null;
+      foldedPattern = CaseFoldedPattern.compile(pattern);
+    } else {
+      bytePattern = BytePattern.compileCaseInsensitive(patternBytes);
+      foldedPattern = null;
+    }
+  }
+
+  /**
+   * Creates a searcher from the logdriver.search.* settings that FastSearch
+   * uses. The string is base64 encoded.
+   */
+  public static BlockSearcher fromConfiguration(Configuration conf) {
+    String pattern = new String(Base64.decodeBase64(conf
+        .get("logdriver.search.string")), UTF_8);
+    return new BlockSearcher(pattern, conf.getBoolean(
+        "logdriver.search.case.insensitive", false), conf.getLong(
+        "logdriver.search.start.time", Long.MIN_VALUE), conf.getLong(
+        "logdriver.search.end.time", Long.MAX_VALUE));
+  }
+
+  public String getPattern() {
+    return pattern;
+  }
+
+  public BlockInflater getBlockInflater() {
+    return blockInflater;
+  }
+
+  private boolean matches(byte[] buf, int offset, int length) {
+    if (bytePattern == null) {
+      return foldedPattern.matches(buf, offset, length);
+    }
+    return bytePattern.matches(buf, offset, length);
+  }
+
+  /**
+   * Searches one block, from a file with the given schema.
+   */
+  @SuppressWarnings("unchecked")
+  public void search(String blockSchema, AvroBlock block, Collector collector)
+      throws IOException, InterruptedException {
+    long entries = block.getEntries();
+    int dataLength = block.getDataLength();
+    LOG.trace("Entries = {}, Data Length={}", entries, dataLength);
+
+    int pos = blockInflater.inflate(block);
+    byte[] buf = blockInflater.getBuffer();
+
+    LOG.debug(
+        "Read block. Compressed size {}, Expanded size {}, Record count {}",
+        new Object[] { dataLength, pos, entries });
+
+    // Find out if the string we're looking for is in the data block
+    // somewhere. If not, we're done.
+    if (!matches(buf, 0, pos)) {
+      return;
+    }
+    LOG.debug("There is a match in this block.");
+
+    // Files almost always share a schema, so keep the reader until it
+    // changes.
+    if (!blockSchema.equals(schema)) {
+      datumReader = new GenericDatumReader<Record>(
+          new Schema.Parser().parse(blockSchema), Schemas.getSchema("logBlock"));
+      schema = blockSchema;
+      record = null;
+    }
+    decoder = DecoderFactory.get().binaryDecoder(buf, 0, pos, decoder);
+
+    for (long i = 0; i < entries; i++) {
+      if (collector.isDone()) {
+        return;
+      }
+      record = datumReader.read(record, decoder);
+      LOG.trace("Read record {}", record);
+
+      long second = (Long) record.get("second") * 1000;
+      if (second < start || second >= end) {
+        continue;
+      }
+
+      long blockNumber = (Long) record.get("blockNumber");
+      long createTime = (Long) record.get("createTime");
+      long lineNumber = 0;
+
+      for (Record line : (List<Record>) record.get("logLines")) {
+        // Compare the line's bytes to the pattern the same way as the
+        // block's, and only decode the ones that match.
+        Object rawMessage = line.get("message");
+        boolean lineMatch;
+        if (rawMessage instanceof Utf8) {
+          Utf8 utf8 = (Utf8) rawMessage;
+          lineMatch = matches(utf8.getBytes(), 0, utf8.getByteLength());
+        } else {
+          byte[] bytes = rawMessage.toString().getBytes(UTF_8);
+          lineMatch = matches(bytes, 0, bytes.length);
+        }
+        if (lineMatch) {
+          ++lineNumber;
+          collector.collect(second + (Long) line.get("ms"),
+              rawMessage.toString(), (Integer) line.get("eventId"),
+              createTime, blockNumber, lineNumber);
+        }
+      }
+    }
+  }
+
+  /** Releases the inflater. */
+  public void end() {
+    blockInflater.end();
+  }
+}
@@ -0,0 +1,138 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+/**
+ * Finds a fixed byte pattern in a buffer, using Boyer-Moore-Horspool.
+ * <p>
+ * The pattern is compared from its last byte backwards, and on a mismatch we
+ * skip ahead by however far the buffer byte under the end of the pattern is
+ * from the pattern's own end. For the sort of patterns people search logs for
+ * (request ids, hostnames, error strings) most of those bytes don't occur in
+ * the pattern at all, so most of the buffer is never looked at, and the longer
+ * the pattern, the bigger the skips.
+ * <p>
+ * The case insensitive version folds ASCII letters (in the pattern, and in the
+ * buffer as it is compared) using a lookup table, so it costs the same as a
+ * case sensitive search. Bytes outside of ASCII are compared exactly, so
+ * callers that need case folding of non-ASCII text must handle it themselves.
+ * <p>
+ * Instances are immutable, and can be shared between threads.
+ */
+public class BytePattern {
+  private static final byte[] IDENTITY = new byte[256];
+  private static final byte[] ASCII_FOLD = new byte[256];
+  static {
+    for (int i = 0; i < 256; i++) {
+      IDENTITY[i] = (byte) i;
+      ASCII_FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+    }
+  }
+
+  private final byte[] pattern;
+  private final boolean caseInsensitive;
+  private final byte[] fold;
+  private final int[] skip = new int[256];
+
+  private BytePattern(byte[] pattern, boolean caseInsensitive) {
+    this.caseInsensitive = caseInsensitive;
+    fold = caseInsensitive ? ASCII_FOLD : IDENTITY;
+
+    this.pattern = new byte[pattern.length];
+    for (int i = 0; i < pattern.length; i++) {
+      this.pattern[i] = fold[pattern[i] & 0xff];
+    }
+
+    // How far to move when the byte under the last position of the pattern is
+    // b. Bytes that aren't in the pattern (other than as its last byte) let us
+    // move past the whole thing.
+    for (int b = 0; b < 256; b++) {
+      skip[b] = Math.max(pattern.length, 1);
+    }
+    for (int i = 0; i < pattern.length - 1; i++) {
+      skip[this.pattern[i] & 0xff] = pattern.length - 1 - i;
+    }
+    if (caseInsensitive) {
+      // Upper case letters in the buffer skip the same as lower case ones.
+      for (int b = 'A'; b <= 'Z'; b++) {
+        skip[b] = skip[b + ('a' - 'A')];
+      }
+    }
+  }
+
+  /** A case sensitive pattern. */
+  public static BytePattern compile(byte[] pattern) {
+    return new BytePattern(pattern, false);
+  }
+
+  /** A pattern where ASCII letters match regardless of case. */
+  public static BytePattern compileCaseInsensitive(byte[] pattern) {
+    return new BytePattern(pattern, true);
+  }
+
+  public int length() {
+    return pattern.length;
+  }
+
+  public boolean isCaseInsensitive() {
+    return caseInsensitive;
+  }
+
+  /**
+   * Finds the first occurrence of the pattern within buf[offset, offset +
+   * length).
+   * 
+   * @return The index in buf where the pattern starts, or -1 if it wasn't
+   *         found. An empty pattern is found at offset.
+   */
+  public int indexOf(byte[] buf, int offset, int length) {
+    int m = pattern.length;
+    if (m == 0) {
+      return offset;
+    }
+    int last = m - 1;
+    int end = offset + length - m;
+    if (caseInsensitive) {
+      for (int i = offset; i <= end;) {
+        int j = last;
+        while (fold[buf[i + j] & 0xff] == pattern[j]) {
+          if (j == 0) {
+            return i;
+          }
+          j--;
+        }
+        i += skip[buf[i + last] & 0xff];
+      }
+    } else {
+      for (int i = offset; i <= end;) {
+        int j = last;
+        while (buf[i + j] == pattern[j]) {
+          if (j == 0) {
+            return i;
+          }
+          j--;
+        }
+        i += skip[buf[i + last] & 0xff];
+      }
+    }
+    return -1;
+  }
+
+  /** Returns true if the pattern occurs in buf[offset, offset + length). */
+  public boolean matches(byte[] buf, int offset, int length) {
+    return indexOf(buf, offset, length) != -1;
+  }
+}
@@ -0,0 +1,209 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds a string in UTF-8 bytes, ignoring case, including outside of ASCII.
+ * <p>
+ * Each character of the pattern is turned into the UTF-8 encodings of every
+ * character that is the same ignoring case (so '&eacute;' matches "&eacute;" and "&Eacute;", and
+ * 'k' matches "k", "K" and the Kelvin sign), and the buffer is matched against
+ * those directly, without decoding it. The alternatives don't have to be the
+ * same length, which the Kelvin sign isn't. Two characters are the same
+ * ignoring case if they are the same after Character.toUpperCase() and then
+ * Character.toLowerCase(), which is how java.util.regex compares characters
+ * with CASE_INSENSITIVE and UNICODE_CASE. Unlike String.toUpperCase(), this
+ * never turns one character into several, so '&szlig;' doesn't match "SS".
+ * <p>
+ * Finding every alternative means looking at every code point, which takes
+ * about a tenth of a second. That's done once, the first time a pattern is
+ * compiled, and kept in a table shared by every pattern after that.
+ * <p>
+ * Instances are immutable, and can be shared between threads.
+ */
+public class CaseFoldedPattern {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final String pattern;
+  // alternatives[i] = the UTF-8 encodings that can match character i.
+  private final byte[][][] alternatives;
+  // The bytes that a match can start with.
+  private final boolean[] firstBytes = new boolean[256];
+
+  private CaseFoldedPattern(String pattern) {
+    this.pattern = pattern;
+
+    int[] codePoints = new int[pattern.codePointCount(0, pattern.length())];
+    for (int i = 0, j = 0; i < pattern.length(); j++) {
+      codePoints[j] = pattern.codePointAt(i);
+      i += Character.charCount(codePoints[j]);
+    }
+
+    alternatives = new byte[codePoints.length][][];
+    for (int i = 0; i < codePoints.length; i++) {
+      int[] m = FoldTable.SAME_IGNORING_CASE.get(fold(codePoints[i]));
+      if (m == null) {
+        // Nothing else folds to it.
+        m = new int[] { codePoints[i] };
+      }
+      alternatives[i] = new byte[m.length][];
+      for (int j = 0; j < m.length; j++) {
+        alternatives[i][j] = new String(Character.toChars(m[j]))
+            .getBytes(UTF_8);
+      }
+    }
+    if (alternatives.length > 0) {
+      for (byte[] alt : alternatives[0]) {
+        firstBytes[alt[0] & 0xff] = true;
+      }
+    }
+  }
+
+  private static int fold(int c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * For each folded code point that more than one code point folds to, all of
+   * those code points, in order. Built the first time it's used.
+   */
+  private static class FoldTable {
+    private static final Map<Integer, int[]> SAME_IGNORING_CASE = build();
+
+    private static Map<Integer, int[]> build() {
+      Map<Integer, List<Integer>> groups = new HashMap<Integer, List<Integer>>();
+      for (int c = 0; c <= Character.MAX_CODE_POINT; c++) {
+        if (c == Character.MIN_SURROGATE) {
+          c = Character.MAX_SURROGATE;
+          continue;
+        }
+        int f = fold(c);
+        if (f == c) {
+          continue;
+        }
+        List<Integer> group = groups.get(f);
+        if (group == null) {
+          group = new ArrayList<Integer>();
+          groups.put(f, group);
+        }
+        group.add(c);
+      }
+
+      Map<Integer, int[]> table = new HashMap<Integer, int[]>();
+      for (Map.Entry<Integer, List<Integer>> e : groups.entrySet()) {
+        int f = e.getKey();
+        List<Integer> group = e.getValue();
+        int[] codePoints = new int[group.size() + (fold(f) == f ? 1 : 0)];
+        for (int i = 0; i < group.size(); i++) {
+          codePoints[i] = group.get(i);
+        }
+        if (fold(f) == f) {
+          codePoints[codePoints.length - 1] = f;
+        }
+        Arrays.sort(codePoints);
+        table.put(f, codePoints);
+      }
+      return table;
+    }
+  }
+
+  public static CaseFoldedPattern compile(String pattern) {
+    return new CaseFoldedPattern(pattern);
+  }
+
+  /**
+   * Does a case insensitive search for the string need this, rather than
+   * ASCII case folding? It does if any of the characters are more than one
+   * byte, in either upper or lower case.
+   */
+  public static boolean needsUnicodeFolding(String s) {
+    return s.toUpperCase().getBytes(UTF_8).length > s.length()
+        || s.toLowerCase().getBytes(UTF_8).length > s.length();
+  }
+
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Finds the first occurrence of the pattern within buf[offset, offset +
+   * length).
+   * 
+   * @return The index in buf where the pattern starts, or -1 if it wasn't
+   *         found. An empty pattern is found at offset.
+   */
+  public int indexOf(byte[] buf, int offset, int length) {
+    if (alternatives.length == 0) {
+      return offset;
+    }
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      if (firstBytes[buf[i] & 0xff] && matchAt(buf, i, end, 0)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns true if the pattern occurs in buf[offset, offset + length). */
+  public boolean matches(byte[] buf, int offset, int length) {
+    return indexOf(buf, offset, length) != -1;
+  }
+
+  /**
+   * Returns true if characters element onwards of the pattern match starting
+   * at buf[pos].
+   */
+  private boolean matchAt(byte[] buf, int pos, int end, int element) {
+    if (element == alternatives.length) {
+      return true;
+    }
+    ALTERNATIVE: for (byte[] alt : alternatives[element]) {
+      if (pos + alt.length > end) {
+        continue;
+      }
+      for (int k = 0; k < alt.length; k++) {
+        if (buf[pos + k] != alt[k]) {
+          continue ALTERNATIVE;
+        }
+      }
+      if (matchAt(buf, pos + alt.length, end, element + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (byte[][] element : alternatives) {
+      sb.append('[');
+      for (byte[] alt : element) {
+        sb.append(new String(alt, UTF_8));
+      }
+      sb.append(']');
+    }
+    return sb.toString();
+  }
+}
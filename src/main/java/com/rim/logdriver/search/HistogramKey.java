@@ -0,0 +1,124 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * The key for a search histogram: the start of a time bucket, and optionally
+ * an eventId (0 when the histogram isn't broken down by eventId).
+ */
+public class HistogramKey implements WritableComparable<HistogramKey> {
+  private long bucket = 0;
+  private int eventId = 0;
+
+  public HistogramKey() {
+  }
+
+  public HistogramKey(long bucket, int eventId) {
+    this.bucket = bucket;
+    this.eventId = eventId;
+  }
+
+  public void set(long bucket, int eventId) {
+    this.bucket = bucket;
+    this.eventId = eventId;
+  }
+
+  public long getBucket() {
+    return bucket;
+  }
+
+  public int getEventId() {
+    return eventId;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(bucket);
+    out.writeInt(eventId);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    bucket = in.readLong();
+    eventId = in.readInt();
+  }
+
+  @Override
+  public int compareTo(HistogramKey o) {
+    if (bucket != o.bucket) {
+      return bucket < o.bucket ? -1 : 1;
+    }
+    if (eventId != o.eventId) {
+      return eventId < o.eventId ? -1 : 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Compares the serialized keys without deserializing them.
+   */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(HistogramKey.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      long bucket1 = readLong(b1, s1);
+      long bucket2 = readLong(b2, s2);
+      if (bucket1 != bucket2) {
+        return bucket1 < bucket2 ? -1 : 1;
+      }
+      int eventId1 = readInt(b1, s1 + 8);
+      int eventId2 = readInt(b2, s2 + 8);
+      if (eventId1 != eventId2) {
+        return eventId1 < eventId2 ? -1 : 1;
+      }
+      return 0;
+    }
+  }
+
+  static {
+    WritableComparator.define(HistogramKey.class, new Comparator());
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (int) (bucket ^ (bucket >>> 32)) + eventId;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof HistogramKey))
+      return false;
+    HistogramKey other = (HistogramKey) obj;
+    return bucket == other.bucket && eventId == other.eventId;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[bucket=%d, eventId=%d]", bucket, eventId);
+  }
+}
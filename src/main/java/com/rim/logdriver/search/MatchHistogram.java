@@ -0,0 +1,142 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Counts matches by time bucket (and optionally eventId) inside a mapper, so
+ * that the mapper writes one record per bucket rather than one per match.
+ * <p>
+ * The counts are written out when the table gets too big, and at the end of
+ * the task (see {@link #flush(Output)}), so a task writes each bucket a
+ * handful of times at most.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.search.histogram.bucket: The width of a bucket, in ms. Default
+ * 60000.</li>
+ * <li>logdriver.search.histogram.by.event.id: Count each eventId separately.
+ * Default false.</li>
+ * <li>logdriver.search.histogram.max.entries: How many buckets to hold before
+ * writing them out. Default 100000.</li>
+ * </ul>
+ */
+public class MatchHistogram {
+  public static final String BUCKET = "logdriver.search.histogram.bucket";
+  public static final String BY_EVENT_ID = "logdriver.search.histogram.by.event.id";
+  public static final String MAX_ENTRIES = "logdriver.search.histogram.max.entries";
+
+  /** Where the counts go. */
+  public interface Output {
+    void write(HistogramKey key, LongWritable count) throws IOException,
+        InterruptedException;
+  }
+
+  private static final long DEFAULT_BUCKET = 60 * 1000;
+  private static final int DEFAULT_MAX_ENTRIES = 100000;
+
+  private final long bucketSize;
+  private final boolean byEventId;
+  private final int maxEntries;
+
+  private final Map<HistogramKey, long[]> counts = new HashMap<HistogramKey, long[]>();
+  private final HistogramKey lookup = new HistogramKey();
+  private final LongWritable count = new LongWritable();
+
+  public MatchHistogram(long bucketSize, boolean byEventId, int maxEntries) {
+    if (bucketSize <= 0) {
+      throw new IllegalArgumentException("Bucket size must be positive.");
+    }
+    this.bucketSize = bucketSize;
+    this.byEventId = byEventId;
+    this.maxEntries = Math.max(1, maxEntries);
+  }
+
+  public static MatchHistogram fromConfiguration(Configuration conf) {
+    return new MatchHistogram(conf.getLong(BUCKET, DEFAULT_BUCKET),
+        conf.getBoolean(BY_EVENT_ID, false), conf.getInt(MAX_ENTRIES,
+            DEFAULT_MAX_ENTRIES));
+  }
+
+  /** Writes the counts to a task's output. */
+  public static Output outputTo(
+      final TaskInputOutputContext<?, ?, HistogramKey, LongWritable> context) {
+    return new Output() {
+      @Override
+      public void write(HistogramKey key, LongWritable count)
+          throws IOException, InterruptedException {
+        context.write(key, count);
+      }
+    };
+  }
+
+  public long getBucketSize() {
+    return bucketSize;
+  }
+
+  public boolean isByEventId() {
+    return byEventId;
+  }
+
+  /** The start of the bucket the timestamp falls in. */
+  public long bucketOf(long timestamp) {
+    long offset = timestamp % bucketSize;
+    if (offset < 0) {
+      offset += bucketSize;
+    }
+    return timestamp - offset;
+  }
+
+  /**
+   * Counts one match, writing out the table first if it's full.
+   */
+  public void add(long timestamp, int eventId, Output output)
+      throws IOException, InterruptedException {
+    lookup.set(bucketOf(timestamp), byEventId ? eventId : 0);
+    long[] c = counts.get(lookup);
+    if (c == null) {
+      if (counts.size() >= maxEntries) {
+        flush(output);
+      }
+      c = new long[1];
+      counts.put(new HistogramKey(lookup.getBucket(), lookup.getEventId()), c);
+    }
+    c[0]++;
+  }
+
+  /**
+   * Writes out all the counts held, and empties the table.
+   */
+  public void flush(Output output) throws IOException, InterruptedException {
+    for (Map.Entry<HistogramKey, long[]> e : counts.entrySet()) {
+      count.set(e.getValue()[0]);
+      output.write(e.getKey(), count);
+    }
+    counts.clear();
+  }
+
+  /** The number of buckets currently held. */
+  public int size() {
+    return counts.size();
+  }
+}
@@ -0,0 +1,339 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out strings that must appear in anything a regular expression matches.
+ * <p>
+ * For example, every match of <code>foo.*bar</code> contains both "foo" and
+ * "bar", so a block of text that doesn't contain both of them can't have a
+ * match in it, and doesn't need to be decoded, let alone run through the
+ * regex.
+ * <p>
+ * This is deliberately conservative. Anything it isn't sure about (alternation,
+ * inline flags, character classes, optional parts) just doesn't contribute any
+ * literals, and if it can't make sense of the regex at all it returns none. It
+ * only ever errs towards returning fewer literals than it could. The literals
+ * are for the regex as written, without any flags; with CASE_INSENSITIVE,
+ * compare them ignoring ASCII case.
+ */
+public class RegexLiterals {
+  private final String regex;
+  private int pos = 0;
+
+  private static class GiveUp extends Exception {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private RegexLiterals(String regex) {
+    this.regex = regex;
+  }
+
+  /**
+   * Returns strings that every match of the regex contains, or an empty list if
+   * there are none that we can be sure of.
+   */
+  public static List<String> requiredLiterals(String regex) {
+    RegexLiterals parser = new RegexLiterals(regex);
+    try {
+      List<String> literals = parser.sequence(false);
+      if (parser.pos != regex.length()) {
+        return Collections.emptyList();
+      }
+      return literals;
+    } catch (GiveUp e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Parses a sequence of atoms, up to the end of the regex or (in a group) the
+   * closing parenthesis, which is left for the caller.
+   */
+  private List<String> sequence(boolean inGroup) throws GiveUp {
+    List<String> literals = new ArrayList<String>();
+    StringBuilder run = new StringBuilder();
+    boolean alternation = false;
+
+    while (pos < regex.length()) {
+      char c = regex.charAt(pos);
+      if (c == ')') {
+        if (!inGroup) {
+          throw new GiveUp();
+        }
+        break;
+      }
+      if (c == '|') {
+        // Each alternative would need its own set of literals, so the
+        // sequence as a whole can't promise any.
+        alternation = true;
+        pos++;
+        flush(run, literals);
+        continue;
+      }
+
+      List<String> group = null;
+      String literal = null;
+      if (c == '(') {
+        group = group();
+      } else if (c == '[') {
+        skipClass();
+      } else if (c == '\\') {
+        literal = escape(run);
+      } else if (c == '.' || c == '^' || c == '$') {
+        pos++;
+      } else if (c == '*' || c == '+' || c == '?' || c == '{') {
+        // A quantifier with nothing to apply to.
+        throw new GiveUp();
+      } else {
+        int length = Character.isHighSurrogate(c)
+            && pos + 1 < regex.length()
+            && Character.isLowSurrogate(regex.charAt(pos + 1)) ? 2 : 1;
+        literal = regex.substring(pos, pos + length);
+        pos += length;
+      }
+
+      int min = quantifier();
+      if (literal != null) {
+        if (min != 0) {
+          run.append(literal);
+        }
+        if (min != -1) {
+          // a+b only promises "a" and "b", not "ab".
+          flush(run, literals);
+        }
+      } else {
+        flush(run, literals);
+        if (group != null && min != 0) {
+          literals.addAll(group);
+        }
+      }
+    }
+
+    flush(run, literals);
+    if (alternation) {
+      return Collections.emptyList();
+    }
+    return literals;
+  }
+
+  private static void flush(StringBuilder run, List<String> literals) {
+    if (run.length() > 0) {
+      literals.add(run.toString());
+      run.setLength(0);
+    }
+  }
+
+  /**
+   * Parses a group, returning the literals it requires.
+   */
+  private List<String> group() throws GiveUp {
+    pos++;
+    boolean lookaround = false;
+    if (regex.startsWith("?:", pos) || regex.startsWith("?>", pos)) {
+      pos += 2;
+    } else if (regex.startsWith("?=", pos) || regex.startsWith("?!", pos)) {
+      pos += 2;
+      lookaround = true;
+    } else if (regex.startsWith("?<=", pos) || regex.startsWith("?<!", pos)) {
+      pos += 3;
+      lookaround = true;
+    } else if (regex.startsWith("?<", pos)) {
+      // A named group.
+      int close = regex.indexOf('>', pos);
+      if (close == -1) {
+        throw new GiveUp();
+      }
+      pos = close + 1;
+    } else if (regex.startsWith("?", pos)) {
+      // Inline flags could turn on case insensitivity or comments, which
+      // changes what everything after means.
+      throw new GiveUp();
+    }
+
+    List<String> literals = sequence(true);
+    if (pos >= regex.length() || regex.charAt(pos) != ')') {
+      throw new GiveUp();
+    }
+    pos++;
+    if (lookaround) {
+      return Collections.emptyList();
+    }
+    return literals;
+  }
+
+  private void skipClass() throws GiveUp {
+    pos++;
+    if (pos < regex.length() && regex.charAt(pos) == '^') {
+      pos++;
+    }
+    // A ] straight away is part of the class.
+    if (pos < regex.length() && regex.charAt(pos) == ']') {
+      pos++;
+    }
+    int depth = 1;
+    while (pos < regex.length()) {
+      char c = regex.charAt(pos);
+      if (c == '\\') {
+        pos += 2;
+        continue;
+      }
+      pos++;
+      if (c == '[') {
+        depth++;
+      } else if (c == ']') {
+        depth--;
+        if (depth == 0) {
+          return;
+        }
+      }
+    }
+    throw new GiveUp();
+  }
+
+  /**
+   * Parses an escape. Returns the character it stands for if it's a literal,
+   * or null if it isn't.
+   * <p>
+   * For a \Q...\E quote, all but the last character are appended to run
+   * directly, and the last one is returned, since that's the one a following
+   * quantifier applies to.
+   */
+  private String escape(StringBuilder run) throws GiveUp {
+    pos++;
+    if (pos >= regex.length()) {
+      throw new GiveUp();
+    }
+    char e = regex.charAt(pos++);
+
+    if (e == 'Q') {
+      int end = regex.indexOf("\\E", pos);
+      String quoted = end == -1 ? regex.substring(pos) : regex.substring(pos,
+          end);
+      pos = end == -1 ? regex.length() : end + 2;
+      if (quoted.length() == 0) {
+        return null;
+      }
+      int last = quoted.length() - 1;
+      if (last > 0 && Character.isLowSurrogate(quoted.charAt(last))
+          && Character.isHighSurrogate(quoted.charAt(last - 1))) {
+        last--;
+      }
+      run.append(quoted, 0, last);
+      return quoted.substring(last);
+    }
+
+    if (!Character.isLetterOrDigit(e)) {
+      return String.valueOf(e);
+    }
+
+    // Character classes, anchors, and escapes for single characters that we
+    // don't bother decoding. Skip over any arguments they have.
+    switch (e) {
+    case 'p':
+    case 'P':
+    case 'x':
+    case 'N':
+      if (pos < regex.length() && regex.charAt(pos) == '{') {
+        skipPast('}');
+      } else {
+        pos += e == 'x' ? 2 : 1;
+      }
+      break;
+    case 'u':
+      pos += 4;
+      break;
+    case '0':
+      for (int i = 0; i < 3 && pos < regex.length()
+          && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7'; i++) {
+        pos++;
+      }
+      break;
+    case 'c':
+      pos++;
+      break;
+    case 'k':
+      skipPast('>');
+      break;
+    default:
+      if (e >= '1' && e <= '9') {
+        // A back reference.
+        while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+          pos++;
+        }
+      }
+    }
+    if (pos > regex.length()) {
+      throw new GiveUp();
+    }
+    return null;
+  }
+
+  private void skipPast(char c) throws GiveUp {
+    int i = regex.indexOf(c, pos);
+    if (i == -1) {
+      throw new GiveUp();
+    }
+    pos = i + 1;
+  }
+
+  /**
+   * Parses a quantifier, if there is one.
+   * 
+   * @return The minimum number of repetitions, or -1 if there's no quantifier.
+   */
+  private int quantifier() throws GiveUp {
+    if (pos >= regex.length()) {
+      return -1;
+    }
+    int min;
+    char c = regex.charAt(pos);
+    if (c == '*' || c == '?') {
+      min = 0;
+      pos++;
+    } else if (c == '+') {
+      min = 1;
+      pos++;
+    } else if (c == '{') {
+      int close = regex.indexOf('}', pos);
+      if (close == -1) {
+        throw new GiveUp();
+      }
+      String bounds = regex.substring(pos + 1, close);
+      int comma = bounds.indexOf(',');
+      try {
+        min = Integer.parseInt(comma == -1 ? bounds : bounds.substring(0,
+            comma));
+      } catch (NumberFormatException e) {
+        throw new GiveUp();
+      }
+      pos = close + 1;
+    } else {
+      return -1;
+    }
+    // Lazy and possessive quantifiers.
+    if (pos < regex.length()
+        && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+      pos++;
+    }
+    // Treat any repetition as at least one; it only matters if it's zero.
+    return min == 0 ? 0 : 1;
+  }
+}
@@ -0,0 +1,404 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCompletionEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.timestamp.TimestampFormats;
+
+/**
+ * Prints the results of a map only search as each task finishes, instead of
+ * waiting for the whole job.
+ * <p>
+ * The client watches the job's task completion events, and as each map task
+ * succeeds, finds its committed output file and prints it. The file is in the
+ * output directory if the task's output has been moved there, or otherwise in
+ * the directory it was committed to under _temporary. Once the job is done,
+ * any output files that were missed are printed too.
+ * <p>
+ * With logdriver.search.stream.sorted, each mapper sorts its own matches by
+ * time before writing them, so every task's results come out in order. A
+ * mapper with more matches than fit in its sort buffer sorts them in runs on
+ * local disk, and merges those (see {@link SortedLines}). Once
+ * the job is done, all the output files can be merged into one sorted file
+ * (logdriver.search.stream.merge.output).
+ * <p>
+ * The output files are read as they are, so the job's output isn't
+ * compressed.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.search.stream: Default false.</li>
+ * <li>logdriver.search.stream.sorted: Default false.</li>
+ * <li>logdriver.search.stream.sort.buffer: About how much memory each mapper
+ * can use to sort its matches before writing them to disk. Default 64MB.</li>
+ * <li>logdriver.search.stream.date.format: If set, lines are printed as the
+ * formatted timestamp followed by the message, the same as a sorted search
+ * (see {@link TimestampFormats}). Otherwise they're printed as they are.</li>
+ * <li>logdriver.search.stream.merge.output: Where to write the merged, sorted
+ * results once the job is done. Only with logdriver.search.stream.sorted.</li>
+ * <li>logdriver.search.stream.poll.interval: How often to check for finished
+ * tasks, in ms. Default 2000.</li>
+ * </ul>
+ */
+public class ResultStreamer {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(ResultStreamer.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public static final String STREAM = "logdriver.search.stream";
+  public static final String SORTED = "logdriver.search.stream.sorted";
+  public static final String SORT_BUFFER = "logdriver.search.stream.sort.buffer";
+  public static final String DATE_FORMAT = "logdriver.search.stream.date.format";
+  public static final String MERGE_OUTPUT = "logdriver.search.stream.merge.output";
+  public static final String POLL_INTERVAL = "logdriver.search.stream.poll.interval";
+
+  private static final long DEFAULT_POLL_INTERVAL = 2000;
+  private static final long DEFAULT_SORT_BUFFER = 64L * 1024 * 1024;
+
+  private final Configuration conf;
+  private final Path outputDir;
+  private final FileSystem fs;
+  private final PrintStream out;
+  private final char separator;
+  private final FastDateFormat dateFormat;
+  private final long limit;
+
+  private final Set<String> printed = new HashSet<String>();
+  private long linesPrinted = 0;
+
+  /**
+   * @param separator
+   *          The field separator in the search's output.
+   */
+  public ResultStreamer(Configuration conf, Path outputDir, char separator,
+      OutputStream out) throws IOException {
+    this.conf = conf;
+    this.outputDir = outputDir;
+    this.fs = outputDir.getFileSystem(conf);
+    this.out = new PrintStream(out, false, "UTF-8");
+    this.separator = separator;
+    String format = conf.get(DATE_FORMAT);
+    dateFormat = format == null ? null : TimestampFormats.getFormat(format);
+    limit = SearchLimit.getLimit(conf);
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(STREAM, false);
+  }
+
+  public static boolean isSorted(Configuration conf) {
+    return conf.getBoolean(SORTED, false);
+  }
+
+  /** How many bytes of matches each mapper sorts in memory. */
+  public static long getSortBuffer(Configuration conf) {
+    return conf.getLong(SORT_BUFFER, DEFAULT_SORT_BUFFER);
+  }
+
+  /**
+   * Sets up a search job for streaming. The results are read as they are, so
+   * they can't be compressed.
+   */
+  public static void configure(Job job) {
+    job.getConfiguration().setBoolean("mapred.output.compress", false);
+  }
+
+  /**
+   * Runs the job, printing each map task's results as soon as it's done, and
+   * then merging them if asked to. Returns true if the job succeeded.
+   */
+  public boolean waitForCompletion(Job job) throws IOException,
+      InterruptedException, ClassNotFoundException {
+    long pollInterval = conf.getLong(POLL_INTERVAL, DEFAULT_POLL_INTERVAL);
+
+    SearchLimit.clearSignal(conf);
+    job.submit();
+    LOG.info("Running job {}, printing results as tasks finish.",
+        job.getJobID());
+
+    try {
+      printAsTasksFinish(job, pollInterval);
+    } finally {
+      SearchLimit.clearSignal(conf);
+    }
+
+    return finish(job);
+  }
+
+  private void printAsTasksFinish(Job job, long pollInterval)
+      throws IOException, InterruptedException {
+    int nextEvent = 0;
+    while (true) {
+      boolean complete = job.isComplete();
+      TaskCompletionEvent[] events = job.getTaskCompletionEvents(nextEvent);
+      nextEvent += events.length;
+      for (TaskCompletionEvent event : events) {
+        if (event.isMapTask()
+            && event.getStatus() == TaskCompletionEvent.Status.SUCCEEDED) {
+          printTask(event.getTaskAttemptId().getTaskID().getId());
+        }
+      }
+      if (complete && events.length == 0) {
+        break;
+      }
+      if (events.length == 0) {
+        Thread.sleep(pollInterval);
+      }
+    }
+  }
+
+  /**
+   * Prints anything that was missed, and merges the output.
+   */
+  private boolean finish(Job job) throws IOException, InterruptedException {
+    boolean success = job.isSuccessful();
+    if (success) {
+      // Anything we didn't hear about, or couldn't find at the time.
+      for (Path file : getOutputFiles()) {
+        if (!printed.contains(file.getName())) {
+          print(file);
+        }
+      }
+      merge();
+    }
+    out.flush();
+    LOG.info("Job {} {}. Printed {} lines.", new Object[] { job.getJobID(),
+        success ? "succeeded" : "failed", linesPrinted });
+    return success;
+  }
+
+  /**
+   * Prints a map task's output file, wherever it is now.
+   */
+  private void printTask(int taskId) throws IOException {
+    String name = String.format("part-m-%05d", taskId);
+    if (printed.contains(name)) {
+      return;
+    }
+    // The file may be moved from under _temporary to the output directory
+    // while we look for it, so look more than once.
+    for (int attempt = 0; attempt < 3; attempt++) {
+      Path file = findTaskOutput(name);
+      if (file == null) {
+        // A task with no matches may not have any output.
+        return;
+      }
+      try {
+        print(file);
+        return;
+      } catch (FileNotFoundException e) {
+        LOG.debug("{} moved, looking again.", file);
+      }
+    }
+    LOG.warn("Couldn't read the output of task {} yet.", taskId);
+  }
+
+  private Path findTaskOutput(String name) throws IOException {
+    Path file = new Path(outputDir, name);
+    if (fs.exists(file)) {
+      return file;
+    }
+    // Where FileOutputCommitter puts a committed task's output until the job
+    // commits.
+    FileStatus[] statuses = fs.globStatus(new Path(outputDir, "_temporary/*/*/"
+        + name));
+    if (statuses != null && statuses.length > 0) {
+      return statuses[0].getPath();
+    }
+    return null;
+  }
+
+  /**
+   * The job's output files, in order.
+   */
+  private List<Path> getOutputFiles() throws IOException {
+    List<Path> files = new ArrayList<Path>();
+    FileStatus[] statuses = fs.listStatus(outputDir);
+    if (statuses == null) {
+      return files;
+    }
+    Arrays.sort(statuses);
+    for (FileStatus status : statuses) {
+      String name = status.getPath().getName();
+      if (!status.isDir() && name.startsWith("part-")) {
+        files.add(status.getPath());
+      }
+    }
+    return files;
+  }
+
+  private void print(Path file) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        fs.open(file), UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (limit > 0 && linesPrinted >= limit) {
+          SearchLimit.signalReached(conf);
+          break;
+        }
+        out.println(format(line));
+        linesPrinted++;
+      }
+    } finally {
+      reader.close();
+    }
+    out.flush();
+    printed.add(file.getName());
+  }
+
+  /**
+   * Turns a line of search output into what we print: the line itself, or the
+   * formatted timestamp and the message.
+   */
+  String format(String line) {
+    if (dateFormat == null) {
+      return line;
+    }
+    int start = line.indexOf(separator);
+    int end = line.length();
+    for (int i = 0; i < 4 && end > start; i++) {
+      end = line.lastIndexOf(separator, end - 1);
+    }
+    if (start < 0 || end <= start) {
+      return line;
+    }
+    return dateFormat.format(getTimestamp(line)) + " "
+        + line.substring(start + 1, end);
+  }
+
+  private long getTimestamp(String line) {
+    int end = line.indexOf(separator);
+    try {
+      return Long.parseLong(end < 0 ? line : line.substring(0, end));
+    } catch (NumberFormatException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+  /** The next line of one of the files being merged. */
+  private class MergeSource implements Comparable<MergeSource> {
+    private final BufferedReader reader;
+    private final int index;
+    private String line;
+    private long timestamp;
+
+    private MergeSource(BufferedReader reader, int index) {
+      this.reader = reader;
+      this.index = index;
+    }
+
+    private boolean next() throws IOException {
+      line = reader.readLine();
+      if (line == null) {
+        return false;
+      }
+      timestamp = getTimestamp(line);
+      return true;
+    }
+
+    @Override
+    public int compareTo(MergeSource other) {
+      if (timestamp != other.timestamp) {
+        return timestamp < other.timestamp ? -1 : 1;
+      }
+      return index - other.index;
+    }
+  }
+
+  /**
+   * Merges the sorted output files into one sorted file, if that was asked
+   * for.
+   */
+  private void merge() throws IOException {
+    String mergeOutput = conf.get(MERGE_OUTPUT);
+    if (mergeOutput == null || !isSorted(conf)) {
+      return;
+    }
+    Path mergeDir = new Path(mergeOutput);
+    FileSystem mergeFs = mergeDir.getFileSystem(conf);
+    PrintStream merged = new PrintStream(mergeFs.create(new Path(mergeDir,
+        "part-00000"), false), false, "UTF-8");
+
+    List<BufferedReader> readers = new ArrayList<BufferedReader>();
+    try {
+      PriorityQueue<MergeSource> queue = new PriorityQueue<MergeSource>();
+      for (Path file : getOutputFiles()) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            fs.open(file), UTF_8));
+        readers.add(reader);
+        MergeSource source = new MergeSource(reader, readers.size());
+        if (source.next()) {
+          queue.add(source);
+        }
+      }
+      long lines = 0;
+      while (!queue.isEmpty()) {
+        MergeSource source = queue.poll();
+        merged.println(format(source.line));
+        lines++;
+        if (source.next()) {
+          queue.add(source);
+        }
+      }
+      LOG.info("Merged {} lines into {}", lines, mergeDir);
+    } finally {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+      merged.close();
+    }
+    if (merged.checkError()) {
+      throw new IOException("Error writing " + mergeDir);
+    }
+  }
+
+  /**
+   * For a search that isn't run as a job: prints the results, which are
+   * already sorted, and merges them if asked to.
+   */
+  public void printAll() throws IOException {
+    for (Path file : getOutputFiles()) {
+      print(file);
+    }
+    merge();
+    out.flush();
+  }
+}
@@ -0,0 +1,147 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.rim.logdriver.fs.BlockSampler;
+
+/**
+ * Estimates how many matches a search would have found in all of its input,
+ * from what it found in a sample (see {@link BlockSampler}).
+ * <p>
+ * Each unit of input is in the sample, independently, with probability p, so
+ * if unit i has y<sub>i</sub> matches, the estimate is the sum of
+ * y<sub>i</sub> / p over the units read, and its variance is estimated by the
+ * sum of (1 - p) y<sub>i</sub><sup>2</sup> / p<sup>2</sup>. Matches cluster
+ * in time, and so in units, which is why the squares are taken per unit rather
+ * than per match. The mappers add up the matches, and their squares, for each
+ * unit they read in job counters, and the client works out the estimate and a
+ * 95% confidence interval from those.
+ */
+public class SampleEstimate {
+  public static final String COUNTER_GROUP = "Sampling";
+  public static final String UNITS = "Units read";
+  public static final String MATCHES = "Matches";
+  public static final String MATCHES_SQUARED = "Matches squared";
+
+  // For a 95% confidence interval.
+  private static final double Z = 1.96;
+
+  /**
+   * Counts a mapper's matches in each unit it reads.
+   */
+  public static class Tally {
+    private final Counter units;
+    private final Counter matches;
+    private final Counter squares;
+    private long unitMatches = 0;
+
+    private Tally(TaskInputOutputContext<?, ?, ?, ?> context) {
+      units = context.getCounter(COUNTER_GROUP, UNITS);
+      matches = context.getCounter(COUNTER_GROUP, MATCHES);
+      squares = context.getCounter(COUNTER_GROUP, MATCHES_SQUARED);
+    }
+
+    /**
+     * The tally for a task, or null if the job isn't sampling.
+     */
+    public static Tally forTask(TaskInputOutputContext<?, ?, ?, ?> context) {
+      if (!BlockSampler.isEnabled(context.getConfiguration())) {
+        return null;
+      }
+      return new Tally(context);
+    }
+
+    /** Finishes the unit being read, if any, and starts the next one. */
+    public void startUnit() {
+      finish();
+      units.increment(1);
+    }
+
+    public void match() {
+      unitMatches++;
+    }
+
+    /** Finishes the unit being read. For the end of the task. */
+    public void finish() {
+      matches.increment(unitMatches);
+      squares.increment(unitMatches * unitMatches);
+      unitMatches = 0;
+    }
+  }
+
+  private final double fraction;
+  private final long units;
+  private final long matches;
+  private final long squares;
+
+  public SampleEstimate(double fraction, long units, long matches,
+      long squares) {
+    this.fraction = fraction;
+    this.units = units;
+    this.matches = matches;
+    this.squares = squares;
+  }
+
+  /**
+   * The estimate for a finished job, or null if it wasn't sampling.
+   */
+  public static SampleEstimate fromCounters(Configuration conf,
+      Counters counters) {
+    if (!BlockSampler.isEnabled(conf) || counters == null) {
+      return null;
+    }
+    return new SampleEstimate(BlockSampler.getFraction(conf), counters
+        .findCounter(COUNTER_GROUP, UNITS).getValue(), counters.findCounter(
+        COUNTER_GROUP, MATCHES).getValue(), counters.findCounter(
+        COUNTER_GROUP, MATCHES_SQUARED).getValue());
+  }
+
+  /** The matches found in the sample. */
+  public long getMatches() {
+    return matches;
+  }
+
+  /** The estimated number of matches in all of the input. */
+  public double getEstimate() {
+    return matches / fraction;
+  }
+
+  /** Half the width of the 95% confidence interval. */
+  public double getMargin() {
+    return Z * Math.sqrt((1 - fraction) * squares) / fraction;
+  }
+
+  /** Scales a count from the sample up to all of the input. */
+  public static long scale(long count, double fraction) {
+    return Math.round(count / fraction);
+  }
+
+  @Override
+  public String toString() {
+    double estimate = getEstimate();
+    double margin = getMargin();
+    return String.format(
+        "about %d matches (95%% confidence: %d to %d), from %d matches in"
+            + " %d units sampled at %.2f%%", Math.round(estimate),
+        Math.round(Math.max(matches, estimate - margin)),
+        Math.round(estimate + margin), matches, units, 100 * fraction);
+  }
+}
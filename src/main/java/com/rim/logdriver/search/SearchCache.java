@@ -0,0 +1,450 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.fs.BlockSampler;
+
+/**
+ * Keeps the results of searches in HDFS, one hour at a time, so that running
+ * the same search again doesn't have to read the logs again.
+ * <p>
+ * Each entry holds one hour's results, and is keyed by a hash of the query,
+ * the settings that change the output, the part of the hour that was
+ * searched, and the path, length and modification time of every input file
+ * for that hour. If any of those change, so does the key, so a stale entry is
+ * never used; it's just never looked up again, and ages out. When a search's
+ * time range is extended, the hours already searched come from the cache, and
+ * only the new ones are searched.
+ * <p>
+ * The search job writes each hour's results to its own directory (see
+ * {@link #SLICED}), named by {@link #getSliceFormat(Configuration)}. The logs
+ * are stored in hourly directories by timestamp, so an hour's directory only
+ * holds lines from that hour, and its results can be put in the cache as
+ * they are. Hours don't overlap, so each hour's results being sorted means the
+ * whole lot is.
+ * <p>
+ * Entries are evicted least recently used first, once the cache is bigger
+ * than its maximum size, and also once they haven't been used for the maximum
+ * age.
+ * <p>
+ * Caching is off unless it's asked for, since every result is copied out of
+ * the cache through the client, and the cache is cleaned up after each search
+ * that adds to it. Searches with a limit (see {@link SearchLimit}) aren't
+ * cached, since their results are incomplete.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.search.cache.enabled: Default false.</li>
+ * <li>logdriver.search.cache.dir: Default .logdriver/search-cache, in the
+ * user's home directory.</li>
+ * <li>logdriver.search.cache.max.bytes: Default 10GB.</li>
+ * <li>logdriver.search.cache.max.age: In ms. Default 7 days.</li>
+ * </ul>
+ */
+public class SearchCache {
+  private static final Logger LOG = LoggerFactory.getLogger(SearchCache.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public static final String ENABLED = "logdriver.search.cache.enabled";
+  public static final String DIR = "logdriver.search.cache.dir";
+  public static final String MAX_BYTES = "logdriver.search.cache.max.bytes";
+  public static final String MAX_AGE = "logdriver.search.cache.max.age";
+
+  /** Set for the search job, to write each hour to its own directory. */
+  public static final String SLICED = "logdriver.search.cache.sliced";
+  public static final String TIME_ZONE = "logdriver.search.cache.time.zone";
+
+  private static final String DEFAULT_DIR = ".logdriver/search-cache";
+  private static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+  private static final long DEFAULT_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+  private static final String SLICE_FORMAT = "yyyyMMddHH";
+  private static final long HOUR = 60 * 60 * 1000;
+
+  // Touched whenever an entry is used, for the LRU eviction. HDFS doesn't
+  // keep access times on directories.
+  private static final String USED = "_used";
+
+  // Bump this if the output of the search changes, to ignore old entries.
+  private static final String VERSION = "2";
+
+  private final Configuration conf;
+  private final FileSystem fs;
+  private final Path dir;
+
+  public SearchCache(Configuration conf) throws IOException {
+    this.conf = conf;
+    String dirName = conf.get(DIR);
+    if (dirName == null) {
+      FileSystem defaultFs = FileSystem.get(conf);
+      dir = new Path(defaultFs.getHomeDirectory(), DEFAULT_DIR);
+    } else {
+      dir = new Path(dirName);
+    }
+    fs = dir.getFileSystem(conf);
+  }
+
+  /**
+   * Should the results of a search with this configuration be cached? Not if
+   * it's limited, sampled, or if the results are streamed as they're found.
+   */
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(ENABLED, false) && SearchLimit.getLimit(conf) <= 0
+        && !BlockSampler.isEnabled(conf) && !ResultStreamer.isEnabled(conf);
+  }
+
+  public static boolean isSliced(Configuration conf) {
+    return conf.getBoolean(SLICED, false);
+  }
+
+  /**
+   * Sets up the search job to write each hour's results to its own directory,
+   * in the client's time zone, which is the one the log directories are in.
+   */
+  public static void setSliced(Configuration conf) {
+    conf.setBoolean(SLICED, true);
+    conf.set(TIME_ZONE, TimeZone.getDefault().getID());
+  }
+
+  /** The names of the hourly directories that the search job writes. */
+  public static FastDateFormat getSliceFormat(Configuration conf) {
+    return FastDateFormat.getInstance(SLICE_FORMAT, TimeZone.getTimeZone(conf
+        .get(TIME_ZONE, TimeZone.getDefault().getID())));
+  }
+
+  /**
+   * The start of the hour with the given name (from the slice format), in ms
+   * since the epoch. The hour ends an hour later.
+   */
+  public static long getHourStart(Configuration conf, String hour)
+      throws IOException {
+    try {
+      SimpleDateFormat format = new SimpleDateFormat(SLICE_FORMAT);
+      format.setTimeZone(TimeZone.getTimeZone(conf.get(TIME_ZONE, TimeZone
+          .getDefault().getID())));
+      format.setLenient(false);
+      return format.parse(hour).getTime();
+    } catch (ParseException e) {
+      throw new IOException("Invalid hour " + hour);
+    }
+  }
+
+  public static long getHourEnd(Configuration conf, String hour)
+      throws IOException {
+    return getHourStart(conf, hour) + HOUR;
+  }
+
+  public Path getDir() {
+    return dir;
+  }
+
+  /**
+   * Works out the key for one hour of a search.
+   *
+   * @param query
+   *          Everything about the search that changes which lines match, or
+   *          how they're written. Use {@link #normalize(String, boolean)} for
+   *          the search string.
+   * @param start
+   *          The start of the part of the hour that is searched.
+   * @param end
+   *          The end of the part of the hour that is searched.
+   * @param files
+   *          The input files for the hour.
+   */
+  public static String getKey(String query, long start, long end,
+      List<FileStatus> files) {
+    List<FileStatus> sorted = new ArrayList<FileStatus>(files);
+    Collections.sort(sorted, new Comparator<FileStatus>() {
+      @Override
+      public int compare(FileStatus a, FileStatus b) {
+        return a.getPath().toString().compareTo(b.getPath().toString());
+      }
+    });
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(VERSION).append('\n');
+    sb.append(query).append('\n');
+    sb.append(start).append('\n').append(end).append('\n');
+    for (FileStatus file : sorted) {
+      sb.append(file.getPath().toUri().getPath()).append('\t')
+          .append(file.getLen()).append('\t')
+          .append(file.getModificationTime()).append('\n');
+    }
+
+    MessageDigest md5;
+    try {
+      md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM has MD5.
+      throw new RuntimeException(e);
+    }
+    byte[] digest = md5.digest(sb.toString().getBytes(UTF_8));
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+          Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Puts a search string in a standard form, so that strings that find the
+   * same lines have the same key. For a case insensitive search, that means
+   * folding case the way the search will: ASCII letters only, unless the
+   * string needs {@link CaseFoldedPattern}, and then every character.
+   * <p>
+   * The two can still give the same form for strings that find different
+   * lines: a search for "k" finds "k" and "K", and one for the Kelvin sign
+   * finds those and the Kelvin sign too. So the query should also say which
+   * one the search uses (see {@link #getFolding(String, boolean)}).
+   */
+  public static String normalize(String searchString, boolean caseInsensitive) {
+    if (!caseInsensitive) {
+      return searchString;
+    }
+    boolean unicode = CaseFoldedPattern.needsUnicodeFolding(searchString);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < searchString.length();) {
+      int c = searchString.codePointAt(i);
+      if (unicode) {
+        sb.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c)));
+      } else {
+        sb.appendCodePoint(c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+      }
+      i += Character.charCount(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * How a search for the string folds case: "none", "ascii" or "unicode".
+   */
+  public static String getFolding(String searchString,
+      boolean caseInsensitive) {
+    if (!caseInsensitive) {
+      return "none";
+    }
+    return CaseFoldedPattern.needsUnicodeFolding(searchString) ? "unicode"
+        : "ascii";
+  }
+
+  /**
+   * Returns the entry for the key, or null if there isn't one. An entry that
+   * is found counts as used.
+   */
+  public Path get(String key) throws IOException {
+    Path entry = new Path(dir, key);
+    if (!fs.exists(entry)) {
+      return null;
+    }
+    touch(entry);
+    return entry;
+  }
+
+  private void touch(Path entry) throws IOException {
+    fs.create(new Path(entry, USED), true).close();
+  }
+
+  /**
+   * A new directory for a search to write its results to, before they're
+   * added to the cache with {@link #put(String, Path)}.
+   */
+  public Path newTempDir() {
+    return new Path(dir, "_tmp-" + UUID.randomUUID());
+  }
+
+  /**
+   * Moves one hour of results into the cache. If the directory doesn't exist,
+   * that's taken to mean there were no results, and an empty entry is made.
+   */
+  public Path put(String key, Path results) throws IOException {
+    Path entry = new Path(dir, key);
+    if (fs.exists(entry)) {
+      // Someone else got there first. Theirs is as good as ours.
+      touch(entry);
+      return entry;
+    }
+    fs.mkdirs(dir);
+    if (fs.exists(results)) {
+      if (!fs.rename(results, entry)) {
+        if (!fs.exists(entry)) {
+          throw new IOException("Failed to move " + results + " to " + entry);
+        }
+      }
+    } else {
+      fs.mkdirs(entry);
+    }
+    touch(entry);
+    return entry;
+  }
+
+  /**
+   * The result files of an entry, in order.
+   */
+  public List<Path> getFiles(Path entry) throws IOException {
+    List<Path> files = new ArrayList<Path>();
+    FileStatus[] statuses = fs.listStatus(entry);
+    if (statuses == null) {
+      return files;
+    }
+    Arrays.sort(statuses);
+    for (FileStatus status : statuses) {
+      String name = status.getPath().getName();
+      if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+        files.add(status.getPath());
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Writes the results of the entries, in order, to the output stream, and
+   * returns the number of lines written.
+   */
+  public long copy(List<Path> entries, OutputStream out) throws IOException {
+    long lines = 0;
+    byte[] buf = new byte[64 * 1024];
+    for (Path entry : entries) {
+      for (Path file : getFiles(entry)) {
+        InputStream in = fs.open(file);
+        try {
+          int n;
+          while ((n = in.read(buf)) > 0) {
+            for (int i = 0; i < n; i++) {
+              if (buf[i] == '\n') {
+                lines++;
+              }
+            }
+            out.write(buf, 0, n);
+          }
+        } finally {
+          in.close();
+        }
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Writes the results of the entries, in order, to outputDir/part-00000, and
+   * returns the number of lines written.
+   */
+  public long copy(List<Path> entries, Path outputDir) throws IOException {
+    FileSystem outputFs = outputDir.getFileSystem(conf);
+    OutputStream out = outputFs.create(new Path(outputDir, "part-00000"),
+        false);
+    try {
+      return copy(entries, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Deletes entries that haven't been used for the maximum age, and then the
+   * least recently used ones until the cache is within its maximum size.
+   * Leftover temporary directories older than the maximum age go too.
+   */
+  public void evict() throws IOException {
+    long maxBytes = conf.getLong(MAX_BYTES, DEFAULT_MAX_BYTES);
+    long maxAge = conf.getLong(MAX_AGE, DEFAULT_MAX_AGE);
+    long now = System.currentTimeMillis();
+
+    FileStatus[] statuses = fs.listStatus(dir);
+    if (statuses == null) {
+      return;
+    }
+
+    List<long[]> entries = new ArrayList<long[]>();
+    List<Path> paths = new ArrayList<Path>();
+    long totalBytes = 0;
+    for (FileStatus status : statuses) {
+      Path path = status.getPath();
+      if (!status.isDir()) {
+        continue;
+      }
+      if (path.getName().startsWith("_")) {
+        if (now - status.getModificationTime() > maxAge) {
+          LOG.info("Deleting old temporary directory {}", path);
+          fs.delete(path, true);
+        }
+        continue;
+      }
+
+      long used = status.getModificationTime();
+      Path usedFile = new Path(path, USED);
+      if (fs.exists(usedFile)) {
+        used = fs.getFileStatus(usedFile).getModificationTime();
+      }
+      if (now - used > maxAge) {
+        LOG.info("Deleting cache entry {}, last used {}", path, used);
+        fs.delete(path, true);
+        continue;
+      }
+
+      long bytes = fs.getContentSummary(path).getLength();
+      totalBytes += bytes;
+      entries.add(new long[] { used, bytes, paths.size() });
+      paths.add(path);
+    }
+
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    Collections.sort(entries, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+      }
+    });
+    for (long[] entry : entries) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      Path path = paths.get((int) entry[2]);
+      LOG.info("Deleting cache entry {} ({} bytes) to make room", path,
+          entry[1]);
+      fs.delete(path, true);
+      totalBytes -= entry[1];
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops a search early, once it has found about as many matches as were asked
+ * for.
+ * <p>
+ * Each mapper stops reading once it has written the limit itself. Mappers
+ * can't see each other's counters, so the client polls the job's match
+ * counter, and when the total reaches the limit it creates a marker file. The
+ * mappers check for the marker every few seconds, and stop when it shows up.
+ * The mappers that are already running finish what they're writing, so there
+ * will usually be somewhat more than the limit in the output.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.search.limit: The number of matches to stop after. Default 0,
+ * which means no limit.</li>
+ * <li>logdriver.search.limit.check.interval: How often the mappers check for
+ * the marker, and the client checks the counter, in ms. Default 5000.</li>
+ * </ul>
+ */
+public class SearchLimit {
+  private static final Logger LOG = LoggerFactory.getLogger(SearchLimit.class);
+
+  public static final String LIMIT = "logdriver.search.limit";
+  public static final String CHECK_INTERVAL = "logdriver.search.limit.check.interval";
+  public static final String MARKER = "logdriver.search.limit.marker";
+
+  public static final String COUNTER_GROUP = "Search limit";
+  public static final String MATCHES = "Matches";
+  public static final String STOPPED_EARLY = "Mappers stopped early";
+
+  private static final long DEFAULT_CHECK_INTERVAL = 5000;
+
+  private final long limit;
+  private final long checkInterval;
+  private final FileSystem fs;
+  private final Path marker;
+  private final Counter counter;
+
+  private long matches = 0;
+  // So that the first check is straight away, in case the marker is already
+  // there when the mapper starts.
+  private long lastCheck = 0;
+  private boolean reached = false;
+
+  private SearchLimit(long limit, long checkInterval, FileSystem fs,
+      Path marker, Counter counter) {
+    this.limit = limit;
+    this.checkInterval = checkInterval;
+    this.fs = fs;
+    this.marker = marker;
+    this.counter = counter;
+  }
+
+  public static long getLimit(Configuration conf) {
+    return conf.getLong(LIMIT, 0);
+  }
+
+  /**
+   * For the mappers. Returns null if there is no limit.
+   */
+  public static SearchLimit forTask(TaskInputOutputContext<?, ?, ?, ?> context)
+      throws IOException {
+    Configuration conf = context.getConfiguration();
+    long limit = getLimit(conf);
+    if (limit <= 0) {
+      return null;
+    }
+    Path marker = null;
+    FileSystem fs = null;
+    if (conf.get(MARKER) != null) {
+      marker = new Path(conf.get(MARKER));
+      fs = marker.getFileSystem(conf);
+    }
+    LOG.info("Stopping after {} matches.", limit);
+    return new SearchLimit(limit, conf.getLong(CHECK_INTERVAL,
+        DEFAULT_CHECK_INTERVAL), fs, marker, context.getCounter(
+        COUNTER_GROUP, MATCHES));
+  }
+
+  /**
+   * Call once for every match written.
+   */
+  public void match() {
+    matches++;
+    counter.increment(1);
+  }
+
+  /**
+   * Returns true once this mapper has found the limit itself, or the client has
+   * told us the job as a whole has.
+   */
+  public boolean isReached() {
+    if (reached) {
+      return true;
+    }
+    if (matches >= limit) {
+      LOG.info("Found {} matches. Stopping.", matches);
+      reached = true;
+      return true;
+    }
+    long now = System.currentTimeMillis();
+    if (marker != null && now - lastCheck >= checkInterval) {
+      lastCheck = now;
+      try {
+        if (fs.exists(marker)) {
+          LOG.info("The job has found enough matches. Stopping.");
+          reached = true;
+        }
+      } catch (IOException e) {
+        // Not fatal, we'll just keep going until the next check.
+        LOG.warn("Error checking for " + marker, e);
+      }
+    }
+    return reached;
+  }
+
+  /**
+   * For the mappers' cleanup(), so the job's counters show how many mappers
+   * didn't read all their input.
+   */
+  public void reportCounters(TaskInputOutputContext<?, ?, ?, ?> context) {
+    if (reached) {
+      context.getCounter(COUNTER_GROUP, STOPPED_EARLY).increment(1);
+    }
+  }
+
+  /**
+   * If the job's configuration has a limit, sets it up: picks a marker file
+   * next to the output directory.
+   */
+  public static void configure(Job job, Path outputDir) {
+    Configuration conf = job.getConfiguration();
+    if (getLimit(conf) <= 0) {
+      return;
+    }
+    Path marker = new Path(outputDir.getParent(), "." + outputDir.getName()
+        + ".limit-reached");
+    conf.set(MARKER, marker.toString());
+  }
+
+  /**
+   * Tells the mappers to stop, the same way {@link #waitForCompletion} does,
+   * for a client that counts the matches itself.
+   */
+  public static void signalReached(Configuration conf) throws IOException {
+    if (conf.get(MARKER) == null) {
+      return;
+    }
+    Path marker = new Path(conf.get(MARKER));
+    FileSystem fs = marker.getFileSystem(conf);
+    if (!fs.exists(marker)) {
+      LOG.info("Found {} matches. Telling the mappers to stop.",
+          getLimit(conf));
+      fs.create(marker, true).close();
+    }
+  }
+
+  /**
+   * Deletes the marker file, if there is one.
+   */
+  public static void clearSignal(Configuration conf) throws IOException {
+    if (conf.get(MARKER) == null) {
+      return;
+    }
+    Path marker = new Path(conf.get(MARKER));
+    marker.getFileSystem(conf).delete(marker, false);
+  }
+
+  /**
+   * Runs the job, like {@link Job#waitForCompletion(boolean)}, creating the
+   * marker file once the job's counters show it has found enough matches. If
+   * verbose, the job's progress is logged whenever it changes.
+   */
+  public static boolean waitForCompletion(Job job, boolean verbose)
+      throws IOException, InterruptedException, ClassNotFoundException {
+    Configuration conf = job.getConfiguration();
+    long limit = getLimit(conf);
+    if (limit <= 0 || conf.get(MARKER) == null) {
+      return job.waitForCompletion(verbose);
+    }
+
+    Path marker = new Path(conf.get(MARKER));
+    FileSystem fs = marker.getFileSystem(conf);
+    long checkInterval = conf.getLong(CHECK_INTERVAL, DEFAULT_CHECK_INTERVAL);
+    fs.delete(marker, false);
+
+    job.submit();
+    LOG.info("Running job {}, stopping after {} matches.", job.getJobID(),
+        limit);
+    try {
+      boolean markerCreated = false;
+      String lastProgress = null;
+      while (!job.isComplete()) {
+        Thread.sleep(checkInterval);
+        if (verbose) {
+          // Like Job#monitorAndPrintJob, which can't be used since it doesn't
+          // return until the job is done.
+          String progress = String.format("map %.0f%% reduce %.0f%%",
+              100 * job.mapProgress(), 100 * job.reduceProgress());
+          if (!progress.equals(lastProgress)) {
+            LOG.info(" {}", progress);
+            lastProgress = progress;
+          }
+        }
+        if (markerCreated) {
+          continue;
+        }
+        Counters counters = job.getCounters();
+        if (counters == null) {
+          continue;
+        }
+        long matches = counters.findCounter(COUNTER_GROUP, MATCHES).getValue();
+        if (matches >= limit) {
+          LOG.info("Found {} matches. Telling the mappers to stop.", matches);
+          fs.create(marker, true).close();
+          markerCreated = true;
+        }
+      }
+    } finally {
+      fs.delete(marker, false);
+    }
+
+    if (verbose) {
+      LOG.info("Job {} {}.", job.getJobID(), job.isSuccessful() ? "succeeded"
+          : "failed");
+      Counters counters = job.getCounters();
+      if (counters != null) {
+        LOG.info("{}", counters);
+      }
+    }
+    return job.isSuccessful();
+  }
+}
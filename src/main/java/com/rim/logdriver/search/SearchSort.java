@@ -0,0 +1,262 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.boom.BlockIndex;
+import com.rim.logdriver.boom.LogLineData;
+
+/**
+ * Sets up a search job to sort its own output, so that it doesn't need a
+ * separate job to do it.
+ * <p>
+ * The mappers write LogLineData keys, which sort by time, createTime, block
+ * number and line number, and the reducers are given contiguous time ranges by
+ * a {@link TotalOrderPartitioner}. Concatenating the reducers' output in order
+ * then gives every match, sorted.
+ * <p>
+ * Rather than sampling the input, which would mean reading it, the time ranges
+ * are worked out from the {@link BlockIndex} of each file. Each group of blocks
+ * in an index is taken to have its bytes spread evenly across the seconds it
+ * covers, and the split points are picked so that each reducer gets about the
+ * same number of input bytes. Files without an index are spread evenly across
+ * the job's time range, if it has one, and left out otherwise.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.search.sort: Set to true to sort. Default false.</li>
+ * <li>logdriver.search.sort.date.format: The format of the timestamp at the
+ * start of each line. See
+ * {@link com.rim.logdriver.timestamp.TimestampFormats}. Default RFC5424.</li>
+ * <li>logdriver.search.sort.reducers: The number of reducers. Defaults to one
+ * per logdriver.search.sort.bytes.per.reducer of input.</li>
+ * <li>logdriver.search.sort.bytes.per.reducer: Default 10GB.</li>
+ * </ul>
+ */
+public class SearchSort {
+  private static final Logger LOG = LoggerFactory.getLogger(SearchSort.class);
+
+  public static final String SORT = "logdriver.search.sort";
+  public static final String DATE_FORMAT = "logdriver.search.sort.date.format";
+  public static final String REDUCERS = "logdriver.search.sort.reducers";
+  public static final String BYTES_PER_REDUCER = "logdriver.search.sort.bytes.per.reducer";
+
+  public static final String DEFAULT_DATE_FORMAT = "RFC5424";
+  private static final long DEFAULT_BYTES_PER_REDUCER = 10L * 1024 * 1024 * 1024;
+  private static final int MAX_DEFAULT_REDUCERS = 100;
+
+  private SearchSort() {
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(SORT, false);
+  }
+
+  /**
+   * Works out the time ranges for the reducers, writes the partition file, and
+   * sets the number of reducers and the partitioner.
+   *
+   * @return the partition file, which should be deleted when the job is done,
+   *         or null if there is only one reducer.
+   */
+  public static Path configure(Job job, List<Path> inputs, Path outputDir,
+      long start, long end) throws IOException {
+    Configuration conf = job.getConfiguration();
+    List<long[]> segments = getSegments(conf, inputs, start, end);
+    long totalBytes = 0;
+    for (long[] segment : segments) {
+      totalBytes += segment[2];
+    }
+
+    int reducers = conf.getInt(REDUCERS, 0);
+    if (reducers <= 0) {
+      long bytesPerReducer = conf.getLong(BYTES_PER_REDUCER,
+          DEFAULT_BYTES_PER_REDUCER);
+      reducers = (int) Math.min(MAX_DEFAULT_REDUCERS,
+          1 + totalBytes / Math.max(1, bytesPerReducer));
+    }
+
+    long[] splitPoints = getSplitPoints(segments, reducers);
+    job.setNumReduceTasks(splitPoints.length + 1);
+    LOG.info("Sorting {} bytes of input with {} reducers.", totalBytes,
+        splitPoints.length + 1);
+    if (splitPoints.length == 0) {
+      return null;
+    }
+
+    Path partitionFile = new Path(outputDir.getParent(), "."
+        + outputDir.getName() + ".partitions");
+    FileSystem fs = partitionFile.getFileSystem(conf);
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+        partitionFile, LogLineData.class, NullWritable.class);
+    try {
+      for (long point : splitPoints) {
+        // Everything at or after the split point goes to the next reducer.
+        writer.append(new LogLineData(point, 0, 0, 0, 0), NullWritable.get());
+      }
+    } finally {
+      writer.close();
+    }
+    TotalOrderPartitioner.setPartitionFile(conf, partitionFile);
+    job.setPartitionerClass(TotalOrderPartitioner.class);
+    return partitionFile;
+  }
+
+  /**
+   * Reads the block indexes of the input files, and returns {start, end, bytes}
+   * for each group of blocks, with the times in ms, clipped to [start, end).
+   */
+  static List<long[]> getSegments(Configuration conf, List<Path> inputs,
+      long start, long end) throws IOException {
+    List<long[]> segments = new ArrayList<long[]>();
+    for (FileStatus file : listFiles(conf, inputs)) {
+      FileSystem fs = file.getPath().getFileSystem(conf);
+      BlockIndex index = BlockIndex.read(fs, file);
+      if (index == null) {
+        if (start != Long.MIN_VALUE && end != Long.MAX_VALUE) {
+          addSegment(segments, start, end, file.getLen(), start, end);
+        }
+        continue;
+      }
+      for (int i = 0; i < index.size(); i++) {
+        long position = index.getPosition(i);
+        long next = i + 1 < index.size() ? index.getPosition(i + 1) : index
+            .getFileLength();
+        addSegment(segments, index.getMinSecond(i) * 1000,
+            (index.getMaxSecond(i) + 1) * 1000, next - position, start, end);
+      }
+    }
+    return segments;
+  }
+
+  private static void addSegment(List<long[]> segments, long segmentStart,
+      long segmentEnd, long bytes, long start, long end) {
+    long clippedStart = Math.max(segmentStart, start);
+    long clippedEnd = Math.min(segmentEnd, end);
+    if (clippedStart >= clippedEnd || bytes <= 0) {
+      return;
+    }
+    // Only count the bytes for the part of the segment in range.
+    double fraction = (double) (clippedEnd - clippedStart)
+        / (segmentEnd - segmentStart);
+    segments.add(new long[] { clippedStart, clippedEnd,
+        Math.max(1, Math.round(bytes * fraction)) });
+  }
+
+  /**
+   * The input files, the same way FileInputFormat lists them: the inputs
+   * themselves if they are files, or their children if they are directories,
+   * leaving out hidden files.
+   */
+  public static List<FileStatus> listFiles(Configuration conf,
+      List<Path> inputs) throws IOException {
+    List<FileStatus> files = new ArrayList<FileStatus>();
+    for (Path input : inputs) {
+      FileSystem fs = input.getFileSystem(conf);
+      FileStatus[] statuses = fs.globStatus(input);
+      if (statuses == null) {
+        continue;
+      }
+      for (FileStatus status : statuses) {
+        if (status.isDir()) {
+          for (FileStatus child : fs.listStatus(status.getPath())) {
+            if (!child.isDir() && !isHidden(child.getPath())) {
+              files.add(child);
+            }
+          }
+        } else if (!isHidden(status.getPath())) {
+          files.add(status);
+        }
+      }
+    }
+    return files;
+  }
+
+  private static boolean isHidden(Path path) {
+    String name = path.getName();
+    return name.startsWith("_") || name.startsWith(".");
+  }
+
+  /**
+   * Picks up to partitions - 1 times that divide the bytes in the segments
+   * ({start, end, bytes}, with each segment's bytes spread evenly from start to
+   * end) into roughly equal parts. The times are in increasing order, with no
+   * duplicates, so there may be fewer than asked for.
+   */
+  public static long[] getSplitPoints(List<long[]> segments, int partitions) {
+    if (partitions <= 1 || segments.isEmpty()) {
+      return new long[0];
+    }
+
+    // Every segment adds its rate (bytes per ms) at its start, and takes it
+    // away again at its end. Between two consecutive boundaries the rate is
+    // constant.
+    List<double[]> boundaries = new ArrayList<double[]>();
+    double total = 0;
+    for (long[] segment : segments) {
+      double rate = (double) segment[2] / (segment[1] - segment[0]);
+      boundaries.add(new double[] { segment[0], rate });
+      boundaries.add(new double[] { segment[1], -rate });
+      total += segment[2];
+    }
+    Collections.sort(boundaries, new Comparator<double[]>() {
+      @Override
+      public int compare(double[] a, double[] b) {
+        return Double.compare(a[0], b[0]);
+      }
+    });
+
+    long[] points = new long[partitions - 1];
+    int count = 0;
+    double rate = 0;
+    double seen = 0;
+    int next = 1;
+    for (int i = 0; i < boundaries.size() - 1 && next < partitions; i++) {
+      rate += boundaries.get(i)[1];
+      double from = boundaries.get(i)[0];
+      double to = boundaries.get(i + 1)[0];
+      double bytes = rate * (to - from);
+      while (next < partitions && bytes > 0
+          && seen + bytes >= total * next / partitions) {
+        double target = total * next / partitions;
+        long point = (long) Math.ceil(from + (target - seen) / rate);
+        if (count == 0 || point > points[count - 1]) {
+          points[count++] = point;
+        }
+        next++;
+      }
+      seen += bytes;
+    }
+    return Arrays.copyOf(points, count);
+  }
+}
@@ -0,0 +1,249 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.boom.LogLineData;
+
+/**
+ * Lines to be written out in time order, without holding them all in memory.
+ * <p>
+ * Lines are kept in memory until they take up more than a given number of
+ * bytes, and then sorted and written to a temporary file on local disk as a
+ * sorted run. When all the lines have been added, the runs, along with
+ * whatever is still in memory, are merged as they are written out. Several
+ * sets of lines, such as one per thread, can be merged together the same way.
+ * <p>
+ * Temporary files go in java.io.tmpdir, which is the task's own directory in
+ * a MapReduce task. They're deleted by {@link #close()}.
+ */
+public class SortedLines {
+  private static final Logger LOG = LoggerFactory.getLogger(SortedLines.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // A rough guess at what a line costs in memory, on top of its characters.
+  private static final long LINE_OVERHEAD = 128;
+
+  /** Where the merged lines go. */
+  public interface Output {
+    void write(LogLineData key, String line) throws IOException,
+        InterruptedException;
+  }
+
+  /** A line and the key it's sorted by. */
+  private static final class Line implements Comparable<Line> {
+    private final LogLineData key;
+    private final String line;
+
+    private Line(LogLineData key, String line) {
+      this.key = key;
+      this.line = line;
+    }
+
+    @Override
+    public int compareTo(Line other) {
+      return key.compareTo(other.key);
+    }
+  }
+
+  private final long maxBytes;
+  private final List<Line> buffer = new ArrayList<Line>();
+  private long bufferBytes = 0;
+  private final List<File> runs = new ArrayList<File>();
+
+  /**
+   * @param maxBytes
+   *          About how much memory the lines can take up before they're
+   *          written to disk.
+   */
+  public SortedLines(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public void add(LogLineData key, String line) throws IOException {
+    buffer.add(new Line(key, line));
+    bufferBytes += 2 * line.length() + LINE_OVERHEAD;
+    if (bufferBytes > maxBytes) {
+      spill();
+    }
+  }
+
+  /**
+   * Writes the lines in memory to disk, as a sorted run.
+   */
+  public void spill() throws IOException {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    Collections.sort(buffer);
+    File file = File.createTempFile("sorted-lines-", ".run");
+    runs.add(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      for (Line line : buffer) {
+        line.key.write(out);
+        byte[] bytes = line.line.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    } finally {
+      out.close();
+    }
+    LOG.debug("Wrote {} lines to {}", buffer.size(), file);
+    buffer.clear();
+    bufferBytes = 0;
+  }
+
+  /**
+   * Writes out all of the lines, in order.
+   */
+  public void writeTo(Output output) throws IOException, InterruptedException {
+    merge(Collections.singletonList(this), output);
+  }
+
+  /**
+   * Writes out all of the lines from all of the sets, in order. Lines with the
+   * same key are written in the order of the sets they're in.
+   */
+  public static void merge(List<SortedLines> sets, Output output)
+      throws IOException, InterruptedException {
+    PriorityQueue<Source> queue = new PriorityQueue<Source>();
+    List<DataInputStream> streams = new ArrayList<DataInputStream>();
+    try {
+      int index = 0;
+      for (SortedLines set : sets) {
+        for (File run : set.runs) {
+          DataInputStream in = new DataInputStream(new BufferedInputStream(
+              new FileInputStream(run)));
+          streams.add(in);
+          addSource(queue, new RunSource(in, index++));
+        }
+        Collections.sort(set.buffer);
+        addSource(queue, new BufferSource(set.buffer.iterator(), index++));
+      }
+      while (!queue.isEmpty()) {
+        Source source = queue.poll();
+        output.write(source.line.key, source.line.line);
+        addSource(queue, source);
+      }
+    } finally {
+      for (DataInputStream in : streams) {
+        in.close();
+      }
+    }
+  }
+
+  private static void addSource(PriorityQueue<Source> queue, Source source)
+      throws IOException {
+    if (source.next()) {
+      queue.add(source);
+    }
+  }
+
+  /**
+   * Deletes the temporary files, and drops the lines in memory.
+   */
+  public void close() {
+    for (File run : runs) {
+      if (!run.delete()) {
+        LOG.warn("Couldn't delete {}", run);
+      }
+    }
+    runs.clear();
+    buffer.clear();
+    bufferBytes = 0;
+  }
+
+  /** The next line from a run or from memory. */
+  private abstract static class Source implements Comparable<Source> {
+    private final int index;
+    protected Line line;
+
+    protected Source(int index) {
+      this.index = index;
+    }
+
+    /** Moves on to the next line. Returns false if there are no more. */
+    protected abstract boolean next() throws IOException;
+
+    @Override
+    public int compareTo(Source other) {
+      int c = line.compareTo(other.line);
+      return c != 0 ? c : index - other.index;
+    }
+  }
+
+  private static final class RunSource extends Source {
+    private final DataInputStream in;
+
+    private RunSource(DataInputStream in, int index) {
+      super(index);
+      this.in = in;
+    }
+
+    @Override
+    protected boolean next() throws IOException {
+      LogLineData key = new LogLineData();
+      try {
+        key.readFields(in);
+      } catch (EOFException e) {
+        return false;
+      }
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      line = new Line(key, new String(bytes, UTF_8));
+      return true;
+    }
+  }
+
+  private static final class BufferSource extends Source {
+    private final Iterator<Line> lines;
+
+    private BufferSource(Iterator<Line> lines, int index) {
+      super(index);
+      this.lines = lines;
+    }
+
+    @Override
+    protected boolean next() {
+      if (!lines.hasNext()) {
+        return false;
+      }
+      line = lines.next();
+      return true;
+    }
+  }
+}
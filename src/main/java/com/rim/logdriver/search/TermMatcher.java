@@ -0,0 +1,119 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.search;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds several terms in UTF-8 bytes at once: either any one of them, or all
+ * of them.
+ * <p>
+ * The terms are found in a single pass with an {@link AhoCorasick} automaton,
+ * which only folds ASCII. If the search is case insensitive and any of the
+ * terms need more than that (see
+ * {@link CaseFoldedPattern#needsUnicodeFolding(String)}), each term gets a
+ * {@link CaseFoldedPattern} instead, and is looked for separately.
+ * <p>
+ * Not thread safe, since the automaton's match set is reused. Use one per
+ * thread.
+ */
+public class TermMatcher {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final boolean all;
+  private final AhoCorasick automaton;
+  private final long[] found;
+  private final List<CaseFoldedPattern> foldedTerms;
+
+  private TermMatcher(List<String> terms, boolean caseInsensitive,
+      boolean all) {
+    this.all = all;
+
+    boolean unicode = false;
+    if (caseInsensitive) {
+      for (String term : terms) {
+        if (CaseFoldedPattern.needsUnicodeFolding(term)) {
+          unicode = true;
+          break;
+        }
+      }
+    }
+
+    if (unicode) {
+      automaton = null;
+      found = null;
+      foldedTerms = new ArrayList<CaseFoldedPattern>(terms.size());
+      for (String term : terms) {
+        foldedTerms.add(CaseFoldedPattern.compile(term));
+      }
+    } else {
+      List<byte[]> patterns = new ArrayList<byte[]>(terms.size());
+      for (String term : terms) {
+        patterns.add(term.getBytes(UTF_8));
+      }
+      automaton = caseInsensitive ? AhoCorasick
+          .compileCaseInsensitive(patterns) : AhoCorasick.compile(patterns);
+      found = automaton.newMatchSet();
+      foldedTerms = null;
+    }
+  }
+
+  /**
+   * @param all
+   *          True to match only when every term is found, false to match when
+   *          any of them is.
+   */
+  public static TermMatcher compile(List<String> terms,
+      boolean caseInsensitive, boolean all) {
+    return new TermMatcher(terms, caseInsensitive, all);
+  }
+
+  public boolean isAll() {
+    return all;
+  }
+
+  /**
+   * Returns true if any of the terms (or with all set, every term) occurs in
+   * buf[offset, offset + length).
+   */
+  public boolean matches(byte[] buf, int offset, int length) {
+    if (automaton != null) {
+      return all ? automaton.matchesAll(buf, offset, length, found)
+          : automaton.matchesAny(buf, offset, length);
+    }
+    for (CaseFoldedPattern term : foldedTerms) {
+      boolean termMatch = term.matches(buf, offset, length);
+      if (all && !termMatch) {
+        return false;
+      }
+      if (!all && termMatch) {
+        return true;
+      }
+    }
+    return all;
+  }
+
+  @Override
+  public String toString() {
+    if (automaton != null) {
+      return automaton.getPatternCount() + " search terms, "
+          + automaton.getStateCount() + " automaton states";
+    }
+    return foldedTerms.size() + " unicode case insensitive search terms";
+  }
+}
@@ -0,0 +1,51 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.rim.logdriver.timestamp;
+
+import org.apache.commons.lang.time.FastDateFormat;
+
+/**
+ * The date formats that the logsearch tools can print timestamps in.
+ */
+public class TimestampFormats {
+  private static final String RFC822_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+  private static final String RFC822_SEC_UTC_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+  // Not really RFC3164 - the day is zero padded instead of space padded
+  private static final String RFC3164_FORMAT = "MMM dd HH:mm:ss";
+  private static final String RFC5424_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZZ";
+
+  private TimestampFormats() {
+  }
+
+  /**
+   * Returns the format for one of the names RFC822, RFC822_SEC_UTC, RFC3164 or
+   * RFC5424 (in any case), or else treats the name as a FastDateFormat
+   * pattern.
+   */
+  public static FastDateFormat getFormat(String formatString) {
+    if ("RFC822".equals(formatString.toUpperCase())) {
+      return FastDateFormat.getInstance(RFC822_FORMAT);
+    } else if ("RFC822_SEC_UTC".equals(formatString.toUpperCase())) {
+      return FastDateFormat.getInstance(RFC822_SEC_UTC_FORMAT);
+    } else if ("RFC3164".equals(formatString.toUpperCase())) {
+      return FastDateFormat.getInstance(RFC3164_FORMAT);
+    } else if ("RFC5424".equals(formatString.toUpperCase())) {
+      return FastDateFormat.getInstance(RFC5424_FORMAT);
+    } else {
+      return FastDateFormat.getInstance(formatString);
+    }
+  }
+}
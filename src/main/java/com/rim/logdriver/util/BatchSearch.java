@@ -0,0 +1,430 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Run several searches over a file set, in one pass over the data.
+ * <p>
+ * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] queryFile input [input ...] output
+ * <p>
+ * The query file holds named queries, one per line (see {@link BatchQuery}
+ * for the format). Each block is inflated once, and checked against every
+ * query with a scan of its bytes. Only if one of them might match is the block
+ * decoded, and then each line is only checked against the queries that might
+ * match the block.
+ * <p>
+ * The matches for each query are written to output/name, in the same format
+ * as FastSearch, except that the line number is the line's position in its
+ * logBlock, as it is for Grep and MultiSearch. The job's counters have the
+ * number of matches for each query.
+ * <p>
+ * The start and end times in the configuration are the defaults for queries
+ * that don't give their own.
+ */
+package com.rim.logdriver.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.util.Utf8;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.net.util.Base64;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.Schemas;
+import com.rim.logdriver.avro.AvroBlock;
+import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.BlockInflater;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
+import com.rim.logdriver.mapreduce.avro.AvroBlockInputFormat;
+import com.rim.logdriver.search.BatchQuery;
+
+public class BatchSearch extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchSearch.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String DEFAULT_OUTPUT_SEPARATOR = "\t";
+  private static final boolean DEFAULT_WAIT_JOB = true;
+
+  public static final String QUERIES = "logdriver.search.batch.queries";
+
+  public static final String COUNTER_GROUP = "Batch search";
+  public static final String BLOCKS_SCANNED = "Blocks scanned";
+  public static final String BLOCKS_DECODED = "Blocks decoded";
+
+  private static List<BatchQuery> getQueries(Configuration conf)
+      throws IOException {
+    String queries = new String(Base64.decodeBase64(conf.get(QUERIES)), UTF_8);
+    return BatchQuery.parseAll(queries,
+        conf.getLong("logdriver.search.start.time", Long.MIN_VALUE),
+        conf.getLong("logdriver.search.end.time", Long.MAX_VALUE),
+        conf.getBoolean("logdriver.search.case.insensitive", false));
+  }
+
+  private static final class BatchSearchMapper extends
+      Mapper<AvroFileHeader, BytesWritable, Text, NullWritable> {
+    private BatchQuery[] queries;
+    private String[] outputPaths;
+    private long[] matchCounts;
+    private MultipleOutputs<Text, NullWritable> outputs;
+
+    // The queries that might match the current block, and of those, the ones
+    // whose time range includes the current logBlock.
+    private BatchQuery[] candidates;
+    private int[] candidateIds;
+    private int[] inRangeIds;
+
+    private BlockInflater blockInflater;
+    private AvroBlock avroBlock = new AvroBlock();
+    private String outputSeparator;
+    private Text output = new Text();
+
+    private String schemaString = null;
+    private GenericDatumReader<Record> datumReader = null;
+    private Record record = null;
+    private BinaryDecoder decoder = null;
+
+    private long blocksScanned = 0;
+    private long blocksDecoded = 0;
+
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      Configuration conf = context.getConfiguration();
+
+      List<BatchQuery> queryList = getQueries(conf);
+      queries = queryList.toArray(new BatchQuery[queryList.size()]);
+      outputPaths = new String[queries.length];
+      for (int i = 0; i < queries.length; i++) {
+        outputPaths[i] = queries[i].getName() + "/part";
+      }
+      matchCounts = new long[queries.length];
+      candidates = new BatchQuery[queries.length];
+      candidateIds = new int[queries.length];
+      inRangeIds = new int[queries.length];
+
+      outputs = new MultipleOutputs<Text, NullWritable>(context);
+      blockInflater = new BlockInflater();
+
+      outputSeparator = new String(new byte[] { Byte.parseByte(conf
+          .get("logdriver.output.field.separator")) }, UTF_8);
+
+      LOG.info("Configuring BatchSearchMapper");
+      for (BatchQuery query : queries) {
+        LOG.info("  {}", query);
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      blockInflater.reportCounters(context);
+      context.getCounter(COUNTER_GROUP, BLOCKS_SCANNED)
+          .increment(blocksScanned);
+      context.getCounter(COUNTER_GROUP, BLOCKS_DECODED)
+          .increment(blocksDecoded);
+      for (int i = 0; i < queries.length; i++) {
+        context.getCounter(COUNTER_GROUP, queries[i].getName()).increment(
+            matchCounts[i]);
+      }
+      blockInflater.end();
+      outputs.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void map(AvroFileHeader key, BytesWritable value, Context context)
+        throws IOException, InterruptedException {
+      if (value.getLength() == 0) {
+        return;
+      }
+
+      // The record reader hands us an AvroBlock, so the headers are already
+      // parsed, and we can decompress straight out of its buffer.
+      AvroBlock block;
+      if (value instanceof AvroBlock) {
+        block = (AvroBlock) value;
+      } else {
+        block = avroBlock;
+        block.set(value);
+      }
+      long entries = block.getEntries();
+
+      int pos = blockInflater.inflate(block);
+      byte[] buf = blockInflater.getBuffer();
+
+      // Inflate once, then see which of the queries could match anything in
+      // the block.
+      blocksScanned++;
+      int candidateCount = 0;
+      for (int i = 0; i < queries.length; i++) {
+        if (queries[i].mightMatch(buf, 0, pos)) {
+          candidates[candidateCount] = queries[i];
+          candidateIds[candidateCount] = i;
+          candidateCount++;
+        }
+      }
+      if (candidateCount == 0) {
+        return;
+      }
+      blocksDecoded++;
+
+      // Every block in a file has the same schema, so only build a new reader
+      // when the file changes.
+      if (datumReader == null || !key.getSchema().equals(schemaString)) {
+        schemaString = key.getSchema();
+        datumReader = new GenericDatumReader<Record>(
+            new Schema.Parser().parse(schemaString),
+            Schemas.getSchema("logBlock"));
+        record = null;
+      }
+      decoder = DecoderFactory.get().binaryDecoder(buf, 0, pos, decoder);
+
+      for (long i = 0; i < entries; i++) {
+        record = datumReader.read(record, decoder);
+
+        long second = (Long) record.get("second");
+        int inRangeCount = 0;
+        for (int c = 0; c < candidateCount; c++) {
+          if (candidates[c].secondInRange(second)) {
+            inRangeIds[inRangeCount++] = candidateIds[c];
+          }
+        }
+        if (inRangeCount == 0) {
+          continue;
+        }
+
+        long blockNumber = (Long) record.get("blockNumber");
+        long createTime = (Long) record.get("createTime");
+
+        long lineNumber = 0;
+        for (Record line : (List<Record>) record.get("logLines")) {
+          ++lineNumber;
+          long timestamp = second * 1000 + (Long) line.get("ms");
+
+          Object rawMessage = line.get("message");
+          byte[] bytes;
+          int length;
+          if (rawMessage instanceof Utf8) {
+            Utf8 utf8 = (Utf8) rawMessage;
+            bytes = utf8.getBytes();
+            length = utf8.getByteLength();
+          } else {
+            bytes = rawMessage.toString().getBytes(UTF_8);
+            length = bytes.length;
+          }
+
+          // The line is only formatted once, however many queries it
+          // matches.
+          String formatted = null;
+          for (int q = 0; q < inRangeCount; q++) {
+            int id = inRangeIds[q];
+            BatchQuery query = queries[id];
+            if (!query.inRange(timestamp) || !query.matches(bytes, 0, length)) {
+              continue;
+            }
+            if (formatted == null) {
+              formatted = new StringBuilder().append(timestamp)
+                  .append(outputSeparator)
+                  .append(StringUtils.chomp(rawMessage.toString()))
+                  .append(outputSeparator).append(line.get("eventId"))
+                  .append(outputSeparator).append(createTime)
+                  .append(outputSeparator).append(blockNumber)
+                  .append(outputSeparator).append(lineNumber).toString();
+              output.set(formatted);
+            }
+            outputs.write(output, NullWritable.get(), outputPaths[id]);
+            matchCounts[id]++;
+          }
+        }
+      }
+    }
+  }
+
+  private static String readQueries(Configuration conf, Path path)
+      throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    InputStream in = fs.open(path);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+      return new String(out.toByteArray(), UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Configuration conf = getConf(); // Configuration processed by ToolRunner
+    // If run by Oozie, then load the Oozie conf too
+    if (System.getProperty("oozie.action.conf.xml") != null) {
+      conf.addResource(new URL("file://"
+          + System.getProperty("oozie.action.conf.xml")));
+    }
+
+    FileSystem fs = FileSystem.get(conf);
+
+    // The command line options
+    List<Path> paths = new ArrayList<Path>();
+    Path outputDir = null;
+
+    // Load input files from the command line
+    if (args.length < 3) {
+      System.out
+          .println("usage: [genericOptions] queryFile input [input ...] output");
+      System.exit(1);
+    }
+
+    // Get the files we need from the command line.
+    String queryText = readQueries(conf, new Path(args[0]));
+    for (int i = 1; i < args.length - 1; i++) {
+      for (FileStatus f : fs.globStatus(new Path(args[i]))) {
+        paths.add(f.getPath());
+      }
+    }
+    outputDir = new Path(args[args.length - 1]);
+
+    Job job = new Job(conf);
+    Configuration jobConf = job.getConfiguration();
+
+    job.setJarByClass(BatchSearch.class);
+    jobConf.setIfUnset("mapred.job.name", "Batch Search");
+
+    // To propagate credentials within Oozie
+    if (System.getenv("HADOOP_TOKEN_FILE_LOCATION") != null) {
+      jobConf.set("mapreduce.job.credentials.binary",
+          System.getenv("HADOOP_TOKEN_FILE_LOCATION"));
+    }
+
+    // Good output separators include things that are unsupported by XML. So we
+    // just send the byte value of the character through. The restriction here
+    // is that it can't be more than 1 byte when UTF-8 encoded, since it will be
+    // read by Pig which only deals with single byte separators.
+    {
+      String outputSeparator = jobConf.get("logdriver.output.field.separator",
+          DEFAULT_OUTPUT_SEPARATOR);
+      byte[] bytes = outputSeparator.getBytes(UTF_8);
+      if (bytes.length != 1) {
+        LOG.error("The output separator must be a single byte in UTF-8.");
+        return 1;
+      }
+
+      jobConf.set("logdriver.output.field.separator", Byte.toString(bytes[0]));
+    }
+
+    // Check the queries here, rather than have every mapper fail.
+    jobConf.set(QUERIES, Base64.encodeBase64String(queryText.getBytes(UTF_8)));
+    List<BatchQuery> queries;
+    try {
+      queries = getQueries(jobConf);
+    } catch (IllegalArgumentException e) {
+      LOG.error("Invalid query file {}: {}", args[0], e.getMessage());
+      return 1;
+    }
+    if (queries.isEmpty()) {
+      LOG.error("No queries in {}", args[0]);
+      return 1;
+    }
+
+    // Only read the blocks that are in the time range of some query.
+    long start = Long.MAX_VALUE;
+    long end = Long.MIN_VALUE;
+    for (BatchQuery query : queries) {
+      LOG.info("Query {}", query);
+      start = Math.min(start, query.getStart());
+      end = Math.max(end, query.getEnd());
+    }
+    AvroBlockInputFormat.setTimeRange(job, start, end);
+
+    job.setInputFormatClass(AvroBlockInputFormat.class);
+    job.setMapperClass(BatchSearchMapper.class);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(NullWritable.class);
+
+    job.setNumReduceTasks(0);
+
+    // Everything is written through MultipleOutputs, so don't create empty
+    // part files in the output directory itself.
+    LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+    TextOutputFormat.setOutputPath(job, outputDir);
+    for (Path path : paths) {
+      AvroBlockInputFormat.addInputPath(job, path);
+    }
+
+    // Run the job.
+    if (conf.getBoolean("job.wait", DEFAULT_WAIT_JOB)) {
+      boolean success = job.waitForCompletion(true);
+
+      Counters counters = job.getCounters();
+      if (counters != null) {
+        for (BatchQuery query : queries) {
+          LOG.info("Query {} found {} matches", query.getName(), counters
+              .findCounter(COUNTER_GROUP, query.getName()).getValue());
+        }
+        long localBytes = counters.findCounter(
+            LocalitySplitPlanner.COUNTER_GROUP,
+            LocalitySplitPlanner.DATA_LOCAL_BYTES).getValue();
+        long totalBytes = counters.findCounter(
+            LocalitySplitPlanner.COUNTER_GROUP,
+            LocalitySplitPlanner.TOTAL_BYTES).getValue();
+        LOG.info("Data-local input: {}% of {} bytes",
+            LocalitySplitPlanner.percent(localBytes, totalBytes), totalBytes);
+      }
+
+      return success ? 0 : 1;
+    } else {
+      job.submit();
+      return 0;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    // Let ToolRunner handle generic command-line options
+    int res = ToolRunner.run(new Configuration(), new BatchSearch(), args);
+    System.exit(res);
+  }
+}
@@ -44,8 +44,8 @@ import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.rim.logdriver.boom.LogLineData;
-import com.rim.logdriver.mapreduce.boom.BoomInputFormat;
+import com.rim.logdriver.boom.LogBlockBatch;
+import com.rim.logdriver.mapreduce.boom.BoomBatchInputFormat;
 
 public class Cat extends Configured implements Tool {
   private static final Logger LOG = LoggerFactory.getLogger(Cat.class);
@@ -56,10 +56,11 @@ public class Cat extends Configured implements Tool {
   private static final boolean DEFAULT_WAIT_JOB = true;
 
   private static final class CatMapper extends
-      Mapper<LogLineData, Text, Text, NullWritable> {
+      Mapper<LogBlockBatch, NullWritable, Text, NullWritable> {
     private long start;
     private long end;
     private String outputSeparator;
+    private Text output = new Text();
 
     @Override
     protected void setup(Context context) throws IOException,
@@ -78,19 +79,29 @@ public class Cat extends Configured implements Tool {
     }
 
     @Override
-    protected void map(LogLineData key, Text value, Context context)
+    protected void map(LogBlockBatch batch, NullWritable value, Context context)
         throws IOException, InterruptedException {
-      long timestamp = key.getTimestamp();
-      if (timestamp >= start && timestamp < end) {
-        StringBuilder sb = new StringBuilder().append(key.getTimestamp())
-            .append(outputSeparator)
-            .append(StringUtils.chomp(value.toString()))
-            .append(outputSeparator).append(key.getEventId())
-            .append(outputSeparator).append(key.getCreateTime())
-            .append(outputSeparator).append(key.getBlockNumber())
-            .append(outputSeparator).append(key.getLineNumber());
-
-        context.write(new Text(sb.toString()), null);
+      // Every line in a block is within the same second, so if that whole
+      // second is in range we don't need to check each line.
+      long blockStart = batch.getSecond() * 1000;
+      boolean allInRange = blockStart >= start && blockStart + 999 < end;
+
+      long[] timestamps = batch.getTimestamps();
+      int size = batch.getSize();
+      for (int i = 0; i < size; i++) {
+        long timestamp = timestamps[i];
+        if (allInRange || (timestamp >= start && timestamp < end)) {
+          StringBuilder sb = new StringBuilder().append(timestamp)
+              .append(outputSeparator)
+              .append(StringUtils.chomp(batch.getMessage(i)))
+              .append(outputSeparator).append(batch.getEventId(i))
+              .append(outputSeparator).append(batch.getCreateTime())
+              .append(outputSeparator).append(batch.getBlockNumber())
+              .append(outputSeparator).append(batch.getLineNumber(i));
+
+          output.set(sb.toString());
+          context.write(output, null);
+        }
       }
     }
   }
@@ -152,7 +163,12 @@ public class Cat extends Configured implements Tool {
       jobConf.set("logdriver.output.field.separator", Byte.toString(bytes[0]));
     }
 
-    job.setInputFormatClass(BoomInputFormat.class);
+    // Let the record reader skip blocks outside of the time range.
+    BoomBatchInputFormat.setTimeRange(job,
+        jobConf.getLong("logdriver.search.start.time", Long.MIN_VALUE),
+        jobConf.getLong("logdriver.search.end.time", Long.MAX_VALUE));
+
+    job.setInputFormatClass(BoomBatchInputFormat.class);
     job.setMapperClass(CatMapper.class);
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(NullWritable.class);
@@ -163,7 +179,7 @@ public class Cat extends Configured implements Tool {
     TextOutputFormat.setOutputPath(job, outputDir);
 
     for (Path path : paths) {
-      BoomInputFormat.addInputPath(job, path);
+      BoomBatchInputFormat.addInputPath(job, path);
     }
 
     // Run the job.
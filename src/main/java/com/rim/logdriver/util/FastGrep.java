@@ -0,0 +1,334 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License. 
+ */
+
+/**
+ * Grep Logs in a given file set, working on raw Avro blocks.
+ * <p>
+ * Usage: [genericOptions] [-Dlogdriver.grep.start.time=X] [-Dlogdriver.grep.end.time=X] regex input [input ...] output
+ * <p>
+ * This finds the same lines as {@link Grep}, but like {@link FastSearch} it
+ * doesn't decode a block unless it might contain a match. Most regexes contain
+ * some literal text that every match must include (see {@link RegexLiterals}),
+ * and a block that doesn't contain all of it is skipped after a single byte
+ * scan. Regexes without any such text are run on every line, as Grep does.
+ */
+package com.rim.logdriver.util;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.util.Utf8;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.net.util.Base64;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.Schemas;
+import com.rim.logdriver.avro.AvroBlock;
+import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.BlockInflater;
+import com.rim.logdriver.mapreduce.avro.AvroBlockInputFormat;
+import com.rim.logdriver.search.AhoCorasick;
+import com.rim.logdriver.search.RegexLiterals;
+
+public class FastGrep extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(FastGrep.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String DEFAULT_OUTPUT_SEPARATOR = "\t";
+  private static final boolean DEFAULT_WAIT_JOB = true;
+
+  public static final String COUNTER_GROUP = "FastGrep";
+  public static final String BLOCKS_SCANNED = "Blocks scanned";
+  public static final String BLOCKS_DECODED = "Blocks decoded";
+
+  private static final class GrepMapper extends
+      Mapper<AvroFileHeader, BytesWritable, Text, NullWritable> {
+    private long start;
+    private long end;
+    private Matcher matcher;
+    private AhoCorasick literals = null;
+    private long[] found;
+    private BlockInflater blockInflater;
+    private AvroBlock avroBlock = new AvroBlock();
+    private String outputSeparator;
+    private Text output = new Text();
+
+    private String schemaString = null;
+    private GenericDatumReader<Record> datumReader = null;
+
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      Configuration conf = context.getConfiguration();
+
+      start = conf.getLong("logdriver.grep.start.time", Long.MIN_VALUE);
+      end = conf.getLong("logdriver.grep.end.time", Long.MAX_VALUE);
+      String regex = new String(Base64.decodeBase64(conf
+          .get("logdriver.grep.regex")), "UTF-8");
+      boolean caseInsensitive = conf.getBoolean(
+          "logdriver.search.case.insensitive", false);
+
+      int options = 0;
+      if (caseInsensitive) {
+        options |= Pattern.CASE_INSENSITIVE;
+      }
+      matcher = Pattern.compile(regex, options).matcher("");
+
+      // CASE_INSENSITIVE on its own only folds ASCII, and so does the
+      // automaton.
+      List<byte[]> required = new ArrayList<byte[]>();
+      for (String literal : RegexLiterals.requiredLiterals(regex)) {
+        required.add(literal.getBytes(UTF_8));
+      }
+      if (required.size() > 0) {
+        literals = caseInsensitive ? AhoCorasick
+            .compileCaseInsensitive(required) : AhoCorasick.compile(required);
+        found = literals.newMatchSet();
+      }
+
+      blockInflater = new BlockInflater();
+
+      outputSeparator = new String(new byte[] { Byte.parseByte(conf
+          .get("logdriver.output.field.separator")) }, UTF_8);
+
+      LOG.info("Configuring GrepMapper");
+      LOG.info("  start={}", start);
+      LOG.info("  end={}", end);
+      LOG.info("  pattern={}", regex);
+      LOG.info("  required literals={}",
+          RegexLiterals.requiredLiterals(regex));
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      blockInflater.reportCounters(context);
+      blockInflater.end();
+    }
+
+    /**
+     * True if the buffer contains every required literal, or if there aren't
+     * any.
+     */
+    private boolean mightMatch(byte[] buf, int offset, int length) {
+      return literals == null
+          || literals.matchesAll(buf, offset, length, found);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void map(AvroFileHeader key, BytesWritable value, Context context)
+        throws IOException, InterruptedException {
+      if (value.getLength() == 0) {
+        return;
+      }
+
+      // The record reader hands us an AvroBlock, so the headers are already
+      // parsed, and we can decompress straight out of its buffer.
+      AvroBlock block;
+      if (value instanceof AvroBlock) {
+        block = (AvroBlock) value;
+      } else {
+        block = avroBlock;
+        block.set(value);
+      }
+      long entries = block.getEntries();
+
+      int pos = blockInflater.inflate(block);
+      byte[] buf = blockInflater.getBuffer();
+
+      context.getCounter(COUNTER_GROUP, BLOCKS_SCANNED).increment(1);
+      if (!mightMatch(buf, 0, pos)) {
+        return;
+      }
+      context.getCounter(COUNTER_GROUP, BLOCKS_DECODED).increment(1);
+
+      // Every block in a file has the same schema, so only build a new reader
+      // when the file changes.
+      if (datumReader == null || !key.getSchema().equals(schemaString)) {
+        schemaString = key.getSchema();
+        datumReader = new GenericDatumReader<Record>(
+            new Schema.Parser().parse(schemaString),
+            Schemas.getSchema("logBlock"));
+      }
+
+      Record record = null;
+      Decoder decoder = DecoderFactory.get().binaryDecoder(buf, 0, pos, null);
+      for (int i = 0; i < entries; i++) {
+        record = datumReader.read(record, decoder);
+
+        long second = (Long) record.get("second") * 1000;
+        if (second + 999 < start || second >= end) {
+          continue;
+        }
+        long blockNumber = (Long) record.get("blockNumber");
+        long createTime = (Long) record.get("createTime");
+
+        long lineNumber = 0;
+        for (Record line : (List<Record>) record.get("logLines")) {
+          ++lineNumber;
+          long timestamp = second + (Long) line.get("ms");
+          if (timestamp < start || timestamp >= end) {
+            continue;
+          }
+
+          // Check the line's bytes for the literals before decoding it.
+          Object rawMessage = line.get("message");
+          if (rawMessage instanceof Utf8) {
+            Utf8 utf8 = (Utf8) rawMessage;
+            if (!mightMatch(utf8.getBytes(), 0, utf8.getByteLength())) {
+              continue;
+            }
+          }
+
+          String message = rawMessage.toString();
+          if (matcher.reset(message).find()) {
+            StringBuilder sb = new StringBuilder().append(timestamp)
+                .append(outputSeparator).append(StringUtils.chomp(message))
+                .append(outputSeparator).append(line.get("eventId"))
+                .append(outputSeparator).append(createTime)
+                .append(outputSeparator).append(blockNumber)
+                .append(outputSeparator).append(lineNumber);
+
+            output.set(sb.toString());
+            context.write(output, null);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Configuration conf = getConf(); // Configuration processed by ToolRunner
+    // If run by Oozie, then load the Oozie conf too
+    if (System.getProperty("oozie.action.conf.xml") != null) {
+      conf.addResource(new URL("file://"
+          + System.getProperty("oozie.action.conf.xml")));
+    }
+
+    FileSystem fs = FileSystem.get(conf);
+
+    // The command line options
+    String regex = null;
+    List<Path> paths = new ArrayList<Path>();
+    Path outputDir = null;
+
+    // Load input files from the command line
+    if (args.length < 3) {
+      System.out
+          .println("usage: [genericOptions] regex input [input ...] output");
+      System.exit(1);
+    }
+
+    // Get the files we need from the command line.
+    regex = args[0];
+    for (int i = 1; i < args.length - 1; i++) {
+      for (FileStatus f : fs.globStatus(new Path(args[i]))) {
+        paths.add(f.getPath());
+      }
+    }
+    outputDir = new Path(args[args.length - 1]);
+
+    Job job = new Job(conf);
+    Configuration jobConf = job.getConfiguration();
+
+    job.setJarByClass(FastGrep.class);
+    jobConf.setIfUnset("mapred.job.name", "Grep Files");
+
+    // To propagate credentials within Oozie
+    if (System.getenv("HADOOP_TOKEN_FILE_LOCATION") != null) {
+      jobConf.set("mapreduce.job.credentials.binary",
+          System.getenv("HADOOP_TOKEN_FILE_LOCATION"));
+    }
+
+    // Good output separators include things that are unsupported by XML. So we
+    // just send the byte value of the character through. The restriction here
+    // is that it can't be more than 1 byte when UTF-8 encoded, since it will be
+    // read by Pig which only deals with single byte separators.
+    {
+      String outputSeparator = jobConf.get("logdriver.output.field.separator",
+          DEFAULT_OUTPUT_SEPARATOR);
+      byte[] bytes = outputSeparator.getBytes(UTF_8);
+      if (bytes.length != 1) {
+        LOG.error("The output separator must be a single byte in UTF-8.");
+        return 1;
+      }
+
+      jobConf.set("logdriver.output.field.separator", Byte.toString(bytes[0]));
+    }
+
+    jobConf.set("logdriver.grep.regex",
+        Base64.encodeBase64String(regex.getBytes("UTF-8")));
+
+    // Only read the blocks in the time range, where the files are indexed.
+    AvroBlockInputFormat.setTimeRange(job,
+        jobConf.getLong("logdriver.grep.start.time", Long.MIN_VALUE),
+        jobConf.getLong("logdriver.grep.end.time", Long.MAX_VALUE));
+
+    job.setInputFormatClass(AvroBlockInputFormat.class);
+    job.setMapperClass(GrepMapper.class);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(NullWritable.class);
+
+    job.setNumReduceTasks(0);
+
+    // And set the output as usual
+    job.setOutputFormatClass(TextOutputFormat.class);
+    TextOutputFormat.setOutputPath(job, outputDir);
+    for (Path path : paths) {
+      AvroBlockInputFormat.addInputPath(job, path);
+    }
+
+    // Run the job.
+    if (conf.getBoolean("job.wait", DEFAULT_WAIT_JOB)) {
+      return job.waitForCompletion(true) ? 0 : 1;
+    } else {
+      job.submit();
+      return 0;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    // Let ToolRunner handle generic command-line options
+    int res = ToolRunner.run(new Configuration(), new FastGrep(), args);
+    System.exit(res);
+  }
+}
@@ -16,30 +16,29 @@
 /**
  * search Logs in a given file set.
  * <p>
- * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] searchString input [input ...] output
+ * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] [-Dlogdriver.search.limit=N] [-Dlogdriver.search.sort=true] [-Dlogdriver.search.stream=true] [-Dlogdriver.sample.fraction=F] searchString input [input ...] output
  * <p>
- * 
+ * With logdriver.search.sort set, the output is sorted by time, and each line
+ * is the formatted timestamp followed by the message (see {@link SearchSort}).
+ * <p>
+ * With logdriver.search.stream set, results are printed to stdout as each map
+ * task finishes, and the job is map only (see {@link ResultStreamer}).
+ * <p>
+ * With logdriver.sample.fraction set, only a sample of the input is searched,
+ * and the total number of matches is estimated from it (see
+ * {@link SampleEstimate}).
  */
 package com.rim.logdriver.util;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
-
-import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericData.Record;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.FastDateFormat;
 import org.apache.commons.net.util.Base64;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -49,260 +48,282 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.rim.logdriver.Schemas;
+import com.rim.logdriver.avro.AvroBlock;
 import com.rim.logdriver.avro.AvroFileHeader;
-import com.rim.logdriver.avro.AvroUtils;
+import com.rim.logdriver.boom.LogLineData;
+import com.rim.logdriver.fs.LocalitySplitPlanner;
 import com.rim.logdriver.mapreduce.avro.AvroBlockInputFormat;
+import com.rim.logdriver.search.BlockSearcher;
+import com.rim.logdriver.search.ResultStreamer;
+import com.rim.logdriver.search.SampleEstimate;
+import com.rim.logdriver.search.SearchCache;
+import com.rim.logdriver.search.SearchLimit;
+import com.rim.logdriver.search.SearchSort;
+import com.rim.logdriver.search.SortedLines;
+import com.rim.logdriver.timestamp.TimestampFormats;
 
 public class FastSearch extends Configured implements Tool {
   private static final Logger LOG = LoggerFactory.getLogger(FastSearch.class);
 
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-  // The expected size of the data blocks, after decompressing. Use what we're
-  // using for avro sync interval, plus a bit for overrun.
-  private static final int BUFFER_SIZE = Math.round(1.2f * 2 * 1024 * 1024);
-
   private static final String DEFAULT_OUTPUT_SEPARATOR = "\t";
   private static final boolean DEFAULT_WAIT_JOB = true;
 
-  private static final class SearchMapper extends
-      Mapper<AvroFileHeader, BytesWritable, Text, NullWritable> {
-    private long start;
-    private long end;
-    private String pattern;
-    private byte[] patternBytes;
-    private byte[][] patternBytesCaseInsensitive;
-    private Inflater inflater;
-    private String outputSeparator;
-    private boolean caseSensitive = true;
-    private boolean caseInsensitive = false;
-    private boolean unicode = false;
+  /**
+   * Finds the matching lines, and hands them to {@link #emit} to be written
+   * out.
+   */
+  private abstract static class SearchMapper<K, V> extends
+      Mapper<AvroFileHeader, BytesWritable, K, V> implements
+      BlockSearcher.Collector {
+    private BlockSearcher searcher;
+    private SearchLimit limit;
+    private SampleEstimate.Tally tally;
+    private AvroBlock avroBlock = new AvroBlock();
+    protected String outputSeparator;
+    private Context context;
 
     @Override
     protected void setup(Context context) throws IOException,
         InterruptedException {
       Configuration conf = context.getConfiguration();
 
-      start = conf.getLong("logdriver.search.start.time", Long.MIN_VALUE);
-      end = conf.getLong("logdriver.search.end.time", Long.MAX_VALUE);
-      String patternBase64 = conf.get("logdriver.search.string");
-      pattern = new String(Base64.decodeBase64(patternBase64),"UTF-8");
-      caseInsensitive = conf.getBoolean("logdriver.search.case.insensitive",
-          false);
-      caseSensitive = !caseInsensitive;
-      
-      
-      // Create byte array for exact pattern if case sensitivity is selected
-      if (caseSensitive) {
-    	LOG.info("Case sensitive search for {}", pattern);
-        try {
-          patternBytes = pattern.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-          LOG.error("UTF-8 is unsupported.  Trying with default encoding.", e);
-          patternBytes = pattern.getBytes();
-        }
-        LOG.info("Pattern bytes are {}", Arrays.toString(patternBytes));
-      } else {
-        // Split pattern into array of strings (char will break UTF-8 encoding)
-        String[] patternCharacters = pattern.split("(?!^)");
-
-        // Are any of the characters in the pattern more than one byte? If so,
-        // set unicode mode and skip bytescanning.
-        if (pattern.toUpperCase().getBytes("UTF-8").length > pattern.length() || pattern.toLowerCase().getBytes("UTF-8").length > pattern.length()) {
-        	unicode = true;
-        }
-        
-        // If we're not case sensitive and we're not worrying about unicode,
-        // we'll make a two dimension byte array
-        if (!unicode) {
-          patternBytesCaseInsensitive = new byte[patternCharacters.length][2];
-          // Fill the array with bytes for each case
-          for (int patternPosition = 0; patternPosition < patternCharacters.length; patternPosition++) {
-            patternBytesCaseInsensitive[patternPosition][0] = patternCharacters[patternPosition]
-                .toLowerCase().getBytes()[0];
-            patternBytesCaseInsensitive[patternPosition][1] = patternCharacters[patternPosition]
-                .toUpperCase().getBytes()[0];
-          }
-        }
-      }
-
-      inflater = new Inflater(true);
+      searcher = BlockSearcher.fromConfiguration(conf);
 
       outputSeparator = new String(new byte[] { Byte.parseByte(conf
           .get("logdriver.output.field.separator")) }, UTF_8);
 
+      limit = SearchLimit.forTask(context);
+      tally = SampleEstimate.Tally.forTask(context);
+      this.context = context;
+
       LOG.info("Configuring SearchMapper");
-      LOG.info("  start={}", start);
-      LOG.info("  end={}", end);
-      LOG.info("  pattern={}", pattern);
+      LOG.info("  start={}", conf.getLong("logdriver.search.start.time",
+          Long.MIN_VALUE));
+      LOG.info("  end={}", conf.getLong("logdriver.search.end.time",
+          Long.MAX_VALUE));
+      LOG.info("  pattern={}", searcher.getPattern());
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      searcher.getBlockInflater().reportCounters(context);
+      searcher.end();
+      if (limit != null) {
+        limit.reportCounters(context);
+      }
+      if (tally != null) {
+        tally.finish();
+      }
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+      setup(context);
+      while ((limit == null || !limit.isReached()) && context.nextKeyValue()) {
+        map(context.getCurrentKey(), context.getCurrentValue(), context);
+      }
+      cleanup(context);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected void map(AvroFileHeader key, BytesWritable value, Context context)
         throws IOException, InterruptedException {
 
       LOG.trace("Got chunk with {} bytes", value.getLength());
       if (value.getLength() == 0) {
+        // The start of a new piece of the split, which when sampling is a new
+        // unit.
+        if (tally != null) {
+          tally.startUnit();
+        }
         return;
       }
 
-      // First, grab the headers off the block, then decompress the block
-      ByteArrayInputStream bytesIn = new ByteArrayInputStream(value.getBytes());
-      int entries = AvroUtils.readInt(bytesIn);
-      int dataLength = AvroUtils.readInt(bytesIn);
-      LOG.trace("Entries = {}, Data Length={}", entries, dataLength);
-
-      byte[] inBytes = new byte[dataLength];
-      int bytesRead = 0;
-      int pos = 0;
-      while (bytesRead >= 0 && pos < dataLength) {
-        bytesRead = bytesIn.read(inBytes, pos, inBytes.length - pos);
-        if (bytesRead > 0) {
-          pos += bytesRead;
-        }
-      }
-      if (pos != dataLength) {
-        throw new IOException(
-            "Read a different number of bytes than expected (" + pos + "!="
-                + dataLength + ")");
+      // The record reader hands us an AvroBlock, so the headers are already
+      // parsed, and we can decompress straight out of its buffer.
+      AvroBlock block;
+      if (value instanceof AvroBlock) {
+        block = (AvroBlock) value;
+      } else {
+        block = avroBlock;
+        block.set(value);
       }
+      searcher.search(key.getSchema(), block, this);
+    }
 
-      byte[] buf = new byte[BUFFER_SIZE];
-      bytesRead = -1;
-      pos = 0;
-      inflater.reset();
-      inflater.setInput(inBytes);
-      while (!inflater.finished() && bytesRead != 0) {
-        if (pos == buf.length) {
-          LOG.info("Expanding output buffer from {} to {}.", buf.length,
-              buf.length * 2);
-          byte[] newBuf = new byte[buf.length * 2];
-          System.arraycopy(buf, 0, newBuf, 0, buf.length);
-          buf = newBuf;
-        }
-        try {
-          bytesRead = inflater.inflate(buf, pos, buf.length - pos);
-        } catch (DataFormatException e) {
-          throw new IOException("Error inflating data block.", e);
-        }
-        pos += bytesRead;
-        LOG.trace("BytesRead = {}, Position = {}", bytesRead, pos);
+    @Override
+    public void collect(long timestamp, String message, int eventId,
+        long createTime, long blockNumber, long lineNumber)
+        throws IOException, InterruptedException {
+      emit(context, timestamp, message, eventId, createTime, blockNumber,
+          lineNumber);
+      if (limit != null) {
+        limit.match();
       }
+      if (tally != null) {
+        tally.match();
+      }
+    }
 
-      LOG.debug(
-          "Read block. Compressed size {}, Expanded size {}, Record count {}",
-          new Object[] { dataLength, pos, entries });
+    @Override
+    public boolean isDone() {
+      return limit != null && limit.isReached();
+    }
 
-      // Find out if the string we're looking for is in the data block
-      // somewhere.
+    protected abstract void emit(Context context, long timestamp,
+        String message, int eventId, long createTime, long blockNumber,
+        long lineNumber) throws IOException, InterruptedException;
+  }
 
-      boolean match = false;
-      // If we're doing a case sensitive search, use patternBytes[]
-      if (caseSensitive) {
-        if (patternBytes.length > buf.length) {
-          return;
-        }
+  /**
+   * Writes each matching line as text, with its fields separated. For the
+   * search cache, each hour can go to its own directory (see
+   * {@link SearchCache}). For a sorted streaming search (see
+   * {@link ResultStreamer}), the lines are held until the end of the task and
+   * written in time order, going to local disk if there are too many to keep
+   * in memory (see {@link SortedLines}).
+   */
+  private static final class LineMapper extends
+      SearchMapper<Text, NullWritable> {
+    private MultipleOutputs<Text, NullWritable> outputs = null;
+    private FastDateFormat sliceFormat;
+    private SortedLines buffer = null;
 
-        BUFFER_INDEX: for (int i = 0; i < buf.length - patternBytes.length; i++) {
-          for (int j = 0; j < patternBytes.length; j++) {
-            if (buf[i + j] != patternBytes[j]) {
-              continue BUFFER_INDEX;
-            }
-          }
-          // Hey, we found a match!
-          match = true;
-          break BUFFER_INDEX;
-        }
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      super.setup(context);
+      Configuration conf = context.getConfiguration();
+      if (SearchCache.isSliced(conf)) {
+        outputs = new MultipleOutputs<Text, NullWritable>(context);
+        sliceFormat = SearchCache.getSliceFormat(conf);
+      } else if (ResultStreamer.isEnabled(conf)
+          && ResultStreamer.isSorted(conf)) {
+        buffer = new SortedLines(ResultStreamer.getSortBuffer(conf));
       }
-      // If this is a case insensitive search but we don't care about unicode,
-      // assume each character is one byte. Same as above, but check both cases.
-      else if (caseInsensitive && !unicode) {
-        if (patternBytesCaseInsensitive.length > buf.length) {
-          return;
-        }
-        // Iterate the starting position through the buffer byte by byte
-        BUFFER_INDEX: for (int bufferPosition = 0; bufferPosition < buf.length
-            - patternBytesCaseInsensitive.length; bufferPosition++) {
-          // For each buffer position iterate through character positions in the
-          // pattern
-          for (int patternPosition = 0; patternPosition < patternBytesCaseInsensitive.length; patternPosition++) {
-            // Check through the available cases. If one matches,
-            // move to the next position in the pattern
-            if (buf[bufferPosition + patternPosition] != patternBytesCaseInsensitive[patternPosition][0]
-                && buf[bufferPosition + patternPosition] != patternBytesCaseInsensitive[patternPosition][1]) {
-              continue BUFFER_INDEX;
+    }
+
+    @Override
+    protected void cleanup(final Context context) throws IOException,
+        InterruptedException {
+      if (buffer != null) {
+        try {
+          buffer.writeTo(new SortedLines.Output() {
+            @Override
+            public void write(LogLineData key, String line)
+                throws IOException, InterruptedException {
+              context.write(new Text(line), null);
             }
-          }
-          // If we got here all positions in the pattern matched,
-          // so break out of the loop and decode the block
-          match = true;
-          break BUFFER_INDEX;
+          });
+        } finally {
+          buffer.close();
+          buffer = null;
         }
       }
-      // If this is a case insensitive search and we do care about unicode
-      // we're just going to decode the blocks and scan line by line.
-      else {
-        match = true;
+      super.cleanup(context);
+      if (outputs != null) {
+        outputs.close();
       }
+    }
 
-      // If we know there is a match, then we can decode and go line by line.
-      if (match) {
-        LOG.info("There is a match in this block.");
-
-        GenericDatumReader<Record> datumReader = new GenericDatumReader<Record>(
-            new Schema.Parser().parse(key.getSchema()),
-            Schemas.getSchema("logBlock"));
-        Record record = null;
-        Decoder decoder = DecoderFactory.get().binaryDecoder(buf, null);
-        long second = 0;
-        long blockNumber;
-        long createTime;
-        long lineNumber = 0;
-        long ms = 0;
-        for (int i = 0; i < entries; i++) {
-          record = datumReader.read(record, decoder);
-          LOG.trace("Read record {}", record);
-
-          second = (Long) record.get("second") * 1000;
-          if (second < start || second >= end) {
-            continue;
-          }
-
-          blockNumber = (Long) record.get("blockNumber");
-          createTime = (Long) record.get("createTime");
-
-          lineNumber = 0l;
-
-          for (Record line : (List<Record>) record.get("logLines")) {
-            String message = line.get("message").toString();
-            // Compare lines to the pattern, converting everything into
-            // upper case if the caseSensitive option isn't selected
-            if ((caseSensitive && message.contains(pattern))
-                || (caseInsensitive && message.toUpperCase().contains(
-                    pattern.toUpperCase()))) {
-              ms = (Long) line.get("ms");
-
-              ++lineNumber;
-
-              StringBuilder sb = new StringBuilder().append((second + ms))
-                  .append(outputSeparator).append(StringUtils.chomp(message))
-                  .append(outputSeparator).append(line.get("eventId"))
-                  .append(outputSeparator).append(createTime)
-                  .append(outputSeparator).append(blockNumber)
-                  .append(outputSeparator).append(lineNumber);
-              context.write(new Text(sb.toString()), null);
-            }
-          }
+    @Override
+    protected void emit(Context context, long timestamp, String message,
+        int eventId, long createTime, long blockNumber, long lineNumber)
+        throws IOException, InterruptedException {
+      StringBuilder sb = new StringBuilder().append(timestamp)
+          .append(outputSeparator).append(StringUtils.chomp(message))
+          .append(outputSeparator).append(eventId)
+          .append(outputSeparator).append(createTime)
+          .append(outputSeparator).append(blockNumber)
+          .append(outputSeparator).append(lineNumber);
+      if (buffer != null) {
+        buffer.add(new LogLineData(timestamp, createTime, blockNumber,
+            lineNumber, eventId), sb.toString());
+      } else if (outputs == null) {
+        context.write(new Text(sb.toString()), null);
+      } else {
+        outputs.write(new Text(sb.toString()), NullWritable.get(),
+            sliceFormat.format(timestamp) + "/part");
+      }
+    }
+  }
+
+  /** Writes each matching line keyed for sorting (see {@link SearchSort}). */
+  private static final class SortingMapper extends
+      SearchMapper<LogLineData, Text> {
+    private LogLineData key = new LogLineData();
+    private Text value = new Text();
+
+    @Override
+    protected void emit(Context context, long timestamp, String message,
+        int eventId, long createTime, long blockNumber, long lineNumber)
+        throws IOException, InterruptedException {
+      key.setTimestamp(timestamp);
+      key.setCreateTime(createTime);
+      key.setBlockNumber(blockNumber);
+      key.setLineNumber(lineNumber);
+      key.setEventId(eventId);
+      value.set(StringUtils.chomp(message));
+      context.write(key, value);
+    }
+  }
+
+  /**
+   * Writes out the sorted lines, each one starting with its formatted
+   * timestamp, the same as logsearch's Pig sort did.
+   */
+  private static final class SortedLinesReducer extends
+      Reducer<LogLineData, Text, Text, NullWritable> {
+    private FastDateFormat dateFormat;
+    private Text output = new Text();
+    private MultipleOutputs<Text, NullWritable> outputs = null;
+    private FastDateFormat sliceFormat;
+
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      dateFormat = TimestampFormats.getFormat(context.getConfiguration().get(
+          SearchSort.DATE_FORMAT, SearchSort.DEFAULT_DATE_FORMAT));
+      if (SearchCache.isSliced(context.getConfiguration())) {
+        outputs = new MultipleOutputs<Text, NullWritable>(context);
+        sliceFormat = SearchCache.getSliceFormat(context.getConfiguration());
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      if (outputs != null) {
+        outputs.close();
+      }
+    }
+
+    @Override
+    protected void reduce(LogLineData key, Iterable<Text> values,
+        Context context) throws IOException, InterruptedException {
+      String date = dateFormat.format(key.getTimestamp());
+      for (Text value : values) {
+        output.set(date + " " + value.toString());
+        if (outputs == null) {
+          context.write(output, null);
+        } else {
+          outputs.write(output, NullWritable.get(),
+              sliceFormat.format(key.getTimestamp()) + "/part");
         }
       }
     }
@@ -356,6 +377,7 @@ public class FastSearch extends Configured implements Tool {
     // just send the byte value of the character through. The restriction here
     // is that it can't be more than 1 byte when UTF-8 encoded, since it will be
     // read by Pig which only deals with single byte separators.
+    char separator;
     {
       String outputSeparator = jobConf.get("logdriver.output.field.separator",
           DEFAULT_OUTPUT_SEPARATOR);
@@ -366,27 +388,91 @@ public class FastSearch extends Configured implements Tool {
       }
 
       jobConf.set("logdriver.output.field.separator", Byte.toString(bytes[0]));
+      separator = (char) bytes[0];
     }
 
     jobConf.set("logdriver.search.string", Base64.encodeBase64String(searchString.getBytes("UTF-8")));
 
+    // Only read the blocks in the time range, where the files are indexed.
+    AvroBlockInputFormat.setTimeRange(job,
+        jobConf.getLong("logdriver.search.start.time", Long.MIN_VALUE),
+        jobConf.getLong("logdriver.search.end.time", Long.MAX_VALUE));
+
     job.setInputFormatClass(AvroBlockInputFormat.class);
-    job.setMapperClass(SearchMapper.class);
-    job.setMapOutputKeyClass(Text.class);
-    job.setMapOutputValueClass(NullWritable.class);
 
-    job.setNumReduceTasks(0);
+    // If we're sorting, the reducers get the lines in time ranges, and write
+    // them out formatted. Otherwise it's map only. Streaming needs it to be
+    // map only, so that there's output before the job is done.
+    boolean streaming = ResultStreamer.isEnabled(jobConf);
+    Path partitionFile = null;
+    if (SearchSort.isEnabled(jobConf) && !streaming) {
+      job.setMapperClass(SortingMapper.class);
+      job.setMapOutputKeyClass(LogLineData.class);
+      job.setMapOutputValueClass(Text.class);
+      job.setReducerClass(SortedLinesReducer.class);
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(NullWritable.class);
+      partitionFile = SearchSort.configure(job, paths, outputDir,
+          jobConf.getLong("logdriver.search.start.time", Long.MIN_VALUE),
+          jobConf.getLong("logdriver.search.end.time", Long.MAX_VALUE));
+    } else {
+      job.setMapperClass(LineMapper.class);
+      job.setMapOutputKeyClass(Text.class);
+      job.setMapOutputValueClass(NullWritable.class);
+
+      job.setNumReduceTasks(0);
+    }
 
-    // And set the output as usual
-    job.setOutputFormatClass(TextOutputFormat.class);
+    // And set the output as usual, unless it's split into hours, when it's
+    // all written through MultipleOutputs.
+    if (SearchCache.isSliced(jobConf)) {
+      LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+    } else {
+      job.setOutputFormatClass(TextOutputFormat.class);
+    }
     TextOutputFormat.setOutputPath(job, outputDir);
+    SearchLimit.configure(job, outputDir);
+    if (streaming) {
+      ResultStreamer.configure(job);
+    }
     for (Path path : paths) {
       AvroBlockInputFormat.addInputPath(job, path);
     }
 
     // Run the job.
     if (conf.getBoolean("job.wait", DEFAULT_WAIT_JOB)) {
-      return job.waitForCompletion(true) ? 0 : 1;
+      boolean success;
+      try {
+        if (streaming) {
+          success = new ResultStreamer(jobConf, outputDir, separator,
+              System.out).waitForCompletion(job);
+        } else {
+          success = SearchLimit.waitForCompletion(job, true);
+        }
+      } finally {
+        if (partitionFile != null) {
+          fs.delete(partitionFile, false);
+        }
+      }
+
+      Counters counters = job.getCounters();
+      if (counters != null) {
+        long localBytes = counters.findCounter(
+            LocalitySplitPlanner.COUNTER_GROUP,
+            LocalitySplitPlanner.DATA_LOCAL_BYTES).getValue();
+        long totalBytes = counters.findCounter(
+            LocalitySplitPlanner.COUNTER_GROUP,
+            LocalitySplitPlanner.TOTAL_BYTES).getValue();
+        LOG.info("Data-local input: {}% of {} bytes",
+            LocalitySplitPlanner.percent(localBytes, totalBytes), totalBytes);
+      }
+
+      SampleEstimate estimate = SampleEstimate.fromCounters(jobConf, counters);
+      if (success && estimate != null && SearchLimit.getLimit(jobConf) <= 0) {
+        LOG.info("Sampled search found {}", estimate);
+      }
+
+      return success ? 0 : 1;
     } else {
       job.submit();
       return 0;
@@ -19,15 +19,25 @@
  * Usage: [genericOptions] searchString baseDir filePrefix startTime endTime output
  * <p>
  * For example: -Djob.wait=true 'ERR=12345678' /service/web/logs app 1332939045000 1332942648000 /user/me/grep
+ * <p>
+ * If it's turned on, each hour's results are kept in the search cache
+ * (see {@link SearchCache}), and only the hours that aren't in it are
+ * searched. The output is then put together from the cache.
  * 
  */
 package com.rim.logdriver.util;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
@@ -35,6 +45,8 @@ import org.slf4j.LoggerFactory;
 
 import com.rim.logdriver.fs.FileManager;
 import com.rim.logdriver.fs.PathInfo;
+import com.rim.logdriver.search.SearchCache;
+import com.rim.logdriver.search.SearchSort;
 
 public class FastSearchByTime extends Configured implements Tool {
   private static final Logger LOG = LoggerFactory
@@ -75,18 +87,20 @@ public class FastSearchByTime extends Configured implements Tool {
     try {
       // Lock, then get the real paths
       fm.acquireReadLocks(paths);
-      for (PathInfo pi : paths) {
-        LOG.info("Adding path: {}", pi.getFullPath());
-        searchArgs.addAll(fm.getInputPaths(pi));
+      if (SearchCache.isEnabled(conf)) {
+        retval = searchWithCache(conf, fm, paths, searchString, startTime,
+            endTime, output);
+      } else {
+        for (PathInfo pi : paths) {
+          LOG.info("Adding path: {}", pi.getFullPath());
+          searchArgs.addAll(fm.getInputPaths(pi));
+        }
+
+        // The last arg is output directory
+        searchArgs.add(output);
+
+        retval = search(conf, searchArgs);
       }
-
-      // The last arg is output directory
-      searchArgs.add(output);
-
-      // Now run Search
-      LOG.info("Sending args to FastSearch: {}", searchArgs);
-      retval = ToolRunner.run(conf, new FastSearch(),
-          searchArgs.toArray(new String[0]));
     } finally {
       fm.releaseReadLocks(paths);
     }
@@ -94,6 +108,137 @@ public class FastSearchByTime extends Configured implements Tool {
     return retval;
   }
 
+  /**
+   * Runs the search, locally if it's small enough, or as a job.
+   */
+  private int search(Configuration conf, List<String> searchArgs)
+      throws Exception {
+    // Small searches are quicker to run here than to schedule as a job.
+    long inputBytes = LocalSearch.getInputBytes(conf,
+        searchArgs.subList(1, searchArgs.size() - 1));
+    if (LocalSearch.isLocal(conf, inputBytes)) {
+      LOG.info("Searching {} bytes locally: {}", inputBytes, searchArgs);
+      return ToolRunner.run(conf, new LocalSearch(),
+          searchArgs.toArray(new String[0]));
+    }
+
+    // Now run Search
+    LOG.info("Sending args to FastSearch: {}", searchArgs);
+    return ToolRunner.run(conf, new FastSearch(),
+        searchArgs.toArray(new String[0]));
+  }
+
+  /**
+   * Everything about the search, other than the inputs and time range, that
+   * changes what it writes.
+   */
+  private String getQuery(Configuration conf, String searchString) {
+    boolean caseInsensitive = conf.getBoolean(
+        "logdriver.search.case.insensitive", false);
+    StringBuilder sb = new StringBuilder("FastSearch");
+    sb.append('\n').append(SearchCache.normalize(searchString, caseInsensitive));
+    sb.append('\n').append(
+        SearchCache.getFolding(searchString, caseInsensitive));
+    if (SearchSort.isEnabled(conf)) {
+      sb.append("\nsorted\n").append(
+          conf.get(SearchSort.DATE_FORMAT, SearchSort.DEFAULT_DATE_FORMAT));
+    } else {
+      sb.append("\nraw\n").append(
+          conf.get("logdriver.output.field.separator", "\t"));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Looks up each hour in the search cache, searches the ones that aren't
+   * there, and writes the output from the cache.
+   */
+  private int searchWithCache(Configuration conf, FileManager fm,
+      List<PathInfo> paths, String searchString, long startTime, long endTime,
+      String output) throws Exception {
+    SearchCache cache = new SearchCache(conf);
+    String query = getQuery(conf, searchString);
+
+    // Each hour, across all the components, is one entry in the cache.
+    SortedMap<String, List<String>> hours = new TreeMap<String, List<String>>();
+    for (PathInfo pi : paths) {
+      LOG.info("Adding path: {}", pi.getFullPath());
+      String hour = pi.getDate() + pi.getHour();
+      List<String> inputs = hours.get(hour);
+      if (inputs == null) {
+        inputs = new ArrayList<String>();
+        hours.put(hour, inputs);
+      }
+      inputs.addAll(fm.getInputPaths(pi));
+    }
+
+    Map<String, Path> entries = new HashMap<String, Path>();
+    Map<String, String> missing = new TreeMap<String, String>();
+    List<String> searchArgs = new ArrayList<String>();
+    searchArgs.add(searchString);
+    for (Map.Entry<String, List<String>> e : hours.entrySet()) {
+      String hour = e.getKey();
+      List<Path> inputs = new ArrayList<Path>();
+      for (String input : e.getValue()) {
+        inputs.add(new Path(input));
+      }
+      long start = Math.max(startTime, SearchCache.getHourStart(conf, hour));
+      long end = Math.min(endTime, SearchCache.getHourEnd(conf, hour));
+      String key = SearchCache.getKey(query, start, end,
+          SearchSort.listFiles(conf, inputs));
+
+      Path entry = cache.get(key);
+      if (entry != null) {
+        LOG.info("Found hour {} in the search cache: {}", hour, entry);
+        entries.put(hour, entry);
+      } else {
+        missing.put(hour, key);
+        searchArgs.addAll(e.getValue());
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      Path tmp = cache.newTempDir();
+      FileSystem fs = tmp.getFileSystem(conf);
+      try {
+        // An hour without any input just gets an empty entry.
+        if (searchArgs.size() > 1) {
+          searchArgs.add(tmp.toString());
+
+          // The results are copied as they are, so they can't be compressed.
+          Configuration searchConf = new Configuration(conf);
+          SearchCache.setSliced(searchConf);
+          searchConf.setBoolean("mapred.output.compress", false);
+          LOG.info("Searching {} hours not in the search cache.",
+              missing.size());
+          int retval = search(searchConf, searchArgs);
+          if (retval != 0) {
+            return retval;
+          }
+        }
+        for (Map.Entry<String, String> e : missing.entrySet()) {
+          entries.put(e.getKey(),
+              cache.put(e.getValue(), new Path(tmp, e.getKey())));
+        }
+      } finally {
+        fs.delete(tmp, true);
+      }
+    }
+
+    List<Path> ordered = new ArrayList<Path>();
+    for (String hour : hours.keySet()) {
+      ordered.add(entries.get(hour));
+    }
+    long matches = cache.copy(ordered, new Path(output));
+    LOG.info("Search cache found {} matches", matches);
+
+    // The cache only needs checking when it has grown.
+    if (!missing.isEmpty()) {
+      cache.evict();
+    }
+    return 0;
+  }
+
   public static void main(String[] args) throws Exception {
     // Let ToolRunner handle generic command-line options
     int res = ToolRunner.run(new Configuration(), new FastSearchByTime(), args);
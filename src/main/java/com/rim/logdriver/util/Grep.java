@@ -27,6 +27,7 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -46,8 +47,10 @@ import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.rim.logdriver.boom.LogLineData;
-import com.rim.logdriver.mapreduce.boom.BoomInputFormat;
+import com.rim.logdriver.boom.LogBlockBatch;
+import com.rim.logdriver.mapreduce.boom.BoomBatchInputFormat;
+import com.rim.logdriver.search.AhoCorasick;
+import com.rim.logdriver.search.RegexLiterals;
 
 public class Grep extends Configured implements Tool {
   private static final Logger LOG = LoggerFactory.getLogger(Grep.class);
@@ -58,11 +61,15 @@ public class Grep extends Configured implements Tool {
   private static final boolean DEFAULT_WAIT_JOB = true;
 
   private static final class GrepMapper extends
-      Mapper<LogLineData, Text, Text, NullWritable> {
+      Mapper<LogBlockBatch, NullWritable, Text, NullWritable> {
     private long start;
     private long end;
     private Pattern pattern;
+    private Matcher matcher;
+    private AhoCorasick literals = null;
+    private long[] found;
     private String outputSeparator;
+    private Text output = new Text();
 
     @Override
     protected void setup(Context context) throws IOException,
@@ -80,8 +87,23 @@ public class Grep extends Configured implements Tool {
       if (caseInsensitive) {
         options |= Pattern.CASE_INSENSITIVE;
       }
-      pattern = Pattern.compile(new String(Base64.decodeBase64(regexBase64),
-          "UTF-8"), options);
+      String regex = new String(Base64.decodeBase64(regexBase64), "UTF-8");
+      pattern = Pattern.compile(regex, options);
+      matcher = pattern.matcher("");
+
+      // If every match has to contain some literal text, then a byte scan of
+      // the whole batch tells us if there's any point in decoding its lines.
+      // CASE_INSENSITIVE on its own only folds ASCII, which is what the
+      // automaton does too.
+      List<byte[]> required = new ArrayList<byte[]>();
+      for (String literal : RegexLiterals.requiredLiterals(regex)) {
+        required.add(literal.getBytes(UTF_8));
+      }
+      if (required.size() > 0) {
+        literals = caseInsensitive ? AhoCorasick
+            .compileCaseInsensitive(required) : AhoCorasick.compile(required);
+        found = literals.newMatchSet();
+      }
 
       outputSeparator = new String(new byte[] { Byte.parseByte(conf
           .get("logdriver.output.field.separator")) }, UTF_8);
@@ -93,20 +115,36 @@ public class Grep extends Configured implements Tool {
     }
 
     @Override
-    protected void map(LogLineData key, Text value, Context context)
+    protected void map(LogBlockBatch batch, NullWritable value, Context context)
         throws IOException, InterruptedException {
-      long timestamp = key.getTimestamp();
-      if (timestamp >= start && timestamp < end
-          && pattern.matcher(value.toString()).find()) {
-        StringBuilder sb = new StringBuilder().append(key.getTimestamp())
-            .append(outputSeparator)
-            .append(StringUtils.chomp(value.toString()))
-            .append(outputSeparator).append(key.getEventId())
-            .append(outputSeparator).append(key.getCreateTime())
-            .append(outputSeparator).append(key.getBlockNumber())
-            .append(outputSeparator).append(key.getLineNumber());
-
-        context.write(new Text(sb.toString()), null);
+      long blockStart = batch.getSecond() * 1000;
+      boolean allInRange = blockStart >= start && blockStart + 999 < end;
+
+      int size = batch.getSize();
+      if (literals != null
+          && !literals.matchesAll(batch.getMessageBytes(), 0,
+              batch.getMessageOffset(size), found)) {
+        return;
+      }
+
+      long[] timestamps = batch.getTimestamps();
+      for (int i = 0; i < size; i++) {
+        long timestamp = timestamps[i];
+        if (!allInRange && (timestamp < start || timestamp >= end)) {
+          continue;
+        }
+        String message = batch.getMessage(i);
+        if (matcher.reset(message).find()) {
+          StringBuilder sb = new StringBuilder().append(timestamp)
+              .append(outputSeparator).append(StringUtils.chomp(message))
+              .append(outputSeparator).append(batch.getEventId(i))
+              .append(outputSeparator).append(batch.getCreateTime())
+              .append(outputSeparator).append(batch.getBlockNumber())
+              .append(outputSeparator).append(batch.getLineNumber(i));
+
+          output.set(sb.toString());
+          context.write(output, null);
+        }
       }
     }
   }
@@ -174,7 +212,12 @@ public class Grep extends Configured implements Tool {
     jobConf.set("logdriver.grep.regex",
         Base64.encodeBase64String(regex.getBytes("UTF-8")));
 
-    job.setInputFormatClass(BoomInputFormat.class);
+    // Let the record reader skip blocks outside of the time range.
+    BoomBatchInputFormat.setTimeRange(job,
+        jobConf.getLong("logdriver.grep.start.time", Long.MIN_VALUE),
+        jobConf.getLong("logdriver.grep.end.time", Long.MAX_VALUE));
+
+    job.setInputFormatClass(BoomBatchInputFormat.class);
     job.setMapperClass(GrepMapper.class);
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(NullWritable.class);
@@ -185,7 +228,7 @@ public class Grep extends Configured implements Tool {
     job.setOutputFormatClass(TextOutputFormat.class);
     TextOutputFormat.setOutputPath(job, outputDir);
     for (Path path : paths) {
-      BoomInputFormat.addInputPath(job, path);
+      BoomBatchInputFormat.addInputPath(job, path);
     }
 
     // Run the job.
@@ -0,0 +1,431 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Search logs in a given file set, without MapReduce.
+ * <p>
+ * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] searchString input [input ...] output
+ * <p>
+ * For a search over a few files, most of the time taken by a MapReduce job is
+ * spent getting it scheduled. This reads the files straight from HDFS instead,
+ * with a pool of threads each searching a range of Avro blocks the same way
+ * the FastSearch mappers do (see {@link BlockSearcher}). Where a file has a
+ * block index, only the blocks in the time range are read.
+ * <p>
+ * Each task sorts its matches by time, writing them to local disk when there
+ * are too many to hold (see {@link SortedLines}), and once all the tasks are
+ * done their matches are merged as they're written to output/part-00000, or
+ * to stdout if the output is '-'. The output is the
+ * same as FastSearch's, including logdriver.search.sort and
+ * logdriver.search.limit, except that the lines are always in time order.
+ * For the search cache, each hour can be written to its own directory (see
+ * {@link SearchCache}).
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>logdriver.search.local.max.bytes: The most input that FastSearchByTime
+ * will search locally, rather than with a job. Default 1GB. 0 turns local
+ * searches off.</li>
+ * <li>logdriver.search.local.threads: Default the number of processors.</li>
+ * <li>logdriver.search.local.task.size: The most bytes each thread reads at a
+ * time. Default 64MB.</li>
+ * <li>logdriver.search.local.sort.buffer: About how much memory each thread
+ * can use to sort its matches before writing them to disk. Default 16MB.</li>
+ * </ul>
+ */
+package com.rim.logdriver.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.file.DataFileConstants;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.avro.AvroBlock;
+import com.rim.logdriver.avro.AvroFileHeader;
+import com.rim.logdriver.avro.ReadAheadInputStream;
+import com.rim.logdriver.avro.SyncMarkerScanner;
+import com.rim.logdriver.boom.BlockIndex;
+import com.rim.logdriver.boom.LogLineData;
+import com.rim.logdriver.fs.BlockSampler;
+import com.rim.logdriver.search.BlockSearcher;
+import com.rim.logdriver.search.ResultStreamer;
+import com.rim.logdriver.search.SearchCache;
+import com.rim.logdriver.search.SearchLimit;
+import com.rim.logdriver.search.SearchSort;
+import com.rim.logdriver.search.SortedLines;
+import com.rim.logdriver.timestamp.TimestampFormats;
+
+public class LocalSearch extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(LocalSearch.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public static final String MAX_BYTES = "logdriver.search.local.max.bytes";
+  public static final String THREADS = "logdriver.search.local.threads";
+  public static final String TASK_SIZE = "logdriver.search.local.task.size";
+  public static final String SORT_BUFFER = "logdriver.search.local.sort.buffer";
+
+  private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+  private static final long DEFAULT_TASK_SIZE = 64L * 1024 * 1024;
+  private static final long DEFAULT_SORT_BUFFER = 16L * 1024 * 1024;
+  private static final String DEFAULT_OUTPUT_SEPARATOR = "\t";
+
+  private static final String OUTPUT_FILE = "part-00000";
+
+  /**
+   * Searches the blocks that start in one byte range of a file. The matches
+   * are left sorted, on disk once the task is done.
+   */
+  private static class SearchTask implements Callable<SortedLines>,
+      BlockSearcher.Collector {
+    private final Configuration conf;
+    private final FileStatus file;
+    private final long start;
+    private final long end;
+    private final String pattern;
+    private final AtomicLong matches;
+    private final long limit;
+
+    private final SortedLines results;
+
+    private SearchTask(Configuration conf, FileStatus file, long start,
+        long end, String pattern, AtomicLong matches) {
+      this.conf = conf;
+      this.file = file;
+      this.start = start;
+      this.end = end;
+      this.pattern = pattern;
+      this.matches = matches;
+      this.limit = SearchLimit.getLimit(conf);
+      results = new SortedLines(conf.getLong(SORT_BUFFER, DEFAULT_SORT_BUFFER));
+    }
+
+    @Override
+    public SortedLines call() throws IOException, InterruptedException {
+      Path path = file.getPath();
+      FileSystem fs = path.getFileSystem(conf);
+      BlockSearcher searcher = new BlockSearcher(pattern, conf.getBoolean(
+          "logdriver.search.case.insensitive", false), conf.getLong(
+          "logdriver.search.start.time", Long.MIN_VALUE), conf.getLong(
+          "logdriver.search.end.time", Long.MAX_VALUE));
+      FSDataInputStream in = ReadAheadInputStream.open(fs, path, conf);
+      try {
+        AvroFileHeader header = AvroFileHeader.readHeader(in);
+        byte[] syncMarker = header.getSyncMarker();
+        String schema = header.getSchema();
+
+        in.seek(start);
+        long bytesRead = new SyncMarkerScanner().scan(in, syncMarker);
+        if (bytesRead < 0) {
+          return results;
+        }
+        long pos = start + bytesRead;
+        in.seek(pos);
+
+        // A block belongs to the range its sync marker starts in, the same as
+        // with splits.
+        AvroBlock block = new AvroBlock();
+        byte[] sync = new byte[DataFileConstants.SYNC_SIZE];
+        while (pos - DataFileConstants.SYNC_SIZE < end && pos < file.getLen()
+            && !isDone()) {
+          block.readBlock(in);
+          searcher.search(schema, block, this);
+          in.readFully(sync);
+          if (!Arrays.equals(sync, syncMarker)) {
+            throw new IOException("Invalid sync marker in " + path
+                + " before " + in.getPos());
+          }
+          pos = in.getPos();
+        }
+      } finally {
+        in.close();
+        searcher.end();
+      }
+      // Only the tasks that are running hold matches in memory.
+      results.spill();
+      return results;
+    }
+
+    @Override
+    public void collect(long timestamp, String message, int eventId,
+        long createTime, long blockNumber, long lineNumber) throws IOException {
+      results.add(new LogLineData(timestamp, createTime, blockNumber,
+          lineNumber, eventId), message);
+      matches.incrementAndGet();
+    }
+
+    @Override
+    public boolean isDone() {
+      return limit > 0 && matches.get() >= limit;
+    }
+  }
+
+  /**
+   * The total size of the inputs, in bytes.
+   */
+  public static long getInputBytes(Configuration conf, List<String> inputs)
+      throws IOException {
+    long bytes = 0;
+    for (String input : inputs) {
+      Path path = new Path(input);
+      FileSystem fs = path.getFileSystem(conf);
+      FileStatus[] statuses = fs.globStatus(path);
+      if (statuses == null) {
+        continue;
+      }
+      for (FileStatus status : statuses) {
+        bytes += fs.getContentSummary(status.getPath()).getLength();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Should a search of this many bytes be run locally, rather than as a job?
+   * Not if it's sampling, which only the job's input format does.
+   */
+  public static boolean isLocal(Configuration conf, long inputBytes) {
+    long maxBytes = conf.getLong(MAX_BYTES, DEFAULT_MAX_BYTES);
+    return maxBytes > 0 && inputBytes <= maxBytes
+        && !BlockSampler.isEnabled(conf);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Configuration conf = getConf(); // Configuration processed by ToolRunner
+
+    if (args.length < 3) {
+      System.out
+          .println("usage: [genericOptions] searchString input [input ...] output");
+      System.exit(1);
+    }
+
+    String searchString = args[0];
+    List<Path> paths = new ArrayList<Path>();
+    for (int i = 1; i < args.length - 1; i++) {
+      paths.add(new Path(args[i]));
+    }
+    String output = args[args.length - 1];
+
+    String separator = conf.get("logdriver.output.field.separator",
+        DEFAULT_OUTPUT_SEPARATOR);
+    if (separator.getBytes(UTF_8).length != 1) {
+      LOG.error("The output separator must be a single byte in UTF-8.");
+      return 1;
+    }
+
+    Path outputDir = null;
+    FileSystem outputFs = null;
+    if (!"-".equals(output)) {
+      outputDir = new Path(output);
+      outputFs = outputDir.getFileSystem(conf);
+      if (outputFs.exists(outputDir)) {
+        LOG.error("Output directory {} already exists.", outputDir);
+        return 1;
+      }
+    }
+
+    long start = conf.getLong("logdriver.search.start.time", Long.MIN_VALUE);
+    long end = conf.getLong("logdriver.search.end.time", Long.MAX_VALUE);
+    long taskSize = conf.getLong(TASK_SIZE, DEFAULT_TASK_SIZE);
+
+    // One task for each piece of the ranges to read in each file.
+    AtomicLong matches = new AtomicLong();
+    List<SearchTask> tasks = new ArrayList<SearchTask>();
+    long totalBytes = 0;
+    for (FileStatus file : SearchSort.listFiles(conf, paths)) {
+      FileSystem fs = file.getPath().getFileSystem(conf);
+      BlockIndex index = BlockIndex.read(fs, file);
+      List<long[]> ranges;
+      if (index == null) {
+        ranges = new ArrayList<long[]>();
+        ranges.add(new long[] { 0, file.getLen() });
+      } else {
+        ranges = index.getRanges(start, end);
+      }
+      for (long[] range : ranges) {
+        totalBytes += range[1] - range[0];
+        for (long pos = range[0]; pos < range[1]; pos += taskSize) {
+          tasks.add(new SearchTask(conf, file, pos, Math.min(pos + taskSize,
+              range[1]), searchString, matches));
+        }
+      }
+    }
+
+    int threads = conf.getInt(THREADS, Runtime.getRuntime()
+        .availableProcessors());
+    LOG.info("Searching {} bytes locally in {} tasks on {} threads.",
+        new Object[] { totalBytes, tasks.size(), threads });
+
+    List<SortedLines> results = new ArrayList<SortedLines>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+        threads));
+    try {
+      try {
+        for (Future<SortedLines> future : executor.invokeAll(tasks)) {
+          try {
+            results.add(future.get());
+          } catch (ExecutionException e) {
+            LOG.error("Error searching", e.getCause());
+            return 1;
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+      LOG.info("Local search found {} matches", matches.get());
+
+      ResultWriter writer = new ResultWriter(conf, separator, outputFs,
+          outputDir);
+      try {
+        SortedLines.merge(results, writer);
+      } finally {
+        writer.close();
+      }
+      if (writer.hasError()) {
+        LOG.error("Error writing the results.");
+        return 1;
+      }
+    } finally {
+      // Including those of any tasks that failed.
+      for (SearchTask task : tasks) {
+        task.results.close();
+      }
+    }
+
+    // The results are all there at once, but print them the same way a
+    // streaming job would.
+    if (outputDir != null && !SearchCache.isSliced(conf)
+        && ResultStreamer.isEnabled(conf)) {
+      new ResultStreamer(conf, outputDir, separator.charAt(0), System.out)
+          .printAll();
+    }
+    return 0;
+  }
+
+  /**
+   * Writes the matches, in order, the same way FastSearch does: to stdout if
+   * there's no output directory, or else to a file in it, or for the search
+   * cache, to a file in a directory for each hour.
+   */
+  private static class ResultWriter implements SortedLines.Output {
+    private final String separator;
+    private final FileSystem outputFs;
+    private final Path outputDir;
+    private final FastDateFormat dateFormat;
+    private final FastDateFormat sliceFormat;
+
+    private PrintStream printer = null;
+    private String slice = null;
+    private boolean error = false;
+
+    private ResultWriter(Configuration conf, String separator,
+        FileSystem outputFs, Path outputDir) throws IOException {
+      this.separator = separator;
+      this.outputFs = outputFs;
+      this.outputDir = outputDir;
+      if (SearchSort.isEnabled(conf) && !ResultStreamer.isEnabled(conf)) {
+        dateFormat = TimestampFormats.getFormat(conf.get(
+            SearchSort.DATE_FORMAT, SearchSort.DEFAULT_DATE_FORMAT));
+      } else {
+        dateFormat = null;
+      }
+      if (outputDir != null && SearchCache.isSliced(conf)) {
+        sliceFormat = SearchCache.getSliceFormat(conf);
+      } else {
+        sliceFormat = null;
+        if (outputDir == null) {
+          printer = new PrintStream(System.out, false, "UTF-8");
+        } else {
+          printer = new PrintStream(outputFs.create(new Path(outputDir,
+              OUTPUT_FILE)), false, "UTF-8");
+        }
+      }
+    }
+
+    @Override
+    public void write(LogLineData key, String message) throws IOException {
+      if (sliceFormat != null) {
+        // The matches are in time order, so each hour's are together.
+        String matchSlice = sliceFormat.format(key.getTimestamp());
+        if (!matchSlice.equals(slice)) {
+          close();
+          slice = matchSlice;
+          printer = new PrintStream(outputFs.create(new Path(new Path(
+              outputDir, slice), OUTPUT_FILE)), false, "UTF-8");
+        }
+      }
+      if (dateFormat != null) {
+        printer.print(dateFormat.format(key.getTimestamp()));
+        printer.print(' ');
+        printer.print(StringUtils.chomp(message));
+        printer.print('\n');
+      } else {
+        printer.print(new StringBuilder().append(key.getTimestamp())
+            .append(separator).append(StringUtils.chomp(message))
+            .append(separator).append(key.getEventId()).append(separator)
+            .append(key.getCreateTime()).append(separator)
+            .append(key.getBlockNumber()).append(separator)
+            .append(key.getLineNumber()).append('\n'));
+      }
+    }
+
+    /** Closes the file being written, or flushes stdout. */
+    private void close() {
+      if (printer == null) {
+        return;
+      }
+      if (outputDir == null) {
+        printer.flush();
+      } else {
+        printer.close();
+      }
+      error |= printer.checkError();
+      printer = null;
+    }
+
+    private boolean hasError() {
+      return error;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    // Let ToolRunner handle generic command-line options
+    int res = ToolRunner.run(new Configuration(), new LocalSearch(), args);
+    System.exit(res);
+  }
+}
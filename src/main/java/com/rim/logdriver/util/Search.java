@@ -16,7 +16,7 @@
 /**
  * search Logs in a given file set.
  * <p>
- * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] searchString input [input ...] output
+ * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] [-Dlogdriver.search.limit=N] searchString input [input ...] output
  * <p>
  * 
  */
@@ -44,8 +44,10 @@ import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.rim.logdriver.boom.LogLineData;
-import com.rim.logdriver.mapreduce.boom.BoomInputFormat;
+import com.rim.logdriver.boom.LogBlockBatch;
+import com.rim.logdriver.mapreduce.boom.BoomBatchInputFormat;
+import com.rim.logdriver.search.BytePattern;
+import com.rim.logdriver.search.SearchLimit;
 
 public class Search extends Configured implements Tool {
   private static final Logger LOG = LoggerFactory.getLogger(Search.class);
@@ -56,11 +58,14 @@ public class Search extends Configured implements Tool {
   private static final boolean DEFAULT_WAIT_JOB = true;
 
   private static final class SearchMapper extends
-      Mapper<LogLineData, Text, Text, NullWritable> {
+      Mapper<LogBlockBatch, NullWritable, Text, NullWritable> {
     private long start;
     private long end;
     private String pattern;
+    private BytePattern bytePattern;
     private String outputSeparator;
+    private Text output = new Text();
+    private SearchLimit limit;
 
     @Override
     protected void setup(Context context) throws IOException,
@@ -70,10 +75,13 @@ public class Search extends Configured implements Tool {
       start = conf.getLong("logdriver.search.start.time", Long.MIN_VALUE);
       end = conf.getLong("logdriver.search.end.time", Long.MAX_VALUE);
       pattern = conf.get("logdriver.search.string");
+      bytePattern = BytePattern.compile(pattern.getBytes(UTF_8));
 
       outputSeparator = new String(new byte[] { Byte.parseByte(conf
           .get("logdriver.output.field.separator")) }, UTF_8);
 
+      limit = SearchLimit.forTask(context);
+
       LOG.info("Configuring SearchMapper");
       LOG.info("  start={}", start);
       LOG.info("  end={}", end);
@@ -81,20 +89,79 @@ public class Search extends Configured implements Tool {
     }
 
     @Override
-    protected void map(LogLineData key, Text value, Context context)
+    public void run(Context context) throws IOException, InterruptedException {
+      setup(context);
+      while ((limit == null || !limit.isReached()) && context.nextKeyValue()) {
+        map(context.getCurrentKey(), context.getCurrentValue(), context);
+      }
+      cleanup(context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      if (limit != null) {
+        limit.reportCounters(context);
+      }
+    }
+
+    @Override
+    protected void map(LogBlockBatch batch, NullWritable value, Context context)
         throws IOException, InterruptedException {
-      long timestamp = key.getTimestamp();
-      if (timestamp >= start && timestamp < end
-          && value.toString().contains(pattern)) {
-        StringBuilder sb = new StringBuilder().append(key.getTimestamp())
+      int size = batch.getSize();
+      if (bytePattern.length() == 0) {
+        for (int i = 0; i < size; i++) {
+          writeIfInRange(batch, i, context);
+        }
+        return;
+      }
+
+      // Search all the messages in one pass, as UTF-8 bytes, and only decode
+      // the lines that match. A match that runs from one message into the next
+      // doesn't count.
+      byte[] messages = batch.getMessageBytes();
+      int[] offsets = batch.getMessageOffsets();
+      int limit = offsets[size];
+      int pos = offsets[0];
+      int line = 0;
+      while (pos < limit) {
+        int found = bytePattern.indexOf(messages, pos, limit - pos);
+        if (found == -1) {
+          break;
+        }
+        while (offsets[line + 1] <= found) {
+          line++;
+        }
+        if (found + bytePattern.length() <= offsets[line + 1]) {
+          writeIfInRange(batch, line, context);
+          pos = offsets[line + 1];
+          line++;
+        } else {
+          pos = found + 1;
+        }
+      }
+    }
+
+    private void writeIfInRange(LogBlockBatch batch, int i, Context context)
+        throws IOException, InterruptedException {
+      long timestamp = batch.getTimestamp(i);
+      if (limit != null && limit.isReached()) {
+        return;
+      }
+      if (timestamp >= start && timestamp < end) {
+        StringBuilder sb = new StringBuilder().append(timestamp)
             .append(outputSeparator)
-            .append(StringUtils.chomp(value.toString()))
-            .append(outputSeparator).append(key.getEventId())
-            .append(outputSeparator).append(key.getCreateTime())
-            .append(outputSeparator).append(key.getBlockNumber())
-            .append(outputSeparator).append(key.getLineNumber());
+            .append(StringUtils.chomp(batch.getMessage(i)))
+            .append(outputSeparator).append(batch.getEventId(i))
+            .append(outputSeparator).append(batch.getCreateTime())
+            .append(outputSeparator).append(batch.getBlockNumber())
+            .append(outputSeparator).append(batch.getLineNumber(i));
 
-        context.write(new Text(sb.toString()), null);
+        output.set(sb.toString());
+        context.write(output, null);
+        if (limit != null) {
+          limit.match();
+        }
       }
     }
   }
@@ -161,7 +228,12 @@ public class Search extends Configured implements Tool {
 
     jobConf.set("logdriver.search.string", searchString);
 
-    job.setInputFormatClass(BoomInputFormat.class);
+    // Let the record reader skip blocks outside of the time range.
+    BoomBatchInputFormat.setTimeRange(job,
+        jobConf.getLong("logdriver.search.start.time", Long.MIN_VALUE),
+        jobConf.getLong("logdriver.search.end.time", Long.MAX_VALUE));
+
+    job.setInputFormatClass(BoomBatchInputFormat.class);
     job.setMapperClass(SearchMapper.class);
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(NullWritable.class);
@@ -171,13 +243,14 @@ public class Search extends Configured implements Tool {
     // And set the output as usual
     job.setOutputFormatClass(TextOutputFormat.class);
     TextOutputFormat.setOutputPath(job, outputDir);
+    SearchLimit.configure(job, outputDir);
     for (Path path : paths) {
-      BoomInputFormat.addInputPath(job, path);
+      BoomBatchInputFormat.addInputPath(job, path);
     }
 
     // Run the job.
     if (conf.getBoolean("job.wait", DEFAULT_WAIT_JOB)) {
-      return job.waitForCompletion(true) ? 0 : 1;
+      return SearchLimit.waitForCompletion(job, true) ? 0 : 1;
     } else {
       job.submit();
       return 0;
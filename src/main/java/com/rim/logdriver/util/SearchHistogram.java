@@ -0,0 +1,331 @@
+/** Copyright 2013 BlackBerry, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Counts the log lines that contain a string, by time bucket.
+ * <p>
+ * Rather than writing out the matching lines, each mapper counts them by
+ * bucket (see {@link MatchHistogram}), and a single reducer adds up the counts,
+ * so the output is one line per bucket: the start of the bucket in ms since
+ * the epoch, the eventId if the counts are broken down by eventId, and the
+ * count.
+ * <p>
+ * Usage: [genericOptions] [-Dlogdriver.search.start.time=X] [-Dlogdriver.search.end.time=X] [-Dlogdriver.search.histogram.bucket=ms] [-Dlogdriver.search.histogram.by.event.id=true] [-Dlogdriver.sample.fraction=F] searchString input [input ...] output
+ * <p>
+ * An empty search string counts every line.
+ * <p>
+ * With logdriver.sample.fraction set, only a sample of the input is read, the
+ * counts are scaled up to estimate the counts for all of it, and the estimate
+ * of the total is logged with a confidence interval (see
+ * {@link SampleEstimate}).
+ */
+package com.rim.logdriver.util;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.net.util.Base64;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rim.logdriver.boom.LogBlockBatch;
+import com.rim.logdriver.fs.BlockSampler;
+import com.rim.logdriver.mapreduce.boom.BoomBatchInputFormat;
+import com.rim.logdriver.search.BytePattern;
+import com.rim.logdriver.search.CaseFoldedPattern;
+import com.rim.logdriver.search.HistogramKey;
+import com.rim.logdriver.search.MatchHistogram;
+import com.rim.logdriver.search.SampleEstimate;
+
+public class SearchHistogram extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(SearchHistogram.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String DEFAULT_OUTPUT_SEPARATOR = "\t";
+  private static final boolean DEFAULT_WAIT_JOB = true;
+
+  private static final class HistogramMapper extends
+      Mapper<LogBlockBatch, NullWritable, HistogramKey, LongWritable> {
+    private long start;
+    private long end;
+    private BytePattern bytePattern = null;
+    private CaseFoldedPattern foldedPattern = null;
+    private MatchHistogram histogram;
+    private MatchHistogram.Output output;
+    private SampleEstimate.Tally tally;
+    private int splitPart = -1;
+
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      Configuration conf = context.getConfiguration();
+
+      start = conf.getLong("logdriver.search.start.time", Long.MIN_VALUE);
+      end = conf.getLong("logdriver.search.end.time", Long.MAX_VALUE);
+      String pattern = new String(Base64.decodeBase64(conf
+          .get("logdriver.search.string")), UTF_8);
+      boolean caseInsensitive = conf.getBoolean(
+          "logdriver.search.case.insensitive", false);
+
+      // Same as FastSearch: ASCII case folding is enough unless the pattern
+      // has characters outside of ASCII.
+      byte[] patternBytes = pattern.getBytes(UTF_8);
+      if (!caseInsensitive) {
+        bytePattern = BytePattern.compile(patternBytes);
+      } else if (CaseFoldedPattern.needsUnicodeFolding(pattern)) {
+        foldedPattern = CaseFoldedPattern.compile(pattern);
+      } else {
+        bytePattern = BytePattern.compileCaseInsensitive(patternBytes);
+      }
+
+      histogram = MatchHistogram.fromConfiguration(conf);
+      output = MatchHistogram.outputTo(context);
+      tally = SampleEstimate.Tally.forTask(context);
+
+      LOG.info("Configuring HistogramMapper");
+      LOG.info("  start={}", start);
+      LOG.info("  end={}", end);
+      LOG.info("  pattern={}", pattern);
+      LOG.info("  bucket={}ms, byEventId={}", histogram.getBucketSize(),
+          histogram.isByEventId());
+    }
+
+    @Override
+    protected void map(LogBlockBatch batch, NullWritable value, Context context)
+        throws IOException, InterruptedException {
+      byte[] messages = batch.getMessageBytes();
+      int[] offsets = batch.getMessageOffsets();
+      long[] timestamps = batch.getTimestamps();
+      int size = batch.getSize();
+      // When sampling, each piece of the split is a separate unit.
+      if (tally != null && batch.getSplitPart() != splitPart) {
+        tally.startUnit();
+        splitPart = batch.getSplitPart();
+      }
+      for (int i = 0; i < size; i++) {
+        long timestamp = timestamps[i];
+        if (timestamp < start || timestamp >= end) {
+          continue;
+        }
+        int length = offsets[i + 1] - offsets[i];
+        boolean match = bytePattern != null ? bytePattern.matches(messages,
+            offsets[i], length) : foldedPattern.matches(messages, offsets[i],
+            length);
+        if (match) {
+          histogram.add(timestamp, batch.getEventId(i), output);
+          if (tally != null) {
+            tally.match();
+          }
+        }
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      histogram.flush(output);
+      if (tally != null) {
+        tally.finish();
+      }
+    }
+  }
+
+  private static final class SumCombiner extends
+      Reducer<HistogramKey, LongWritable, HistogramKey, LongWritable> {
+    private LongWritable sum = new LongWritable();
+
+    @Override
+    protected void reduce(HistogramKey key, Iterable<LongWritable> values,
+        Context context) throws IOException, InterruptedException {
+      long total = 0;
+      for (LongWritable value : values) {
+        total += value.get();
+      }
+      sum.set(total);
+      context.write(key, sum);
+    }
+  }
+
+  private static final class HistogramReducer extends
+      Reducer<HistogramKey, LongWritable, Text, NullWritable> {
+    private String outputSeparator;
+    private boolean byEventId;
+    private double sampleFraction;
+    private Text output = new Text();
+
+    @Override
+    protected void setup(Context context) throws IOException,
+        InterruptedException {
+      Configuration conf = context.getConfiguration();
+      outputSeparator = new String(new byte[] { Byte.parseByte(conf
+          .get("logdriver.output.field.separator")) }, UTF_8);
+      byEventId = conf.getBoolean(MatchHistogram.BY_EVENT_ID, false);
+      sampleFraction = BlockSampler.getFraction(conf);
+    }
+
+    @Override
+    protected void reduce(HistogramKey key, Iterable<LongWritable> values,
+        Context context) throws IOException, InterruptedException {
+      long total = 0;
+      for (LongWritable value : values) {
+        total += value.get();
+      }
+      StringBuilder sb = new StringBuilder().append(key.getBucket()).append(
+          outputSeparator);
+      if (byEventId) {
+        sb.append(key.getEventId()).append(outputSeparator);
+      }
+      if (sampleFraction < 1) {
+        total = SampleEstimate.scale(total, sampleFraction);
+      }
+      sb.append(total);
+      output.set(sb.toString());
+      context.write(output, null);
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Configuration conf = getConf(); // Configuration processed by ToolRunner
+    // If run by Oozie, then load the Oozie conf too
+    if (System.getProperty("oozie.action.conf.xml") != null) {
+      conf.addResource(new URL("file://"
+          + System.getProperty("oozie.action.conf.xml")));
+    }
+
+    FileSystem fs = FileSystem.get(conf);
+
+    // The command line options
+    String searchString = null;
+    List<Path> paths = new ArrayList<Path>();
+    Path outputDir = null;
+
+    // Load input files from the command line
+    if (args.length < 3) {
+      System.out
+          .println("usage: [genericOptions] searchString input [input ...] output");
+      System.exit(1);
+    }
+
+    // Get the files we need from the command line.
+    searchString = args[0];
+    for (int i = 1; i < args.length - 1; i++) {
+      for (FileStatus f : fs.globStatus(new Path(args[i]))) {
+        paths.add(f.getPath());
+      }
+    }
+    outputDir = new Path(args[args.length - 1]);
+
+    Job job = new Job(conf);
+    Configuration jobConf = job.getConfiguration();
+
+    job.setJarByClass(SearchHistogram.class);
+    jobConf.setIfUnset("mapred.job.name", "Search Histogram");
+
+    // To propagate credentials within Oozie
+    if (System.getenv("HADOOP_TOKEN_FILE_LOCATION") != null) {
+      jobConf.set("mapreduce.job.credentials.binary",
+          System.getenv("HADOOP_TOKEN_FILE_LOCATION"));
+    }
+
+    // Good output separators include things that are unsupported by XML. So we
+    // just send the byte value of the character through. The restriction here
+    // is that it can't be more than 1 byte when UTF-8 encoded, since it will be
+    // read by Pig which only deals with single byte separators.
+    {
+      String outputSeparator = jobConf.get("logdriver.output.field.separator",
+          DEFAULT_OUTPUT_SEPARATOR);
+      byte[] bytes = outputSeparator.getBytes(UTF_8);
+      if (bytes.length != 1) {
+        LOG.error("The output separator must be a single byte in UTF-8.");
+        return 1;
+      }
+
+      jobConf.set("logdriver.output.field.separator", Byte.toString(bytes[0]));
+    }
+
+    if (jobConf.getLong(MatchHistogram.BUCKET, 1) <= 0) {
+      LOG.error("The bucket size must be positive.");
+      return 1;
+    }
+
+    jobConf.set("logdriver.search.string",
+        Base64.encodeBase64String(searchString.getBytes(UTF_8)));
+
+    // Let the record reader skip blocks outside of the time range.
+    BoomBatchInputFormat.setTimeRange(job,
+        jobConf.getLong("logdriver.search.start.time", Long.MIN_VALUE),
+        jobConf.getLong("logdriver.search.end.time", Long.MAX_VALUE));
+
+    job.setInputFormatClass(BoomBatchInputFormat.class);
+    job.setMapperClass(HistogramMapper.class);
+    job.setMapOutputKeyClass(HistogramKey.class);
+    job.setMapOutputValueClass(LongWritable.class);
+
+    // The mappers have already done most of the adding up, so one reducer is
+    // plenty, and gives us a single, sorted histogram.
+    job.setCombinerClass(SumCombiner.class);
+    job.setReducerClass(HistogramReducer.class);
+    job.setNumReduceTasks(1);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(NullWritable.class);
+
+    // And set the output as usual
+    job.setOutputFormatClass(TextOutputFormat.class);
+    TextOutputFormat.setOutputPath(job, outputDir);
+    for (Path path : paths) {
+      BoomBatchInputFormat.addInputPath(job, path);
+    }
+
+    // Run the job.
+    if (conf.getBoolean("job.wait", DEFAULT_WAIT_JOB)) {
+      boolean success = job.waitForCompletion(true);
+      SampleEstimate estimate = SampleEstimate.fromCounters(jobConf,
+          job.getCounters());
+      if (success && estimate != null) {
+        LOG.info("Sampled count found {}", estimate);
+      }
+      return success ? 0 : 1;
+    } else {
+      job.submit();
+      return 0;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    // Let ToolRunner handle generic command-line options
+    int res = ToolRunner.run(new Configuration(), new SearchHistogram(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,71 @@
+package com.rim.logdriver.avro;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Compares {@link SyncMarkerScanner} with the byte at a time scan it replaced.
+ * <p>
+ * Usage: SyncMarkerScannerBenchmark [megabytes] [iterations]
+ */
+public class SyncMarkerScannerBenchmark {
+
+  private static long dequeScan(DataInputStream in, byte[] sync)
+      throws IOException {
+    long bytesRead = 0;
+    Deque<Byte> deque = new ArrayDeque<Byte>(sync.length);
+    while (true) {
+      deque.add(in.readByte());
+      bytesRead++;
+      if (deque.size() == sync.length) {
+        boolean match = true;
+        Iterator<Byte> iterator = deque.iterator();
+        for (int i = 0; i < sync.length; i++) {
+          if (sync[i] != iterator.next()) {
+            match = false;
+            break;
+          }
+        }
+        if (match) {
+          return bytesRead;
+        }
+        deque.remove();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    // The worst case: a long run of data with the marker right at the end.
+    Random random = new Random(0);
+    byte[] sync = new byte[16];
+    random.nextBytes(sync);
+    byte[] data = new byte[megabytes * 1024 * 1024];
+    random.nextBytes(data);
+    System.arraycopy(sync, 0, data, data.length - sync.length, sync.length);
+
+    SyncMarkerScanner scanner = new SyncMarkerScanner();
+    for (int i = 0; i < iterations; i++) {
+      long t0 = System.nanoTime();
+      long a = dequeScan(new DataInputStream(new ByteArrayInputStream(data)),
+          sync);
+      long t1 = System.nanoTime();
+      long b = scanner.scan(new ByteArrayInputStream(data), sync);
+      long t2 = System.nanoTime();
+
+      if (a != b) {
+        throw new IllegalStateException("Results differ: " + a + " != " + b);
+      }
+      System.out.printf("%d MB: deque %.1f ms (%.0f MB/s), scanner %.1f ms "
+          + "(%.0f MB/s)%n", megabytes, (t1 - t0) / 1e6, megabytes * 1e9
+          / (t1 - t0), (t2 - t1) / 1e6, megabytes * 1e9 / (t2 - t1));
+    }
+  }
+}
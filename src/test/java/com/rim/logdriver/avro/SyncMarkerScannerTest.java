@@ -0,0 +1,80 @@
+package com.rim.logdriver.avro;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SyncMarkerScannerTest {
+  private static final byte[] sync = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9,
+      10, 11, 12, 13, 14, 15, 16 };
+
+  private byte[] data(int size, int... markers) {
+    byte[] data = new byte[size];
+    // Lots of partial matches to trip over.
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ((i % 7) + 1);
+    }
+    for (int m : markers) {
+      System.arraycopy(sync, 0, data, m, sync.length);
+    }
+    return data;
+  }
+
+  @Test
+  public void testIndexOf() {
+    byte[] data = data(100, 40);
+    assertEquals(40, SyncMarkerScanner.indexOf(data, 0, data.length, sync));
+    assertEquals(40, SyncMarkerScanner.indexOf(data, 40, 16, sync));
+    assertEquals(-1, SyncMarkerScanner.indexOf(data, 41, 59, sync));
+    assertEquals(-1, SyncMarkerScanner.indexOf(data, 0, 55, sync));
+    assertEquals(-1, SyncMarkerScanner.indexOf(data, 0, 10, sync));
+  }
+
+  @Test
+  public void testScan() throws IOException {
+    byte[] data = data(1000, 500, 700);
+    SyncMarkerScanner scanner = new SyncMarkerScanner();
+    assertEquals(516, scanner.scan(new ByteArrayInputStream(data), sync));
+
+    ByteArrayInputStream in = new ByteArrayInputStream(data);
+    in.skip(501);
+    assertEquals(215, scanner.scan(in, sync));
+
+    in = new ByteArrayInputStream(data);
+    in.skip(701);
+    assertEquals(-1, scanner.scan(in, sync));
+  }
+
+  @Test
+  public void testScanAcrossReads() throws IOException {
+    // With a buffer barely bigger than the marker, every marker position
+    // eventually straddles two reads.
+    for (int bufferSize = sync.length; bufferSize < 40; bufferSize++) {
+      SyncMarkerScanner scanner = new SyncMarkerScanner(bufferSize);
+      for (int m = 0; m < 80; m++) {
+        byte[] data = data(100, m);
+        assertEquals("buffer " + bufferSize + ", marker at " + m, m
+            + sync.length, scanner.scan(new ByteArrayInputStream(data), sync));
+      }
+    }
+  }
+
+  @Test
+  public void testScanRandom() throws IOException {
+    Random random = new Random(12345);
+    SyncMarkerScanner scanner = new SyncMarkerScanner(1024);
+    for (int i = 0; i < 100; i++) {
+      byte[] data = new byte[10000];
+      random.nextBytes(data);
+      int m = random.nextInt(data.length - sync.length);
+      System.arraycopy(sync, 0, data, m, sync.length);
+      int expected = SyncMarkerScanner.indexOf(data, 0, data.length, sync);
+      assertEquals(expected + sync.length,
+          scanner.scan(new ByteArrayInputStream(data), sync));
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.rim.logdriver.boom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares {@link LogLineData.Comparator} on serialized keys with
+ * deserializing both keys and calling compareTo, which is what the shuffle
+ * would do without a raw comparator.
+ * <p>
+ * The keys look like the lines of a few hours of logs: close together
+ * timestamps, a handful of create times and block numbers, and sequential line
+ * numbers.
+ * <p>
+ * Usage: LogLineDataComparatorBenchmark [keys] [iterations]
+ */
+public class LogLineDataComparatorBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    Random random = new Random(1);
+    byte[] buf = new byte[keys * LogLineData.SERIALIZED_SIZE];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(buf.length);
+    DataOutputStream out = new DataOutputStream(bytes);
+    long start = 1370000000000L;
+    for (int i = 0; i < keys; i++) {
+      new LogLineData(start + random.nextInt(3 * 3600 * 1000),
+          start + random.nextInt(4) * 1000, random.nextInt(8),
+          random.nextInt(5000), random.nextInt(3)).write(out);
+    }
+    out.close();
+    buf = bytes.toByteArray();
+
+    LogLineData.Comparator comparator = new LogLineData.Comparator();
+    int size = LogLineData.SERIALIZED_SIZE;
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      long sum = 0;
+      long rawStart = System.nanoTime();
+      for (int i = 1; i < keys; i++) {
+        sum += comparator.compare(buf, (i - 1) * size, size, buf, i * size,
+            size);
+      }
+      long rawTime = System.nanoTime() - rawStart;
+
+      long objectStart = System.nanoTime();
+      LogLineData a = new LogLineData();
+      LogLineData b = new LogLineData();
+      for (int i = 1; i < keys; i++) {
+        // What WritableComparator does by default: read both, then compare.
+        a.readFields(new DataInputStream(new ByteArrayInputStream(buf,
+            (i - 1) * size, size)));
+        b.readFields(new DataInputStream(new ByteArrayInputStream(buf, i
+            * size, size)));
+        sum -= a.compareTo(b);
+      }
+      long objectTime = System.nanoTime() - objectStart;
+
+      System.out.printf(
+          "raw: %.1f ns/compare, deserialize: %.1f ns/compare (check %d)%n",
+          (double) rawTime / (keys - 1), (double) objectTime / (keys - 1), sum);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.rim.logdriver.boom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.rim.logdriver.mapreduce.boom.LogLineDataPartitioner;
+
+public class LogLineDataTest {
+  private static final LogLineData.Comparator COMPARATOR = new LogLineData.Comparator();
+
+  private static byte[] serialize(LogLineData data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    data.write(out);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static int rawCompare(LogLineData a, LogLineData b)
+      throws IOException {
+    // Put them at different offsets, to make sure those are honoured.
+    byte[] bytesA = serialize(a);
+    byte[] bytesB = serialize(b);
+    byte[] bufA = new byte[bytesA.length + 3];
+    byte[] bufB = new byte[bytesB.length + 7];
+    System.arraycopy(bytesA, 0, bufA, 3, bytesA.length);
+    System.arraycopy(bytesB, 0, bufB, 7, bytesB.length);
+    return COMPARATOR.compare(bufA, 3, bytesA.length, bufB, 7, bytesB.length);
+  }
+
+  private static void assertSameOrder(LogLineData a, LogLineData b)
+      throws IOException {
+    int expected = Integer.signum(a.compareTo(b));
+    assertEquals(a + " vs " + b, expected, Integer.signum(rawCompare(a, b)));
+    assertEquals(b + " vs " + a, -expected, Integer.signum(rawCompare(b, a)));
+  }
+
+  @Test
+  public void testSerializedSize() throws IOException {
+    assertEquals(LogLineData.SERIALIZED_SIZE,
+        serialize(new LogLineData(1, 2, 3, 4, 5)).length);
+  }
+
+  @Test
+  public void testFieldOrder() throws IOException {
+    LogLineData base = new LogLineData(10, 10, 10, 10, 10);
+    assertEquals(0, rawCompare(base, new LogLineData(10, 10, 10, 10, 10)));
+    assertTrue(rawCompare(base, new LogLineData(11, 0, 0, 0, 0)) < 0);
+    assertTrue(rawCompare(base, new LogLineData(10, 11, 0, 0, 0)) < 0);
+    assertTrue(rawCompare(base, new LogLineData(10, 10, 11, 0, 0)) < 0);
+    assertTrue(rawCompare(base, new LogLineData(10, 10, 10, 11, 0)) < 0);
+    assertTrue(rawCompare(base, new LogLineData(10, 10, 10, 10, 11)) < 0);
+  }
+
+  @Test
+  public void testExtremes() throws IOException {
+    // Subtracting these overflows.
+    long[] longs = { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE };
+    int[] ints = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    for (long x : longs) {
+      for (long y : longs) {
+        assertSameOrder(new LogLineData(x, 0, 0, 0, 0), new LogLineData(y, 0,
+            0, 0, 0));
+        assertSameOrder(new LogLineData(0, 0, 0, x, 0), new LogLineData(0, 0,
+            0, y, 0));
+      }
+    }
+    for (int x : ints) {
+      for (int y : ints) {
+        assertSameOrder(new LogLineData(0, 0, 0, 0, x), new LogLineData(0, 0,
+            0, 0, y));
+      }
+    }
+  }
+
+  @Test
+  public void testRandom() throws IOException {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      // Mostly small values, so that the later fields get compared too.
+      assertSameOrder(random(random), random(random));
+    }
+  }
+
+  private static LogLineData random(Random random) {
+    return new LogLineData(value(random), value(random), value(random),
+        value(random), random.nextBoolean() ? random.nextInt()
+            : random.nextInt(3));
+  }
+
+  private static long value(Random random) {
+    return random.nextBoolean() ? random.nextLong() : random.nextInt(3);
+  }
+
+  @Test
+  public void testPartitions() {
+    // Consecutive lines of one block should spread over all the partitions.
+    int partitions = 31;
+    int[] counts = new int[partitions];
+    for (int line = 1; line <= 31000; line++) {
+      int p = LogLineDataPartitioner.partition(new LogLineData(1370000000000L,
+          1370000000500L, 7, line, 0), partitions);
+      assertTrue(p >= 0 && p < partitions);
+      counts[p]++;
+    }
+    for (int count : counts) {
+      assertTrue("Partition count " + count, count > 800 && count < 1200);
+    }
+  }
+}
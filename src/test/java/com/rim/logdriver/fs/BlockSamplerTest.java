@@ -0,0 +1,65 @@
+package com.rim.logdriver.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class BlockSamplerTest {
+
+  private static List<long[]> range(long start, long end) {
+    List<long[]> ranges = new ArrayList<long[]>();
+    ranges.add(new long[] { start, end });
+    return ranges;
+  }
+
+  @Test
+  public void testSample() {
+    BlockSampler sampler = new BlockSampler(0.1, 1000, 0);
+    List<long[]> sampled = sampler.sample(new Path("/logs/a.bm"),
+        range(500, 1000 * 1000));
+    // Roughly a tenth of the 1000 units, each within one unit.
+    assertTrue(sampled.size() > 50 && sampled.size() < 150);
+    for (long[] piece : sampled) {
+      assertTrue(piece[0] >= 500 && piece[1] <= 1000 * 1000);
+      assertEquals(piece[0] / 1000, (piece[1] - 1) / 1000);
+    }
+
+    // The same every time, however the path is qualified.
+    List<long[]> again = sampler.sample(new Path("hdfs://nn:8020/logs/a.bm"),
+        range(500, 1000 * 1000));
+    assertEquals(sampled.size(), again.size());
+    for (int i = 0; i < sampled.size(); i++) {
+      assertEquals(sampled.get(i)[0], again.get(i)[0]);
+    }
+
+    // Everything, when the fraction is 1.
+    assertEquals(1000, new BlockSampler(1, 1000, 0).sample(
+        new Path("/logs/a.bm"), range(0, 1000 * 1000)).size());
+  }
+
+  @Test
+  public void testOnePiecePerUnit() {
+    // Ranges that leave gaps in units, out of order.
+    List<long[]> ranges = new ArrayList<long[]>();
+    ranges.add(new long[] { 1700, 2600 });
+    ranges.add(new long[] { 100, 300 });
+    ranges.add(new long[] { 600, 1500 });
+    List<long[]> sampled = new BlockSampler(1, 1000, 0).sample(new Path(
+        "/logs/a.bm"), ranges);
+
+    // Unit 0 from the first range to the second, unit 1 across the gap, and
+    // the start of unit 2.
+    assertEquals(3, sampled.size());
+    assertEquals(100, sampled.get(0)[0]);
+    assertEquals(1000, sampled.get(0)[1]);
+    assertEquals(1000, sampled.get(1)[0]);
+    assertEquals(2000, sampled.get(1)[1]);
+    assertEquals(2000, sampled.get(2)[0]);
+    assertEquals(2600, sampled.get(2)[1]);
+  }
+}
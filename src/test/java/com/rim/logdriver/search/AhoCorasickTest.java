@@ -0,0 +1,106 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AhoCorasickTest {
+  private static final byte[] ALPHABET = new byte[] { 'a', 'A', 'b', 'B', 'c',
+      (byte) 0xC3 };
+
+  private static List<byte[]> patterns(String... strings)
+      throws UnsupportedEncodingException {
+    List<byte[]> patterns = new ArrayList<byte[]>();
+    for (String s : strings) {
+      patterns.add(s.getBytes("UTF-8"));
+    }
+    return patterns;
+  }
+
+  private static byte[] bytes(String s) throws UnsupportedEncodingException {
+    return s.getBytes("UTF-8");
+  }
+
+  @Test
+  public void testMatches() throws UnsupportedEncodingException {
+    AhoCorasick ac = AhoCorasick.compile(patterns("he", "she", "his",
+        "hers", "his"));
+    assertEquals(4, ac.getPatternCount());
+    long[] found = ac.newMatchSet();
+
+    byte[] buf = bytes("ushers");
+    assertTrue(ac.matchesAny(buf, 0, buf.length));
+    assertFalse(ac.matchesAll(buf, 0, buf.length, found));
+    // he, she and hers, but not his.
+    assertEquals(0x0bL, found[0]);
+
+    buf = bytes("this is ushers");
+    assertTrue(ac.matchesAll(buf, 0, buf.length, found));
+    assertFalse(ac.matchesAny(buf, 0, 1));
+    assertFalse(ac.matchesAny(buf, 3, 4));
+
+    assertFalse(ac.matchesAny(bytes("HERS"), 0, 4));
+    assertTrue(AhoCorasick.compileCaseInsensitive(patterns("hers"))
+        .matchesAny(bytes("uSHeRs"), 0, 6));
+  }
+
+  @Test
+  public void testManyPatterns() throws UnsupportedEncodingException {
+    List<byte[]> patterns = new ArrayList<byte[]>();
+    for (int i = 0; i < 500; i++) {
+      patterns.add(bytes(String.format("%08x", i * 7919)));
+    }
+    AhoCorasick ac = AhoCorasick.compile(patterns);
+    assertEquals(500, ac.getPatternCount());
+
+    byte[] buf = bytes("device " + String.format("%08x", 499 * 7919) + " up");
+    assertTrue(ac.matchesAny(buf, 0, buf.length));
+    long[] found = ac.newMatchSet();
+    assertFalse(ac.matchesAll(buf, 0, buf.length, found));
+    assertEquals(1L << (499 & 63), found[499 / 64]);
+  }
+
+  @Test
+  public void testAgainstNaive() {
+    Random random = new Random(0);
+    for (int n = 0; n < 2000; n++) {
+      byte[] buf = new byte[random.nextInt(100)];
+      for (int i = 0; i < buf.length; i++) {
+        buf[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+      }
+      List<byte[]> patterns = new ArrayList<byte[]>();
+      int count = 1 + random.nextInt(5);
+      for (int p = 0; p < count; p++) {
+        byte[] pattern = new byte[1 + random.nextInt(4)];
+        for (int i = 0; i < pattern.length; i++) {
+          pattern[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        patterns.add(pattern);
+      }
+
+      for (boolean caseInsensitive : new boolean[] { false, true }) {
+        AhoCorasick ac = caseInsensitive ? AhoCorasick
+            .compileCaseInsensitive(patterns) : AhoCorasick.compile(patterns);
+        boolean any = false;
+        boolean all = true;
+        for (byte[] pattern : patterns) {
+          BytePattern bp = caseInsensitive ? BytePattern
+              .compileCaseInsensitive(pattern) : BytePattern.compile(pattern);
+          boolean found = bp.matches(buf, 0, buf.length);
+          any |= found;
+          all &= found;
+        }
+        assertEquals(any, ac.matchesAny(buf, 0, buf.length));
+        assertEquals(all,
+            ac.matchesAll(buf, 0, buf.length, ac.newMatchSet()));
+      }
+    }
+  }
+}
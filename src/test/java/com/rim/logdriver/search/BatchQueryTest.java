@@ -0,0 +1,114 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchQueryTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static boolean matches(BatchQuery query, String line) {
+    byte[] bytes = line.getBytes(UTF_8);
+    return query.matches(bytes, 0, bytes.length);
+  }
+
+  private static boolean mightMatch(BatchQuery query, String block) {
+    byte[] bytes = block.getBytes(UTF_8);
+    return query.mightMatch(bytes, 0, bytes.length);
+  }
+
+  private static BatchQuery parse(String line) {
+    return BatchQuery.parse(line, 0, 1000, false);
+  }
+
+  @Test
+  public void testParse() {
+    BatchQuery query = parse("timeouts\tany\t100\t-\ttimeout\trefused");
+    assertEquals("timeouts", query.getName());
+    assertEquals(BatchQuery.Type.ANY, query.getType());
+    assertEquals(100, query.getStart());
+    assertEquals(1000, query.getEnd());
+    assertEquals(Arrays.asList("timeout", "refused"), query.getTerms());
+    assertTrue(query.inRange(100));
+    assertTrue(query.inRange(999));
+    assertFalse(query.inRange(99));
+    assertFalse(query.inRange(1000));
+    assertTrue(query.secondInRange(0));
+    assertFalse(query.secondInRange(1));
+  }
+
+  @Test
+  public void testTypes() {
+    BatchQuery search = parse("a\tsearch\t-\t-\tERR=1");
+    assertTrue(matches(search, "got ERR=12"));
+    assertFalse(matches(search, "got err=12"));
+
+    BatchQuery any = parse("b\tany\t-\t-\tfoo\tbar");
+    assertTrue(matches(any, "xbarx"));
+    assertFalse(matches(any, "baz"));
+
+    BatchQuery all = parse("c\tall\t-\t-\tfoo\tbar");
+    assertTrue(matches(all, "bar then foo"));
+    assertFalse(matches(all, "only foo"));
+
+    BatchQuery grep = parse("d\tgrep\t-\t-\tstatus=5\\d\\d");
+    assertTrue(matches(grep, "request status=503 done"));
+    assertFalse(matches(grep, "request status=5xx done"));
+    assertTrue(mightMatch(grep, "request status=5xx done"));
+    assertFalse(mightMatch(grep, "request status=200 done"));
+  }
+
+  @Test
+  public void testCaseInsensitive() {
+    BatchQuery ascii = BatchQuery.parse("a\tall\t-\t-\tError\tuser", 0, 1,
+        true);
+    assertTrue(matches(ascii, "ERROR for USER"));
+
+    BatchQuery unicode = BatchQuery.parse("b\tsearch\t-\t-\t\u00e9t\u00e9",
+        0, 1, true);
+    assertTrue(matches(unicode, "\u00c9T\u00c9"));
+    assertFalse(matches(unicode, "ete"));
+
+    BatchQuery grep = BatchQuery.parse("c\tgrep\t-\t-\tfail(ed|ure)", 0, 1,
+        true);
+    assertTrue(matches(grep, "FAILURE"));
+  }
+
+  @Test
+  public void testParseAll() throws Exception {
+    List<BatchQuery> queries = BatchQuery.parseAll(
+        "# incident 42\n\na\tsearch\t-\t-\tfoo\nb\tgrep\t5\t6\tba+r\n", 0, 10,
+        false);
+    assertEquals(2, queries.size());
+    assertEquals("a", queries.get(0).getName());
+    assertEquals(5, queries.get(1).getStart());
+    assertEquals(6, queries.get(1).getEnd());
+  }
+
+  private static void checkInvalid(String queries) throws Exception {
+    try {
+      BatchQuery.parseAll(queries, 0, 1, false);
+      fail("Expected an error for " + queries);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInvalid() throws Exception {
+    checkInvalid("a\tsearch\t-\t-");
+    checkInvalid("a/b\tsearch\t-\t-\tfoo");
+    checkInvalid("a\tfind\t-\t-\tfoo");
+    checkInvalid("a\tsearch\tnow\t-\tfoo");
+    checkInvalid("a\tsearch\t-\t-\tfoo\tbar");
+    checkInvalid("a\tany\t-\t-\tfoo\t");
+    checkInvalid("a\tsearch\t-\t-\tfoo\na\tsearch\t-\t-\tbar");
+  }
+}
@@ -0,0 +1,126 @@
+package com.rim.logdriver.search;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * Compares {@link BytePattern} with the byte by byte scans that FastSearch used
+ * to do, over a buffer of synthetic log lines about the size of an inflated
+ * Boom block.
+ * <p>
+ * The pattern is not in the buffer, so every scan covers all of it.
+ * <p>
+ * Usage: BytePatternBenchmark [megabytes] [iterations]
+ */
+public class BytePatternBenchmark {
+
+  private static final String[] HOSTS = { "web01.example.com",
+      "web02.example.com", "db01.example.com", "cache03.example.com" };
+  private static final String[] MESSAGES = { "GET /index.html HTTP/1.1 200",
+      "POST /api/v2/orders HTTP/1.1 201", "Connection reset by peer",
+      "Slow query took 1532ms: SELECT * FROM accounts WHERE id = ?",
+      "User login succeeded for uid=48213", "Cache miss for key session:" };
+
+  private static byte[] logLines(int size, Random random)
+      throws UnsupportedEncodingException {
+    StringBuilder sb = new StringBuilder(size + 256);
+    while (sb.length() < size) {
+      sb.append("<13>1 2013-06-0").append(1 + random.nextInt(9))
+          .append("T12:").append(10 + random.nextInt(50)).append(":")
+          .append(10 + random.nextInt(50)).append(".")
+          .append(100 + random.nextInt(900)).append("Z ")
+          .append(HOSTS[random.nextInt(HOSTS.length)]).append(" app ")
+          .append(random.nextInt(65536)).append(" - - ")
+          .append(MESSAGES[random.nextInt(MESSAGES.length)])
+          .append(" request=").append(Long.toHexString(random.nextLong()))
+          .append("\n");
+    }
+    return sb.substring(0, size).getBytes("UTF-8");
+  }
+
+  private static int naive(byte[] buf, int length, byte[] pattern) {
+    BUFFER_INDEX: for (int i = 0; i < length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (buf[i + j] != pattern[j]) {
+          continue BUFFER_INDEX;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static int naiveCaseInsensitive(byte[] buf, int length,
+      byte[][] pattern) {
+    BUFFER_INDEX: for (int i = 0; i < length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (buf[i + j] != pattern[j][0] && buf[i + j] != pattern[j][1]) {
+          continue BUFFER_INDEX;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static void report(String name, int megabytes, long nanos) {
+    System.out.printf("  %-28s %8.1f ms %8.0f MB/s%n", name, nanos / 1e6,
+        megabytes * 1e9 / nanos);
+  }
+
+  public static void main(String[] args) throws UnsupportedEncodingException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    // One Boom block at a time, like the mappers see them.
+    int blockSize = 2 * 1024 * 1024;
+    int blocks = Math.max(1, megabytes / 2);
+    byte[] buf = logLines(blockSize, new Random(0));
+
+    String[] patterns = { "ERROR", "Connection timed out",
+        "request=0123456789abcdef-fedcba9876543210" };
+
+    for (int n = 0; n < iterations; n++) {
+      for (String p : patterns) {
+        byte[] pattern = p.getBytes("UTF-8");
+        byte[][] folded = new byte[pattern.length][2];
+        for (int j = 0; j < pattern.length; j++) {
+          folded[j][0] = (byte) Character.toLowerCase((char) pattern[j]);
+          folded[j][1] = (byte) Character.toUpperCase((char) pattern[j]);
+        }
+        BytePattern bmh = BytePattern.compile(pattern);
+        BytePattern bmhFolded = BytePattern.compileCaseInsensitive(pattern);
+
+        System.out.printf("%d MB, pattern \"%s\" (%d bytes)%n", blocks * 2, p,
+            pattern.length);
+        int found = 0;
+
+        long t0 = System.nanoTime();
+        for (int b = 0; b < blocks; b++) {
+          found += naive(buf, buf.length, pattern);
+        }
+        long t1 = System.nanoTime();
+        for (int b = 0; b < blocks; b++) {
+          found += bmh.indexOf(buf, 0, buf.length);
+        }
+        long t2 = System.nanoTime();
+        for (int b = 0; b < blocks; b++) {
+          found += naiveCaseInsensitive(buf, buf.length, folded);
+        }
+        long t3 = System.nanoTime();
+        for (int b = 0; b < blocks; b++) {
+          found += bmhFolded.indexOf(buf, 0, buf.length);
+        }
+        long t4 = System.nanoTime();
+
+        if (found != -4 * blocks) {
+          throw new IllegalStateException("Pattern unexpectedly found.");
+        }
+        report("naive", blocks * 2, t1 - t0);
+        report("BytePattern", blocks * 2, t2 - t1);
+        report("naive, case insensitive", blocks * 2, t3 - t2);
+        report("BytePattern, case insensitive", blocks * 2, t4 - t3);
+      }
+    }
+  }
+}
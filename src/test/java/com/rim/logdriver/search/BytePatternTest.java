@@ -0,0 +1,97 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BytePatternTest {
+
+  private static byte[] bytes(String s) throws UnsupportedEncodingException {
+    return s.getBytes("UTF-8");
+  }
+
+  private static int naiveIndexOf(byte[] buf, int offset, int length,
+      byte[] pattern, boolean caseInsensitive) {
+    BUFFER_INDEX: for (int i = offset; i <= offset + length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        byte a = buf[i + j];
+        byte b = pattern[j];
+        if (caseInsensitive) {
+          a = (byte) Character.toLowerCase((char) (a & 0xff));
+          b = (byte) Character.toLowerCase((char) (b & 0xff));
+          if ((buf[i + j] & 0x80) != 0 || (pattern[j] & 0x80) != 0) {
+            a = buf[i + j];
+            b = pattern[j];
+          }
+        }
+        if (a != b) {
+          continue BUFFER_INDEX;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  @Test
+  public void testIndexOf() throws UnsupportedEncodingException {
+    byte[] buf = bytes("GET /index.html request=8f2c1e7a-55b3 status=200");
+    BytePattern p = BytePattern.compile(bytes("request=8f2c1e7a"));
+    assertEquals(16, p.indexOf(buf, 0, buf.length));
+    assertEquals(16, p.indexOf(buf, 16, 16));
+    assertEquals(-1, p.indexOf(buf, 16, 15));
+    assertEquals(-1, p.indexOf(buf, 17, buf.length - 17));
+    assertEquals(-1, BytePattern.compile(bytes("REQUEST")).indexOf(buf, 0,
+        buf.length));
+    assertEquals(buf.length - 3, BytePattern.compile(bytes("200")).indexOf(
+        buf, 0, buf.length));
+    assertEquals(5, BytePattern.compile(new byte[0]).indexOf(buf, 5, 10));
+    assertEquals(-1, BytePattern.compile(bytes("x")).indexOf(buf, 0, 0));
+  }
+
+  @Test
+  public void testCaseInsensitive() throws UnsupportedEncodingException {
+    byte[] buf = bytes("Connection RESET by peer [Zz@]");
+    assertEquals(11, BytePattern.compileCaseInsensitive(bytes("reset by"))
+        .indexOf(buf, 0, buf.length));
+    assertEquals(11, BytePattern.compileCaseInsensitive(bytes("ReSeT BY"))
+        .indexOf(buf, 0, buf.length));
+    // Only letters are folded; '[' and '{' differ by the same amount as 'A'
+    // and 'a', but aren't the same character.
+    assertEquals(-1, BytePattern.compileCaseInsensitive(bytes("{zz`]"))
+        .indexOf(buf, 0, buf.length));
+    assertEquals(25, BytePattern.compileCaseInsensitive(bytes("[zz@]"))
+        .indexOf(buf, 0, buf.length));
+  }
+
+  // A small alphabet, so there are plenty of partial matches. 0xC3 is a byte
+  // that is never folded.
+  private static final byte[] ALPHABET = new byte[] { 'a', 'A', 'b', 'B', 'c',
+      (byte) 0xC3 };
+
+  @Test
+  public void testAgainstNaive() {
+    Random random = new Random(0);
+    for (int n = 0; n < 2000; n++) {
+      byte[] buf = new byte[random.nextInt(200)];
+      for (int i = 0; i < buf.length; i++) {
+        buf[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+      }
+      byte[] pattern = new byte[1 + random.nextInt(6)];
+      for (int i = 0; i < pattern.length; i++) {
+        pattern[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+      }
+      int offset = buf.length == 0 ? 0 : random.nextInt(buf.length);
+      int length = buf.length - offset;
+
+      assertEquals(naiveIndexOf(buf, offset, length, pattern, false),
+          BytePattern.compile(pattern).indexOf(buf, offset, length));
+      assertEquals(naiveIndexOf(buf, offset, length, pattern, true),
+          BytePattern.compileCaseInsensitive(pattern).indexOf(buf, offset,
+              length));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CaseFoldedPatternTest {
+
+  private static int indexOf(String pattern, String text)
+      throws UnsupportedEncodingException {
+    byte[] buf = text.getBytes("UTF-8");
+    return CaseFoldedPattern.compile(pattern).indexOf(buf, 0, buf.length);
+  }
+
+  @Test
+  public void testIndexOf() throws UnsupportedEncodingException {
+    assertEquals(4, indexOf("caf\u00e9", "the CAF\u00c9 is open"));
+    assertEquals(4, indexOf("CAF\u00c9", "the caf\u00e9 is open"));
+    assertEquals(-1, indexOf("caf\u00e9", "the cafe is open"));
+    assertEquals(0, indexOf("\u0416\u0443\u043a", "\u0436\u0423\u041a"));
+    assertEquals(0, indexOf("", "xyz"));
+  }
+
+  @Test
+  public void testDifferentLengths() throws UnsupportedEncodingException {
+    // The Kelvin sign is three bytes, and folds to 'k'.
+    assertEquals(2, indexOf("ok", "x o\u212a"));
+    assertEquals(0, indexOf("\u212a", "k"));
+    assertEquals(2, indexOf("tokio", "\u00e9TO\u212aIO"));
+  }
+
+  @Test
+  public void testNeedsUnicodeFolding() {
+    assertFalse(CaseFoldedPattern.needsUnicodeFolding("Device-42"));
+    // Searches for these fold ASCII only, so don't match the Kelvin sign.
+    assertFalse(CaseFoldedPattern.needsUnicodeFolding("ok"));
+    assertTrue(CaseFoldedPattern.needsUnicodeFolding("\u212a"));
+    assertTrue(CaseFoldedPattern.needsUnicodeFolding("caf\u00e9"));
+    // The dotless i is two bytes, though its upper case is 'I'.
+    assertTrue(CaseFoldedPattern.needsUnicodeFolding("\u0131"));
+  }
+
+  @Test
+  public void testAgainstRegionMatches() throws UnsupportedEncodingException {
+    String alphabet = "aAbB\u00e9\u00c9\u0436\u0416\u212akK";
+    Random random = new Random(0);
+    for (int n = 0; n < 2000; n++) {
+      StringBuilder text = new StringBuilder();
+      for (int i = random.nextInt(30); i > 0; i--) {
+        text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      StringBuilder pattern = new StringBuilder();
+      for (int i = 1 + random.nextInt(3); i > 0; i--) {
+        pattern.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+
+      boolean expected = false;
+      String t = text.toString();
+      String p = pattern.toString();
+      for (int i = 0; i + p.length() <= t.length() && !expected; i++) {
+        expected = t.regionMatches(true, i, p, 0, p.length());
+      }
+      byte[] buf = t.getBytes("UTF-8");
+      assertEquals(t.toLowerCase(Locale.ROOT) + " " + p, expected,
+          CaseFoldedPattern.compile(p).matches(buf, 0, buf.length));
+    }
+  }
+}
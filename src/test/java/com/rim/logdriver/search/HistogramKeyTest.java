@@ -0,0 +1,68 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HistogramKeyTest {
+  private static final HistogramKey.Comparator COMPARATOR = new HistogramKey.Comparator();
+
+  private static byte[] serialize(HistogramKey key) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    key.write(out);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static int rawCompare(HistogramKey a, HistogramKey b)
+      throws IOException {
+    // Put them at different offsets, to make sure those are honoured.
+    byte[] bytesA = serialize(a);
+    byte[] bytesB = serialize(b);
+    byte[] bufA = new byte[bytesA.length + 3];
+    byte[] bufB = new byte[bytesB.length + 7];
+    System.arraycopy(bytesA, 0, bufA, 3, bytesA.length);
+    System.arraycopy(bytesB, 0, bufB, 7, bytesB.length);
+    return COMPARATOR.compare(bufA, 3, bytesA.length, bufB, 7, bytesB.length);
+  }
+
+  private static void assertSameOrder(HistogramKey a, HistogramKey b)
+      throws IOException {
+    int expected = Integer.signum(a.compareTo(b));
+    assertEquals(a + " vs " + b, expected, Integer.signum(rawCompare(a, b)));
+    assertEquals(b + " vs " + a, -expected, Integer.signum(rawCompare(b, a)));
+  }
+
+  @Test
+  public void testFieldOrder() throws IOException {
+    HistogramKey base = new HistogramKey(60000, 10);
+    assertEquals(0, rawCompare(base, new HistogramKey(60000, 10)));
+    assertTrue(rawCompare(base, new HistogramKey(120000, 0)) < 0);
+    assertTrue(rawCompare(base, new HistogramKey(60000, 11)) < 0);
+    assertTrue(rawCompare(base, new HistogramKey(0, 20)) > 0);
+  }
+
+  @Test
+  public void testNegatives() throws IOException {
+    // Buckets before 1970 are negative, and subtracting the extremes overflows.
+    long[] buckets = { Long.MIN_VALUE, -120000, -60000, -1, 0, 1, 60000,
+        Long.MAX_VALUE };
+    int[] eventIds = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    for (long x : buckets) {
+      for (long y : buckets) {
+        assertSameOrder(new HistogramKey(x, 0), new HistogramKey(y, 0));
+      }
+    }
+    for (int x : eventIds) {
+      for (int y : eventIds) {
+        assertSameOrder(new HistogramKey(-60000, x), new HistogramKey(-60000, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class MatchHistogramTest {
+
+  private static class Collected implements MatchHistogram.Output {
+    private final Map<HistogramKey, Long> counts = new HashMap<HistogramKey, Long>();
+    private int writes = 0;
+
+    @Override
+    public void write(HistogramKey key, LongWritable count) {
+      // Keys can be written more than once; add them up like the combiner.
+      HistogramKey copy = new HistogramKey(key.getBucket(), key.getEventId());
+      Long old = counts.get(copy);
+      counts.put(copy, (old == null ? 0 : old) + count.get());
+      writes++;
+    }
+
+    private long get(long bucket, int eventId) {
+      Long count = counts.get(new HistogramKey(bucket, eventId));
+      return count == null ? 0 : count;
+    }
+  }
+
+  @Test
+  public void testBucketOf() {
+    MatchHistogram histogram = new MatchHistogram(60000, false, 10);
+    assertEquals(0, histogram.bucketOf(0));
+    assertEquals(0, histogram.bucketOf(59999));
+    assertEquals(60000, histogram.bucketOf(60000));
+    assertEquals(60000, histogram.bucketOf(119999));
+    // Before 1970, buckets still start on a multiple of the bucket size.
+    assertEquals(-60000, histogram.bucketOf(-1));
+    assertEquals(-60000, histogram.bucketOf(-60000));
+    assertEquals(-120000, histogram.bucketOf(-60001));
+  }
+
+  @Test
+  public void testByEventId() throws Exception {
+    Collected out = new Collected();
+    MatchHistogram histogram = new MatchHistogram(1000, true, 10);
+    histogram.add(100, 1, out);
+    histogram.add(200, 1, out);
+    histogram.add(300, 2, out);
+    histogram.add(1500, 1, out);
+    histogram.flush(out);
+    assertEquals(2, out.get(0, 1));
+    assertEquals(1, out.get(0, 2));
+    assertEquals(1, out.get(1000, 1));
+
+    out = new Collected();
+    histogram = new MatchHistogram(1000, false, 10);
+    histogram.add(100, 1, out);
+    histogram.add(300, 2, out);
+    histogram.flush(out);
+    assertEquals(2, out.get(0, 0));
+  }
+
+  @Test
+  public void testFlushWhenFull() throws Exception {
+    Collected out = new Collected();
+    MatchHistogram histogram = new MatchHistogram(1000, false, 2);
+    histogram.add(0, 0, out);
+    histogram.add(1000, 0, out);
+    // Both fit, and more matches in a bucket that's held don't need room.
+    histogram.add(1001, 0, out);
+    assertEquals(0, out.writes);
+    assertEquals(2, histogram.size());
+
+    // A third bucket writes out the first two.
+    histogram.add(2000, 0, out);
+    assertEquals(2, out.writes);
+    assertEquals(1, histogram.size());
+    assertEquals(1, out.get(0, 0));
+    assertEquals(2, out.get(1000, 0));
+
+    // The same bucket again is counted afresh, and added up downstream.
+    histogram.add(0, 0, out);
+    histogram.flush(out);
+    assertEquals(0, histogram.size());
+    assertEquals(4, out.writes);
+    assertEquals(2, out.get(0, 0));
+    assertEquals(2, out.get(1000, 0));
+    assertEquals(1, out.get(2000, 0));
+  }
+}
@@ -0,0 +1,63 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RegexLiteralsTest {
+
+  private static void check(String regex, String... expected) {
+    List<String> literals = RegexLiterals.requiredLiterals(regex);
+    assertEquals(regex, Arrays.asList(expected), literals);
+  }
+
+  @Test
+  public void testLiterals() {
+    check("foo.*bar", "foo", "bar");
+    check(".*ERR=12.*", "ERR=12");
+    check("request=[0-9a-f]+ status=500", "request=", " status=500");
+    check("abc?d", "ab", "d");
+    check("ab+c", "ab", "c");
+    check("ab{0,3}c", "a", "c");
+    check("ab{2}c", "ab", "c");
+    check("a\\.b\\d+c", "a.b", "c");
+    check("\\Qa.b*\\E?x", "a.b", "x");
+    check("x(abc)y", "x", "abc", "y");
+    check("x(?:abc)?y", "x", "y");
+    check("x(?<name>abc)y", "x", "abc", "y");
+    check("x(?=abc)y", "x", "y");
+    check("user\\p{Alpha}+id\\x41z", "user", "id", "z");
+    check("^error: (timeout|refused)$", "error: ");
+    check("[]a]foo[^\\]b]bar", "foo", "bar");
+  }
+
+  @Test
+  public void testNoLiterals() {
+    check("");
+    check("foo|bar");
+    check("(?i)foo");
+    check("a(?i:b)c");
+    check("[a-z]+\\d*");
+    check("(unclosed");
+    check("*oops");
+  }
+
+  @Test
+  public void testCompiles() {
+    // Everything we claim is required really is in what the regex matches.
+    String[][] cases = { { "foo.*bar", "xxfooyybarzz" },
+        { "ab{2}c", "abbc" }, { "a\\.b\\d+c", "a.b42c" },
+        { "x(?:abc)?y", "xy" } };
+    for (String[] c : cases) {
+      for (String literal : RegexLiterals.requiredLiterals(c[0])) {
+        assertEquals(c[0] + " " + literal, true, c[1].contains(literal));
+      }
+    }
+    assertEquals(Collections.emptyList(),
+        RegexLiterals.requiredLiterals("a|b"));
+  }
+}
@@ -0,0 +1,32 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class ResultStreamerTest {
+
+  private static ResultStreamer streamer(String dateFormat) throws Exception {
+    Configuration conf = new Configuration();
+    if (dateFormat != null) {
+      conf.set(ResultStreamer.DATE_FORMAT, dateFormat);
+    }
+    return new ResultStreamer(conf, new Path("/tmp/out"), '\t',
+        new ByteArrayOutputStream());
+  }
+
+  @Test
+  public void testFormat() throws Exception {
+    String line = "1234\tconnection\treset\tevent\t5\t6\t7";
+    assertEquals(line, streamer(null).format(line));
+
+    // The message keeps any separators in it.
+    ResultStreamer streamer = streamer("SSS");
+    assertEquals("234 connection\treset", streamer.format(line));
+    assertEquals("not a result", streamer.format("not a result"));
+  }
+}
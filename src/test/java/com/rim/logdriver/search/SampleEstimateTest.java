@@ -0,0 +1,21 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SampleEstimateTest {
+
+  @Test
+  public void testEstimate() {
+    // 4 units with 1, 2, 3 and 4 matches, sampled at 10%.
+    SampleEstimate estimate = new SampleEstimate(0.1, 4, 10, 30);
+    assertEquals(100, estimate.getEstimate(), 1e-9);
+    assertEquals(1.96 * Math.sqrt(0.9 * 30) / 0.1, estimate.getMargin(), 1e-9);
+
+    // Reading everything leaves no doubt.
+    assertEquals(0, new SampleEstimate(1, 4, 10, 30).getMargin(), 1e-9);
+
+    assertEquals(333, SampleEstimate.scale(10, 0.03));
+  }
+}
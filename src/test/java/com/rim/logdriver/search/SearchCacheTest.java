@@ -0,0 +1,72 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class SearchCacheTest {
+
+  private static FileStatus file(String path, long length, long mtime) {
+    return new FileStatus(length, false, 3, 128 * 1024 * 1024, mtime,
+        new Path(path));
+  }
+
+  @Test
+  public void testKey() {
+    List<FileStatus> files = Arrays.asList(file("/logs/a.bm", 100, 1),
+        file("/logs/b.bm", 200, 2));
+    String key = SearchCache.getKey("q", 0, 10, files);
+    assertEquals(32, key.length());
+
+    // The order the files are listed in doesn't matter.
+    assertEquals(key, SearchCache.getKey("q", 0, 10,
+        Arrays.asList(files.get(1), files.get(0))));
+
+    // Anything else does.
+    assertFalse(key.equals(SearchCache.getKey("r", 0, 10, files)));
+    assertFalse(key.equals(SearchCache.getKey("q", 0, 11, files)));
+    assertFalse(key.equals(SearchCache.getKey("q", 0, 10,
+        Arrays.asList(file("/logs/a.bm", 100, 1), file("/logs/b.bm", 200, 3)))));
+    assertFalse(key.equals(SearchCache.getKey("q", 0, 10,
+        Arrays.asList(file("/logs/a.bm", 100, 1), file("/logs/b.bm", 201, 2)))));
+    assertFalse(key.equals(SearchCache.getKey("q", 0, 10,
+        Arrays.asList(files.get(0)))));
+  }
+
+  @Test
+  public void testNormalize() {
+    assertEquals("Error", SearchCache.normalize("Error", false));
+    assertEquals(SearchCache.normalize("ERROR \u00c9T\u00c9", true),
+        SearchCache.normalize("error \u00e9t\u00e9", true));
+    assertEquals("error", SearchCache.normalize("ERROR", true));
+
+    // An ASCII search doesn't find the Kelvin sign or the long s, but a
+    // search for them finds "k" and "s".
+    assertFalse(SearchCache.normalize("k", true).equals(
+        SearchCache.normalize("\u212a", true))
+        && SearchCache.getFolding("k", true).equals(
+            SearchCache.getFolding("\u212a", true)));
+    assertFalse(SearchCache.normalize("s", true).equals(
+        SearchCache.normalize("\u017f", true))
+        && SearchCache.getFolding("s", true).equals(
+            SearchCache.getFolding("\u017f", true)));
+    assertEquals("none", SearchCache.getFolding("\u212a", false));
+  }
+
+  @Test
+  public void testHours() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(SearchCache.TIME_ZONE, "UTC");
+    assertEquals(1356998400000L, SearchCache.getHourStart(conf, "2013010100"));
+    assertEquals(1357002000000L, SearchCache.getHourEnd(conf, "2013010100"));
+    assertEquals("2013010100",
+        SearchCache.getSliceFormat(conf).format(1357001999999L));
+  }
+}
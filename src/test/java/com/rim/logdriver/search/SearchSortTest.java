@@ -0,0 +1,53 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SearchSortTest {
+  private static List<long[]> segments(long[]... segments) {
+    return new ArrayList<long[]>(Arrays.asList(segments));
+  }
+
+  @Test
+  public void testEvenSegment() {
+    long[] points = SearchSort.getSplitPoints(
+        segments(new long[] { 0, 1000, 100 }), 4);
+    assertEquals("[250, 500, 750]", Arrays.toString(points));
+  }
+
+  @Test
+  public void testOverlappingSegments() {
+    // Twice the bytes from 500 on, so the later splits are closer together.
+    long[] points = SearchSort.getSplitPoints(
+        segments(new long[] { 0, 1000, 100 }, new long[] { 500, 1000, 100 }), 4);
+    assertEquals("[500, 667, 834]", Arrays.toString(points));
+  }
+
+  @Test
+  public void testGap() {
+    long[] points = SearchSort.getSplitPoints(
+        segments(new long[] { 0, 1000, 100 }, new long[] { 5000, 6000, 100 }),
+        4);
+    assertEquals("[500, 1000, 5500]", Arrays.toString(points));
+  }
+
+  @Test
+  public void testNoDuplicates() {
+    // Everything is in one ms, so there's nothing to split.
+    long[] points = SearchSort.getSplitPoints(
+        segments(new long[] { 0, 1, 100 }), 4);
+    assertEquals("[1]", Arrays.toString(points));
+  }
+
+  @Test
+  public void testOnePartition() {
+    assertEquals(0, SearchSort.getSplitPoints(
+        segments(new long[] { 0, 1000, 100 }), 1).length);
+    assertEquals(0, SearchSort.getSplitPoints(segments(), 4).length);
+  }
+}
@@ -0,0 +1,67 @@
+package com.rim.logdriver.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rim.logdriver.boom.LogLineData;
+
+public class SortedLinesTest {
+
+  private static class Collected implements SortedLines.Output {
+    private final List<String> lines = new ArrayList<String>();
+
+    @Override
+    public void write(LogLineData key, String line) {
+      lines.add(line);
+    }
+  }
+
+  private static void add(SortedLines lines, long timestamp, String line)
+      throws Exception {
+    lines.add(new LogLineData(timestamp, 0, 0, 0, 0), line);
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    // Small enough that every line is written to disk.
+    SortedLines lines = new SortedLines(1);
+    try {
+      add(lines, 3, "c");
+      add(lines, 1, "a\u00e9");
+      add(lines, 2, "b");
+      Collected out = new Collected();
+      lines.writeTo(out);
+      assertEquals(Arrays.asList("a\u00e9", "b", "c"), out.lines);
+    } finally {
+      lines.close();
+    }
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    SortedLines first = new SortedLines(1000);
+    SortedLines second = new SortedLines(1000);
+    try {
+      add(first, 5, "first 5");
+      add(first, 1, "first 1");
+      first.spill();
+      add(first, 3, "first 3");
+      add(second, 4, "second 4");
+      add(second, 1, "second 1");
+      add(second, 6, "second 6");
+
+      Collected out = new Collected();
+      SortedLines.merge(Arrays.asList(first, second), out);
+      assertEquals(Arrays.asList("first 1", "second 1", "first 3",
+          "second 4", "first 5", "second 6"), out.lines);
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+}